@@ -121,6 +121,7 @@ public class AndroidBinaryGraphEnhancerFactory {
             .setDexReorderDataDumpFile(args.getDexReorderDataDumpFile())
             .setDxExecutorService(dxExecutorService)
             .setDxMaxHeapSize(dxConfig.getDxMaxHeapSize())
+            .setDexInProcess(dxConfig.shouldDexInProcess())
             .setOptimizationPasses(args.getOptimizationPasses())
             .setProguardJvmArgs(args.getProguardJvmArgs())
             .setSkipProguard(args.isSkipProguard())
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.android.tools.r8.ArchiveClassFileProvider;
+import com.android.tools.r8.ClassFileResourceProvider;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Library class providers shared by all in-process D8 invocations of the daemon.
+ *
+ * <p>Every D8 invocation dexes against android.jar. Passing it as a library file makes D8 open the
+ * jar and read its class descriptors again for every dex shard, so instead each invocation is
+ * handed a provider that stays open across invocations. A provider is reused as long as its jar
+ * still has the size and modification time it had when it was opened.
+ */
+final class D8LibraryCache {
+
+  static final D8LibraryCache INSTANCE = new D8LibraryCache();
+
+  private final ConcurrentMap<Path, Library> libraries = new ConcurrentHashMap<>();
+
+  /** @return a provider for the classes of the jar at the absolute path {@code jar}. */
+  ClassFileResourceProvider getProvider(Path jar) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+    try {
+      // Invocations racing for the same jar wait for a single provider to be opened, rather than
+      // each opening one which all but the last would then leak.
+      return libraries.compute(
+              jar,
+              (key, library) -> {
+                if (library != null && library.matches(attributes)) {
+                  return library;
+                }
+                // A replaced provider may still be in use by a running invocation, so it is left
+                // for its finalizer to close.
+                try {
+                  return new Library(new ArchiveClassFileProvider(jar), attributes);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              })
+          .provider;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static class Library {
+    private final ArchiveClassFileProvider provider;
+    private final long size;
+    private final long lastModifiedNanos;
+
+    private Library(ArchiveClassFileProvider provider, BasicFileAttributes attributes) {
+      this.provider = provider;
+      this.size = attributes.size();
+      this.lastModifiedNanos = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return size == attributes.size()
+          && lastModifiedNanos == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+  }
+}
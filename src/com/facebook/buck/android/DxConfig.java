@@ -46,4 +46,13 @@ public class DxConfig {
   public OptionalInt getDxMaxThreadCount() {
     return delegate.getInteger("dx", "max_threads");
   }
+
+  /**
+   * @return Whether the dex shards of apks which aren't pre-dexed are dexed by the buck process
+   *     itself, which keeps the dexer warm across shards and builds, instead of by a new dx
+   *     process for each shard.
+   */
+  public boolean shouldDexInProcess() {
+    return delegate.getBooleanValue("dx", "in_process", false);
+  }
 }
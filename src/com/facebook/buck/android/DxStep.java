@@ -332,7 +332,9 @@ public class DxStep extends ShellStep {
             D8Command.builder(diagnosticsHandler)
                 .addProgramFiles(inputs)
                 .setIntermediate(intermediate)
-                .addLibraryFiles(androidPlatformTarget.getAndroidJar())
+                .addLibraryResourceProvider(
+                    D8LibraryCache.INSTANCE.getProvider(
+                        androidPlatformTarget.getAndroidJar().toAbsolutePath()))
                 .setMode(
                     options.contains(Option.NO_OPTIMIZE)
                         ? CompilationMode.DEBUG
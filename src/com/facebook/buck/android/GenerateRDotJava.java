@@ -31,7 +31,7 @@ import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.facebook.buck.step.fs.MkdirStep;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -115,8 +115,10 @@ public class GenerateRDotJava extends AbstractBuildRule {
     // Merge R.txt of HasAndroidRes and generate the resulting R.java files per package.
     Path rDotJavaSrc = getPathToGeneratedRDotJavaSrcFiles();
 
-    steps.addAll(
-        MakeCleanDirectoryStep.of(
+    // The merge step only rewrites the R.java files of packages whose ids changed since the last
+    // build, and deletes any others, so the directory is not cleaned beforehand.
+    steps.add(
+        MkdirStep.of(
             BuildCellRelativePath.fromCellRelativePath(
                 buildContext.getBuildCellRootPath(), getProjectFilesystem(), rDotJavaSrc)));
 
@@ -136,7 +138,10 @@ public class GenerateRDotJava extends AbstractBuildRule {
                 .stream()
                 .map(p -> pathResolver.getAbsolutePath(p))
                 .collect(ImmutableList.toImmutableList()),
-            resourceUnionPackage);
+            resourceUnionPackage,
+            Optional.of(
+                BuildTargetPaths.getScratchPath(
+                    getProjectFilesystem(), getBuildTarget(), "__%s_rdotjava_digests__")));
     steps.add(mergeStep);
 
     // Ensure the generated R.txt and R.java files are also recorded.
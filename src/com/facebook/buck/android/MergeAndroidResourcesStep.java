@@ -26,16 +26,19 @@ import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ExecutorPool;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.util.ThrowingPrintWriter;
+import com.facebook.buck.util.function.ThrowingFunction;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -46,7 +49,14 @@ import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -63,6 +73,8 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 public class MergeAndroidResourcesStep implements Step {
@@ -81,12 +93,18 @@ public class MergeAndroidResourcesStep implements Step {
   private final boolean useOldStyleableFormat;
   private final ImmutableList<Path> overrideSymbolsPath;
   private final boolean skipNonUnionRDotJava;
+  private final Optional<Path> packageDigestsPath;
 
   /**
    * Merges text symbols files from {@code aapt} for each of the input {@code android_resource} into
    * a set of resources per R.java package and writes an {@code R.java} file per package under the
    * output directory. Also, if {@code uberRDotTxt} is present, the IDs in the output {@code R.java}
    * file will be taken from the {@code R.txt} file.
+   *
+   * <p>If {@code packageDigestsPath} is present, the output directory is updated incrementally: a
+   * digest of the merged ids of each package is kept in that file, and only the {@code R.java}
+   * files of packages whose ids changed are rewritten. Any other file in the output directory is
+   * deleted, so it must not be shared with other steps.
    */
   @VisibleForTesting
   MergeAndroidResourcesStep(
@@ -102,7 +120,8 @@ public class MergeAndroidResourcesStep implements Step {
       Optional<String> unionPackage,
       Optional<String> rName,
       boolean useOldStyleableFormat,
-      boolean skipNonUnionRDotJava) {
+      boolean skipNonUnionRDotJava,
+      Optional<Path> packageDigestsPath) {
     this.filesystem = filesystem;
     this.pathResolver = pathResolver;
     this.androidResourceDeps = ImmutableList.copyOf(androidResourceDeps);
@@ -116,6 +135,7 @@ public class MergeAndroidResourcesStep implements Step {
     this.rName = rName.orElse("R");
     this.useOldStyleableFormat = useOldStyleableFormat;
     this.skipNonUnionRDotJava = skipNonUnionRDotJava;
+    this.packageDigestsPath = packageDigestsPath;
   }
 
   public static MergeAndroidResourcesStep createStepForDummyRDotJava(
@@ -141,7 +161,8 @@ public class MergeAndroidResourcesStep implements Step {
         unionPackage,
         rName,
         useOldStyleableFormat,
-        skipNonUnionRDotJava);
+        skipNonUnionRDotJava,
+        /* packageDigestsPath */ Optional.empty());
   }
 
   public static MergeAndroidResourcesStep createStepForUberRDotJava(
@@ -153,7 +174,8 @@ public class MergeAndroidResourcesStep implements Step {
       EnumSet<RType> bannedDuplicateResourceTypes,
       Optional<Path> duplicateResourceWhitelistPath,
       ImmutableList<Path> overrideSymbolsPath,
-      Optional<String> unionPackage) {
+      Optional<String> unionPackage,
+      Optional<Path> packageDigestsPath) {
     return new MergeAndroidResourcesStep(
         filesystem,
         pathResolver,
@@ -167,7 +189,8 @@ public class MergeAndroidResourcesStep implements Step {
         unionPackage,
         /* rName */ Optional.empty(),
         /* useOldStyleableFormat */ false,
-        /* skipNonUnionRDotJava */ false);
+        /* skipNonUnionRDotJava */ false,
+        packageDigestsPath);
   }
 
   public ImmutableSortedSet<Path> getRDotJavaFiles() {
@@ -186,7 +209,12 @@ public class MergeAndroidResourcesStep implements Step {
   }
 
   @Override
-  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    // Files are read and written in parallel on the build's pool for CPU intensive work, rather
+    // than on the JVM-wide common pool.
+    ListeningExecutorService executor =
+        Objects.requireNonNull(context.getExecutors().get(ExecutorPool.CPU));
     try {
       // In order to convert a symbols file to R.java, all resources of the same type are grouped
       // into a static class of that name. The static class contains static values that correspond
@@ -216,14 +244,9 @@ public class MergeAndroidResourcesStep implements Step {
       } else {
         // re-assign Ids
         ImmutableSet.Builder<RDotTxtEntry> uberRdotTxtEntries = ImmutableSet.builder();
-        uberRDotTxt.forEach(
-            rDot -> {
-              try {
-                RDotTxtEntry.readResources(filesystem, rDot).forEach(uberRdotTxtEntries::add);
-              } catch (IOException e) {
-                throw new RuntimeException(e);
-              }
-            });
+        mapInParallel(
+                executor, uberRDotTxt, rDot -> RDotTxtEntry.readResources(filesystem, rDot))
+            .forEach(uberRdotTxtEntries::addAll);
         uberRDotTxtIds =
             Optional.of(
                 uberRdotTxtEntries
@@ -250,7 +273,8 @@ public class MergeAndroidResourcesStep implements Step {
               bannedDuplicateResourceTypes,
               duplicateResourceWhitelist,
               filesystem,
-              useOldStyleableFormat);
+              useOldStyleableFormat,
+              executor);
 
       ImmutableSet.Builder<String> requiredPackages = ImmutableSet.builder();
 
@@ -284,12 +308,21 @@ public class MergeAndroidResourcesStep implements Step {
         }
       }
 
-      writePerPackageRDotJava(rDotJavaPackageToResources, filesystem);
       Set<String> emptyPackages =
           Sets.difference(requiredPackages.build(), rDotJavaPackageToResources.keySet());
 
-      if (!emptyPackages.isEmpty()) {
-        writeEmptyRDotJavaForPackages(emptyPackages, filesystem);
+      if (packageDigestsPath.isPresent()) {
+        writeChangedRDotJava(
+            rDotJavaPackageToResources,
+            emptyPackages,
+            packageDigestsPath.get(),
+            filesystem,
+            executor);
+      } else {
+        writePerPackageRDotJava(rDotJavaPackageToResources, filesystem, executor);
+        if (!emptyPackages.isEmpty()) {
+          writeEmptyRDotJavaForPackages(emptyPackages, filesystem);
+        }
       }
       return StepExecutionResults.SUCCESS;
     } catch (DuplicateResourceException e) {
@@ -297,6 +330,34 @@ public class MergeAndroidResourcesStep implements Step {
     }
   }
 
+  /**
+   * Applies {@code function} to each of {@code items} on {@code executor}, and returns the results
+   * in the order of the items.
+   */
+  private static <T, R> List<R> mapInParallel(
+      ListeningExecutorService executor,
+      Collection<T> items,
+      ThrowingFunction<T, R, IOException> function)
+      throws IOException, InterruptedException {
+    List<ListenableFuture<R>> futures = new ArrayList<>(items.size());
+    for (T item : items) {
+      futures.add(executor.submit(() -> function.apply(item)));
+    }
+    try {
+      return Futures.allAsList(futures).get();
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    } finally {
+      // The executor is shared with the rest of the build, so the tasks which are left after a
+      // failure are cancelled rather than left running.
+      for (ListenableFuture<R> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
   private Optional<SetMultimap<String, RDotTxtEntry>> loadOverrideSymbols(Iterable<Path> paths)
       throws IOException {
     ImmutableSetMultimap.Builder<String, RDotTxtEntry> symbolsBuilder =
@@ -321,81 +382,205 @@ public class MergeAndroidResourcesStep implements Step {
   private void writeEmptyRDotJavaForPackages(
       Set<String> rDotJavaPackages, ProjectFilesystem filesystem) throws IOException {
     for (String rDotJavaPackage : rDotJavaPackages) {
-      Path outputFile = getPathToRDotJava(rDotJavaPackage);
-      filesystem.mkdirs(outputFile.getParent());
-      filesystem.writeContentsToPath(
-          String.format("package %s;\n\npublic class %s {}\n", rDotJavaPackage, rName), outputFile);
+      writeEmptyRDotJava(rDotJavaPackage, filesystem);
     }
   }
 
+  private void writeEmptyRDotJava(String rDotJavaPackage, ProjectFilesystem filesystem)
+      throws IOException {
+    Path outputFile = getPathToRDotJava(rDotJavaPackage);
+    filesystem.mkdirs(outputFile.getParent());
+    filesystem.writeContentsToPath(
+        String.format("package %s;\n\npublic class %s {}\n", rDotJavaPackage, rName), outputFile);
+  }
+
   @VisibleForTesting
   void writePerPackageRDotJava(
-      SortedSetMultimap<String, RDotTxtEntry> packageToResources, ProjectFilesystem filesystem)
-      throws IOException {
-    for (String rDotJavaPackage : packageToResources.keySet()) {
-      Path outputFile = getPathToRDotJava(rDotJavaPackage);
-      filesystem.mkdirs(outputFile.getParent());
-      try (ThrowingPrintWriter writer =
-          new ThrowingPrintWriter(filesystem.newFileOutputStream(outputFile))) {
-        writer.format("package %s;\n\n", rDotJavaPackage);
-        writer.format("public class %s {\n", rName);
-
-        ImmutableList.Builder<String> customDrawablesBuilder = ImmutableList.builder();
-        ImmutableList.Builder<String> grayscaleImagesBuilder = ImmutableList.builder();
-        RType lastType = null;
-
-        for (RDotTxtEntry res : packageToResources.get(rDotJavaPackage)) {
-          RType type = res.type;
-          if (!type.equals(lastType)) {
-            // If the previous type needs to be closed, close it.
-            if (lastType != null) {
-              writer.println("  }\n");
-            }
+      SortedSetMultimap<String, RDotTxtEntry> packageToResources,
+      ProjectFilesystem filesystem,
+      ListeningExecutorService executor)
+      throws IOException, InterruptedException {
+    // The files are independent of each other, so they are written in parallel.
+    mapInParallel(
+        executor,
+        packageToResources.asMap().entrySet(),
+        entry -> {
+          writeRDotJava(entry.getKey(), entry.getValue(), filesystem);
+          return null;
+        });
+  }
 
-            // Now start the block for the new type.
-            writer.format("  public static class %s {\n", type);
-            lastType = type;
+  /**
+   * Writes the R.java files of the packages whose merged ids differ from those recorded in {@code
+   * digestsPath} by the previous run, and deletes any other file left in the output directory.
+   */
+  private void writeChangedRDotJava(
+      SortedSetMultimap<String, RDotTxtEntry> packageToResources,
+      Set<String> emptyPackages,
+      Path digestsPath,
+      ProjectFilesystem filesystem,
+      ListeningExecutorService executor)
+      throws IOException, InterruptedException {
+    ImmutableMap<String, String> previousDigests = readPackageDigests(digestsPath, filesystem);
+    // The recorded digests no longer describe the output directory once it starts to change.
+    filesystem.deleteFileAtPathIfExists(digestsPath);
+
+    Map<String, Collection<RDotTxtEntry>> packageToResourcesMap = packageToResources.asMap();
+    List<String> rDotJavaPackages = new ArrayList<>(packageToResourcesMap.keySet());
+    rDotJavaPackages.addAll(emptyPackages);
+    Map<String, String> digests = new ConcurrentHashMap<>();
+    mapInParallel(
+        executor,
+        rDotJavaPackages,
+        rDotJavaPackage -> {
+          Collection<RDotTxtEntry> resources =
+              packageToResourcesMap.getOrDefault(rDotJavaPackage, ImmutableList.of());
+          Path outputFile = getPathToRDotJava(rDotJavaPackage);
+          String digest = hashResources(resources).toString();
+          String previousDigest = previousDigests.get(rDotJavaPackage);
+          if (previousDigest == null
+              || !previousDigest.equals(describeFile(digest, outputFile, filesystem))) {
+            if (resources.isEmpty()) {
+              writeEmptyRDotJava(rDotJavaPackage, filesystem);
+            } else {
+              writeRDotJava(rDotJavaPackage, resources, filesystem);
+            }
           }
+          digests.put(rDotJavaPackage, describeFile(digest, outputFile, filesystem));
+          return null;
+        });
+
+    Set<Path> outputFiles =
+        rDotJavaPackages.stream().map(this::getPathToRDotJava).collect(Collectors.toSet());
+    for (Path file : filesystem.getFilesUnderPath(outputDir)) {
+      if (!outputFiles.contains(file)) {
+        filesystem.deleteFileAtPath(file);
+      }
+    }
+
+    filesystem.mkdirs(digestsPath.getParent());
+    filesystem.writeLinesToPath(
+        digests
+            .entrySet()
+            .stream()
+            .sorted(Map.Entry.comparingByKey())
+            .map(entry -> entry.getKey() + " " + entry.getValue())
+            .collect(Collectors.toList()),
+        digestsPath);
+  }
 
-          // Write out the resource.
-          // Write as an int.
-          writer.format(
-              "    public static%s%s %s=%s;\n",
-              forceFinalResourceIds ? " final " : " ", res.idType, res.name, res.idValue);
-
-          if (type == RType.DRAWABLE && res.customType == RDotTxtEntry.CustomDrawableType.CUSTOM) {
-            customDrawablesBuilder.add(res.idValue);
-          } else if (type == RType.DRAWABLE
-              && res.customType == RDotTxtEntry.CustomDrawableType.GRAYSCALE_IMAGE) {
-            grayscaleImagesBuilder.add(res.idValue);
+  private static ImmutableMap<String, String> readPackageDigests(
+      Path digestsPath, ProjectFilesystem filesystem) throws IOException {
+    if (!filesystem.isFile(digestsPath)) {
+      return ImmutableMap.of();
+    }
+    Map<String, String> digests = new HashMap<>();
+    for (String line : filesystem.readLines(digestsPath)) {
+      int separator = line.indexOf(' ');
+      if (separator > 0) {
+        digests.put(line.substring(0, separator), line.substring(separator + 1));
+      }
+    }
+    return ImmutableMap.copyOf(digests);
+  }
+
+  /**
+   * Describes the R.java file generated from resources with the given digest, along with the size
+   * and modification time the file had when it was written, so that a file which was replaced
+   * since, e.g. by fetching the rule's outputs from a cache, is not mistaken for an up to date one.
+   */
+  private static String describeFile(String digest, Path file, ProjectFilesystem filesystem)
+      throws IOException {
+    if (!filesystem.isFile(file)) {
+      return digest;
+    }
+    return String.format(
+        "%s %d %d",
+        digest, filesystem.getFileSize(file), filesystem.getLastModifiedTime(file).toMillis());
+  }
+
+  private HashCode hashResources(Collection<RDotTxtEntry> resources) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putString(rName, StandardCharsets.UTF_8);
+    hasher.putBoolean(forceFinalResourceIds);
+    hasher.putInt(resources.size());
+    for (RDotTxtEntry resource : resources) {
+      hasher.putInt(resource.type.ordinal());
+      hasher.putInt(resource.idType.ordinal());
+      hasher.putInt(resource.customType.ordinal());
+      hasher.putString(resource.name, StandardCharsets.UTF_8);
+      hasher.putByte((byte) 0);
+      hasher.putString(resource.idValue, StandardCharsets.UTF_8);
+      hasher.putByte((byte) 0);
+    }
+    return hasher.hash();
+  }
+
+  private void writeRDotJava(
+      String rDotJavaPackage, Collection<RDotTxtEntry> resources, ProjectFilesystem filesystem)
+      throws IOException {
+    Path outputFile = getPathToRDotJava(rDotJavaPackage);
+    filesystem.mkdirs(outputFile.getParent());
+    try (ThrowingPrintWriter writer =
+        new ThrowingPrintWriter(filesystem.newFileOutputStream(outputFile))) {
+      writer.format("package %s;\n\n", rDotJavaPackage);
+      writer.format("public class %s {\n", rName);
+
+      ImmutableList.Builder<String> customDrawablesBuilder = ImmutableList.builder();
+      ImmutableList.Builder<String> grayscaleImagesBuilder = ImmutableList.builder();
+      RType lastType = null;
+
+      for (RDotTxtEntry res : resources) {
+        RType type = res.type;
+        if (!type.equals(lastType)) {
+          // If the previous type needs to be closed, close it.
+          if (lastType != null) {
+            writer.println("  }\n");
           }
-        }
 
-        // If some type was written (e.g., the for loop was entered), then the last type needs to be
-        // closed.
-        if (lastType != null) {
-          writer.println("  }\n");
+          // Now start the block for the new type.
+          writer.format("  public static class %s {\n", type);
+          lastType = type;
         }
 
-        ImmutableList<String> customDrawables = customDrawablesBuilder.build();
-        if (customDrawables.size() > 0) {
-          // Add a new field for the custom drawables.
-          writer.format("  public static final int[] custom_drawables = ");
-          writer.format("{ %s };\n", Joiner.on(",").join(customDrawables));
-          writer.format("\n");
+        // Write out the resource.
+        // Write as an int.
+        writer.format(
+            "    public static%s%s %s=%s;\n",
+            forceFinalResourceIds ? " final " : " ", res.idType, res.name, res.idValue);
+
+        if (type == RType.DRAWABLE && res.customType == RDotTxtEntry.CustomDrawableType.CUSTOM) {
+          customDrawablesBuilder.add(res.idValue);
+        } else if (type == RType.DRAWABLE
+            && res.customType == RDotTxtEntry.CustomDrawableType.GRAYSCALE_IMAGE) {
+          grayscaleImagesBuilder.add(res.idValue);
         }
+      }
 
-        ImmutableList<String> grayscaleImages = grayscaleImagesBuilder.build();
-        if (grayscaleImages.size() > 0) {
-          // Add a new field for the custom drawables.
-          writer.format("  public static final int[] grayscale_images = ");
-          writer.format("{ %s };\n", Joiner.on(",").join(grayscaleImages));
-          writer.format("\n");
-        }
+      // If some type was written (e.g., the for loop was entered), then the last type needs to be
+      // closed.
+      if (lastType != null) {
+        writer.println("  }\n");
+      }
 
-        // Close the class definition.
-        writer.println("}");
+      ImmutableList<String> customDrawables = customDrawablesBuilder.build();
+      if (customDrawables.size() > 0) {
+        // Add a new field for the custom drawables.
+        writer.format("  public static final int[] custom_drawables = ");
+        writer.format("{ %s };\n", Joiner.on(",").join(customDrawables));
+        writer.format("\n");
       }
+
+      ImmutableList<String> grayscaleImages = grayscaleImagesBuilder.build();
+      if (grayscaleImages.size() > 0) {
+        // Add a new field for the custom drawables.
+        writer.format("  public static final int[] grayscale_images = ");
+        writer.format("{ %s };\n", Joiner.on(",").join(grayscaleImages));
+        writer.format("\n");
+      }
+
+      // Close the class definition.
+      writer.println("}");
     }
   }
 
@@ -408,8 +593,9 @@ public class MergeAndroidResourcesStep implements Step {
       EnumSet<RType> bannedDuplicateResourceTypes,
       Set<String> duplicateResourceWhitelist,
       ProjectFilesystem filesystem,
-      boolean useOldStyleableFormat)
-      throws DuplicateResourceException {
+      boolean useOldStyleableFormat,
+      ListeningExecutorService executor)
+      throws DuplicateResourceException, IOException, InterruptedException {
     // If we're reenumerating, start at 0x7f01001 so that the resulting file is human readable.
     // This value range (0x7f010001 - ...) is easier to spot as an actual resource id instead of
     // other values in styleable which can be enumerated integers starting at 0.
@@ -442,21 +628,20 @@ public class MergeAndroidResourcesStep implements Step {
                   ovr.put(pkg, entries.stream().collect(Collectors.toMap(k -> k, v -> v))));
     }
 
+    // Reading and parsing the symbols files is independent for each file, so it is done in
+    // parallel. Ids are assigned afterwards, in the order of the files.
+    List<Path> symbolsFiles = new ArrayList<>(symbolsFileToRDotJavaPackage.keySet());
+    List<List<RDotTxtEntry>> symbolsFilesEntries =
+        mapInParallel(
+            executor, symbolsFiles, symbolsFile -> readSymbolsFile(filesystem, symbolsFile));
+    Map<Path, List<RDotTxtEntry>> symbolsFileToEntries = new HashMap<>();
+    for (int i = 0; i < symbolsFiles.size(); i++) {
+      symbolsFileToEntries.put(symbolsFiles.get(i), symbolsFilesEntries.get(i));
+    }
+
     for (Map.Entry<Path, String> entry : symbolsFileToRDotJavaPackage.entrySet()) {
       Path symbolsFile = entry.getKey();
-      // Read the symbols file and parse each line as a Resource.
-      List<RDotTxtEntry> linesInSymbolsFile;
-      try {
-        linesInSymbolsFile =
-            filesystem
-                .readLines(symbolsFile)
-                .stream()
-                .filter(input -> !Strings.isNullOrEmpty(input))
-                .map(MergeAndroidResourcesStep::parseEntryOrThrow)
-                .collect(Collectors.toList());
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
+      List<RDotTxtEntry> linesInSymbolsFile = symbolsFileToEntries.get(symbolsFile);
 
       String packageName = entry.getValue();
       Map<RDotTxtEntry, RDotTxtEntry> packageOverrides =
@@ -581,6 +766,17 @@ public class MergeAndroidResourcesStep implements Step {
     return rDotJavaPackageToSymbolsFiles;
   }
 
+  /** Reads the symbols file and parses each line as a Resource. */
+  private static List<RDotTxtEntry> readSymbolsFile(ProjectFilesystem filesystem, Path symbolsFile)
+      throws IOException {
+    return filesystem
+        .readLines(symbolsFile)
+        .stream()
+        .filter(input -> !Strings.isNullOrEmpty(input))
+        .map(MergeAndroidResourcesStep::parseEntryOrThrow)
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
+
   private static boolean duplicateIsWhitelisted(RDotTxtEntry resource, Set<String> whitelist) {
     return whitelist.contains(resource.type.toString().toLowerCase() + " " + resource.name);
   }
@@ -94,6 +94,7 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
   @AddToRuleKey private final Optional<SourcePath> dexReorderToolFile;
   @AddToRuleKey private final DexSplitMode dexSplitMode;
   @AddToRuleKey private final Optional<String> dxMaxHeapSize;
+  @AddToRuleKey private final boolean dexInProcess;
   @AddToRuleKey private final Tool javaRuntimeLauncher;
 
   @AddToRuleKey
@@ -143,6 +144,11 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
 
     Optional<String> getDxMaxHeapSize();
 
+    @Value.Default
+    default boolean getDexInProcess() {
+      return false;
+    }
+
     ProGuardObfuscateStep.SdkProguardType getSdkProguardConfig();
 
     OptionalInt getOptimizationPasses();
@@ -186,6 +192,7 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
     this.dexSplitMode = dexSplitMode;
     this.dxExecutorService = args.getDxExecutorService();
     this.dxMaxHeapSize = args.getDxMaxHeapSize();
+    this.dexInProcess = args.getDexInProcess();
     this.javaRuntimeLauncher = args.getJavaRuntimeLauncher();
     this.moduleMappedClasspathEntriesToDex = moduleMappedClasspathEntriesToDex;
     this.optimizationPasses = args.getOptimizationPasses();
@@ -749,7 +756,8 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
               additionalDexStoreToJarPathMap,
               apkModuleMap,
               rootAPKModule,
-              zipSplitReportDir);
+              zipSplitReportDir,
+              Optional.of(getBinPath("dalvik_stats_cache")));
       steps.add(splitZipCommand);
 
       // Add the secondary dex directory that has yet to be created, but will be by the
@@ -854,6 +862,10 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
         shouldProguard
             ? EnumSet.of(DxStep.Option.NO_LOCALS)
             : EnumSet.of(DxStep.Option.NO_OPTIMIZE);
+    if (dexInProcess) {
+      dxOptions.add(DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE);
+      dxOptions.add(DxStep.Option.RUN_IN_PROCESS);
+    }
     Path selectedPrimaryDexPath = primaryDexPath;
     if (reorderClassesIntraDex) {
       String primaryDexFileName = primaryDexPath.getFileName().toString();
@@ -28,7 +28,6 @@ import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.step.StepRunner;
 import com.facebook.buck.step.fs.RmStep;
-import com.facebook.buck.step.fs.WriteFileStep;
 import com.facebook.buck.step.fs.XzStep;
 import com.facebook.buck.util.MoreSuppliers;
 import com.facebook.buck.util.concurrent.MoreFutures;
@@ -54,17 +53,21 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /**
@@ -81,6 +84,12 @@ public class SmartDexingStep implements Step {
   public static final String SHORT_NAME = "smart_dex";
   private static final String SECONDARY_SOLID_DEX_EXTENSION = ".dex.jar.xzs";
 
+  /**
+   * Name of the file in the success dir which maps each dex output to the hash of the inputs it
+   * was last built from.
+   */
+  @VisibleForTesting static final String INPUT_HASH_INDEX_FILE_NAME = "input_hashes.index";
+
   public interface DexInputHashesProvider {
     ImmutableMap<Path, Sha1HashCode> getDexInputHashes();
   }
@@ -225,21 +234,58 @@ public class SmartDexingStep implements Step {
   }
 
   private void runDxCommands(ExecutionContext context, Multimap<Path, Path> outputToInputs)
-      throws StepFailedException, InterruptedException {
+      throws StepFailedException, InterruptedException, IOException {
+    Path inputHashIndexPath = successDir.resolve(INPUT_HASH_INDEX_FILE_NAME);
+    ImmutableMap<Path, String> previousInputHashes =
+        readInputHashIndex(filesystem, inputHashIndexPath);
+
+    // Outputs which are known to be built from their current inputs, and the hash of those inputs.
+    Map<Path, String> upToDateInputHashes = new ConcurrentHashMap<>();
+    List<DxPseudoRule> dirtyRules = new ArrayList<>();
+    for (DxPseudoRule rule :
+        generateDxPseudoRules(filesystem, outputToInputs, previousInputHashes)) {
+      if (rule.checkIsCached()) {
+        upToDateInputHashes.put(rule.outputPath, Objects.requireNonNull(rule.newInputsHash));
+      } else {
+        dirtyRules.add(rule);
+      }
+    }
+    if (dirtyRules.isEmpty()) {
+      if (!upToDateInputHashes.equals(previousInputHashes)) {
+        writeInputHashIndex(filesystem, inputHashIndexPath, upToDateInputHashes);
+      }
+      return;
+    }
+
+    // Forget the hashes of the outputs we are about to rebuild first, so that they are not
+    // considered up to date if we fail or are interrupted half way through writing them.
+    writeInputHashIndex(filesystem, inputHashIndexPath, upToDateInputHashes);
+
+    // Start the largest shards first, so that a big shard picked up last doesn't leave the
+    // other threads idle while it finishes.
+    Map<DxPseudoRule, Long> inputSizes = new HashMap<>();
+    for (DxPseudoRule rule : dirtyRules) {
+      inputSizes.put(rule, rule.getInputSize());
+    }
+    dirtyRules.sort(Comparator.comparing(inputSizes::get, Comparator.reverseOrder()));
+
     DefaultStepRunner stepRunner = new DefaultStepRunner();
     // Invoke dx commands in parallel for maximum thread utilization.  In testing, dx revealed
     // itself to be CPU (and not I/O) bound making it a good candidate for parallelization.
-    Stream<ImmutableList<Step>> dxSteps = generateDxCommands(filesystem, outputToInputs);
-
     ImmutableList<Callable<Void>> callables =
-        dxSteps
+        dirtyRules
+            .stream()
             .map(
-                steps ->
+                rule ->
                     (Callable<Void>)
                         () -> {
-                          for (Step step : steps) {
+                          ImmutableList.Builder<Step> steps = ImmutableList.builder();
+                          rule.buildInternal(steps);
+                          for (Step step : steps.build()) {
                             stepRunner.runStepForBuildTarget(context, step, Optional.empty());
                           }
+                          upToDateInputHashes.put(
+                              rule.outputPath, Objects.requireNonNull(rule.newInputsHash));
                           return null;
                         })
             .collect(ImmutableList.toImmutableList());
@@ -252,9 +298,54 @@ public class SmartDexingStep implements Step {
 
       // Programmer error.  Boo-urns.
       throw new RuntimeException(cause);
+    } finally {
+      // Record every shard which did finish, so that a failure in one shard doesn't make us redo
+      // all the others next time.
+      writeInputHashIndex(filesystem, inputHashIndexPath, upToDateInputHashes);
     }
   }
 
+  /**
+   * Reads the index of input hashes written by the last run.
+   *
+   * @return the hash of the inputs of each output, or an empty map if there is no usable index.
+   */
+  @VisibleForTesting
+  static ImmutableMap<Path, String> readInputHashIndex(ProjectFilesystem filesystem, Path index) {
+    if (!filesystem.isFile(index)) {
+      return ImmutableMap.of();
+    }
+    Map<Path, String> hashes = new HashMap<>();
+    try {
+      for (String line : filesystem.readLines(index)) {
+        // Each line is "<hash> <output path>", in the style of sha1sum.
+        int separator = line.indexOf(' ');
+        if (separator <= 0) {
+          return ImmutableMap.of();
+        }
+        hashes.put(Paths.get(line.substring(separator + 1)), line.substring(0, separator));
+      }
+    } catch (IOException e) {
+      // Everything is rebuilt, which rewrites the index.
+      return ImmutableMap.of();
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+
+  @VisibleForTesting
+  static void writeInputHashIndex(
+      ProjectFilesystem filesystem, Path index, Map<Path, String> inputHashes)
+      throws IOException {
+    filesystem.writeLinesToPath(
+        inputHashes
+            .entrySet()
+            .stream()
+            .map(entry -> entry.getValue() + " " + entry.getKey())
+            .sorted()
+            .collect(ImmutableList.toImmutableList()),
+        index);
+  }
+
   /**
    * Prune the secondary output directory of any files that we didn't generate. This is needed
    * because we crudely add all files in this directory to the final APK, but the number may have
@@ -300,8 +391,10 @@ public class SmartDexingStep implements Step {
    * Once the {@code .class} files have been split into separate zip files, each must be converted
    * to a {@code .dex} file.
    */
-  private Stream<ImmutableList<Step>> generateDxCommands(
-      ProjectFilesystem filesystem, Multimap<Path, Path> outputToInputs) {
+  private ImmutableList<DxPseudoRule> generateDxPseudoRules(
+      ProjectFilesystem filesystem,
+      Multimap<Path, Path> outputToInputs,
+      Map<Path, String> previousInputHashes) {
 
     ImmutableMap<Path, Sha1HashCode> dexInputHashes = dexInputHashesProvider.getDexInputHashes();
     ImmutableSet<Path> allDexInputPaths = ImmutableSet.copyOf(outputToInputs.values());
@@ -319,7 +412,7 @@ public class SmartDexingStep implements Step {
                     dexInputHashes,
                     ImmutableSet.copyOf(outputInputsPair.getValue()),
                     outputInputsPair.getKey(),
-                    successDir.resolve(outputInputsPair.getKey().getFileName()),
+                    previousInputHashes.get(outputInputsPair.getKey()),
                     dxOptions,
                     xzCompressionLevel,
                     dxMaxHeapSize,
@@ -328,13 +421,7 @@ public class SmartDexingStep implements Step {
                         ? Sets.difference(
                             allDexInputPaths, ImmutableSet.copyOf(outputInputsPair.getValue()))
                         : null))
-        .filter(dxPseudoRule -> !dxPseudoRule.checkIsCached())
-        .map(
-            dxPseudoRule -> {
-              ImmutableList.Builder<Step> steps = ImmutableList.builder();
-              dxPseudoRule.buildInternal(steps);
-              return steps.build();
-            });
+        .collect(ImmutableList.toImmutableList());
   }
 
   /**
@@ -344,7 +431,8 @@ public class SmartDexingStep implements Step {
    * <p>This pseudo rule does not use the normal .success file model but instead checksums its
    * inputs. This is because the input zip files are guaranteed to have changed on the filesystem
    * (ZipSplitter will always write them out even if the same), but the contents contained in the
-   * zip may not have changed.
+   * zip may not have changed. The checksum of the inputs of the last build is looked up in the
+   * input hash index of the {@link SmartDexingStep}.
    */
   @VisibleForTesting
   static class DxPseudoRule {
@@ -355,7 +443,7 @@ public class SmartDexingStep implements Step {
     private final Map<Path, Sha1HashCode> dexInputHashes;
     private final Set<Path> srcs;
     private final Path outputPath;
-    private final Path outputHashPath;
+    @Nullable private final String previousInputsHash;
     private final EnumSet<Option> dxOptions;
     @Nullable private String newInputsHash;
     private final OptionalInt xzCompressionLevel;
@@ -370,7 +458,7 @@ public class SmartDexingStep implements Step {
         Map<Path, Sha1HashCode> dexInputHashes,
         Set<Path> srcs,
         Path outputPath,
-        Path outputHashPath,
+        @Nullable String previousInputsHash,
         EnumSet<Option> dxOptions,
         OptionalInt xzCompressionLevel,
         Optional<String> dxMaxHeapSize,
@@ -382,7 +470,7 @@ public class SmartDexingStep implements Step {
       this.dexInputHashes = ImmutableMap.copyOf(dexInputHashes);
       this.srcs = ImmutableSet.copyOf(srcs);
       this.outputPath = outputPath;
-      this.outputHashPath = outputHashPath;
+      this.previousInputsHash = previousInputsHash;
       this.dxOptions = dxOptions;
       this.xzCompressionLevel = xzCompressionLevel;
       this.dxMaxHeapSize = dxMaxHeapSize;
@@ -390,17 +478,6 @@ public class SmartDexingStep implements Step {
       this.classpathFiles = classpathFiles;
     }
 
-    /**
-     * Read the previous run's hash from the filesystem.
-     *
-     * @return Previous hash if there was one; null otherwise.
-     */
-    @Nullable
-    private String getPreviousInputsHash() {
-      // Returning null will trigger the dx command to run again.
-      return filesystem.readFirstLine(outputHashPath).orElse(null);
-    }
-
     @VisibleForTesting
     String hashInputs() {
       Hasher hasher = Hashing.sha1().newHasher();
@@ -416,13 +493,19 @@ public class SmartDexingStep implements Step {
     public boolean checkIsCached() {
       newInputsHash = hashInputs();
 
-      if (!filesystem.exists(outputHashPath) || !filesystem.exists(outputPath)) {
-        return false;
-      }
+      // A missing previous hash will trigger the dx command to run again.
+      return newInputsHash.equals(previousInputsHash) && filesystem.exists(outputPath);
+    }
 
-      // Verify input hashes.
-      String currentInputsHash = getPreviousInputsHash();
-      return newInputsHash.equals(currentInputsHash);
+    /** @return the total size of the input files, as an estimate of how long dexing takes. */
+    private long getInputSize() throws IOException {
+      long size = 0;
+      for (Path src : srcs) {
+        if (filesystem.isFile(src)) {
+          size += filesystem.getFileSize(src);
+        }
+      }
+      return size;
     }
 
     private void buildInternal(ImmutableList.Builder<Step> steps) {
@@ -440,8 +523,6 @@ public class SmartDexingStep implements Step {
           dxMaxHeapSize,
           dexTool,
           classpathFiles);
-      steps.add(
-          new WriteFileStep(filesystem, newInputsHash, outputHashPath, /* executable */ false));
     }
   }
 
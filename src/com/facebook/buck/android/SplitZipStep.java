@@ -19,8 +19,10 @@ package com.facebook.buck.android;
 import com.facebook.buck.android.apkmodule.APKModule;
 import com.facebook.buck.android.apkmodule.APKModuleGraph;
 import com.facebook.buck.android.dalvik.DalvikAwareZipSplitterFactory;
+import com.facebook.buck.android.dalvik.DalvikStatsCache;
 import com.facebook.buck.android.dalvik.ZipSplitterFactory;
 import com.facebook.buck.android.dalvik.firstorder.FirstOrderHelper;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
@@ -67,6 +69,8 @@ import org.objectweb.asm.tree.ClassNode;
  */
 public class SplitZipStep implements Step {
 
+  private static final Logger LOG = Logger.get(SplitZipStep.class);
+
   @VisibleForTesting
   static final Pattern CANARY_CLASS_FILE_PATTERN = Pattern.compile("^([\\w/$]+)\\.Canary\\.class");
 
@@ -88,6 +92,7 @@ public class SplitZipStep implements Step {
   private final boolean skipProguard;
   private final DexSplitMode dexSplitMode;
   private final Path pathToReportDir;
+  private final Optional<Path> dalvikStatsCacheFile;
 
   private final Optional<Path> primaryDexScenarioFile;
   private final Optional<Path> primaryDexClassesFile;
@@ -114,6 +119,8 @@ public class SplitZipStep implements Step {
    * @param proguardMappingFile Path to the mapping file generated by ProGuard's obfuscation.
    * @param apkModuleMap
    * @param rootAPKModule
+   * @param dalvikStatsCacheFile File in which to keep the dalvik stats of the classes that were
+   *     split, so that the next split only analyzes the classes that changed.
    */
   public SplitZipStep(
       ProjectFilesystem filesystem,
@@ -135,7 +142,8 @@ public class SplitZipStep implements Step {
       ImmutableMultimap<APKModule, Path> apkModuleToJarPathMap,
       ImmutableSortedMap<APKModule, ImmutableSortedSet<APKModule>> apkModuleMap,
       APKModule rootAPKModule,
-      Path pathToReportDir) {
+      Path pathToReportDir,
+      Optional<Path> dalvikStatsCacheFile) {
     this.filesystem = filesystem;
     this.inputPathsToSplit = ImmutableSet.copyOf(inputPathsToSplit);
     this.secondaryJarMetaPath = secondaryJarMetaPath;
@@ -156,6 +164,7 @@ public class SplitZipStep implements Step {
     this.pathToReportDir = pathToReportDir;
     this.rootAPKModule = rootAPKModule;
     this.apkModuleMap = apkModuleMap;
+    this.dalvikStatsCacheFile = dalvikStatsCacheFile;
 
     if (!skipProguard) {
       Preconditions.checkArgument(
@@ -185,10 +194,14 @@ public class SplitZipStep implements Step {
             translatorFactory.createNullableObfuscationFunction(),
             filesystem);
 
+    DalvikStatsCache dalvikStatsCache =
+        dalvikStatsCacheFile
+            .map(file -> DalvikStatsCache.load(filesystem.resolve(file)))
+            .orElseGet(DalvikStatsCache::new);
     ZipSplitterFactory zipSplitterFactory;
     zipSplitterFactory =
         new DalvikAwareZipSplitterFactory(
-            dexSplitMode.getLinearAllocHardLimit(), wantedInPrimaryZip);
+            dexSplitMode.getLinearAllocHardLimit(), wantedInPrimaryZip, dalvikStatsCache);
 
     outputFiles =
         zipSplitterFactory
@@ -208,6 +221,12 @@ public class SplitZipStep implements Step {
                 filesystem.getPathForRelativePath(pathToReportDir))
             .execute();
 
+    try {
+      dalvikStatsCache.save();
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to store dalvik stats in %s.", dalvikStatsCacheFile);
+    }
+
     for (APKModule dexStore : outputFiles.keySet()) {
       if (dexStore.getName().equals(SECONDARY_DEX_ID)) {
         try (BufferedWriter secondaryMetaInfoWriter =
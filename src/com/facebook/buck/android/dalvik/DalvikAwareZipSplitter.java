@@ -98,7 +98,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableMultimap<APKModule, String> additionalDexStoreSets,
       APKModule rootAPKModule,
       DexSplitStrategy dexSplitStrategy,
-      Path reportDir) {
+      Path reportDir,
+      DalvikStatsCache dalvikStatsCache) {
     if (linearAllocLimit <= 0) {
       throw new HumanReadableException("linear_alloc_hard_limit must be greater than zero.");
     }
@@ -127,7 +128,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.reportDir = reportDir;
     this.dexSplitStrategy = dexSplitStrategy;
     this.linearAllocLimit = linearAllocLimit;
-    this.dalvikStatsCache = new DalvikStatsCache();
+    this.dalvikStatsCache = dalvikStatsCache;
   }
 
   public static DalvikAwareZipSplitter splitZip(
@@ -145,7 +146,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableMultimap<APKModule, String> additionalDexStoreSets,
       APKModule rootAPKModule,
       DexSplitStrategy dexSplitStrategy,
-      Path reportDir) {
+      Path reportDir,
+      DalvikStatsCache dalvikStatsCache) {
     return new DalvikAwareZipSplitter(
         filesystem,
         inFiles,
@@ -161,7 +163,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         additionalDexStoreSets,
         rootAPKModule,
         dexSplitStrategy,
-        reportDir);
+        reportDir,
+        dalvikStatsCache);
   }
 
   @Override
@@ -28,10 +28,13 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
 
   private final long linearAllocLimit;
   private final Set<String> wantedInPrimaryZip;
+  private final DalvikStatsCache dalvikStatsCache;
 
-  public DalvikAwareZipSplitterFactory(long linearAllocLimit, Set<String> wantedInPrimaryZip) {
+  public DalvikAwareZipSplitterFactory(
+      long linearAllocLimit, Set<String> wantedInPrimaryZip, DalvikStatsCache dalvikStatsCache) {
     this.linearAllocLimit = linearAllocLimit;
     this.wantedInPrimaryZip = wantedInPrimaryZip;
+    this.dalvikStatsCache = dalvikStatsCache;
   }
 
   @Override
@@ -64,6 +67,7 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
         additionalDexStoreSets,
         rootAPKModule,
         dexSplitStrategy,
-        reportDir);
+        reportDir,
+        dalvikStatsCache);
   }
 }
@@ -16,19 +16,76 @@
 
 package com.facebook.buck.android.dalvik;
 
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.jvm.java.classes.FileLike;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
 
-/** Cache to memoize results from DalvikStatsTool. */
-class DalvikStatsCache {
+/**
+ * Cache to memoize results from DalvikStatsTool.
+ *
+ * <p>Results are also keyed by the hash of the class contents, and can be stored to a file so that
+ * later builds only analyze the classes which changed. A stored cache only keeps the results used
+ * by the build which stored it.
+ */
+public class DalvikStatsCache {
+
+  private static final Logger LOG = Logger.get(DalvikStatsCache.class);
+
+  private static final int MAGIC = 0x44534331;
+  // Bump this whenever DalvikStatsTool changes its estimates.
+  private static final int VERSION = 1;
 
   private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
+  private final Optional<Path> storePath;
+  private final StoredStats stored;
+  private final Map<HashCode, DalvikStatsTool.Stats> used = new ConcurrentHashMap<>();
+
+  public DalvikStatsCache() {
+    this(Optional.empty(), StoredStats.EMPTY);
+  }
 
-  DalvikStatsCache() {
-    cache = new MapMaker().weakKeys().makeMap();
+  private DalvikStatsCache(Optional<Path> storePath, StoredStats stored) {
+    this.cache = new MapMaker().weakKeys().makeMap();
+    this.storePath = storePath;
+    this.stored = stored;
+  }
+
+  /**
+   * Loads the cache stored at {@code storePath}. Starts out empty if there is none or it can't be
+   * read.
+   */
+  public static DalvikStatsCache load(Path storePath) {
+    StoredStats stored = StoredStats.EMPTY;
+    if (Files.exists(storePath)) {
+      try {
+        stored = StoredStats.read(ByteBuffer.wrap(Files.readAllBytes(storePath)));
+      } catch (IOException | RuntimeException e) {
+        LOG.warn(e, "Ignoring unreadable dalvik stats in %s.", storePath);
+      }
+    }
+    return new DalvikStatsCache(Optional.of(storePath), stored);
   }
 
   DalvikStatsTool.Stats getStats(FileLike entry) {
@@ -45,7 +102,16 @@ class DalvikStatsCache {
     }
 
     try (InputStream is = entry.getInput()) {
-      stats = DalvikStatsTool.getEstimate(is);
+      byte[] contents = ByteStreams.toByteArray(is);
+      HashCode hash = Hashing.sha1().hashBytes(contents);
+      stats = used.get(hash);
+      if (stats == null) {
+        stats = stored.get(hash);
+      }
+      if (stats == null) {
+        stats = DalvikStatsTool.getEstimate(new ByteArrayInputStream(contents));
+      }
+      used.put(hash, stats);
       cache.put(entry, stats);
       return stats;
     } catch (IOException e) {
@@ -54,4 +120,185 @@ class DalvikStatsCache {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
     }
   }
+
+  /**
+   * Stores the results used since this cache was loaded, if it was loaded from a file and they
+   * differ from what was stored there.
+   */
+  public void save() throws IOException {
+    if (!storePath.isPresent() || used.keySet().equals(stored.offsets.keySet())) {
+      return;
+    }
+    Path path = storePath.get();
+    Files.createDirectories(path.getParent());
+    Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+      write(out, used);
+    }
+    Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  // Classes refer to the same members over and over, so each distinct string and member reference
+  // is written once and referred to by its index. The layout, all integers big-endian, is:
+  //
+  //   int magic, int version
+  //   int stringCount, stringCount times: int length, byte[length] UTF-8 string
+  //   int referenceCount, referenceCount times: int className, int memberName, int descriptor
+  //   int entryCount, entryCount times:
+  //     byte hashLength, byte[hashLength] hash, int estimatedLinearAllocSize,
+  //     int methodCount, int[methodCount] methods, int fieldCount, int[fieldCount] fields
+
+  private static void write(DataOutputStream out, Map<HashCode, DalvikStatsTool.Stats> entries)
+      throws IOException {
+    Map<String, Integer> stringIds = new HashMap<>();
+    Map<DalvikMemberReference, Integer> referenceIds = new HashMap<>();
+    for (DalvikStatsTool.Stats stats : entries.values()) {
+      addReferences(stats.methodReferences, referenceIds, stringIds);
+      addReferences(stats.fieldReferences, referenceIds, stringIds);
+    }
+
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    String[] strings = new String[stringIds.size()];
+    stringIds.forEach((string, id) -> strings[id] = string);
+    out.writeInt(strings.length);
+    for (String string : strings) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    DalvikMemberReference[] references = new DalvikMemberReference[referenceIds.size()];
+    referenceIds.forEach((reference, id) -> references[id] = reference);
+    out.writeInt(references.length);
+    for (DalvikMemberReference reference : references) {
+      out.writeInt(stringIds.get(reference.getClassName()));
+      out.writeInt(stringIds.get(reference.getMemberName()));
+      out.writeInt(stringIds.get(reference.getDescriptor()));
+    }
+    out.writeInt(entries.size());
+    for (Map.Entry<HashCode, DalvikStatsTool.Stats> entry : entries.entrySet()) {
+      byte[] hash = entry.getKey().asBytes();
+      out.writeByte(hash.length);
+      out.write(hash);
+      DalvikStatsTool.Stats stats = entry.getValue();
+      out.writeInt(stats.estimatedLinearAllocSize);
+      writeReferenceIds(out, stats.methodReferences, referenceIds);
+      writeReferenceIds(out, stats.fieldReferences, referenceIds);
+    }
+  }
+
+  private static void addReferences(
+      ImmutableSet<DalvikMemberReference> references,
+      Map<DalvikMemberReference, Integer> referenceIds,
+      Map<String, Integer> stringIds) {
+    for (DalvikMemberReference reference : references) {
+      if (referenceIds.putIfAbsent(reference, referenceIds.size()) == null) {
+        stringIds.putIfAbsent(reference.getClassName(), stringIds.size());
+        stringIds.putIfAbsent(reference.getMemberName(), stringIds.size());
+        stringIds.putIfAbsent(reference.getDescriptor(), stringIds.size());
+      }
+    }
+  }
+
+  private static void writeReferenceIds(
+      DataOutputStream out,
+      ImmutableSet<DalvikMemberReference> references,
+      Map<DalvikMemberReference, Integer> referenceIds)
+      throws IOException {
+    out.writeInt(references.size());
+    for (DalvikMemberReference reference : references) {
+      out.writeInt(referenceIds.get(reference));
+    }
+  }
+
+  /**
+   * Results read from a stored cache. Only the index of entries is read up front, each entry is
+   * decoded when a class with its hash is looked up.
+   */
+  private static class StoredStats {
+    private static final StoredStats EMPTY =
+        new StoredStats(ByteBuffer.allocate(0), new DalvikMemberReference[0], ImmutableMap.of());
+
+    private final ByteBuffer data;
+    private final DalvikMemberReference[] references;
+    private final ImmutableMap<HashCode, Integer> offsets;
+
+    private StoredStats(
+        ByteBuffer data,
+        DalvikMemberReference[] references,
+        ImmutableMap<HashCode, Integer> offsets) {
+      this.data = data;
+      this.references = references;
+      this.offsets = offsets;
+    }
+
+    private static StoredStats read(ByteBuffer data) {
+      if (data.remaining() < 2 * Integer.BYTES
+          || data.getInt() != MAGIC
+          || data.getInt() != VERSION) {
+        LOG.debug("Ignoring dalvik stats written by a different version.");
+        return EMPTY;
+      }
+      String[] strings = new String[data.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        strings[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      DalvikMemberReference[] references = new DalvikMemberReference[data.getInt()];
+      for (int i = 0; i < references.length; i++) {
+        references[i] =
+            DalvikMemberReference.of(
+                strings[data.getInt()], strings[data.getInt()], strings[data.getInt()]);
+      }
+      int entryCount = data.getInt();
+      ImmutableMap.Builder<HashCode, Integer> offsets =
+          ImmutableMap.builderWithExpectedSize(entryCount);
+      for (int i = 0; i < entryCount; i++) {
+        byte[] hash = new byte[data.get() & 0xff];
+        data.get(hash);
+        offsets.put(HashCode.fromBytes(hash), data.position());
+        data.position(data.position() + Integer.BYTES);
+        for (int j = 0; j < 2; j++) {
+          int count = data.getInt();
+          if (count < 0 || count > data.remaining() / Integer.BYTES) {
+            throw new BufferUnderflowException();
+          }
+          data.position(data.position() + count * Integer.BYTES);
+        }
+      }
+      return new StoredStats(data, references, offsets.build());
+    }
+
+    @Nullable
+    private DalvikStatsTool.Stats get(HashCode hash) {
+      Integer offset = offsets.get(hash);
+      if (offset == null) {
+        return null;
+      }
+      ByteBuffer entry = data.duplicate();
+      entry.position(offset);
+      try {
+        int estimatedLinearAllocSize = entry.getInt();
+        ImmutableSet<DalvikMemberReference> methodReferences = readReferences(entry);
+        ImmutableSet<DalvikMemberReference> fieldReferences = readReferences(entry);
+        return new DalvikStatsTool.Stats(
+            estimatedLinearAllocSize, methodReferences, fieldReferences);
+      } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+        LOG.warn(e, "Ignoring malformed stored dalvik stats for %s.", hash);
+        return null;
+      }
+    }
+
+    private ImmutableSet<DalvikMemberReference> readReferences(ByteBuffer entry) {
+      int count = entry.getInt();
+      ImmutableSet.Builder<DalvikMemberReference> builder =
+          ImmutableSet.builderWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        builder.add(references[entry.getInt()]);
+      }
+      return builder.build();
+    }
+  }
 }
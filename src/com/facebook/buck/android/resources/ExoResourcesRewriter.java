@@ -19,6 +19,7 @@ package com.facebook.buck.android.resources;
 import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.util.MoreSuppliers;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -26,11 +27,17 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.io.ByteStreams;
-import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -44,10 +51,10 @@ import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
 
 /**
  * ExoResourceRewriter is the core of constructing build outputs for exo-for-resources.
@@ -136,10 +143,9 @@ public class ExoResourcesRewriter {
       // Write the full (rearranged) resources to the exo resources.
       try (ResourcesZipBuilder zipBuilder = new ResourcesZipBuilder(exoResources)) {
         for (ZipEntry entry : apkZip.getEntries()) {
-          addEntry(
-              zipBuilder,
-              entry.getName(),
+          zipBuilder.addEntry(
               apkZip.getContent(entry.getName()),
+              entry.getName(),
               entry.getMethod() == ZipEntry.STORED ? 0 : Deflater.BEST_COMPRESSION,
               false);
         }
@@ -150,20 +156,18 @@ public class ExoResourcesRewriter {
             ResourceTable.slice(
                 apkZip.getResourceTable(),
                 ImmutableMap.copyOf(Maps.transformValues(closure.idsByType, Set::size)));
-        addEntry(
-            zipBuilder,
+        zipBuilder.addEntry(
+            ResChunk.wrap(primaryResourceTable.serialize()),
             "resources.arsc",
-            primaryResourceTable.serialize(),
             apkZip.getEntry("resources.arsc").getMethod() == ZipEntry.STORED
                 ? 0
                 : Deflater.BEST_COMPRESSION,
             false);
         for (String path : RichStream.from(closure.files).sorted().toOnceIterable()) {
           ZipEntry entry = apkZip.getEntry(path);
-          addEntry(
-              zipBuilder,
-              entry.getName(),
+          zipBuilder.addEntry(
               apkZip.getContent(entry.getName()),
+              entry.getName(),
               entry.getMethod() == ZipEntry.STORED ? 0 : Deflater.BEST_COMPRESSION,
               false);
         }
@@ -238,30 +242,29 @@ public class ExoResourcesRewriter {
     }
   }
 
-  private static void addEntry(
-      ResourcesZipBuilder zipBuilder,
-      String name,
-      byte[] content,
-      int compressionLevel,
-      boolean isDirectory)
-      throws IOException {
-    // TODO(cjhopman): for files that we don't already have in memory, we should use the builder's
-    // stream api.
-    CRC32 crc32 = new CRC32();
-    crc32.update(content);
-    zipBuilder.addEntry(
-        new ByteArrayInputStream(content),
-        content.length,
-        crc32.getValue(),
-        name,
-        compressionLevel,
-        isDirectory);
-  }
-
+  /**
+   * The apk being rewritten. The apk is memory-mapped, so entries which are stored uncompressed are
+   * copied to the output straight from the mapping.
+   *
+   * <p>The mapping is copy-on-write when the apk can be opened for writing, which is the case for
+   * apks in buck-out. Entries which are rewritten (resources.arsc, which aapt always stores
+   * uncompressed, and the xml files) are then parsed and rewritten in place: only the pages that
+   * are actually changed are copied, off the heap, and they are never written back to the apk. If
+   * the apk can only be opened for reading, it is mapped read-only instead, and the rewritten
+   * entries are copied onto the heap before they are parsed. That costs as much heap as those
+   * entries take, but keeps read-only inputs working.
+   */
   private static class ApkZip implements Closeable, UsedResourcesFinder.ApkContentProvider {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_ZIP_COMMENT_SIZE = 0xffff;
+
     private final ZipFile zipFile;
     private final SortedMap<String, ZipEntry> entries;
-    private final Map<String, byte[]> entryContents;
+    private final ImmutableMap<String, ByteBuffer> storedEntries;
+    private final Map<String, ByteBuffer> entryContents;
     private final Map<String, ResourcesXml> xmlEntries;
     private final Supplier<ResourceTable> resourceTable;
 
@@ -273,11 +276,11 @@ public class ExoResourcesRewriter {
               .collect(
                   ImmutableSortedMap.toImmutableSortedMap(
                       Ordering.natural(), ZipEntry::getName, e -> e));
+      this.storedEntries = mapStoredEntries(inputPath);
       this.entryContents = new HashMap<>();
       this.xmlEntries = new HashMap<>();
       this.resourceTable =
-          MoreSuppliers.memoize(
-              () -> ResourceTable.get(ResChunk.wrap(getContent("resources.arsc"))));
+          MoreSuppliers.memoize(() -> ResourceTable.get(getWritableContent("resources.arsc")));
     }
 
     @Override
@@ -322,13 +325,40 @@ public class ExoResourcesRewriter {
           .collect(ImmutableList.toImmutableList());
     }
 
-    byte[] getContent(String path) {
-      return entryContents.computeIfAbsent(path, this::extractContent);
+    /**
+     * @return the content of an entry. Every call returns a new view of the same bytes, so changes
+     *     made through previously parsed chunks are visible.
+     */
+    ByteBuffer getContent(String path) {
+      return ResChunk.slice(entryContents.computeIfAbsent(path, this::extractContent), 0);
     }
 
-    private byte[] extractContent(String path) {
-      try {
-        return ByteStreams.toByteArray(zipFile.getInputStream(entries.get(path)));
+    /**
+     * Like {@link #getContent}, but copies entries from a read-only mapping onto the heap first.
+     * Entries of a copy-on-write mapping are returned as is.
+     */
+    private ByteBuffer getWritableContent(String path) {
+      ByteBuffer content = getContent(path);
+      if (content.isReadOnly()) {
+        byte[] data = new byte[content.remaining()];
+        content.get(data);
+        entryContents.put(path, ResChunk.wrap(data));
+        content = getContent(path);
+      }
+      return content;
+    }
+
+    private ByteBuffer extractContent(String path) {
+      ByteBuffer stored = storedEntries.get(path);
+      if (stored != null) {
+        return stored;
+      }
+      ZipEntry entry = entries.get(path);
+      try (InputStream input = zipFile.getInputStream(entry)) {
+        return ResChunk.wrap(
+            entry.getSize() >= 0
+                ? readFully(input, Math.toIntExact(entry.getSize()))
+                : ByteStreams.toByteArray(input));
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
@@ -336,10 +366,115 @@ public class ExoResourcesRewriter {
 
     private ResourcesXml extractXml(String path) {
       try {
-        return ResourcesXml.get(ResChunk.wrap(getContent(path)));
+        return ResourcesXml.get(getWritableContent(path));
       } catch (Exception e) {
         throw new RuntimeException("When extracting " + path, e);
       }
     }
+
+    private static byte[] readFully(InputStream input, int size) throws IOException {
+      byte[] data = new byte[size];
+      ByteStreams.readFully(input, data);
+      return data;
+    }
+
+    /**
+     * Memory-maps the apk, copy-on-write if possible and read-only otherwise, and finds the data of
+     * each entry that is stored uncompressed. Entries which can't be located this way (e.g. in
+     * zip64 archives, or if the apk can't be mapped) are read through {@link ZipFile}.
+     */
+    private static ImmutableMap<String, ByteBuffer> mapStoredEntries(Path inputPath) {
+      if (Platform.detect() == Platform.WINDOWS) {
+        // A mapping is only released once it's garbage collected, and until then Windows doesn't
+        // let anyone replace or delete the apk.
+        return ImmutableMap.of();
+      }
+      // PRIVATE mappings require a writable channel, although nothing is ever written to the file.
+      @Nullable ByteBuffer zip =
+          map(
+              inputPath,
+              FileChannel.MapMode.PRIVATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      if (zip == null) {
+        zip = map(inputPath, FileChannel.MapMode.READ_ONLY, StandardOpenOption.READ);
+      }
+      if (zip == null) {
+        return ImmutableMap.of();
+      }
+      zip.order(ByteOrder.LITTLE_ENDIAN);
+      try {
+        return findStoredEntries(zip);
+      } catch (IndexOutOfBoundsException
+          | IllegalArgumentException
+          | ArithmeticException
+          | BufferUnderflowException e) {
+        return ImmutableMap.of();
+      }
+    }
+
+    /** @return a mapping of the whole apk, or {@code null} if it can't be mapped this way. */
+    @Nullable
+    private static ByteBuffer map(
+        Path inputPath, FileChannel.MapMode mode, StandardOpenOption... options) {
+      try (FileChannel channel = FileChannel.open(inputPath, options)) {
+        if (channel.size() > Integer.MAX_VALUE) {
+          return null;
+        }
+        // The mapping stays valid after the channel is closed.
+        return channel.map(mode, 0, channel.size());
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    private static ImmutableMap<String, ByteBuffer> findStoredEntries(ByteBuffer zip) {
+      int endOfCentralDirectory = zip.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+      int minOffset = Math.max(0, endOfCentralDirectory - MAX_ZIP_COMMENT_SIZE);
+      while (endOfCentralDirectory >= minOffset
+          && zip.getInt(endOfCentralDirectory) != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        endOfCentralDirectory--;
+      }
+      if (endOfCentralDirectory < minOffset) {
+        return ImmutableMap.of();
+      }
+      int entryCount = Short.toUnsignedInt(zip.getShort(endOfCentralDirectory + 10));
+      long centralDirectoryOffset = Integer.toUnsignedLong(zip.getInt(endOfCentralDirectory + 16));
+
+      ImmutableMap.Builder<String, ByteBuffer> storedEntries = ImmutableMap.builder();
+      int offset = Math.toIntExact(centralDirectoryOffset);
+      for (int i = 0; i < entryCount; i++) {
+        if (zip.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+          return ImmutableMap.of();
+        }
+        int method = Short.toUnsignedInt(zip.getShort(offset + 10));
+        long compressedSize = Integer.toUnsignedLong(zip.getInt(offset + 20));
+        long size = Integer.toUnsignedLong(zip.getInt(offset + 24));
+        int nameLength = Short.toUnsignedInt(zip.getShort(offset + 28));
+        int extraLength = Short.toUnsignedInt(zip.getShort(offset + 30));
+        int commentLength = Short.toUnsignedInt(zip.getShort(offset + 32));
+        long localHeaderOffset = Integer.toUnsignedLong(zip.getInt(offset + 42));
+        byte[] name = new byte[nameLength];
+        ResChunk.slice(zip, offset + 46, nameLength).get(name);
+        offset += 46 + nameLength + extraLength + commentLength;
+
+        if (method != ZipEntry.STORED || compressedSize != size) {
+          continue;
+        }
+        int localHeader = Math.toIntExact(localHeaderOffset);
+        if (zip.getInt(localHeader) != LOCAL_HEADER_SIGNATURE) {
+          return ImmutableMap.of();
+        }
+        int dataOffset =
+            localHeader
+                + 30
+                + Short.toUnsignedInt(zip.getShort(localHeader + 26))
+                + Short.toUnsignedInt(zip.getShort(localHeader + 28));
+        storedEntries.put(
+            new String(name, StandardCharsets.UTF_8),
+            ResChunk.slice(zip, dataOffset, Math.toIntExact(size)));
+      }
+      return storedEntries.build();
+    }
   }
 }
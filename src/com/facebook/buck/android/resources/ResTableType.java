@@ -17,7 +17,6 @@
 package com.facebook.buck.android.resources;
 
 import com.google.common.base.Preconditions;
-import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
@@ -58,7 +57,6 @@ public class ResTableType extends ResChunk {
 
   @Nullable
   public static ResTableType slice(ResTableType type, int count) {
-    ByteArrayOutputStream output = new ByteArrayOutputStream();
     int currentOffset = 0;
     ByteBuffer entryOffsets = wrap(new byte[count * 4]);
     for (int i = 0; i < count; i++) {
@@ -67,21 +65,27 @@ public class ResTableType extends ResChunk {
         entryOffsets.putInt(i * 4, -1);
       } else {
         entryOffsets.putInt(i * 4, currentOffset);
-        int dataSize = type.getEntrySizeAtOffset(offset);
-        currentOffset += dataSize;
-        output.write(type.entryData.array(), type.entryData.arrayOffset() + offset, dataSize);
+        currentOffset += type.getEntrySizeAtOffset(offset);
       }
     }
 
-    byte[] entryData = output.toByteArray();
-    if (entryData.length == 0) {
+    if (currentOffset == 0) {
       return null;
     }
+    // Copy the retained entries straight from the (possibly memory-mapped) source buffer.
+    ByteBuffer entryData = wrap(new byte[currentOffset]);
+    for (int i = 0; i < count; i++) {
+      int offset = type.getEntryValueOffset(i);
+      if (offset != -1) {
+        entryData.put(slice(type.entryData, offset, type.getEntrySizeAtOffset(offset)));
+      }
+    }
+    entryData.rewind();
     int headerSize = type.getHeaderSize();
-    int chunkSize = headerSize + count * 4 + entryData.length;
+    int chunkSize = headerSize + count * 4 + currentOffset;
 
     return new ResTableType(
-        headerSize, chunkSize, type.id, count, copy(type.config), entryOffsets, wrap(entryData));
+        headerSize, chunkSize, type.id, count, copy(type.config), entryOffsets, entryData);
   }
 
   private int getEntrySizeAtOffset(int offset) {
@@ -21,6 +21,7 @@ import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
@@ -60,6 +61,23 @@ public class ResourcesZipBuilder implements Closeable {
     }
   }
 
+  /**
+   * Adds an entry with the remaining bytes of {@code content}. The content is streamed to the zip
+   * without being copied into a single array, so it can be a slice of a memory-mapped file.
+   */
+  public void addEntry(ByteBuffer content, String name, int compressionLevel, boolean isDirectory)
+      throws IOException {
+    CRC32 crc32 = new CRC32();
+    crc32.update(content.duplicate());
+    addEntry(
+        new ByteBufferInputStream(content.duplicate()),
+        content.remaining(),
+        crc32.getValue(),
+        name,
+        compressionLevel,
+        isDirectory);
+  }
+
   @Override
   public void close() throws IOException {
     if (!hasManifest) {
@@ -76,4 +94,35 @@ public class ResourcesZipBuilder implements Closeable {
     }
     builder.close();
   }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
 }
@@ -22,6 +22,7 @@ import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.EventDispatcher;
+import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.NoHealthyServersException;
 import com.google.common.base.Joiner;
@@ -30,6 +31,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import java.io.IOException;
 import java.util.Map;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import javax.annotation.Nullable;
 
@@ -42,6 +44,7 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
   protected final HttpService fetchClient;
   protected final HttpService storeClient;
   private final ErrorReporter errorReporter;
+  private final boolean streamingFetchEnabled;
 
   public AbstractNetworkCache(NetworkCacheArgs args) {
     super(
@@ -59,6 +62,7 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
     this.fetchClient = args.getFetchClient();
     this.storeClient = args.getStoreClient();
     this.errorReporter = new ErrorReporter(args);
+    this.streamingFetchEnabled = args.isStreamingFetchEnabled();
   }
 
   private static boolean isNoHealthyServersException(Throwable exception) {
@@ -75,6 +79,14 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
     return repository;
   }
 
+  /** @return the output as a {@link StreamableLazyPath} if fetches may be streamed into it. */
+  protected Optional<StreamableLazyPath> getStreamingOutput(LazyPath output) {
+    if (streamingFetchEnabled && output instanceof StreamableLazyPath) {
+      return Optional.of((StreamableLazyPath) output);
+    }
+    return Optional.empty();
+  }
+
   private static class NetworkEventListener implements CacheEventListener {
     private final EventDispatcher dispatcher;
     private final String name;
@@ -56,4 +56,13 @@ interface AbstractNetworkCacheArgs {
   int getErrorTextLimit();
 
   Optional<Long> getMaxStoreSizeBytes();
+
+  /**
+   * Whether fetched artifacts may be streamed straight to a {@link StreamableLazyPath} consumer
+   * instead of being written to a temporary file first.
+   */
+  @Value.Default
+  default boolean isStreamingFetchEnabled() {
+    return false;
+  }
 }
@@ -460,6 +460,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
               dirCacheConfig.getMaxSizeBytes(),
+              dirCacheConfig.getEvictionMode(),
               storeExecutorService);
 
       if (!buckEventBus.isPresent()) {
@@ -644,6 +645,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             .setHttpFetchExecutorService(httpFetchExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
             .setErrorTextLimit(cacheDescription.getErrorMessageLimit())
+            .setStreamingFetchEnabled(config.getHttpStreamingFetchEnabled())
             .build());
   }
 
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.artifact_cache;
 
+import com.facebook.buck.artifact_cache.config.ArtifactCompressionSettings;
 import com.facebook.buck.core.exceptions.handler.HumanReadableExceptionAugmentor;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
@@ -28,18 +29,24 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.CloseableHolder;
 import com.facebook.buck.util.ErrorLogger;
 import com.facebook.buck.util.NamedTemporaryFile;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.exceptions.BuckUncheckedExecutionException;
+import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.facebook.buck.util.zip.ZipConstants;
+import com.facebook.buck.util.zstd.ParallelZstdOutputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Multiset;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -47,9 +54,16 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
 import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 
 /**
@@ -59,6 +73,27 @@ import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStr
 public class ArtifactUploader {
   private static final Logger LOG = Logger.get(ArtifactUploader.class);
 
+  /**
+   * Compresses the frames of all uploads. Each upload keeps at most its configured number of frames
+   * in flight, and this pool bounds the threads that all concurrent uploads use together.
+   */
+  private static final ThreadPoolExecutor COMPRESSION_POOL = newCompressionPool();
+
+  private static ThreadPoolExecutor newCompressionPool() {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            1,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new MostExecutors.NamedThreadFactory("artifact-compression"));
+    // Idle threads exit, so the pool takes no threads between builds.
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
   public static ListenableFuture<Void> performUploadToArtifactCache(
       ImmutableSet<RuleKey> ruleKeys,
       ArtifactCache artifactCache,
@@ -67,12 +102,18 @@ public class ArtifactUploader {
       SortedSet<Path> pathsToIncludeInArchive,
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
+      ArtifactCompressionSettings compressionSettings,
       long buildTimeMs) {
     NamedTemporaryFile archive;
     try {
       archive =
           getTemporaryArtifactArchive(
-              buildTarget, projectFilesystem, ruleKeys, eventBus, pathsToIncludeInArchive);
+              buildTarget,
+              projectFilesystem,
+              ruleKeys,
+              eventBus,
+              pathsToIncludeInArchive,
+              compressionSettings);
     } catch (BuckUncheckedExecutionException e) {
       LOG.error(e.getMessage());
       LOG.debug(e.toString() + "\n" + Throwables.getStackTraceAsString(e));
@@ -160,7 +201,8 @@ public class ArtifactUploader {
       ProjectFilesystem projectFilesystem,
       ImmutableSet<RuleKey> ruleKeys,
       BuckEventBus eventBus,
-      SortedSet<Path> pathsToIncludeInArchive) {
+      SortedSet<Path> pathsToIncludeInArchive,
+      ArtifactCompressionSettings compressionSettings) {
     ArtifactCompressionEvent.Started started =
         ArtifactCompressionEvent.started(ArtifactCompressionEvent.Operation.COMPRESS, ruleKeys);
     eventBus.post(started);
@@ -168,7 +210,12 @@ public class ArtifactUploader {
         new CloseableHolder<>(
             new NamedTemporaryFile(
                 "buck_artifact_" + MostFiles.sanitize(buildTarget.getShortName()), ".tar.zst"))) {
-      compress(projectFilesystem, pathsToIncludeInArchive, archive.get().get());
+      compress(
+          projectFilesystem,
+          pathsToIncludeInArchive,
+          archive.get().get(),
+          compressionSettings,
+          COMPRESSION_POOL);
       return archive.release();
     } catch (IOException e) {
       throw new BuckUncheckedExecutionException(
@@ -186,8 +233,49 @@ public class ArtifactUploader {
   static void compress(
       ProjectFilesystem projectFilesystem, Collection<Path> pathsToIncludeInArchive, Path out)
       throws IOException {
+    compress(
+        projectFilesystem,
+        pathsToIncludeInArchive,
+        out,
+        ArtifactCompressionSettings.of(),
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Archive and compress 'pathsToIncludeInArchive' into 'out', using tar+zstandard.
+   *
+   * <p>With multiple compression threads the archive is split into independently compressed zstd
+   * frames, which are compressed on {@code compressionExecutor}.
+   */
+  @VisibleForTesting
+  static void compress(
+      ProjectFilesystem projectFilesystem,
+      Collection<Path> pathsToIncludeInArchive,
+      Path out,
+      ArtifactCompressionSettings settings,
+      Executor compressionExecutor)
+      throws IOException {
+    // Only files sharing their size with another file can have duplicate contents, so only those
+    // are hashed.
+    Multiset<Long> fileSizes = HashMultiset.create();
+    if (settings.isDeduplicateContents()) {
+      for (Path path : pathsToIncludeInArchive) {
+        if (!projectFilesystem.isDirectory(path)) {
+          fileSizes.add(projectFilesystem.getFileSize(path));
+        }
+      }
+    }
+    Map<Sha1HashCode, String> firstEntryWithContents = new HashMap<>();
+
     try (OutputStream o = new BufferedOutputStream(Files.newOutputStream(out));
-        OutputStream z = new ZstdCompressorOutputStream(o);
+        OutputStream z =
+            settings.getCompressionThreads() > 1
+                ? new ParallelZstdOutputStream(
+                    o,
+                    compressionExecutor,
+                    settings.getFrameSizeBytes(),
+                    settings.getCompressionThreads())
+                : new ZstdCompressorOutputStream(o);
         TarArchiveOutputStream archive = new TarArchiveOutputStream(z)) {
       archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
       for (Path path : pathsToIncludeInArchive) {
@@ -199,7 +287,23 @@ public class ArtifactUploader {
         e.setModTime(ZipConstants.getFakeTime());
 
         if (isRegularFile) {
-          e.setSize(projectFilesystem.getFileSize(path));
+          long size = projectFilesystem.getFileSize(path);
+          if (size > 0 && fileSizes.count(size) > 1) {
+            String firstEntry =
+                firstEntryWithContents.putIfAbsent(
+                    projectFilesystem.computeSha1(path), e.getName());
+            if (firstEntry != null) {
+              // Store a hard link to the earlier entry instead of the contents.
+              TarArchiveEntry link = new TarArchiveEntry(path.toString(), TarConstants.LF_LINK);
+              link.setLinkName(firstEntry);
+              link.setMode(e.getMode());
+              link.setModTime(e.getModTime());
+              archive.putArchiveEntry(link);
+              archive.closeArchiveEntry();
+              continue;
+            }
+          }
+          e.setSize(size);
           archive.putArchiveEntry(e);
           try (InputStream input = projectFilesystem.newFileInputStream(path)) {
             ByteStreams.copy(input, archive);
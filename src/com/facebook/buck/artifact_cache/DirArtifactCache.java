@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.DirCacheEvictionMode;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
@@ -47,6 +48,9 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -71,6 +75,7 @@ public class DirArtifactCache implements ArtifactCache {
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheReadMode;
   private final ListeningExecutorService storeExecutorService;
+  private final Optional<DirArtifactCacheIndex> index;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -79,6 +84,7 @@ public class DirArtifactCache implements ArtifactCache {
       Path cacheDir,
       CacheReadMode cacheReadMode,
       Optional<Long> maxCacheSizeBytes,
+      DirCacheEvictionMode evictionMode,
       ListeningExecutorService storeExecutorService)
       throws IOException {
     this.name = name;
@@ -93,6 +99,17 @@ public class DirArtifactCache implements ArtifactCache {
     if (!filesystem.isDirectory(cacheDir)) {
       filesystem.mkdirs(cacheDir);
     }
+
+    if (evictionMode == DirCacheEvictionMode.INDEX && cacheReadMode.isWritable()) {
+      this.index =
+          Optional.of(
+              DirArtifactCacheIndex.open(
+                  filesystem.resolve(getPathToIndexLog()),
+                  System::currentTimeMillis,
+                  this::getExistingEntriesByAccessTime));
+    } else {
+      this.index = Optional.empty();
+    }
   }
 
   @Override
@@ -129,8 +146,9 @@ public class DirArtifactCache implements ArtifactCache {
       // Now copy the artifact out.
       filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
 
-      result =
-          CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
+      long artifactSizeBytes = filesystem.getFileSize(output.get());
+      result = CacheResult.hit(name, CACHE_MODE, metadata.build(), artifactSizeBytes);
+      recordAccess(ruleKey);
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
     } catch (IOException e) {
@@ -168,6 +186,7 @@ public class DirArtifactCache implements ArtifactCache {
         Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
 
         if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
+          recordAccess(ruleKey);
           continue;
         }
 
@@ -205,12 +224,31 @@ public class DirArtifactCache implements ArtifactCache {
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
+
+        if (index.isPresent()) {
+          index
+              .get()
+              .recordStore(
+                  ruleKey,
+                  filesystem.getFileSize(artifactPath) + filesystem.getFileSize(metadataPath));
+        }
       }
 
     } catch (IOException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
     }
 
+    if (index.isPresent()) {
+      // The index knows the exact cache size, so trim as soon as it goes over the limit. This
+      // runs on the store executor and only touches the evicted entries.
+      if (maxCacheSizeBytes.isPresent()
+          && index.get().getTotalSizeBytes() > maxCacheSizeBytes.get()) {
+        bytesSinceLastDeleteOldFiles = 0L;
+        deleteOldFiles();
+      }
+      return;
+    }
+
     if (maxCacheSizeBytes.isPresent()
         && bytesSinceLastDeleteOldFiles
             > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
@@ -249,6 +287,9 @@ public class DirArtifactCache implements ArtifactCache {
     try {
       filesystem.deleteFileAtPathIfExists(metadataPath);
       filesystem.deleteFileAtPathIfExists(artifactPath);
+      if (index.isPresent()) {
+        index.get().recordRemoval(ruleKey);
+      }
     } catch (IOException e) {
       String message =
           String.format("Failed to delete artifact for rule key [%s] from local cache", ruleKey);
@@ -269,6 +310,10 @@ public class DirArtifactCache implements ArtifactCache {
     return cacheDir.resolve("tmp");
   }
 
+  private Path getPathToIndexLog() {
+    return cacheDir.resolve(DirArtifactCacheIndex.LOG_FILE_NAME);
+  }
+
   private Path getPreparedTempFolder() throws IOException {
     Path tmp = getPathToTempFolder();
     if (!filesystem.exists(tmp)) {
@@ -326,6 +371,39 @@ public class DirArtifactCache implements ArtifactCache {
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
     }
+    if (index.isPresent()) {
+      try {
+        index.get().close();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to close the index of [%s].", cacheDir);
+      }
+    }
+  }
+
+  private void recordAccess(RuleKey ruleKey) {
+    if (!index.isPresent()) {
+      return;
+    }
+    try {
+      index.get().recordAccess(ruleKey, () -> getEntrySizeBytes(ruleKey));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to record access to [%s] in the index of [%s].", ruleKey, cacheDir);
+    }
+  }
+
+  private long getEntrySizeBytes(RuleKey ruleKey) {
+    long size = 0;
+    for (Path path :
+        ImmutableList.of(
+            getPathForRuleKey(ruleKey, Optional.empty()),
+            getPathForRuleKey(ruleKey, Optional.of(".metadata")))) {
+      try {
+        size += filesystem.getFileSize(path);
+      } catch (IOException e) {
+        LOG.verbose(e, "Could not get the size of [%s].", path);
+      }
+    }
+    return size;
   }
 
   /** Deletes files that haven't been accessed recently from the directory cache. */
@@ -338,13 +416,69 @@ public class DirArtifactCache implements ArtifactCache {
     Path cacheDirInFs = filesystem.resolve(cacheDir);
     try {
       synchronized (this) {
-        newDirectoryCleaner().clean(cacheDirInFs);
+        if (index.isPresent()) {
+          evictFromIndex(index.get());
+        } else {
+          newDirectoryCleaner().clean(cacheDirInFs);
+        }
       }
     } catch (IOException e) {
       LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
     }
   }
 
+  private void evictFromIndex(DirArtifactCacheIndex index) throws IOException {
+    if (index.getTotalSizeBytes() <= maxCacheSizeBytes.get()) {
+      return;
+    }
+    ImmutableList<RuleKey> evicted =
+        index.evictUntil((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO));
+    for (RuleKey ruleKey : evicted) {
+      LOG.verbose("Evicting [%s] from [%s].", ruleKey, cacheDir);
+      filesystem.deleteFileAtPathIfExists(getPathForRuleKey(ruleKey, Optional.of(".metadata")));
+      filesystem.deleteFileAtPathIfExists(getPathForRuleKey(ruleKey, Optional.empty()));
+    }
+  }
+
+  /**
+   * Collects the entries already present in the cache directory, least recently accessed first.
+   * This walks the whole cache once, when an index is first created for an existing cache.
+   */
+  private LinkedHashMap<RuleKey, DirArtifactCacheIndex.Entry> getExistingEntriesByAccessTime()
+      throws IOException {
+    Map<RuleKey, long[]> sizeAndAccessByKey = new HashMap<>();
+    for (Path file : getAllFilesInCache()) {
+      String fileName = file.getFileName().toString();
+      RuleKey key;
+      try {
+        key =
+            new RuleKey(
+                fileName.endsWith(".metadata")
+                    ? fileName.substring(0, fileName.length() - ".metadata".length())
+                    : fileName);
+      } catch (IllegalArgumentException e) {
+        // Not a cache entry, e.g. the index log itself.
+        continue;
+      }
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      long[] sizeAndAccess = sizeAndAccessByKey.computeIfAbsent(key, k -> new long[2]);
+      sizeAndAccess[0] += attributes.size();
+      sizeAndAccess[1] = Math.max(sizeAndAccess[1], attributes.lastAccessTime().toMillis());
+    }
+
+    LinkedHashMap<RuleKey, DirArtifactCacheIndex.Entry> entries = new LinkedHashMap<>();
+    sizeAndAccessByKey
+        .entrySet()
+        .stream()
+        .sorted(Comparator.comparingLong(entry -> entry.getValue()[1]))
+        .forEach(
+            entry ->
+                entries.put(
+                    entry.getKey(),
+                    new DirArtifactCacheIndex.Entry(entry.getValue()[0], entry.getValue()[1])));
+    return entries;
+  }
+
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     List<Path> allFiles = new ArrayList<>();
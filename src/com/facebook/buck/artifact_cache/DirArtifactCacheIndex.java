@@ -0,0 +1,296 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Access-ordered index of the entries stored in a {@link DirArtifactCache}.
+ *
+ * <p>The index is kept in memory in least-recently-used order and mirrored to an append-only log
+ * inside the cache directory, so that trimming the cache only touches the entries which are
+ * actually evicted instead of walking and sorting the whole directory tree. The log is replayed
+ * when the cache is opened and rewritten in compacted form once it accumulates enough stale
+ * records.
+ *
+ * <p>The log assumes a single writer per cache directory. Entries written by other processes are
+ * picked up lazily when they are fetched.
+ */
+class DirArtifactCacheIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  static final String LOG_FILE_NAME = "index.log";
+
+  private static final byte RECORD_STORE = 1;
+  private static final byte RECORD_ACCESS = 2;
+  private static final byte RECORD_REMOVE = 3;
+
+  // Compact the log once it holds this many records per live entry.
+  private static final int COMPACTION_RATIO = 4;
+  private static final int MIN_RECORDS_BEFORE_COMPACTION = 1024;
+
+  private final Path logPath;
+  private final Path tmpLogPath;
+  private final LongSupplier clock;
+  private final LinkedHashMap<RuleKey, Entry> entries;
+  private long totalSizeBytes;
+  private long recordsInLog;
+  @Nullable private OutputStream logStream;
+
+  private DirArtifactCacheIndex(Path logPath, LongSupplier clock) {
+    this.logPath = logPath;
+    this.tmpLogPath = logPath.resolveSibling(LOG_FILE_NAME + ".tmp");
+    this.clock = clock;
+    this.entries = new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
+    this.totalSizeBytes = 0L;
+    this.recordsInLog = 0L;
+  }
+
+  /**
+   * Opens the index stored in {@code logPath}, replaying it if it exists.
+   *
+   * @param existingEntries entries found on disk, oldest first, used to seed the index when there
+   *     is no log yet (e.g. when an existing cache directory is switched to indexed eviction).
+   */
+  static DirArtifactCacheIndex open(
+      Path logPath, LongSupplier clock, ExistingEntriesSupplier existingEntries)
+      throws IOException {
+    DirArtifactCacheIndex index = new DirArtifactCacheIndex(logPath, clock);
+    if (Files.exists(logPath)) {
+      index.replay();
+    } else {
+      for (Map.Entry<RuleKey, Entry> existing : existingEntries.get().entrySet()) {
+        index.insert(existing.getKey(), existing.getValue());
+      }
+      LOG.debug("Seeded index at %s with %d existing entries.", logPath, index.entries.size());
+    }
+    // Start from a compacted log, this also drops any torn record left by a crash.
+    index.compact();
+    return index;
+  }
+
+  /** Records a newly stored entry, replacing any previous entry for the same key. */
+  synchronized void recordStore(RuleKey ruleKey, long sizeBytes) throws IOException {
+    Entry entry = new Entry(sizeBytes, clock.getAsLong());
+    insert(ruleKey, entry);
+    append(RECORD_STORE, ruleKey, entry);
+  }
+
+  /**
+   * Marks the entry as most recently used. Entries not known to the index are added with the size
+   * provided by {@code sizeBytes}.
+   */
+  synchronized void recordAccess(RuleKey ruleKey, LongSupplier sizeBytes) throws IOException {
+    Entry entry = entries.get(ruleKey);
+    if (entry == null) {
+      recordStore(ruleKey, sizeBytes.getAsLong());
+      return;
+    }
+    entry.lastAccessMillis = clock.getAsLong();
+    append(RECORD_ACCESS, ruleKey, entry);
+  }
+
+  synchronized void recordRemoval(RuleKey ruleKey) throws IOException {
+    Entry entry = entries.remove(ruleKey);
+    if (entry == null) {
+      return;
+    }
+    totalSizeBytes -= entry.sizeBytes;
+    append(RECORD_REMOVE, ruleKey, entry);
+  }
+
+  synchronized boolean contains(RuleKey ruleKey) {
+    return entries.containsKey(ruleKey);
+  }
+
+  synchronized long getTotalSizeBytes() {
+    return totalSizeBytes;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Removes least recently used entries from the index until the total size is at most {@code
+   * targetSizeBytes}.
+   *
+   * @return the evicted keys, least recently used first. The caller is responsible for deleting
+   *     the corresponding files.
+   */
+  synchronized ImmutableList<RuleKey> evictUntil(long targetSizeBytes) throws IOException {
+    ImmutableList.Builder<RuleKey> evicted = ImmutableList.builder();
+    Iterator<Map.Entry<RuleKey, Entry>> iterator = entries.entrySet().iterator();
+    while (totalSizeBytes > targetSizeBytes && iterator.hasNext()) {
+      Map.Entry<RuleKey, Entry> next = iterator.next();
+      iterator.remove();
+      totalSizeBytes -= next.getValue().sizeBytes;
+      append(RECORD_REMOVE, next.getKey(), next.getValue());
+      evicted.add(next.getKey());
+    }
+    return evicted.build();
+  }
+
+  @VisibleForTesting
+  synchronized ImmutableList<RuleKey> getKeysInEvictionOrder() {
+    return ImmutableList.copyOf(entries.keySet());
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (logStream != null) {
+      logStream.close();
+      logStream = null;
+    }
+  }
+
+  private void insert(RuleKey ruleKey, Entry entry) {
+    Entry previous = entries.remove(ruleKey);
+    if (previous != null) {
+      totalSizeBytes -= previous.sizeBytes;
+    }
+    entries.put(ruleKey, entry);
+    totalSizeBytes += entry.sizeBytes;
+  }
+
+  private void replay() throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+      while (true) {
+        byte type;
+        try {
+          type = in.readByte();
+        } catch (EOFException e) {
+          break;
+        }
+        RuleKey ruleKey;
+        long sizeBytes;
+        long lastAccessMillis;
+        try {
+          ruleKey = new RuleKey(in.readUTF());
+          sizeBytes = in.readLong();
+          lastAccessMillis = in.readLong();
+        } catch (EOFException e) {
+          LOG.warn("Ignoring truncated record at the end of %s.", logPath);
+          break;
+        }
+        switch (type) {
+          case RECORD_STORE:
+            insert(ruleKey, new Entry(sizeBytes, lastAccessMillis));
+            break;
+          case RECORD_ACCESS:
+            Entry entry = entries.get(ruleKey);
+            if (entry != null) {
+              entry.lastAccessMillis = lastAccessMillis;
+            }
+            break;
+          case RECORD_REMOVE:
+            Entry removed = entries.remove(ruleKey);
+            if (removed != null) {
+              totalSizeBytes -= removed.sizeBytes;
+            }
+            break;
+          default:
+            LOG.warn("Unknown record type %d in %s, ignoring the rest of the log.", type, logPath);
+            return;
+        }
+      }
+    }
+  }
+
+  private void append(byte type, RuleKey ruleKey, Entry entry) throws IOException {
+    if (logStream == null) {
+      logStream =
+          Files.newOutputStream(logPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+    // Each record goes out in a single write so a crash can only tear the last record.
+    logStream.write(encode(type, ruleKey, entry));
+    recordsInLog++;
+    if (recordsInLog > MIN_RECORDS_BEFORE_COMPACTION
+        && recordsInLog > (long) COMPACTION_RATIO * entries.size()) {
+      compact();
+    }
+  }
+
+  private void compact() throws IOException {
+    close();
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmpLogPath))) {
+      for (Map.Entry<RuleKey, Entry> entry : entries.entrySet()) {
+        out.write(encode(RECORD_STORE, entry.getKey(), entry.getValue()));
+      }
+    }
+    Files.move(tmpLogPath, logPath, StandardCopyOption.REPLACE_EXISTING);
+    recordsInLog = entries.size();
+  }
+
+  private static byte[] encode(byte type, RuleKey ruleKey, Entry entry) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(type);
+      out.writeUTF(ruleKey.toString());
+      out.writeLong(entry.sizeBytes);
+      out.writeLong(entry.lastAccessMillis);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Provides the entries already present on disk, oldest first. */
+  interface ExistingEntriesSupplier {
+    LinkedHashMap<RuleKey, Entry> get() throws IOException;
+  }
+
+  /** Size and last access time of a single cache entry (artifact plus metadata). */
+  static class Entry {
+    private final long sizeBytes;
+    private long lastAccessMillis;
+
+    Entry(long sizeBytes, long lastAccessMillis) {
+      this.sizeBytes = sizeBytes;
+      this.lastAccessMillis = lastAccessMillis;
+    }
+
+    long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    long getLastAccessMillis() {
+      return lastAccessMillis;
+    }
+  }
+}
@@ -22,6 +22,7 @@ import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.slb.HttpResponse;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,6 +31,7 @@ import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.Optional;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -84,10 +86,23 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
             getProjectFilesystem()
                 .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
 
+        Optional<StreamableLazyPath> streamingOutput = getStreamingOutput(output);
         FetchResponseReadResult fetchedData;
         try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
           fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+              HttpArtifactCacheBinaryProtocol.readFetchResponse(
+                  input,
+                  (ruleKeys, metadata, payload) -> {
+                    // Artifacts are only streamed once we know they are the ones we asked for,
+                    // the checksum can only be verified after the consumer has seen the payload.
+                    if (streamingOutput.isPresent()
+                        && ruleKeys.contains(ruleKey)
+                        && streamingOutput.get().accepts(metadata)) {
+                      streamingOutput.get().consume(metadata, payload);
+                    } else {
+                      ByteStreams.copy(payload, tempFileOutputStream);
+                    }
+                  });
         }
 
         resultBuilder
@@ -30,6 +30,7 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -51,11 +52,28 @@ public class HttpArtifactCacheBinaryProtocol {
     // Utility class, don't instantiate.
   }
 
+  /** Receives the payload of a response once its rule keys and metadata have been read. */
+  public interface PayloadHandler {
+    /**
+     * Reads the payload. Anything left unread is consumed afterwards so that it is still included
+     * in the checksum.
+     */
+    void handle(
+        ImmutableSet<RuleKey> ruleKeys, ImmutableMap<String, String> metadata, InputStream payload)
+        throws IOException;
+  }
+
   public static FetchResponseReadResult readFetchResponse(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readFetchResponse(
+        input, (ruleKeys, metadata, payload) -> ByteStreams.copy(payload, payloadSink));
+  }
+
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input, PayloadHandler payloadHandler) throws IOException {
 
     MetadataAndPayloadReadResultInternal resultInternal =
-        readMetadataAndPayload(input, payloadSink);
+        readMetadataAndPayload(input, payloadHandler);
 
     FetchResponseReadResult.Builder result = FetchResponseReadResult.builder().from(resultInternal);
     return result.build();
@@ -79,6 +97,12 @@ public class HttpArtifactCacheBinaryProtocol {
 
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(
+        input, (ruleKeys, metadata, payload) -> ByteStreams.copy(payload, payloadSink));
+  }
+
+  private static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input, PayloadHandler payloadHandler) throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -90,6 +114,8 @@ public class HttpArtifactCacheBinaryProtocol {
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
+    ImmutableSet.Builder<RuleKey> ruleKeys = ImmutableSet.builder();
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
     byte[] rawMetadata = new byte[metadataSize];
     ByteStreams.readFully(input, rawMetadata);
     try (InputStream rawMetadataIn = new ByteArrayInputStream(rawMetadata)) {
@@ -102,7 +128,7 @@ public class HttpArtifactCacheBinaryProtocol {
         // building up.
         int size = metadataIn.readInt();
         for (int i = 0; i < size; i++) {
-          result.addRuleKeys(new RuleKey(metadataIn.readUTF()));
+          ruleKeys.add(new RuleKey(metadataIn.readUTF()));
         }
 
         // Read in the actual metadata map, and add it the hash.
@@ -112,7 +138,7 @@ public class HttpArtifactCacheBinaryProtocol {
           int valSize = metadataIn.readInt();
           byte[] val = new byte[valSize];
           ByteStreams.readFully(metadataIn, val);
-          result.putMetadata(key, new String(val, Charsets.UTF_8));
+          metadata.put(key, new String(val, Charsets.UTF_8));
         }
       }
 
@@ -126,9 +152,15 @@ public class HttpArtifactCacheBinaryProtocol {
     // The remaining data is the payload, which we write to the created file, and also include
     // in our verification checksum.
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
-    try (InputStream payload =
-        new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+    ImmutableSet<RuleKey> readRuleKeys = ruleKeys.build();
+    ImmutableMap<String, String> readMetadata = metadata.build();
+    result.setRuleKeys(readRuleKeys).setMetadata(readMetadata);
+    try (CountingInputStream payload =
+        new CountingInputStream(
+            new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input)))) {
+      payloadHandler.handle(readRuleKeys, readMetadata, payload);
+      ByteStreams.exhaust(payload);
+      result.setResponseSizeBytes(payload.getCount());
       result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     }
 
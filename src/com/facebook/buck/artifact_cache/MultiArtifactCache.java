@@ -67,7 +67,10 @@ public class MultiArtifactCache implements ArtifactCache {
    */
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
-      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath fetchOutput) {
+    // Hits may have to be stored into other caches, which needs the artifact on disk.
+    LazyPath output =
+        isStoreSupported ? StreamableLazyPath.withoutStreaming(fetchOutput) : fetchOutput;
     ListenableFuture<CacheResult> cacheResult = Futures.immediateFuture(CacheResult.miss());
     // This is the list of higher-priority caches that we should write the artifact to.
     ImmutableList.Builder<ArtifactCache> cachesToFill = ImmutableList.builder();
@@ -82,6 +85,8 @@ public class MultiArtifactCache implements ArtifactCache {
                 if (artifactCache.getCacheReadMode().isWritable()) {
                   cachesToFill.add(artifactCache);
                 }
+                // A previous cache may have started streaming the artifact before failing.
+                StreamableLazyPath.resetStreamed(output);
                 return artifactCache.fetchAsync(target, ruleKey, output);
               },
               MoreExecutors.directExecutor());
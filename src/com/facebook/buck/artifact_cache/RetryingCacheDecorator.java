@@ -77,6 +77,7 @@ public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
                 LOG.info(
                     "Failed to fetch %s after %d/%d attempts, exception: %s",
                     ruleKey, retryCountForLambda + 1, maxFetchRetries, result.cacheError());
+                StreamableLazyPath.resetStreamed(output);
                 return delegate.fetchAsync(target, ruleKey, output);
               });
     }
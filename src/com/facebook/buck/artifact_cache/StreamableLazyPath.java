@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.file.LazyPath;
+import com.google.common.collect.ImmutableMap;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * A {@link LazyPath} for fetched artifacts which can also take the artifact payload as a stream.
+ *
+ * <p>Caches which download artifacts may hand the payload to {@link #consume} while it is being
+ * read, instead of writing it to {@link #get()} first, if the consumer {@link #accepts} the
+ * artifact. Caches which don't stream treat this as a regular {@link LazyPath}, so callers have to
+ * check {@link #wasStreamed()} to find out where the artifact went.
+ */
+public abstract class StreamableLazyPath extends LazyPath {
+
+  /** Receives artifact payloads as they are downloaded. */
+  public interface PayloadConsumer {
+    /** @return whether the artifact with the given metadata should be streamed to the consumer. */
+    boolean accepts(ImmutableMap<String, String> metadata);
+
+    /**
+     * Consumes the payload of an accepted artifact. This may be called more than once if the fetch
+     * is retried, in which case each call must start over.
+     */
+    void consume(ImmutableMap<String, String> metadata, InputStream payload) throws IOException;
+  }
+
+  private final PayloadConsumer consumer;
+  private volatile boolean streamed = false;
+
+  protected StreamableLazyPath(PayloadConsumer consumer) {
+    this.consumer = consumer;
+  }
+
+  public boolean accepts(ImmutableMap<String, String> metadata) {
+    return consumer.accepts(metadata);
+  }
+
+  /**
+   * Streams the payload to the consumer. The payload stream is not closed, so the caller can keep
+   * reading whatever the consumer leaves behind, e.g. to finish checksumming it.
+   */
+  public void consume(ImmutableMap<String, String> metadata, InputStream payload)
+      throws IOException {
+    streamed = true;
+    consumer.consume(
+        metadata,
+        new FilterInputStream(payload) {
+          @Override
+          public void close() {}
+        });
+  }
+
+  /** @return whether the last fetch into this path was streamed instead of written to disk. */
+  public boolean wasStreamed() {
+    return streamed;
+  }
+
+  /**
+   * Forgets whether an earlier fetch into {@code path} was streamed. Must be called before the
+   * artifact is fetched again into the same path, e.g. from the next cache or on retry, so that
+   * {@link #wasStreamed()} only describes the fetch whose result is returned.
+   */
+  public static void resetStreamed(LazyPath path) {
+    if (path instanceof StreamableLazyPath) {
+      ((StreamableLazyPath) path).streamed = false;
+    }
+  }
+
+  /**
+   * Returns a path which always receives the artifact on disk. Used by caches which need the
+   * fetched file, e.g. to store it into other caches.
+   */
+  public static LazyPath withoutStreaming(LazyPath path) {
+    if (!(path instanceof StreamableLazyPath)) {
+      return path;
+    }
+    return new LazyPath() {
+      @Override
+      protected Path create() throws IOException {
+        return path.get();
+      }
+    };
+  }
+}
@@ -171,11 +171,24 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
         }
 
         LOG.verbose("Got artifact.  Attempting to read payload.");
+        Optional<StreamableLazyPath> streamingOutput = getStreamingOutput(output);
+        ImmutableMap<String, String> fetchedMetadata =
+            fetchResponse.isSetMetadata() && fetchResponse.getMetadata().isSetMetadata()
+                ? ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata())
+                : ImmutableMap.of();
+        boolean streamPayload =
+            streamingOutput.isPresent()
+                && fetchResponse.isSetMetadata()
+                && streamingOutput.get().accepts(fetchedMetadata);
         Path tmp = createTempFileForDownload();
         ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult;
         try (OutputStream tmpFile = getProjectFilesystem().newFileOutputStream(tmp)) {
           try {
-            readResult = response.readPayload(tmpFile);
+            readResult =
+                streamPayload
+                    ? response.readPayload(
+                        payload -> streamingOutput.get().consume(fetchedMetadata, payload))
+                    : response.readPayload(tmpFile);
           } catch (IOException e) {
             LOG.debug(e, "encountered an exception while receiving the payload for %s", ruleKey);
             throw e;
@@ -25,9 +25,11 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -181,16 +183,7 @@ public class ThriftArtifactCacheProtocol {
     }
 
     public ReadPayloadInfo readPayload(OutputStream outStream) throws IOException {
-      assertTrue(
-          nextPayloadToBeRead < thriftData.getPayloadsSize(),
-          "Trying to download payload index=[%s] but the thriftData only contains [%s] payloads.",
-          nextPayloadToBeRead,
-          thriftData.getPayloadsSize());
-
-      long payloadSizeBytes =
-          assertNotNull(thriftData.getPayloads(), "Payloads[] cannot be null.")
-              .get(nextPayloadToBeRead)
-              .getSizeBytes();
+      long payloadSizeBytes = getNextPayloadSizeBytes();
       try (HashingOutputStream wrappedOutputStream =
           new HashingOutputStream(MD5_HASH_FUNCTION, outStream)) {
         copyExactly(responseStream, wrappedOutputStream, payloadSizeBytes);
@@ -199,12 +192,52 @@ public class ThriftArtifactCacheProtocol {
       }
     }
 
+    /**
+     * Hands the next payload to {@code payloadHandler} as a stream, e.g. to process it while it is
+     * being downloaded. Bytes the handler does not read are skipped but still hashed.
+     */
+    public ReadPayloadInfo readPayload(PayloadHandler payloadHandler) throws IOException {
+      long payloadSizeBytes = getNextPayloadSizeBytes();
+      CountingInputStream countingStream =
+          new CountingInputStream(ByteStreams.limit(responseStream, payloadSizeBytes));
+      HashingInputStream payload = new HashingInputStream(MD5_HASH_FUNCTION, countingStream);
+      payloadHandler.handle(payload);
+      ByteStreams.exhaust(payload);
+      if (countingStream.getCount() < payloadSizeBytes) {
+        String msg =
+            String.format(
+                "InputStream was missing [%d] bytes. Expected to read a total of [%d] bytes.",
+                payloadSizeBytes - countingStream.getCount(), payloadSizeBytes);
+        LOG.error(msg);
+        throw new IOException(msg);
+      }
+      ++nextPayloadToBeRead;
+      return new ReadPayloadInfo(payloadSizeBytes, payload.hash().toString());
+    }
+
+    private long getNextPayloadSizeBytes() throws ProtocolException {
+      assertTrue(
+          nextPayloadToBeRead < thriftData.getPayloadsSize(),
+          "Trying to download payload index=[%s] but the thriftData only contains [%s] payloads.",
+          nextPayloadToBeRead,
+          thriftData.getPayloadsSize());
+
+      return assertNotNull(thriftData.getPayloads(), "Payloads[] cannot be null.")
+          .get(nextPayloadToBeRead)
+          .getSizeBytes();
+    }
+
     @Override
     public void close() throws IOException {
       responseStream.close();
       nextPayloadToBeRead = -1;
     }
 
+    /** Reads a payload from the response stream. */
+    public interface PayloadHandler {
+      void handle(InputStream payload) throws IOException;
+    }
+
     public static class ReadPayloadInfo {
       private final long bytesRead;
       private final String md5Hash;
@@ -121,7 +121,9 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
 
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
-      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath fetchOutput) {
+    // The first level only holds a pointer to the content, which must not be streamed.
+    LazyPath output = StreamableLazyPath.withoutStreaming(fetchOutput);
     return Futures.transformAsync(
         delegate.fetchAsync(target, ruleKey, output),
         (CacheResult fetchResult) -> {
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache.config;
+
+import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.google.common.base.Preconditions;
+import org.immutables.value.Value;
+
+/**
+ * How build outputs are packaged into artifacts before they are stored into the cache. Settings
+ * which change the format of the artifacts also change rule keys, see {@code
+ * BuckConfig#getArtifactFormat()}.
+ */
+@Value.Immutable(singleton = true)
+@BuckStyleImmutable
+abstract class AbstractArtifactCompressionSettings {
+
+  /**
+   * Number of zstd frames of a single artifact which are compressed at the same time. With a
+   * single thread the artifact is written as one frame, as it always has been.
+   */
+  @Value.Default
+  public int getCompressionThreads() {
+    return 1;
+  }
+
+  /** Uncompressed size of each frame when compressing with multiple threads. */
+  @Value.Default
+  public int getFrameSizeBytes() {
+    return 4 * 1024 * 1024;
+  }
+
+  /**
+   * Whether files whose contents already appear earlier in the artifact are stored as links to the
+   * earlier entry instead of being stored again.
+   */
+  @Value.Default
+  public boolean isDeduplicateContents() {
+    return false;
+  }
+
+  @Value.Check
+  protected void check() {
+    Preconditions.checkState(
+        getCompressionThreads() > 0, "Compression threads must be positive.");
+    Preconditions.checkState(getFrameSizeBytes() > 0, "Frame size must be positive.");
+  }
+}
@@ -31,4 +31,9 @@ abstract class AbstractDirCacheEntry {
   public abstract Optional<Long> getMaxSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  @Value.Default
+  public DirCacheEvictionMode getEvictionMode() {
+    return DirCacheEvictionMode.WALK;
+  }
 }
@@ -80,13 +80,15 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String HTTP_MAX_FETCH_RETRIES = "http_max_fetch_retries";
   private static final String HTTP_MAX_STORE_ATTEMPTS = "http_max_store_attempts";
   private static final String HTTP_STORE_RETRY_INTERVAL_MILLIS = "http_store_retry_interval_millis";
+  private static final String HTTP_STREAMING_FETCH_FIELD_NAME = "http_streaming_fetch";
 
   private static final String DIR_FIELD = "dir";
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
+  private static final String DIR_EVICTION_MODE_FIELD = "dir_eviction_mode";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
-      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
+      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD, DIR_EVICTION_MODE_FIELD);
 
   private static final URI DEFAULT_HTTP_URL = URI.create("http://localhost:8080/");
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheReadMode.READWRITE.name();
@@ -140,6 +142,10 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
       "download_heavy_build_http_cache_fetch_threads";
   private static final int DEFAULT_DOWNLOAD_HEAVY_BUILD_CACHE_FETCH_THREADS = 20;
 
+  private static final String ARTIFACT_COMPRESSION_THREADS = "artifact_compression_threads";
+  private static final String ARTIFACT_COMPRESSION_FRAME_SIZE = "artifact_compression_frame_size";
+  private static final String ARTIFACT_DEDUPLICATE_CONTENTS = "artifact_deduplicate_contents";
+
   private final BuckConfig buckConfig;
   private final SlbBuckConfig slbConfig;
 
@@ -162,6 +168,14 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     return buckConfig.getBooleanValue(CACHE_SECTION_NAME, MULTI_CHECK, false);
   }
 
+  /**
+   * Whether artifacts fetched from remote caches are extracted while they are being downloaded,
+   * instead of being written to a temporary file first.
+   */
+  public boolean getHttpStreamingFetchEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, HTTP_STREAMING_FETCH_FIELD_NAME, false);
+  }
+
   @Override
   public BuckConfig getDelegate() {
     return buckConfig;
@@ -387,6 +401,21 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .map(SizeUnit::parseBytes);
   }
 
+  /** @return how build outputs are packaged into artifacts before storing them. */
+  public ArtifactCompressionSettings getArtifactCompressionSettings() {
+    ArtifactCompressionSettings.Builder builder = ArtifactCompressionSettings.builder();
+    buckConfig
+        .getInteger(CACHE_SECTION_NAME, ARTIFACT_COMPRESSION_THREADS)
+        .ifPresent(builder::setCompressionThreads);
+    buckConfig
+        .getValue(CACHE_SECTION_NAME, ARTIFACT_COMPRESSION_FRAME_SIZE)
+        .map(SizeUnit::parseBytes)
+        .ifPresent(size -> builder.setFrameSizeBytes(Math.toIntExact(size)));
+    builder.setDeduplicateContents(
+        buckConfig.getBooleanValue(CACHE_SECTION_NAME, ARTIFACT_DEDUPLICATE_CONTENTS, false));
+    return builder.build();
+  }
+
   /**
    * Gets the path to a PEM encoded X509 certifiate to use as the TLS client certificate for HTTP
    * cache requests
@@ -480,11 +509,17 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxSizeBytes =
         buckConfig.getValue(section, DIR_MAX_SIZE_FIELD).map(SizeUnit::parseBytes);
 
+    DirCacheEvictionMode evictionMode =
+        buckConfig
+            .getEnum(section, DIR_EVICTION_MODE_FIELD, DirCacheEvictionMode.class)
+            .orElse(DirCacheEvictionMode.WALK);
+
     return DirCacheEntry.builder()
         .setName(cacheName)
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
+        .setEvictionMode(evictionMode)
         .build();
   }
 
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache.config;
+
+/** Describes how a dir cache picks the entries to delete once it grows over its maximum size. */
+public enum DirCacheEvictionMode {
+  // Walk the whole cache directory and delete the files with the oldest access times.
+  WALK,
+  // Keep an access index next to the cache and evict least recently used entries incrementally.
+  INDEX,
+  ;
+}
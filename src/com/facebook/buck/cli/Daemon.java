@@ -31,9 +31,12 @@ import com.facebook.buck.event.FileHashCacheEvent;
 import com.facebook.buck.event.listener.devspeed.DevspeedBuildListenerFactory;
 import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.watchman.Capability;
 import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.io.watchman.WatchmanCursor;
+import com.facebook.buck.io.watchman.WatchmanSubscription;
 import com.facebook.buck.io.watchman.WatchmanWatcher;
+import com.facebook.buck.io.watchman.WatchmanWatcherException;
 import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
@@ -60,6 +63,7 @@ import java.util.OptionalInt;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 /**
  * Daemon used to monitor the file system and cache build rules between Main() method invocations is
@@ -87,6 +91,17 @@ final class Daemon implements Closeable {
 
   private final BackgroundTaskManager bgTaskManager;
 
+  private final Watchman watchman;
+  private final Object watchmanSubscriptionLock = new Object();
+
+  /** Whether changes should be received through a subscription between commands. */
+  private boolean useWatchmanSubscription;
+
+  @Nullable private WatchmanSubscription watchmanSubscription;
+
+  /** Number of commands using the daemon. Guarded by watchmanSubscriptionLock. */
+  private int commandsRunning = 0;
+
   Daemon(
       Cell rootCell,
       KnownRuleTypesProvider knownRuleTypesProvider,
@@ -95,6 +110,7 @@ final class Daemon implements Closeable {
       Clock clock,
       Supplier<Optional<DevspeedBuildListenerFactory>> devspeedBuildListenerFactorySupplier) {
     this.rootCell = rootCell;
+    this.watchman = watchman;
     this.fileEventBus = new EventBus("file-change-events");
 
     ImmutableList<Cell> allCells = rootCell.getAllCells();
@@ -142,6 +158,10 @@ final class Daemon implements Closeable {
             == WatchmanWatcher.CursorType.CLOCK_ID
         && !watchman.getClockIds().isEmpty()) {
       cursor = watchman.buildClockWatchmanCursorMap();
+      // Subscriptions advance clock cursors, which named cursors can't be.
+      useWatchmanSubscription =
+          parserConfig.getWatchmanSubscribe()
+              && watchman.getCapabilities().contains(Capability.FLUSH_SUBSCRIPTIONS);
     } else {
       LOG.debug("Falling back to named cursors: %s", watchman.getProjectWatches());
       cursor = watchman.buildNamedWatchmanCursorMap();
@@ -261,26 +281,97 @@ final class Daemon implements Closeable {
       WatchmanWatcher.FreshInstanceAction watchmanFreshInstanceAction)
       throws IOException, InterruptedException {
 
-    // Synchronize on parser object so that all outstanding watch events are processed
-    // as a single, atomic Parser cache update and are not interleaved with Parser cache
-    // invalidations triggered by requests to parse build files or interrupted by client
-    // disconnections.
-    synchronized (daemonicParserState) {
-      // Track the file hash cache invalidation run time.
-      FileHashCacheEvent.InvalidationStarted started = FileHashCacheEvent.invalidationStarted();
-      eventBus.post(started);
-      try {
+    // Track the file hash cache invalidation run time.
+    FileHashCacheEvent.InvalidationStarted started = FileHashCacheEvent.invalidationStarted();
+    eventBus.post(started);
+    try {
+      // Changes received through the subscription have been applied in the background while no
+      // command was running, so only the ones received since then are applied now.
+      if (syncWatchmanSubscription(eventBus)) {
+        return;
+      }
+
+      // Synchronize on parser object so that all outstanding watch events are processed
+      // as a single, atomic Parser cache update and are not interleaved with Parser cache
+      // invalidations triggered by requests to parse build files or interrupted by client
+      // disconnections.
+      synchronized (daemonicParserState) {
         watchmanWatcher.postEvents(eventBus, watchmanFreshInstanceAction);
-      } finally {
-        eventBus.post(FileHashCacheEvent.invalidationFinished(started));
-        for (ProjectFileHashCache hashCache : hashCaches) {
-          if (hashCache instanceof WatchedFileHashCache) {
-            WatchedFileHashCache cache = (WatchedFileHashCache) hashCache;
-            cache.getStatsEvents().forEach(eventBus::post);
-          }
+      }
+    } finally {
+      eventBus.post(FileHashCacheEvent.invalidationFinished(started));
+      for (ProjectFileHashCache hashCache : hashCaches) {
+        if (hashCache instanceof WatchedFileHashCache) {
+          WatchedFileHashCache cache = (WatchedFileHashCache) hashCache;
+          cache.getStatsEvents().forEach(eventBus::post);
         }
       }
     }
+    startWatchmanSubscription(watchmanWatcher);
+  }
+
+  /**
+   * Called when a command starts using the daemon. Changes received through the Watchman
+   * subscription are no longer applied in the background until all commands have finished.
+   */
+  void commandStarted() {
+    synchronized (watchmanSubscriptionLock) {
+      if (commandsRunning++ == 0 && watchmanSubscription != null) {
+        watchmanSubscription.pause();
+      }
+    }
+  }
+
+  /** Called when a command that has {@link #commandStarted} no longer uses the daemon. */
+  void commandFinished() {
+    synchronized (watchmanSubscriptionLock) {
+      if (--commandsRunning == 0 && watchmanSubscription != null) {
+        watchmanSubscription.resume();
+      }
+    }
+  }
+
+  /** @return whether all changes up to now have been received through the subscription. */
+  private boolean syncWatchmanSubscription(BuckEventBus eventBus) throws InterruptedException {
+    WatchmanSubscription subscription;
+    synchronized (watchmanSubscriptionLock) {
+      subscription = watchmanSubscription;
+    }
+    if (subscription == null) {
+      return false;
+    }
+    if (subscription.isActive()) {
+      try {
+        subscription.sync(eventBus);
+        return true;
+      } catch (IOException | WatchmanWatcherException e) {
+        LOG.warn(e, "Failed to sync the Watchman subscription.");
+      }
+    }
+    // The cursors have been advanced up to the last change that has been posted, so the
+    // remaining changes, including the buffered ones, are queried as usual.
+    subscription.close();
+    return false;
+  }
+
+  /** Subscribes to the changes since the current cursors, unless already subscribed. */
+  private void startWatchmanSubscription(WatchmanWatcher watchmanWatcher)
+      throws InterruptedException {
+    synchronized (watchmanSubscriptionLock) {
+      if (!useWatchmanSubscription
+          || (watchmanSubscription != null && watchmanSubscription.isActive())) {
+        return;
+      }
+      try {
+        // Events are posted while holding the same lock as when they are queried, see above.
+        watchmanSubscription =
+            watchmanWatcher.subscribe(watchman.createTransport(), daemonicParserState);
+      } catch (IOException | WatchmanWatcherException e) {
+        LOG.warn(e, "Failed to subscribe to Watchman, querying it for changes instead.");
+        watchmanSubscription = null;
+        useWatchmanSubscription = false;
+      }
+    }
   }
 
   /** @return true if the web server was started successfully. */
@@ -309,12 +400,30 @@ final class Daemon implements Closeable {
 
   @Override
   public void close() {
+    synchronized (watchmanSubscriptionLock) {
+      if (watchmanSubscription != null) {
+        watchmanSubscription.close();
+      }
+    }
     bgTaskManager.shutdownNow();
     shutdownPersistentWorkerPools();
     shutdownWebServer();
+    closeHashCaches();
     devspeedBuildListenerFactory.ifPresent(DevspeedBuildListenerFactory::close);
   }
 
+  private void closeHashCaches() {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (hashCache instanceof DefaultFileHashCache) {
+        try {
+          ((DefaultFileHashCache) hashCache).closePersistentStore();
+        } catch (IOException e) {
+          LOG.error(e);
+        }
+      }
+    }
+  }
+
   private void shutdownPersistentWorkerPools() {
     for (WorkerProcessPool pool : persistentWorkerPools.values()) {
       try {
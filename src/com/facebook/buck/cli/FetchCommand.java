@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cli;
 
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.command.Build;
 import com.facebook.buck.core.build.distributed.synchronization.impl.NoOpRemoteBuildRuleCompletionWaiter;
 import com.facebook.buck.core.build.engine.config.CachingBuildEngineBuckConfig;
@@ -31,6 +32,7 @@ import com.facebook.buck.core.model.actiongraph.computation.ActionGraphProvider;
 import com.facebook.buck.core.model.targetgraph.DescriptionWithTargetGraph;
 import com.facebook.buck.core.model.targetgraph.TargetGraphAndBuildTargets;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.config.RuleKeyConfig;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.transformer.impl.FetchTargetNodeToBuildRuleTransformer;
 import com.facebook.buck.core.sourcepath.resolver.impl.DefaultSourcePathResolver;
@@ -138,6 +140,10 @@ public class FetchCommand extends BuildCommand {
                   cachingBuildEngineBuckConfig.getBuildDepFiles(),
                   cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                   cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                  params
+                      .getBuckConfig()
+                      .getView(ArtifactCacheBuckConfig.class)
+                      .getArtifactCompressionSettings(),
                   actionGraphAndBuilder.getActionGraphBuilder(),
                   sourcePathRuleFinder,
                   DefaultSourcePathResolver.from(sourcePathRuleFinder),
@@ -152,7 +158,12 @@ public class FetchCommand extends BuildCommand {
                       ruleKeyCacheScope.getCache()),
                   new NoOpRemoteBuildRuleCompletionWaiter(),
                   cachingBuildEngineBuckConfig.getManifestServiceIfEnabled(
-                      params.getManifestServiceSupplier()));
+                      params.getManifestServiceSupplier()),
+                  Optional.empty(),
+                  params
+                      .getBuckConfig()
+                      .getView(RuleKeyConfig.class)
+                      .getRuleKeyCalculationMode());
           Build build =
               new Build(
                   actionGraphAndBuilder.getActionGraphBuilder(),
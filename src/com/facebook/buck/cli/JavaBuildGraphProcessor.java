@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cli;
 
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.distributed.synchronization.impl.NoOpRemoteBuildRuleCompletionWaiter;
 import com.facebook.buck.core.build.engine.BuildEngineBuildContext;
@@ -26,6 +27,7 @@ import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.config.RuleKeyConfig;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.resolver.impl.SingleThreadedActionGraphBuilder;
@@ -146,6 +148,10 @@ final class JavaBuildGraphProcessor {
                   cachingBuildEngineBuckConfig.getBuildDepFiles(),
                   cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                   cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                  params
+                      .getBuckConfig()
+                      .getView(ArtifactCacheBuckConfig.class)
+                      .getArtifactCompressionSettings(),
                   buildRuleResolver,
                   sourcePathRuleFinder,
                   DefaultSourcePathResolver.from(sourcePathRuleFinder),
@@ -160,7 +166,12 @@ final class JavaBuildGraphProcessor {
                       ruleKeyCacheScope.getCache()),
                   new NoOpRemoteBuildRuleCompletionWaiter(),
                   cachingBuildEngineBuckConfig.getManifestServiceIfEnabled(
-                      params.getManifestServiceSupplier()))) {
+                      params.getManifestServiceSupplier()),
+                  Optional.empty(),
+                  params
+                      .getBuckConfig()
+                      .getView(RuleKeyConfig.class)
+                      .getRuleKeyCalculationMode())) {
         // Create a BuildEngine because we store symbol information as build artifacts.
         BuckEventBus eventBus = params.getBuckEventBus();
         ExecutionContext executionContext =
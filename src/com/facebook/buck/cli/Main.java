@@ -59,6 +59,7 @@ import com.facebook.buck.core.util.immutables.BuckStyleTuple;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.counters.CounterRegistryImpl;
+import com.facebook.buck.counters.ListenerQueueCounter;
 import com.facebook.buck.distributed.DistBuildConfig;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
@@ -957,6 +958,8 @@ public final class Main {
         CommonThreadFactoryState commonThreadFactoryState =
             GlobalStateManager.singleton().getThreadToCommandRegister();
 
+        daemon.ifPresent(Daemon::commandStarted);
+
         try (ThrowingCloseableWrapper<ExecutorService, InterruptedException> diskIoExecutorService =
                 getExecutorWrapper(
                     MostExecutors.newSingleThreadExecutor("Disk I/O"),
@@ -1097,6 +1100,10 @@ public final class Main {
           LOG.debug(invocationInfo.toLogLine());
 
           buildEventBus.register(HANG_MONITOR.getHangMonitor());
+          counterRegistry.registerCounters(
+              ImmutableList.of(
+                  new ListenerQueueCounter(
+                      "buck_event_bus", "listener", ImmutableMap.of(), buildEventBus)));
 
           ImmutableMap<ExecutorPool, ListeningExecutorService> executors =
               ImmutableMap.of(
@@ -1352,6 +1359,8 @@ public final class Main {
           // signal nailgun that we are not interested in client disconnect events anymore
           context.ifPresent(c -> c.removeAllClientListeners());
 
+          daemon.ifPresent(Daemon::commandFinished);
+
           if (daemon.isPresent()) {
             // Clean up the trash in the background if this was a buckd
             // read-write command. (We don't bother waiting for it to
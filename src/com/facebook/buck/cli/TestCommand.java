@@ -17,6 +17,7 @@
 package com.facebook.buck.cli;
 
 import com.facebook.buck.android.exopackage.AndroidDevicesHelperFactory;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.command.Build;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.distributed.synchronization.impl.NoOpRemoteBuildRuleCompletionWaiter;
@@ -35,9 +36,11 @@ import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.model.targetgraph.impl.TargetNodes;
 import com.facebook.buck.core.resources.ResourcesConfig;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.config.RuleKeyConfig;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
 import com.facebook.buck.core.sourcepath.resolver.impl.DefaultSourcePathResolver;
 import com.facebook.buck.core.test.rule.ExternalTestRunnerRule;
 import com.facebook.buck.core.test.rule.ExternalTestRunnerTestSpec;
@@ -71,6 +74,7 @@ import com.facebook.buck.util.ListeningProcessExecutor;
 import com.facebook.buck.util.MoreExceptions;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.facebook.buck.versions.VersionException;
@@ -581,18 +585,26 @@ public class TestCommand extends BuildCommand {
             new LocalCachingBuildEngineDelegate(params.getFileHashCache());
         SourcePathRuleFinder sourcePathRuleFinder =
             new SourcePathRuleFinder(actionGraphAndBuilder.getActionGraphBuilder());
+        Optional<BuildRuleStrategy> buildRuleStrategy =
+            ModernBuildRuleBuilderFactory.getBuildStrategy(
+                params.getBuckConfig().getView(ModernBuildRuleConfig.class),
+                params.getBuckConfig().getView(RemoteExecutionConfig.class),
+                actionGraphAndBuilder.getActionGraphBuilder(),
+                params.getCell(),
+                params.getCell().getCellPathResolver(),
+                localCachingBuildEngineDelegate.getFileHashCache(),
+                params.getBuckEventBus(),
+                params.getMetadataProvider());
+        FileHashCache fileHashCache =
+            buildRuleStrategy.isPresent()
+                ? buildRuleStrategy
+                    .get()
+                    .decorateFileHashCache(localCachingBuildEngineDelegate.getFileHashCache())
+                : localCachingBuildEngineDelegate.getFileHashCache();
         try (CachingBuildEngine cachingBuildEngine =
                 new CachingBuildEngine(
                     localCachingBuildEngineDelegate,
-                    ModernBuildRuleBuilderFactory.getBuildStrategy(
-                        params.getBuckConfig().getView(ModernBuildRuleConfig.class),
-                        params.getBuckConfig().getView(RemoteExecutionConfig.class),
-                        actionGraphAndBuilder.getActionGraphBuilder(),
-                        params.getCell(),
-                        params.getCell().getCellPathResolver(),
-                        localCachingBuildEngineDelegate.getFileHashCache(),
-                        params.getBuckEventBus(),
-                        params.getMetadataProvider()),
+                    buildRuleStrategy,
                     pool.getWeightedListeningExecutorService(),
                     new DefaultStepRunner(),
                     getBuildEngineMode().orElse(cachingBuildEngineBuckConfig.getBuildEngineMode()),
@@ -600,6 +612,10 @@ public class TestCommand extends BuildCommand {
                     cachingBuildEngineBuckConfig.getBuildDepFiles(),
                     cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                     cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                    params
+                        .getBuckConfig()
+                        .getView(ArtifactCacheBuckConfig.class)
+                        .getArtifactCompressionSettings(),
                     actionGraphAndBuilder.getActionGraphBuilder(),
                     sourcePathRuleFinder,
                     DefaultSourcePathResolver.from(sourcePathRuleFinder),
@@ -608,13 +624,18 @@ public class TestCommand extends BuildCommand {
                     cachingBuildEngineBuckConfig.getConsoleLogBuildRuleFailuresInline(),
                     RuleKeyFactories.of(
                         params.getRuleKeyConfiguration(),
-                        localCachingBuildEngineDelegate.getFileHashCache(),
+                        fileHashCache,
                         actionGraphAndBuilder.getActionGraphBuilder(),
                         params.getBuckConfig().getBuildInputRuleKeyFileSizeLimit(),
                         ruleKeyCacheScope.getCache()),
                     new NoOpRemoteBuildRuleCompletionWaiter(),
                     cachingBuildEngineBuckConfig.getManifestServiceIfEnabled(
-                        params.getManifestServiceSupplier()));
+                        params.getManifestServiceSupplier()),
+                    Optional.empty(),
+                    params
+                        .getBuckConfig()
+                        .getView(RuleKeyConfig.class)
+                        .getRuleKeyCalculationMode());
             Build build =
                 new Build(
                     actionGraphAndBuilder.getActionGraphBuilder(),
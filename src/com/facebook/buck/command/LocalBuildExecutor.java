@@ -16,6 +16,7 @@
 package com.facebook.buck.command;
 
 import com.facebook.buck.artifact_cache.ArtifactCacheFactory;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.core.build.distributed.synchronization.RemoteBuildRuleCompletionWaiter;
 import com.facebook.buck.core.build.engine.BuildEngineResult;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
@@ -23,7 +24,9 @@ import com.facebook.buck.core.build.engine.config.CachingBuildEngineBuckConfig;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
 import com.facebook.buck.core.build.engine.impl.CachingBuildEngine;
 import com.facebook.buck.core.build.engine.impl.MetadataChecker;
+import com.facebook.buck.core.build.engine.impl.RuleDurationHistory;
 import com.facebook.buck.core.build.engine.type.BuildType;
+import com.facebook.buck.core.build.engine.type.RuleSchedulingMode;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.exceptions.BuildTargetParseException;
@@ -36,9 +39,12 @@ import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rulekey.config.RuleKeyConfig;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
 import com.facebook.buck.core.sourcepath.resolver.impl.DefaultSourcePathResolver;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.ProjectFilesystemFactory;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
@@ -56,6 +62,7 @@ import com.facebook.buck.step.ExecutorPool;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultProcessExecutor;
 import com.facebook.buck.util.ExitCode;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.util.environment.Platform;
@@ -74,6 +81,8 @@ import org.immutables.value.Value;
 
 /** Used to build a given set of targets on the local machine. */
 public class LocalBuildExecutor implements BuildExecutor {
+  private static final Logger LOG = Logger.get(LocalBuildExecutor.class);
+
   private final ActionGraphAndBuilder actionGraphAndBuilder;
   private final WeightedListeningExecutorService executorService;
   private final CachingBuildEngineDelegate cachingBuildEngineDelegate;
@@ -83,6 +92,7 @@ public class LocalBuildExecutor implements BuildExecutor {
   private final Optional<BuildType> buildEngineMode;
   private final Optional<ThriftRuleKeyLogger> ruleKeyLogger;
   private final MetadataProvider metadataProvider;
+  private final Optional<RuleDurationHistory> ruleDurationHistory;
 
   private final CachingBuildEngine cachingBuildEngine;
   private final Build build;
@@ -114,6 +124,7 @@ public class LocalBuildExecutor implements BuildExecutor {
     this.metadataProvider = metadataProvider;
 
     // Init resources.
+    this.ruleDurationHistory = loadRuleDurationHistory();
     this.cachingBuildEngine = createCachingBuildEngine();
     this.build =
         new Build(
@@ -193,6 +204,26 @@ public class LocalBuildExecutor implements BuildExecutor {
     // Destroy resources.
     build.close();
     cachingBuildEngine.close();
+
+    if (ruleDurationHistory.isPresent()) {
+      try {
+        ruleDurationHistory.get().save();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save rule durations.");
+      }
+    }
+  }
+
+  private Optional<RuleDurationHistory> loadRuleDurationHistory() {
+    if (args.getBuckConfig().getView(CachingBuildEngineBuckConfig.class).getRuleSchedulingMode()
+        != RuleSchedulingMode.CRITICAL_PATH) {
+      return Optional.empty();
+    }
+    ProjectFilesystem filesystem = args.getRootCell().getFilesystem();
+    return Optional.of(
+        RuleDurationHistory.load(
+            filesystem.resolve(
+                filesystem.getBuckPaths().getBuckOut().resolve(RuleDurationHistory.FILE_NAME))));
   }
 
   private ImmutableList<BuildRule> getRulesToBuild(Iterable<String> targetsToBuild) {
@@ -215,9 +246,7 @@ public class LocalBuildExecutor implements BuildExecutor {
         args.getBuckConfig().getView(CachingBuildEngineBuckConfig.class);
     SourcePathRuleFinder sourcePathRuleFinder =
         new SourcePathRuleFinder(actionGraphAndBuilder.getActionGraphBuilder());
-
-    return new CachingBuildEngine(
-        cachingBuildEngineDelegate,
+    Optional<BuildRuleStrategy> buildRuleStrategy =
         ModernBuildRuleBuilderFactory.getBuildStrategy(
             args.getBuckConfig().getView(ModernBuildRuleConfig.class),
             args.getBuckConfig().getView(RemoteExecutionConfig.class),
@@ -226,7 +255,17 @@ public class LocalBuildExecutor implements BuildExecutor {
             args.getRootCell().getCellPathResolver(),
             cachingBuildEngineDelegate.getFileHashCache(),
             args.getBuckEventBus(),
-            metadataProvider),
+            metadataProvider);
+    FileHashCache fileHashCache =
+        buildRuleStrategy.isPresent()
+            ? buildRuleStrategy
+                .get()
+                .decorateFileHashCache(cachingBuildEngineDelegate.getFileHashCache())
+            : cachingBuildEngineDelegate.getFileHashCache();
+
+    return new CachingBuildEngine(
+        cachingBuildEngineDelegate,
+        buildRuleStrategy,
         executorService,
         new DefaultStepRunner(),
         buildEngineMode.orElse(engineConfig.getBuildEngineMode()),
@@ -234,6 +273,9 @@ public class LocalBuildExecutor implements BuildExecutor {
         engineConfig.getBuildDepFiles(),
         engineConfig.getBuildMaxDepFileCacheEntries(),
         engineConfig.getBuildArtifactCacheSizeLimit(),
+        args.getBuckConfig()
+            .getView(ArtifactCacheBuckConfig.class)
+            .getArtifactCompressionSettings(),
         actionGraphAndBuilder.getActionGraphBuilder(),
         sourcePathRuleFinder,
         DefaultSourcePathResolver.from(sourcePathRuleFinder),
@@ -242,13 +284,15 @@ public class LocalBuildExecutor implements BuildExecutor {
         engineConfig.getConsoleLogBuildRuleFailuresInline(),
         RuleKeyFactories.of(
             args.getRuleKeyConfiguration(),
-            cachingBuildEngineDelegate.getFileHashCache(),
+            fileHashCache,
             actionGraphAndBuilder.getActionGraphBuilder(),
             args.getBuckConfig().getBuildInputRuleKeyFileSizeLimit(),
             ruleKeyCacheScope.getCache(),
             ruleKeyLogger),
         remoteBuildRuleCompletionWaiter,
-        args.getManifestService());
+        args.getManifestService(),
+        ruleDurationHistory,
+        args.getBuckConfig().getView(RuleKeyConfig.class).getRuleKeyCalculationMode());
   }
 
   public Build getBuild() {
@@ -73,6 +73,12 @@ public class BuildInfo {
 
     /** Key for {@link OnDiskBuildInfo} to store the hash of the output. */
     public static final String OUTPUT_HASH = "OUTPUT_HASH";
+
+    /**
+     * Key for {@link OnDiskBuildInfo} with a map of the outputs which haven't been materialized to
+     * the description of their contents given by the strategy which built them.
+     */
+    public static final String DEFERRED_OUTPUTS = "DEFERRED_OUTPUTS";
   }
 
   public static final ImmutableSet<String> METADATA_KEYS =
@@ -27,16 +27,37 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 
+/**
+ * {@link BuildInfoStore} backed by a SQLite database in WAL mode.
+ *
+ * <p>Reads don't block each other or writes: each reading thread borrows one of a pool of read
+ * connections, which see the last committed state of the database. Writes go through a single
+ * connection with group commit: a thread which wants to write queues its write, and whichever
+ * thread gets to commit next applies all queued writes in one transaction.
+ */
 public class SQLiteBuildInfoStore implements BuildInfoStore {
-  private final Connection connection;
-  private final PreparedStatement selectStmt;
-  private final PreparedStatement selectAllStmt;
+  private static final String SELECT_SQL =
+      "SELECT value FROM metadata WHERE target = ? AND key = ?";
+  private static final String SELECT_ALL_SQL = "SELECT key, value FROM metadata WHERE target = ?";
+
+  private final String dbUrl;
+  private final Connection writeConnection;
   private final PreparedStatement updateStmt;
   private final PreparedStatement deleteStmt;
+  private final Object commitLock = new Object();
+  private final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+  private final Queue<ReadConnection> readConnections = new ConcurrentLinkedQueue<>();
+  private final List<ReadConnection> allReadConnections = new ArrayList<>();
 
   public SQLiteBuildInfoStore(ProjectFilesystem filesystem) throws IOException {
     SQLiteUtils.initialize();
@@ -46,28 +67,24 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
             .resolve(filesystem.getBuckPaths().getScratchDir().resolve("metadata.db"))
             .toString();
     filesystem.createParentDirs(dbPath);
+    dbUrl = "jdbc:sqlite:" + dbPath;
     try {
       Class.forName("org.sqlite.JDBC");
-      connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
-      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
-      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
-      connection
+      writeConnection = DriverManager.getConnection(dbUrl);
+      writeConnection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
+      writeConnection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+      writeConnection
           .createStatement()
           .executeUpdate(
               "CREATE TABLE IF NOT EXISTS metadata "
                   + "(target TEXT, key TEXT, value TEXT, "
                   + "PRIMARY KEY (target, key)) "
                   + "WITHOUT ROWID");
-      selectStmt =
-          connection.prepareStatement("SELECT value FROM metadata WHERE target = ? AND key = ?");
-      selectAllStmt =
-          connection.prepareStatement("SELECT key, value FROM metadata WHERE target = ?");
-
       updateStmt =
-          connection.prepareStatement(
+          writeConnection.prepareStatement(
               "INSERT OR REPLACE INTO metadata (target, key, value) VALUES (?, ?, ?)");
-      deleteStmt = connection.prepareStatement("DELETE FROM metadata WHERE target = ?");
-      BusyHandler.setHandler(connection, new RetryBusyHandler());
+      deleteStmt = writeConnection.prepareStatement("DELETE FROM metadata WHERE target = ?");
+      BusyHandler.setHandler(writeConnection, new RetryBusyHandler());
     } catch (ClassNotFoundException | SQLException e) {
       throw new IOException(e);
     }
@@ -76,18 +93,26 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
   @Override
   public void close() {
     try {
-      connection.close();
+      synchronized (allReadConnections) {
+        for (ReadConnection readConnection : allReadConnections) {
+          readConnection.connection.close();
+        }
+        allReadConnections.clear();
+        readConnections.clear();
+      }
+      writeConnection.close();
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
   }
 
   @Override
-  public synchronized Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+  public Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+    ReadConnection readConnection = borrowReadConnection();
     try {
-      selectStmt.setString(1, cellRelativeName(buildTarget));
-      selectStmt.setString(2, key);
-      try (ResultSet rs = selectStmt.executeQuery()) {
+      readConnection.selectStmt.setString(1, cellRelativeName(buildTarget));
+      readConnection.selectStmt.setString(2, key);
+      try (ResultSet rs = readConnection.selectStmt.executeQuery()) {
         if (!rs.next()) {
           return Optional.empty();
         }
@@ -96,14 +121,17 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
       }
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      readConnections.add(readConnection);
     }
   }
 
   @Override
-  public synchronized ImmutableMap<String, String> getAllMetadata(BuildTarget buildTarget) {
+  public ImmutableMap<String, String> getAllMetadata(BuildTarget buildTarget) {
+    ReadConnection readConnection = borrowReadConnection();
     try {
-      selectAllStmt.setString(1, cellRelativeName(buildTarget));
-      try (ResultSet rs = selectAllStmt.executeQuery()) {
+      readConnection.selectAllStmt.setString(1, cellRelativeName(buildTarget));
+      try (ResultSet rs = readConnection.selectAllStmt.executeQuery()) {
         ImmutableMap.Builder<String, String> result = ImmutableMap.builder();
         while (rs.next()) {
           result.put(rs.getString(1), rs.getString(2));
@@ -112,36 +140,136 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
       }
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      readConnections.add(readConnection);
     }
   }
 
   @Override
-  public synchronized void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
+  public void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
       throws IOException {
+    String target = cellRelativeName(buildTarget);
+    ImmutableMap<String, String> values = ImmutableMap.copyOf(metadata);
+    write(
+        () -> {
+          for (Map.Entry<String, String> e : values.entrySet()) {
+            updateStmt.setString(1, target);
+            updateStmt.setString(2, e.getKey());
+            updateStmt.setString(3, e.getValue());
+            updateStmt.addBatch();
+          }
+          updateStmt.executeBatch();
+        });
+  }
+
+  @Override
+  public void deleteMetadata(BuildTarget buildTarget) throws IOException {
+    String target = cellRelativeName(buildTarget);
+    write(
+        () -> {
+          deleteStmt.setString(1, target);
+          deleteStmt.executeUpdate();
+        });
+  }
+
+  /** Queues a write and returns once it, and possibly writes of other threads, is committed. */
+  private void write(SQLWrite write) throws IOException {
+    PendingWrite pending = new PendingWrite(write);
+    pendingWrites.add(pending);
+    synchronized (commitLock) {
+      // Another thread may have committed our write while we waited for the lock.
+      if (!pending.done) {
+        commitPendingWrites();
+      }
+    }
+    if (pending.failure != null) {
+      throw new IOException(pending.failure);
+    }
+  }
+
+  private void commitPendingWrites() {
+    List<PendingWrite> batch = new ArrayList<>();
+    for (PendingWrite pending; (pending = pendingWrites.poll()) != null; ) {
+      batch.add(pending);
+    }
+    try {
+      runInTransaction(batch);
+      for (PendingWrite pending : batch) {
+        pending.done = true;
+      }
+    } catch (SQLException batchFailure) {
+      // Apply the writes one by one, so a bad write fails alone.
+      for (PendingWrite pending : batch) {
+        try {
+          runInTransaction(Collections.singletonList(pending));
+        } catch (SQLException e) {
+          pending.failure = e;
+        }
+        pending.done = true;
+      }
+    }
+  }
+
+  private void runInTransaction(List<PendingWrite> writes) throws SQLException {
+    writeConnection.setAutoCommit(false);
     try {
-      for (Map.Entry<String, String> e : metadata.entrySet()) {
-        updateStmt.setString(1, cellRelativeName(buildTarget));
-        updateStmt.setString(2, e.getKey());
-        updateStmt.setString(3, e.getValue());
-        updateStmt.addBatch();
+      for (PendingWrite pending : writes) {
+        pending.write.run();
       }
-      updateStmt.executeBatch();
+      writeConnection.commit();
     } catch (SQLException e) {
-      throw new IOException(e);
+      writeConnection.rollback();
+      throw e;
+    } finally {
+      writeConnection.setAutoCommit(true);
     }
   }
 
-  @Override
-  public synchronized void deleteMetadata(BuildTarget buildTarget) throws IOException {
+  private ReadConnection borrowReadConnection() {
+    ReadConnection readConnection = readConnections.poll();
+    if (readConnection != null) {
+      return readConnection;
+    }
     try {
-      deleteStmt.setString(1, cellRelativeName(buildTarget));
-      deleteStmt.executeUpdate();
+      readConnection = new ReadConnection(DriverManager.getConnection(dbUrl));
     } catch (SQLException e) {
-      throw new IOException(e);
+      throw new RuntimeException(e);
     }
+    synchronized (allReadConnections) {
+      allReadConnections.add(readConnection);
+    }
+    return readConnection;
   }
 
   private String cellRelativeName(BuildTarget buildTarget) {
     return buildTarget.withoutCell().getFullyQualifiedName();
   }
+
+  private interface SQLWrite {
+    void run() throws SQLException;
+  }
+
+  private static class PendingWrite {
+    private final SQLWrite write;
+    // Guarded by commitLock, which the writing thread takes before reading these.
+    private boolean done = false;
+    @Nullable private SQLException failure;
+
+    private PendingWrite(SQLWrite write) {
+      this.write = write;
+    }
+  }
+
+  private static class ReadConnection {
+    private final Connection connection;
+    private final PreparedStatement selectStmt;
+    private final PreparedStatement selectAllStmt;
+
+    private ReadConnection(Connection connection) throws SQLException {
+      this.connection = connection;
+      BusyHandler.setHandler(connection, new RetryBusyHandler());
+      this.selectStmt = connection.prepareStatement(SELECT_SQL);
+      this.selectAllStmt = connection.prepareStatement(SELECT_ALL_SQL);
+    }
+  }
 }
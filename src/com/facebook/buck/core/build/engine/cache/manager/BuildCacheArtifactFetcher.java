@@ -19,6 +19,7 @@ package com.facebook.buck.core.build.engine.cache.manager;
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.StreamableLazyPath;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
@@ -36,15 +37,20 @@ import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.util.unarchive.ArchiveFormat;
 import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Untar;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BuildCacheArtifactFetcher {
 
@@ -89,10 +95,14 @@ public class BuildCacheArtifactFetcher {
       return Futures.immediateFuture(CacheResult.ignored());
     }
 
+    // Caches which support it extract the artifact while downloading it, otherwise it is written to
+    // the temp file and extracted from there.
+    StreamingArtifactExtractor streamingExtractor =
+        new StreamingArtifactExtractor(ruleKey, filesystem);
     // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
     // that we are creating a zip-based FileSystem.
-    LazyPath lazyZipPath =
-        new LazyPath() {
+    StreamableLazyPath lazyZipPath =
+        new StreamableLazyPath(streamingExtractor) {
           @Override
           protected Path create() throws IOException {
             return Files.createTempFile(
@@ -125,7 +135,8 @@ public class BuildCacheArtifactFetcher {
             }
 
             return Futures.immediateFuture(
-                extractArtifactFromCacheResult(ruleKey, lazyZipPath, filesystem, cacheResult));
+                extractArtifactFromCacheResult(
+                    ruleKey, lazyZipPath, streamingExtractor, filesystem, cacheResult));
           }
         });
   }
@@ -172,20 +183,39 @@ public class BuildCacheArtifactFetcher {
   }
 
   private CacheResult extractArtifactFromCacheResult(
-      RuleKey ruleKey, LazyPath lazyZipPath, ProjectFilesystem filesystem, CacheResult cacheResult)
+      RuleKey ruleKey,
+      StreamableLazyPath lazyZipPath,
+      StreamingArtifactExtractor streamingExtractor,
+      ProjectFilesystem filesystem,
+      CacheResult cacheResult)
       throws IOException {
 
     // We only unpack artifacts from hits.
     if (!cacheResult.getType().isSuccess()) {
       LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
+      // The artifact may have been partly extracted while downloading from a cache which then
+      // failed or rejected it, e.g. because its checksum didn't match, so don't leave its contents
+      // behind.
+      streamingExtractor.deleteExtractedFiles();
       return cacheResult;
     }
-    onOutputsWillChange.call();
 
     Preconditions.checkState(cacheResult.metadata().isPresent());
     Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
     LOG.debug("Fetched '%s' from cache with rulekey '%s'", rule, ruleKey);
 
+    if (lazyZipPath.wasStreamed()) {
+      // The contents are already in place, we only have to record the metadata.
+      Files.deleteIfExists(lazyZipPath.getUnchecked());
+      buildInfoStoreManager
+          .get(rule.getProjectFilesystem(), metadataStorage)
+          .updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+      return cacheResult;
+    }
+    // A cache tried before the one which hit may have started streaming the artifact.
+    streamingExtractor.deleteExtractedFiles();
+    onOutputsWillChange.call();
+
     // It should be fine to get the path straight away, since cache already did it's job.
     Path zipPath = lazyZipPath.getUnchecked();
 
@@ -244,6 +274,59 @@ public class BuildCacheArtifactFetcher {
     return cacheResult;
   }
 
+  /** Extracts artifacts into the project filesystem while they are being downloaded. */
+  private class StreamingArtifactExtractor implements StreamableLazyPath.PayloadConsumer {
+    private final RuleKey ruleKey;
+    private final ProjectFilesystem filesystem;
+
+    /** Files which may have been written, including the ones of failed attempts. */
+    private final Set<Path> extractedFiles = ConcurrentHashMap.newKeySet();
+
+    private StreamingArtifactExtractor(RuleKey ruleKey, ProjectFilesystem filesystem) {
+      this.ruleKey = ruleKey;
+      this.filesystem = filesystem;
+    }
+
+    @Override
+    public boolean accepts(ImmutableMap<String, String> metadata) {
+      // Artifacts without build metadata are rejected after fetching, so download them to disk.
+      return metadata.containsKey(BuildInfo.MetadataKey.ORIGIN_BUILD_ID);
+    }
+
+    @Override
+    public void consume(ImmutableMap<String, String> metadata, InputStream payload)
+        throws IOException {
+      try (Scope ignored = buildRuleScope()) {
+        onOutputsWillChange.call();
+        ArtifactCompressionEvent.Started started =
+            ArtifactCompressionEvent.started(
+                ArtifactCompressionEvent.Operation.DECOMPRESS, ImmutableSet.of(ruleKey));
+        eventBus.post(started);
+        try {
+          // Files are recorded before they are written, so that they can be deleted if the
+          // extraction fails halfway through the stream.
+          ImmutableSet<Path> artifactFiles =
+              Untar.zstdUnarchiver()
+                  .extractArchive(
+                      payload,
+                      filesystem,
+                      ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+                      extractedFiles::add);
+          onDiskBuildInfo.validateArtifact(artifactFiles);
+        } finally {
+          eventBus.post(ArtifactCompressionEvent.finished(started));
+        }
+      }
+    }
+
+    private void deleteExtractedFiles() throws IOException {
+      for (Path path : extractedFiles) {
+        filesystem.deleteFileAtPathIfExists(path);
+      }
+      extractedFiles.clear();
+    }
+  }
+
   @FunctionalInterface
   public interface OnOutputsWillChange {
     void call() throws IOException;
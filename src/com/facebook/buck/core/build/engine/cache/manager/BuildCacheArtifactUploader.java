@@ -18,6 +18,7 @@ package com.facebook.buck.core.build.engine.cache.manager;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactUploader;
+import com.facebook.buck.artifact_cache.config.ArtifactCompressionSettings;
 import com.facebook.buck.core.build.engine.BuildRuleSuccessType;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
@@ -45,6 +46,7 @@ public class BuildCacheArtifactUploader {
   private final BuckEventBus eventBus;
   private final ArtifactCache artifactCache;
   private final Optional<Long> artifactCacheSizeLimit;
+  private final ArtifactCompressionSettings artifactCompressionSettings;
 
   public BuildCacheArtifactUploader(
       RuleKey defaultKey,
@@ -54,7 +56,8 @@ public class BuildCacheArtifactUploader {
       ManifestRuleKeyManager manifestRuleKeyManager,
       BuckEventBus eventBus,
       ArtifactCache artifactCache,
-      Optional<Long> artifactCacheSizeLimit) {
+      Optional<Long> artifactCacheSizeLimit,
+      ArtifactCompressionSettings artifactCompressionSettings) {
     this.defaultKey = defaultKey;
     this.inputBasedKey = inputBasedKey;
     this.onDiskBuildInfo = onDiskBuildInfo;
@@ -63,6 +66,7 @@ public class BuildCacheArtifactUploader {
     this.eventBus = eventBus;
     this.artifactCache = artifactCache;
     this.artifactCacheSizeLimit = artifactCacheSizeLimit;
+    this.artifactCompressionSettings = artifactCompressionSettings;
   }
 
   /**
@@ -119,6 +123,7 @@ public class BuildCacheArtifactUploader {
         onDiskBuildInfo.getPathsForArtifact(),
         rule.getBuildTarget(),
         rule.getProjectFilesystem(),
+        artifactCompressionSettings,
         buildTimeMs);
   }
 
@@ -18,6 +18,7 @@ package com.facebook.buck.core.build.engine.config;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.build.engine.type.MetadataStorage;
+import com.facebook.buck.core.build.engine.type.RuleSchedulingMode;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.ConfigView;
 import com.facebook.buck.core.resources.ResourcesConfig;
@@ -47,6 +48,13 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
     return getDelegate().getEnum("build", "depfiles", DepFiles.class).orElse(DepFiles.CACHE);
   }
 
+  /** @return the order in which to start rules that are ready to build. */
+  public RuleSchedulingMode getRuleSchedulingMode() {
+    return getDelegate()
+        .getEnum("build", "rule_scheduling", RuleSchedulingMode.class)
+        .orElse(RuleSchedulingMode.DEFAULT);
+  }
+
   /**
    * @return whether to log to console build rule failures as they happen, including rule name and
    *     error text. If false, then depending on keepGoing/verbosity settings, failures may not
@@ -18,6 +18,7 @@ package com.facebook.buck.core.build.engine.impl;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.config.ArtifactCompressionSettings;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.distributed.synchronization.RemoteBuildRuleCompletionWaiter;
 import com.facebook.buck.core.build.engine.BuildEngine;
@@ -40,6 +41,7 @@ import com.facebook.buck.core.build.event.BuildRuleEvent;
 import com.facebook.buck.core.build.stats.BuildRuleDurationTracker;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.RuleKeyCalculationMode;
 import com.facebook.buck.core.rulekey.calculator.ParallelRuleKeyCalculator;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
@@ -71,9 +73,13 @@ import com.google.common.util.concurrent.MoreExecutors;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
@@ -132,6 +138,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final SourcePathRuleFinder ruleFinder;
   private final SourcePathResolver pathResolver;
   private final Optional<Long> artifactCacheSizeLimit;
+  private final ArtifactCompressionSettings artifactCompressionSettings;
   private final FileHashCache fileHashCache;
   @VisibleForTesting final RuleKeyFactories ruleKeyFactories;
   private final ResourceAwareSchedulingInfo resourceAwareSchedulingInfo;
@@ -153,6 +160,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private final Optional<ManifestService> manifestService;
 
+  private final Optional<RuleDurationHistory> ruleDurationHistory;
+  private final Optional<CriticalPathPrioritizer> criticalPathPrioritizer;
+
   public CachingBuildEngine(
       CachingBuildEngineDelegate cachingBuildEngineDelegate,
       Optional<BuildRuleStrategy> customBuildRuleStrategy,
@@ -163,6 +173,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       DepFiles depFiles,
       long maxDepFileCacheEntries,
       Optional<Long> artifactCacheSizeLimit,
+      ArtifactCompressionSettings artifactCompressionSettings,
       BuildRuleResolver resolver,
       SourcePathRuleFinder ruleFinder,
       SourcePathResolver pathResolver,
@@ -171,7 +182,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       boolean consoleLogBuildFailuresInline,
       RuleKeyFactories ruleKeyFactories,
       RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter,
-      Optional<ManifestService> manifestService) {
+      Optional<ManifestService> manifestService,
+      Optional<RuleDurationHistory> ruleDurationHistory,
+      RuleKeyCalculationMode ruleKeyCalculationMode) {
     this(
         cachingBuildEngineDelegate,
         customBuildRuleStrategy,
@@ -182,6 +195,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         depFiles,
         maxDepFileCacheEntries,
         artifactCacheSizeLimit,
+        artifactCompressionSettings,
         resolver,
         buildInfoStoreManager,
         ruleFinder,
@@ -199,7 +213,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                     .getDefaultRuleKeyFactory()
                     .buildForDiagnostics(appendable, new StringRuleKeyHasher())),
         consoleLogBuildFailuresInline,
-        manifestService);
+        manifestService,
+        ruleDurationHistory,
+        ruleKeyCalculationMode);
   }
 
   /** This constructor MUST ONLY BE USED FOR TESTS. */
@@ -214,6 +230,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       DepFiles depFiles,
       long maxDepFileCacheEntries,
       Optional<Long> artifactCacheSizeLimit,
+      ArtifactCompressionSettings artifactCompressionSettings,
       BuildRuleResolver resolver,
       BuildInfoStoreManager buildInfoStoreManager,
       SourcePathRuleFinder ruleFinder,
@@ -223,23 +240,34 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics,
       boolean consoleLogBuildFailuresInline,
-      Optional<ManifestService> manifestService) {
+      Optional<ManifestService> manifestService,
+      Optional<RuleDurationHistory> ruleDurationHistory,
+      RuleKeyCalculationMode ruleKeyCalculationMode) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
     this.customBuildRuleStrategy = customBuildRuleStrategy;
 
     this.manifestService = manifestService;
-    this.service = service;
+    // When rules are prioritized, work that isn't tied to a single rule (e.g. computing rule keys
+    // and scheduling) runs first, as it is what makes further rules ready to build.
+    this.service =
+        ruleDurationHistory.isPresent() ? service.withPriority(Long.MAX_VALUE) : service;
     this.stepRunner = stepRunner;
     this.buildMode = buildMode;
     this.metadataStorage = metadataStorage;
     this.depFiles = depFiles;
     this.maxDepFileCacheEntries = maxDepFileCacheEntries;
     this.artifactCacheSizeLimit = artifactCacheSizeLimit;
+    this.artifactCompressionSettings = artifactCompressionSettings;
     this.resolver = resolver;
     this.ruleFinder = ruleFinder;
     this.pathResolver = pathResolver;
 
-    this.fileHashCache = cachingBuildEngineDelegate.getFileHashCache();
+    this.fileHashCache =
+        customBuildRuleStrategy.isPresent()
+            ? customBuildRuleStrategy
+                .get()
+                .decorateFileHashCache(cachingBuildEngineDelegate.getFileHashCache())
+            : cachingBuildEngineDelegate.getFileHashCache();
     this.ruleKeyFactories = ruleKeyFactories;
     this.resourceAwareSchedulingInfo = resourceAwareSchedulingInfo;
     this.buildInfoStoreManager = buildInfoStoreManager;
@@ -247,6 +275,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
     this.ruleDeps = new DefaultRuleDepsCache(resolver);
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
+    this.ruleDurationHistory = ruleDurationHistory;
+    this.criticalPathPrioritizer =
+        ruleDurationHistory.map(history -> new CriticalPathPrioritizer(ruleDeps, history));
     this.defaultRuleKeyDiagnostics = defaultRuleKeyDiagnostics;
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
     this.asyncCallbacks = new ConcurrentLinkedQueue<>();
@@ -260,7 +291,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                     eventBus,
                     rule,
                     buildRuleDurationTracker,
-                    ruleKeyFactories.getDefaultRuleKeyFactory()));
+                    ruleKeyFactories.getDefaultRuleKeyFactory()),
+            ruleKeyCalculationMode);
   }
 
   @Override
@@ -354,6 +386,15 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private void registerTopLevelRule(BuildRule rule, BuckEventBus eventBus) {
     unskippedRulesTracker.ifPresent(tracker -> tracker.registerTopLevelRule(rule, eventBus));
+    criticalPathPrioritizer.ifPresent(prioritizer -> prioritizer.registerTopLevelRule(rule));
+  }
+
+  /** @return the service to run the work for {@code rule} on, prioritized by its critical path. */
+  private WeightedListeningExecutorService serviceForRule(BuildRule rule) {
+    if (!criticalPathPrioritizer.isPresent()) {
+      return service;
+    }
+    return service.withPriority(criticalPathPrioritizer.get().getPriority(rule));
   }
 
   private void markRuleAsUsed(BuildRule rule, BuckEventBus eventBus) {
@@ -473,9 +514,55 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     registerTopLevelRule(rule, buildContext.getEventBus());
     ListenableFuture<BuildResult> resultFuture =
         getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
+    if (customBuildRuleStrategy.isPresent()) {
+      resultFuture = materializeOutputs(rule, resultFuture);
+    }
     return BuildEngineResult.builder().setResult(resultFuture).build();
   }
 
+  /**
+   * The outputs of a rule requested by the user, and of everything it needs at runtime, e.g. to be
+   * run or tested, have to be on disk once it's built, even if the strategy left them deferred.
+   */
+  private ListenableFuture<BuildResult> materializeOutputs(
+      BuildRule rule, ListenableFuture<BuildResult> resultFuture) {
+    return Futures.transformAsync(
+        resultFuture,
+        result -> {
+          if (!Objects.requireNonNull(result).isSuccess()) {
+            return Futures.immediateFuture(result);
+          }
+          return Futures.catching(
+              Futures.transform(
+                  customBuildRuleStrategy.get().materializeOutputs(getRuntimeClosure(rule)),
+                  ignored -> result,
+                  MoreExecutors.directExecutor()),
+              Throwable.class,
+              thrown -> BuildResult.failure(rule, thrown),
+              MoreExecutors.directExecutor());
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** @return {@code rule} and its transitive runtime deps. */
+  private Set<BuildRule> getRuntimeClosure(BuildRule rule) {
+    Set<BuildRule> closure = new LinkedHashSet<>();
+    Deque<BuildRule> toVisit = new ArrayDeque<>();
+    toVisit.add(rule);
+    while (!toVisit.isEmpty()) {
+      BuildRule current = toVisit.remove();
+      if (!closure.add(current) || !(current instanceof HasRuntimeDeps)) {
+        continue;
+      }
+      toVisit.addAll(
+          resolver.getAllRules(
+              ((HasRuntimeDeps) current)
+                  .getRuntimeDeps(ruleFinder)
+                  .collect(ImmutableSet.toImmutableSet())));
+    }
+    return closure;
+  }
+
   @Nullable
   @Override
   public BuildResult getBuildRuleResult(BuildTarget buildTarget)
@@ -512,6 +599,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         new CachingBuildRuleBuilder(
             new DefaultBuildRuleBuilderDelegate(this, buildContext),
             artifactCacheSizeLimit,
+            artifactCompressionSettings,
             buildInfoStoreManager,
             buildMode,
             buildRuleDurationTracker,
@@ -524,7 +612,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             pathResolver,
             resourceAwareSchedulingInfo,
             ruleKeyFactories,
-            service,
+            serviceForRule(rule),
             stepRunner,
             this.ruleDeps,
             rule,
@@ -586,5 +674,11 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     public void onRuleAboutToBeBuilt(BuildRule rule) {
       cachingBuildEngine.cachingBuildEngineDelegate.onRuleAboutToBeBuilt(rule);
     }
+
+    @Override
+    public void onRuleBuiltLocally(BuildRule rule, long durationMillis) {
+      cachingBuildEngine.ruleDurationHistory.ifPresent(
+          history -> history.record(rule, durationMillis));
+    }
   }
 }
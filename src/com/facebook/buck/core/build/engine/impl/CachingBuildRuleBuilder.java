@@ -21,6 +21,7 @@ import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.RuleKeyCacheResult;
 import com.facebook.buck.artifact_cache.RuleKeyCacheResultEvent;
+import com.facebook.buck.artifact_cache.config.ArtifactCompressionSettings;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.distributed.synchronization.RemoteBuildRuleCompletionWaiter;
@@ -193,6 +194,7 @@ class CachingBuildRuleBuilder {
   public CachingBuildRuleBuilder(
       BuildRuleBuilderDelegate buildRuleBuilderDelegate,
       Optional<Long> artifactCacheSizeLimit,
+      ArtifactCompressionSettings artifactCompressionSettings,
       BuildInfoStoreManager buildInfoStoreManager,
       BuildType buildMode,
       BuildRuleDurationTracker buildRuleDurationTracker,
@@ -316,7 +318,8 @@ class CachingBuildRuleBuilder {
             manifestRuleKeyManager,
             eventBus,
             artifactCache,
-            artifactCacheSizeLimit);
+            artifactCacheSizeLimit,
+            artifactCompressionSettings);
     this.customBuildRuleStrategy = customBuildRuleStrategy;
   }
 
@@ -642,10 +645,22 @@ class CachingBuildRuleBuilder {
   private void finalizeBuiltLocally(AtomicReference<Long> outputSize)
       throws IOException, StepFailedException, InterruptedException {
     BuildRuleSuccessType success = BuildRuleSuccessType.BUILT_LOCALLY;
-    // Try get the output size now that all outputs have been recorded.
-    outputSize.set(getBuildInfoRecorder().getOutputSize());
-    getBuildInfoRecorder()
-        .addMetadata(BuildInfo.MetadataKey.OUTPUT_SIZE, outputSize.get().toString());
+    if (customBuildRuleStrategy.isPresent()
+        && customBuildRuleStrategy.get().hasDeferredOutputs(rule)) {
+      // Outputs that haven't been materialized can't be measured or hashed, so the strategy's
+      // description of them is recorded instead, for the next build to restore them. Without an
+      // output size, the rule isn't uploaded to the cache.
+      getBuildInfoRecorder()
+          .addMetadata(
+              BuildInfo.MetadataKey.DEFERRED_OUTPUTS,
+              ObjectMappers.WRITER.writeValueAsString(
+                  customBuildRuleStrategy.get().getDeferredOutputs(rule)));
+    } else {
+      // Try get the output size now that all outputs have been recorded.
+      outputSize.set(getBuildInfoRecorder().getOutputSize());
+      getBuildInfoRecorder()
+          .addMetadata(BuildInfo.MetadataKey.OUTPUT_SIZE, outputSize.get().toString());
+    }
 
     if (rule instanceof HasPostBuildSteps) {
       executePostBuildSteps(((HasPostBuildSteps) rule).getPostBuildSteps(buildRuleBuildContext));
@@ -753,7 +768,7 @@ class CachingBuildRuleBuilder {
       }
     }
 
-    if (shouldWriteOutputHashes(outputSize.get())) {
+    if (outputSize.get() != null && shouldWriteOutputHashes(outputSize.get())) {
       onDiskBuildInfo.writeOutputHashes(fileHashCache);
     }
   }
@@ -791,6 +806,12 @@ class CachingBuildRuleBuilder {
         BuildRuleSuccessType success = input.getSuccess();
         successType = Optional.of(success);
 
+        Pair<Long, Long> localBuildTimestamps = buildTimestampsMillis;
+        if (success == BuildRuleSuccessType.BUILT_LOCALLY && localBuildTimestamps != null) {
+          buildRuleBuilderDelegate.onRuleBuiltLocally(
+              rule, localBuildTimestamps.getSecond() - localBuildTimestamps.getFirst());
+        }
+
         // Try get the output size.
         Optional<String> outputSizeString = onDiskBuildInfo.getValue(MetadataKey.OUTPUT_SIZE);
         if (outputSizeString.isPresent()) {
@@ -842,6 +863,17 @@ class CachingBuildRuleBuilder {
         new BuildStrategyContext() {
           @Override
           public ListenableFuture<Optional<BuildResult>> runWithDefaultBehavior() {
+            if (customBuildRuleStrategy.isPresent()) {
+              // The steps of the rule may read any output of its deps.
+              return Futures.transformAsync(
+                  customBuildRuleStrategy.get().materializeOutputs(rule.getBuildDeps()),
+                  ignored -> runSteps(),
+                  MoreExecutors.directExecutor());
+            }
+            return runSteps();
+          }
+
+          private ListenableFuture<Optional<BuildResult>> runSteps() {
             if (SupportsPipelining.isSupported(rule)
                 && ((SupportsPipelining<?>) rule).useRulePipelining()) {
               return pipelinesRunner.runPipelineStartingAt(
@@ -966,6 +998,7 @@ class CachingBuildRuleBuilder {
 
     // 1. Check if it's already built.
     try (Scope ignored = buildRuleScope()) {
+      restoreDeferredOutputs();
       Optional<BuildResult> buildResult = checkMatchingLocalKey();
       if (buildResult.isPresent()) {
         return Futures.immediateFuture(buildResult.get());
@@ -1142,6 +1175,29 @@ class CachingBuildRuleBuilder {
             });
   }
 
+  /**
+   * A rule whose outputs were left deferred by an earlier build only matches its on-disk keys if
+   * the strategy can still materialize them. Otherwise its metadata is deleted, so that it's
+   * fetched or built again.
+   */
+  private void restoreDeferredOutputs() {
+    if (!onDiskBuildInfo.getValue(BuildInfo.MetadataKey.DEFERRED_OUTPUTS).isPresent()) {
+      return;
+    }
+    Optional<ImmutableMap<String, String>> deferredOutputs =
+        onDiskBuildInfo.getMap(BuildInfo.MetadataKey.DEFERRED_OUTPUTS);
+    if (deferredOutputs.isPresent()
+        && customBuildRuleStrategy.isPresent()
+        && customBuildRuleStrategy.get().restoreDeferredOutputs(rule, deferredOutputs.get())) {
+      return;
+    }
+    try {
+      onDiskBuildInfo.deleteExistingMetadata();
+    } catch (IOException e) {
+      throw new BuckUncheckedExecutionException(e);
+    }
+  }
+
   private Optional<BuildResult> checkMatchingLocalKey() {
     Optional<RuleKey> cachedRuleKey = onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY);
     if (defaultKey.equals(cachedRuleKey.orElse(null))) {
@@ -1234,6 +1290,8 @@ class CachingBuildRuleBuilder {
       ((InitializableFromDisk<?>) rule).getBuildOutputInitializer().invalidate();
     }
     onDiskBuildInfo.deleteExistingMetadata();
+    // The strategy mustn't hash or materialize outputs of a previous build in place of new ones.
+    customBuildRuleStrategy.ifPresent(strategy -> strategy.discardDeferredOutputs(rule));
     // TODO(cjhopman): Delete old outputs.
   }
 
@@ -1467,5 +1525,7 @@ class CachingBuildRuleBuilder {
     void addAsyncCallback(ListenableFuture<Void> callback);
 
     void onRuleAboutToBeBuilt(BuildRule rule);
+
+    void onRuleBuiltLocally(BuildRule rule, long durationMillis);
   }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.rules.BuildRule;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ranks rules by the estimated time it takes to build them and everything that depends on them, so
+ * that rules on the critical path of the build can be started first.
+ *
+ * <p>The priority of a rule is its own estimated duration plus the highest priority among the rules
+ * that depend on it in the build, i.e. the length of the longest chain of work the rule blocks.
+ */
+class CriticalPathPrioritizer {
+
+  private final RuleDepsCache ruleDeps;
+  private final RuleDurationHistory history;
+
+  // Guarded by this.
+  private final Set<BuildRule> registered = new HashSet<>();
+  private final Map<BuildRule, Set<BuildRule>> dependents = new HashMap<>();
+  private final Map<BuildRule, Long> priorities = new HashMap<>();
+
+  CriticalPathPrioritizer(RuleDepsCache ruleDeps, RuleDurationHistory history) {
+    this.ruleDeps = ruleDeps;
+    this.history = history;
+  }
+
+  /** Adds {@code rule} and its transitive deps to the graph that priorities are computed from. */
+  synchronized void registerTopLevelRule(BuildRule rule) {
+    Deque<BuildRule> toVisit = new ArrayDeque<>();
+    if (registered.add(rule)) {
+      toVisit.push(rule);
+    }
+    boolean addedEdges = false;
+    while (!toVisit.isEmpty()) {
+      BuildRule current = toVisit.pop();
+      for (BuildRule dep : ruleDeps.get(current)) {
+        addedEdges |= dependents.computeIfAbsent(dep, ignored -> new HashSet<>()).add(current);
+        if (registered.add(dep)) {
+          toVisit.push(dep);
+        }
+      }
+    }
+    if (addedEdges) {
+      // Rules may have gained dependents, so previously computed priorities may be too low.
+      priorities.clear();
+    }
+  }
+
+  /**
+   * @return the estimated time in milliseconds to build {@code rule} and the longest chain of
+   *     registered rules depending on it.
+   */
+  synchronized long getPriority(BuildRule rule) {
+    Long priority = priorities.get(rule);
+    if (priority != null) {
+      return priority;
+    }
+    Deque<BuildRule> stack = new ArrayDeque<>();
+    stack.push(rule);
+    while (!stack.isEmpty()) {
+      BuildRule current = stack.peek();
+      if (priorities.containsKey(current)) {
+        stack.pop();
+        continue;
+      }
+      Set<BuildRule> currentDependents = dependents.getOrDefault(current, ImmutableSet.of());
+      boolean dependentsComputed = true;
+      for (BuildRule dependent : currentDependents) {
+        if (!priorities.containsKey(dependent)) {
+          stack.push(dependent);
+          dependentsComputed = false;
+        }
+      }
+      if (dependentsComputed) {
+        stack.pop();
+        long longestDependentChain = 0;
+        for (BuildRule dependent : currentDependents) {
+          longestDependentChain = Math.max(longestDependentChain, priorities.get(dependent));
+        }
+        priorities.put(current, history.estimateDuration(current) + longestDependentChain);
+      }
+    }
+    return priorities.get(rule);
+  }
+}
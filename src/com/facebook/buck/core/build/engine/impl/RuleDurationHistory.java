@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * How long rules took to build locally in previous builds, used to estimate how long they will take
+ * in the next one.
+ *
+ * <p>Durations are kept per build target and per rule type, so that rules which have never been
+ * built before can be estimated from other rules of the same type. New measurements are averaged
+ * with the previous estimate to smooth out noise between builds.
+ */
+public class RuleDurationHistory {
+
+  private static final Logger LOG = Logger.get(RuleDurationHistory.class);
+
+  public static final String FILE_NAME = "rule_durations.json";
+
+  /** Estimate for rules of a type that has never been built before. */
+  static final long DEFAULT_ESTIMATE_MILLIS = 1000;
+
+  private static final String TARGETS_KEY = "targets";
+  private static final String TYPES_KEY = "types";
+
+  private final Path path;
+  private final ConcurrentMap<String, Long> targetDurations;
+  private final ConcurrentMap<String, Long> typeDurations;
+
+  private RuleDurationHistory(
+      Path path, Map<String, Long> targetDurations, Map<String, Long> typeDurations) {
+    this.path = path;
+    this.targetDurations = new ConcurrentHashMap<>(targetDurations);
+    this.typeDurations = new ConcurrentHashMap<>(typeDurations);
+  }
+
+  /**
+   * Reads the durations stored at {@code path} by a previous build. Starts with no durations if
+   * the file does not exist or can't be parsed.
+   */
+  public static RuleDurationHistory load(Path path) {
+    if (Files.exists(path)) {
+      try {
+        Map<String, Map<String, Long>> stored =
+            ObjectMappers.readValue(path, new TypeReference<Map<String, Map<String, Long>>>() {});
+        return new RuleDurationHistory(
+            path,
+            stored.getOrDefault(TARGETS_KEY, ImmutableMap.of()),
+            stored.getOrDefault(TYPES_KEY, ImmutableMap.of()));
+      } catch (IOException e) {
+        LOG.warn(e, "Ignoring unreadable rule durations in %s.", path);
+      }
+    }
+    return new RuleDurationHistory(path, ImmutableMap.of(), ImmutableMap.of());
+  }
+
+  /** @return the estimated time in milliseconds it takes to build {@code rule} locally. */
+  public long estimateDuration(BuildRule rule) {
+    if (!rule.hasBuildSteps()) {
+      return 0;
+    }
+    Long duration = targetDurations.get(rule.getFullyQualifiedName());
+    if (duration == null) {
+      duration = typeDurations.getOrDefault(rule.getType(), DEFAULT_ESTIMATE_MILLIS);
+    }
+    return duration;
+  }
+
+  /** Records that {@code rule} took {@code millis} milliseconds to build locally. */
+  public void record(BuildRule rule, long millis) {
+    long duration = Math.max(0, millis);
+    targetDurations.merge(rule.getFullyQualifiedName(), duration, RuleDurationHistory::average);
+    typeDurations.merge(rule.getType(), duration, RuleDurationHistory::average);
+  }
+
+  /** Writes the durations to the file they were loaded from, for use by the next build. */
+  public void save() throws IOException {
+    Files.createDirectories(path.getParent());
+    Path tmpPath = path.resolveSibling(FILE_NAME + ".tmp");
+    ObjectMappers.WRITER.writeValue(
+        tmpPath.toFile(),
+        ImmutableMap.of(TARGETS_KEY, targetDurations, TYPES_KEY, typeDurations));
+    Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static long average(long previous, long current) {
+    return (previous + current) / 2;
+  }
+}
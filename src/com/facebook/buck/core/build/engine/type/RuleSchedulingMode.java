@@ -0,0 +1,28 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.type;
+
+/** The order in which the build engine starts rules that are ready to build. */
+public enum RuleSchedulingMode {
+  /** Start rules in the order in which they become ready. */
+  DEFAULT,
+  /**
+   * Start rules with the longest estimated chain of dependent work first, based on how long rules
+   * took to build in previous builds.
+   */
+  CRITICAL_PATH,
+}
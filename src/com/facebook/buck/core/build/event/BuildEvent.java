@@ -18,6 +18,7 @@ package com.facebook.buck.core.build.event;
 
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.CriticalEvent;
 import com.facebook.buck.event.EventKey;
 import com.facebook.buck.event.WorkAdvanceEvent;
 import com.facebook.buck.util.ExitCode;
@@ -106,7 +107,7 @@ public abstract class BuildEvent extends AbstractBuckEvent implements WorkAdvanc
     }
   }
 
-  public static class Finished extends BuildEvent {
+  public static class Finished extends BuildEvent implements CriticalEvent {
 
     private final ImmutableSet<String> buildArgs;
     private final ExitCode exitCode;
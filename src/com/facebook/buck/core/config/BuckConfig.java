@@ -46,7 +46,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -556,6 +558,22 @@ public class BuckConfig {
     return parseInt(getValue("cache", "key_seed").orElse("0"));
   }
 
+  /**
+   * @return the format of the artifacts stored into the cache, or empty for the original format.
+   *     Clients which only understand single-frame artifacts without links must never fetch
+   *     artifacts in any other format, so the format is part of rule keys.
+   */
+  public String getArtifactFormat() {
+    List<String> features = new ArrayList<>();
+    if (getInteger("cache", "artifact_compression_threads").orElse(1) > 1) {
+      features.add("zstd_frames");
+    }
+    if (getBooleanValue("cache", "artifact_deduplicate_contents", false)) {
+      features.add("tar_links");
+    }
+    return String.join(",", features);
+  }
+
   /** @return the path for the given section and property. */
   public Optional<Path> getPath(String sectionName, String name) {
     return getPath(sectionName, name, true);
@@ -17,20 +17,49 @@ package com.facebook.buck.core.model.actiongraph.computation;
 
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import java.util.Map;
+import java.util.Optional;
 import javax.annotation.Nullable;
 
-/** Contains cached action graphs. */
+/**
+ * Contains cached action graphs.
+ *
+ * <p>When incremental action graph generation is enabled, a new action graph takes over the rules
+ * of the cached action graph whose target graph is closest to its own, which is then dropped from
+ * the cache. The other cached action graphs stay usable, so that switching back and forth between
+ * a few target graphs, e.g. when switching branches, keeps hitting the cache.
+ *
+ * <p>Cached action graphs live in the memory of the daemon only and are not persisted across
+ * daemon restarts: build rules reference descriptions, toolchains and arbitrary closures, which
+ * can't be serialized. Only the buildables of {@code ModernBuildRule}s can be, and most rules are
+ * not modern ones.
+ */
 public class ActionGraphCache {
 
+  /**
+   * Maximum number of nodes of the new target graph looked up in each candidate target graph when
+   * choosing the closest one, so that the choice doesn't cost a full scan per cache entry.
+   */
+  private static final int MAX_SAMPLED_NODES = 1000;
+
   private final Cache<TargetGraph, ActionGraphAndBuilder> previousActionGraphs;
   private final IncrementalActionGraphGenerator incrementalActionGraphGenerator;
+  private boolean usedIncrementally = false;
+  @Nullable private ActionGraphAndBuilder lastPut;
 
   public ActionGraphCache(int maxEntries) {
-    previousActionGraphs = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    previousActionGraphs =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .removalListener(this::onRemoval)
+            .build();
     incrementalActionGraphGenerator = new IncrementalActionGraphGenerator();
   }
 
@@ -52,12 +81,117 @@ public class ActionGraphCache {
   }
 
   public void put(TargetGraph targetGraph, ActionGraphAndBuilder actionGraphAndBuilder) {
+    lastPut = actionGraphAndBuilder;
     previousActionGraphs.put(targetGraph, actionGraphAndBuilder);
   }
 
+  /**
+   * Populates the given {@link ActionGraphBuilder} with the reusable rules of the action graph
+   * closest to {@code targetGraph}, out of the cached ones and the one populated last. That action
+   * graph is invalidated and dropped from the cache, as its rules now belong to {@code
+   * graphBuilder}.
+   */
   public void populateActionGraphBuilderWithCachedRules(
       BuckEventBus eventBus, TargetGraph targetGraph, ActionGraphBuilder graphBuilder) {
+    usedIncrementally = true;
+    TargetGraph lastTargetGraph = incrementalActionGraphGenerator.getPreviousTargetGraph();
+    ActionGraphBuilder lastGraphBuilder =
+        incrementalActionGraphGenerator.getPreviousActionGraphBuilder();
+
+    ImmutableList<TargetNode<?>> sampledNodes = sampleNodes(targetGraph);
+    TargetGraph closestTargetGraph = null;
+    ActionGraphBuilder closestGraphBuilder = null;
+    int closestSharedNodes = 0;
+    if (lastTargetGraph != null) {
+      int sharedNodes = countSharedNodes(lastTargetGraph, sampledNodes);
+      // Don't spend a cached action graph on a target graph it has nothing in common with.
+      if (sharedNodes > 0 || !isCached(lastGraphBuilder)) {
+        closestTargetGraph = lastTargetGraph;
+        closestGraphBuilder = lastGraphBuilder;
+        closestSharedNodes = sharedNodes;
+      }
+    }
+    for (Map.Entry<TargetGraph, ActionGraphAndBuilder> entry :
+        previousActionGraphs.asMap().entrySet()) {
+      ActionGraphBuilder cachedGraphBuilder = entry.getValue().getActionGraphBuilder();
+      if (cachedGraphBuilder == lastGraphBuilder) {
+        continue;
+      }
+      int sharedNodes = countSharedNodes(entry.getKey(), sampledNodes);
+      if (sharedNodes > closestSharedNodes) {
+        closestTargetGraph = entry.getKey();
+        closestGraphBuilder = cachedGraphBuilder;
+        closestSharedNodes = sharedNodes;
+      }
+    }
+
+    if (closestGraphBuilder != lastGraphBuilder) {
+      // The last action graph is not used as a base. It is still valid if it is cached.
+      if (lastGraphBuilder != null && !isCached(lastGraphBuilder)) {
+        lastGraphBuilder.invalidate();
+      }
+      incrementalActionGraphGenerator.setPreviousActionGraph(
+          closestTargetGraph, closestGraphBuilder);
+    }
+    if (closestGraphBuilder != null) {
+      ActionGraphBuilder base = closestGraphBuilder;
+      previousActionGraphs
+          .asMap()
+          .values()
+          .removeIf(cached -> cached.getActionGraphBuilder() == base);
+    }
     incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
         eventBus, targetGraph, graphBuilder);
   }
+
+  private boolean isCached(ActionGraphBuilder graphBuilder) {
+    return previousActionGraphs
+        .asMap()
+        .values()
+        .stream()
+        .anyMatch(cached -> cached.getActionGraphBuilder() == graphBuilder);
+  }
+
+  private void onRemoval(RemovalNotification<TargetGraph, ActionGraphAndBuilder> notification) {
+    // Evicted action graphs can't be used as base for incremental generation anymore, so make sure
+    // nobody unexpectedly accesses them. The last action graph may still be used as base, and the
+    // one just added may be evicted right away if the cache holds no entries.
+    ActionGraphAndBuilder evicted = notification.getValue();
+    if (usedIncrementally
+        && notification.wasEvicted()
+        && evicted != null
+        && evicted != lastPut
+        && evicted.getActionGraphBuilder()
+            != incrementalActionGraphGenerator.getPreviousActionGraphBuilder()) {
+      evicted.getActionGraphBuilder().invalidate();
+    }
+  }
+
+  /** Returns up to {@link #MAX_SAMPLED_NODES} nodes spread evenly over {@code targetGraph}. */
+  private static ImmutableList<TargetNode<?>> sampleNodes(TargetGraph targetGraph) {
+    ImmutableList<TargetNode<?>> nodes = targetGraph.getNodes().asList();
+    if (nodes.size() <= MAX_SAMPLED_NODES) {
+      return nodes;
+    }
+    ImmutableList.Builder<TargetNode<?>> sampledNodes =
+        ImmutableList.builderWithExpectedSize(MAX_SAMPLED_NODES);
+    for (int i = 0; i < MAX_SAMPLED_NODES; i++) {
+      sampledNodes.add(nodes.get((int) ((long) i * nodes.size() / MAX_SAMPLED_NODES)));
+    }
+    return sampledNodes.build();
+  }
+
+  /** Counts the given nodes which are unchanged in {@code cachedTargetGraph}. */
+  private static int countSharedNodes(
+      TargetGraph cachedTargetGraph, ImmutableList<TargetNode<?>> nodes) {
+    int sharedNodes = 0;
+    for (TargetNode<?> node : nodes) {
+      Optional<TargetNode<?>> cachedNode =
+          cachedTargetGraph.getExactOptional(node.getBuildTarget());
+      if (cachedNode.isPresent() && cachedNode.get().equals(node)) {
+        sharedNodes++;
+      }
+    }
+    return sharedNodes;
+  }
 }
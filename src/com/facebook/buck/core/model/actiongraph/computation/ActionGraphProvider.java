@@ -215,13 +215,10 @@ public class ActionGraphProvider {
         targetGraph,
         incrementalActionGraphMode,
         graphBuilder -> {
-          // Any previously cached action graphs are no longer valid, as we may use build rules
-          // from those graphs to construct a new graph incrementally, and update those build
-          // rules to use a new BuildRuleResolver.
-          actionGraphCache.invalidateCache();
-
-          // Populate the new build rule graphBuilder with all of the usable rules from the last
-          // build rule graphBuilder for incremental action graph generation.
+          // Populate the new build rule graphBuilder with all of the usable rules from the closest
+          // cached action graph for incremental action graph generation. That action graph is no
+          // longer valid afterwards, as its build rules are updated to use the new
+          // BuildRuleResolver, so it is dropped from the cache.
           actionGraphCache.populateActionGraphBuilderWithCachedRules(
               eventBus, targetGraph, graphBuilder);
         });
@@ -52,6 +52,28 @@ public class IncrementalActionGraphGenerator {
   @Nullable private ActionGraphBuilder lastActionGraphBuilder;
   @Nullable private TargetGraph lastTargetGraph;
 
+  /**
+   * Sets the action graph which the next call to {@link
+   * #populateActionGraphBuilderWithCachedRules} reuses rules from, instead of the one it populated
+   * last. Passing {@code null} makes the next action graph be built from scratch.
+   */
+  public void setPreviousActionGraph(
+      @Nullable TargetGraph targetGraph, @Nullable ActionGraphBuilder graphBuilder) {
+    Preconditions.checkArgument((targetGraph == null) == (graphBuilder == null));
+    lastTargetGraph = targetGraph;
+    lastActionGraphBuilder = graphBuilder;
+  }
+
+  @Nullable
+  TargetGraph getPreviousTargetGraph() {
+    return lastTargetGraph;
+  }
+
+  @Nullable
+  ActionGraphBuilder getPreviousActionGraphBuilder() {
+    return lastActionGraphBuilder;
+  }
+
   /**
    * Populates the given {@link ActionGraphBuilder} with the rules from the previously used {@link
    * ActionGraphBuilder} that are deemed usable after checking for invalidations with a target graph
@@ -20,6 +20,7 @@ import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
 import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.util.graph.CompactDirectedAcyclicGraph;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
@@ -44,10 +45,12 @@ import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -103,8 +106,14 @@ public class TargetGraphHashing {
 
   private class Runner {
 
-    private final Map<BuildTarget, ListenableFuture<HashCode>> futures =
-        new ConcurrentHashMap<>(targetGraph.getSize());
+    private final CompactDirectedAcyclicGraph<TargetNode<?>> graph = targetGraph.getCompactGraph();
+
+    // The futures of nodes in the graph are indexed by node id. Nodes which are not in the graph,
+    // such as flavored copies of nodes looked up by their target, are keyed by their target.
+    private final AtomicReferenceArray<ListenableFuture<HashCode>> futures =
+        new AtomicReferenceArray<>(graph.getNodeCount());
+    private final Map<BuildTarget, ListenableFuture<HashCode>> futuresOfOtherNodes =
+        new ConcurrentHashMap<>();
 
     /**
      * The initial hashing phase of a node, which hashes everything except its dependencies.
@@ -176,7 +185,9 @@ public class TargetGraphHashing {
       // extra parallelism.  The hashers should be relatively small, but it's possible that in
       // some situations, this tradeoff isn't ideal, in which case we could switch to only
       // *starting* to hash a node after it's dependencies have completed.
-      ListenableFuture<HashCode> future = futures.get(node.getBuildTarget());
+      int id = graph.getId(node);
+      ListenableFuture<HashCode> future =
+          id < 0 ? futuresOfOtherNodes.get(node.getBuildTarget()) : futures.get(id);
       if (future == null) {
         future =
             Futures.transformAsync(
@@ -192,7 +203,11 @@ public class TargetGraphHashing {
                         depPairs -> finishNode(node.getBuildTarget(), hasher, depPairs),
                         MoreExecutors.directExecutor()),
                 executor);
-        futures.put(node.getBuildTarget(), future);
+        if (id < 0) {
+          futuresOfOtherNodes.put(node.getBuildTarget(), future);
+        } else {
+          futures.set(id, future);
+        }
       }
       return future;
     }
@@ -209,11 +224,18 @@ public class TargetGraphHashing {
       Futures.allAsList(RichStream.from(roots).map(this::getHash).toImmutableList()).get();
 
       // Wait for all scheduled tasks to complete
-      ImmutableMap.Builder<BuildTarget, HashCode> results = ImmutableMap.builder();
-      for (Map.Entry<BuildTarget, ListenableFuture<HashCode>> ent : futures.entrySet()) {
+      Map<BuildTarget, HashCode> results = new HashMap<>();
+      for (int id = 0; id < futures.length(); id++) {
+        ListenableFuture<HashCode> future = futures.get(id);
+        if (future != null) {
+          results.put(graph.getNode(id).getBuildTarget(), future.get());
+        }
+      }
+      for (Map.Entry<BuildTarget, ListenableFuture<HashCode>> ent :
+          futuresOfOtherNodes.entrySet()) {
         results.put(ent.getKey(), ent.getValue().get());
       }
-      return results.build();
+      return ImmutableMap.copyOf(results);
     }
   }
 }
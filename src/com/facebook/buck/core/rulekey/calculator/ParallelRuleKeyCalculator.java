@@ -19,6 +19,7 @@ package com.facebook.buck.core.rulekey.calculator;
 import com.facebook.buck.core.build.engine.RuleDepsCache;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.RuleKeyCalculationMode;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.rules.keys.RuleKeyFactory;
@@ -26,24 +27,40 @@ import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.collect.SortedSets;
 import com.facebook.buck.util.exceptions.BuckUncheckedExecutionException;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
-/** Calculates {@link RuleKey}, bottom-up, using tree parallelism. */
+/**
+ * Calculates {@link RuleKey}, bottom-up, using tree parallelism.
+ *
+ * <p>In {@link RuleKeyCalculationMode#FUTURES} mode, the rule key of each rule is a future chained
+ * on the futures of its deps, which are created under a lock. In {@link
+ * RuleKeyCalculationMode#LOCK_FREE} mode, rules are discovered and evaluated without a lock, see
+ * {@link BottomUpCalculation}.
+ */
 public class ParallelRuleKeyCalculator<T> {
 
   private final ListeningExecutorService service;
   private final RuleKeyFactory<T> ruleKeyFactory;
   private final RuleDepsCache ruleDepsCache;
   private final BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope;
+  private final Optional<BottomUpCalculation> bottomUpCalculation;
 
   private final ConcurrentMap<BuildTarget, ListenableFuture<T>> ruleKeys = Maps.newConcurrentMap();
 
@@ -52,17 +69,43 @@ public class ParallelRuleKeyCalculator<T> {
       RuleKeyFactory<T> ruleKeyFactory,
       RuleDepsCache ruleDepsCache,
       BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope) {
+    this(
+        service,
+        ruleKeyFactory,
+        ruleDepsCache,
+        ruleKeyCalculationScope,
+        RuleKeyCalculationMode.FUTURES);
+  }
+
+  public ParallelRuleKeyCalculator(
+      ListeningExecutorService service,
+      RuleKeyFactory<T> ruleKeyFactory,
+      RuleDepsCache ruleDepsCache,
+      BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope,
+      RuleKeyCalculationMode mode) {
     this.service = service;
     this.ruleKeyFactory = ruleKeyFactory;
     this.ruleDepsCache = ruleDepsCache;
     this.ruleKeyCalculationScope = ruleKeyCalculationScope;
+    this.bottomUpCalculation =
+        mode == RuleKeyCalculationMode.LOCK_FREE
+            ? Optional.of(new BottomUpCalculation())
+            : Optional.empty();
   }
 
   /**
    * @return a {@link ListenableFuture} wrapping the result of calculating the {@link RuleKey} of
    *     the given {@link BuildRule}.
    */
-  public synchronized ListenableFuture<T> calculate(BuckEventBus buckEventBus, BuildRule rule) {
+  public ListenableFuture<T> calculate(BuckEventBus buckEventBus, BuildRule rule) {
+    if (bottomUpCalculation.isPresent()) {
+      return bottomUpCalculation.get().calculate(buckEventBus, rule);
+    }
+    return calculateWithFutures(buckEventBus, rule);
+  }
+
+  private synchronized ListenableFuture<T> calculateWithFutures(
+      BuckEventBus buckEventBus, BuildRule rule) {
     ListenableFuture<T> fromOurCache = ruleKeys.get(rule.getBuildTarget());
     if (fromOurCache != null) {
       return fromOurCache;
@@ -87,7 +130,7 @@ public class ParallelRuleKeyCalculator<T> {
               List<ListenableFuture<T>> depKeys1 =
                   new ArrayList<>(SortedSets.sizeEstimate(rule.getBuildDeps()));
               for (BuildRule dep : deps) {
-                depKeys1.add(calculate(buckEventBus, dep));
+                depKeys1.add(calculateWithFutures(buckEventBus, dep));
               }
               return Futures.allAsList(depKeys1);
             },
@@ -97,14 +140,7 @@ public class ParallelRuleKeyCalculator<T> {
     ListenableFuture<T> calculated =
         Futures.transform(
             depKeys,
-            (List<T> input) -> {
-              try (Scope scope = ruleKeyCalculationScope.apply(buckEventBus, rule)) {
-                return ruleKeyFactory.build(rule);
-              } catch (Exception e) {
-                throw new BuckUncheckedExecutionException(
-                    e, String.format("When computing rulekey for %s.", rule));
-              }
-            },
+            (List<T> input) -> buildRuleKey(buckEventBus, rule),
             service);
 
     // Record the rule key future.
@@ -112,11 +148,135 @@ public class ParallelRuleKeyCalculator<T> {
     return calculated;
   }
 
+  private T buildRuleKey(BuckEventBus buckEventBus, BuildRule rule) {
+    try (Scope scope = ruleKeyCalculationScope.apply(buckEventBus, rule)) {
+      return ruleKeyFactory.build(rule);
+    } catch (Exception e) {
+      throw new BuckUncheckedExecutionException(
+          e, String.format("When computing rulekey for %s.", rule));
+    }
+  }
+
   public synchronized Set<BuildTarget> getAllKnownTargets() {
+    if (bottomUpCalculation.isPresent()) {
+      return bottomUpCalculation.get().nodes.keySet();
+    }
     return ruleKeys.keySet();
   }
 
   public RuleDepsCache getRuleDepsCache() {
     return ruleDepsCache;
   }
+
+  /** A rule in a {@link BottomUpCalculation}. */
+  private class Node {
+    private final BuildRule rule;
+    private final SettableFuture<T> ruleKey = SettableFuture.create();
+    // Deps whose rule keys are not done yet, plus one until all deps have been discovered.
+    private final AtomicInteger pendingDeps = new AtomicInteger(1);
+    @Nullable private volatile List<Node> deps;
+
+    private Node(BuildRule rule) {
+      this.rule = rule;
+    }
+  }
+
+  /**
+   * Rule key calculation without a global lock. Each rule is discovered by exactly one thread,
+   * which counts its pending deps and registers itself with them. The rule key is computed as soon
+   * as the last dep is done, on the thread pool, so the graph is evaluated bottom-up without
+   * creating a future for each edge.
+   */
+  private class BottomUpCalculation {
+    private final ConcurrentMap<BuildTarget, Node> nodes = Maps.newConcurrentMap();
+
+    private ListenableFuture<T> calculate(BuckEventBus buckEventBus, BuildRule rule) {
+      return getNode(buckEventBus, rule).ruleKey;
+    }
+
+    private Node getNode(BuckEventBus buckEventBus, BuildRule rule) {
+      Node node = nodes.get(rule.getBuildTarget());
+      if (node != null) {
+        return node;
+      }
+      Node created = new Node(rule);
+      node = nodes.putIfAbsent(rule.getBuildTarget(), created);
+      if (node != null) {
+        return node;
+      }
+      submit(created, () -> discover(buckEventBus, created));
+      return created;
+    }
+
+    /**
+     * Runs {@code task} on the thread pool. Dependents wait on the rule key of {@code node}, so it
+     * is failed if the task can't be run, rather than leaving it pending forever.
+     */
+    private void submit(Node node, Runnable task) {
+      ListenableFuture<?> future;
+      try {
+        future = service.submit(task);
+      } catch (Throwable t) {
+        node.ruleKey.setException(t);
+        return;
+      }
+      Futures.addCallback(
+          future,
+          new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(@Nullable Object result) {}
+
+            @Override
+            public void onFailure(Throwable t) {
+              node.ruleKey.setException(t);
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    private void discover(BuckEventBus buckEventBus, Node node) {
+      try {
+        T fromInternalCache = ruleKeyFactory.getFromCache(node.rule);
+        if (fromInternalCache != null) {
+          // All transitive deps are in cache too, so there is no need to visit them.
+          node.ruleKey.set(fromInternalCache);
+          return;
+        }
+        SortedSet<BuildRule> depRules = ruleDepsCache.get(node.rule);
+        List<Node> deps = new ArrayList<>(depRules.size());
+        for (BuildRule dep : depRules) {
+          deps.add(getNode(buckEventBus, dep));
+        }
+        node.deps = deps;
+        node.pendingDeps.addAndGet(deps.size());
+        for (Node dep : deps) {
+          dep.ruleKey.addListener(
+              () -> onDepDone(buckEventBus, node), MoreExecutors.directExecutor());
+        }
+        onDepDone(buckEventBus, node);
+      } catch (Throwable t) {
+        node.ruleKey.setException(t);
+      }
+    }
+
+    private void onDepDone(BuckEventBus buckEventBus, Node node) {
+      if (node.pendingDeps.decrementAndGet() == 0) {
+        submit(node, () -> compute(buckEventBus, node));
+      }
+    }
+
+    private void compute(BuckEventBus buckEventBus, Node node) {
+      try {
+        for (Node dep : Objects.requireNonNull(node.deps)) {
+          // Deps are done, this only propagates their failures.
+          Futures.getDone(dep.ruleKey);
+        }
+        node.ruleKey.set(buildRuleKey(buckEventBus, node.rule));
+      } catch (ExecutionException e) {
+        node.ruleKey.setException(e.getCause());
+      } catch (Throwable t) {
+        node.ruleKey.setException(t);
+      }
+    }
+  }
 }
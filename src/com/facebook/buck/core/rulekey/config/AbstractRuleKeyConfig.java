@@ -18,6 +18,7 @@ package com.facebook.buck.core.rulekey.config;
 
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.ConfigView;
+import com.facebook.buck.core.rulekey.RuleKeyCalculationMode;
 import com.facebook.buck.core.rulekey.RuleKeyDiagnosticsMode;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import org.immutables.value.Value;
@@ -37,4 +38,11 @@ public abstract class AbstractRuleKeyConfig implements ConfigView<BuckConfig> {
         .getEnum(LOG_SECTION, "rule_key_diagnostics_mode", RuleKeyDiagnosticsMode.class)
         .orElse(RuleKeyDiagnosticsMode.NEVER);
   }
+
+  /** @return how the build engine calculates rule keys in parallel. */
+  public RuleKeyCalculationMode getRuleKeyCalculationMode() {
+    return getDelegate()
+        .getEnum("build", "rule_key_calculation", RuleKeyCalculationMode.class)
+        .orElse(RuleKeyCalculationMode.FUTURES);
+  }
 }
@@ -19,6 +19,9 @@ package com.facebook.buck.core.rules.build.strategy;
 import com.facebook.buck.core.build.engine.BuildResult;
 import com.facebook.buck.core.build.engine.BuildStrategyContext;
 import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.Closeable;
 import java.io.IOException;
@@ -35,6 +38,54 @@ public interface BuildRuleStrategy extends Closeable {
   /** A rule will be built by the custom strategy only if canBuild() returns true. */
   boolean canBuild(BuildRule instance);
 
+  /**
+   * Whether some outputs of {@code rule}, which has been built by this strategy, haven't been
+   * materialized yet. The engine records such a rule as built with {@link #getDeferredOutputs}, but
+   * doesn't upload it to the artifact cache, which needs all of its outputs.
+   */
+  default boolean hasDeferredOutputs(@SuppressWarnings("unused") BuildRule rule) {
+    return false;
+  }
+
+  /**
+   * Describes the outputs of {@code rule} which haven't been materialized yet, by path relative to
+   * the rule's filesystem, so that a later build can {@link #restoreDeferredOutputs} them.
+   */
+  default ImmutableMap<String, String> getDeferredOutputs(
+      @SuppressWarnings("unused") BuildRule rule) {
+    return ImmutableMap.of();
+  }
+
+  /**
+   * Defers again the outputs of {@code rule} described by {@code deferredOutputs}, which were
+   * returned by {@link #getDeferredOutputs} in an earlier build.
+   *
+   * @return whether they can still be materialized. If not, the rule has to be built again.
+   */
+  default boolean restoreDeferredOutputs(
+      @SuppressWarnings("unused") BuildRule rule,
+      @SuppressWarnings("unused") ImmutableMap<String, String> deferredOutputs) {
+    return false;
+  }
+
+  /** Forgets the deferred outputs of {@code rule}, since they are about to be replaced. */
+  default void discardDeferredOutputs(@SuppressWarnings("unused") BuildRule rule) {}
+
+  /** Materializes the deferred outputs of {@code rules}, see {@link #hasDeferredOutputs}. */
+  default ListenableFuture<?> materializeOutputs(
+      @SuppressWarnings("unused") Iterable<BuildRule> rules) {
+    return Futures.immediateFuture(null);
+  }
+
+  /**
+   * Returns a view of {@code fileHashCache} which can hash deferred outputs without materializing
+   * them. It has to be used for everything that may hash the outputs of rules built by this
+   * strategy, e.g. rule keys.
+   */
+  default FileHashCache decorateFileHashCache(FileHashCache fileHashCache) {
+    return fileHashCache;
+  }
+
   /** A simple interface for build results exposing an explicit cancellation. */
   interface StrategyBuildResult {
     /**
@@ -42,6 +42,17 @@ public abstract class AbstractBottomUpTraversal<T, E extends Throwable> {
    * @throws E
    */
   public final void traverse(Predicate<T> shouldExploreChildren) throws E {
+    if (graph instanceof DirectedAcyclicGraph || graph instanceof CompactDirectedAcyclicGraph) {
+      CompactDirectedAcyclicGraph<T> compactGraph =
+          graph instanceof DirectedAcyclicGraph
+              ? ((DirectedAcyclicGraph<T>) graph).getCompactGraph()
+              : (CompactDirectedAcyclicGraph<T>) graph;
+      for (int id :
+          compactGraph.getPostOrder(id -> shouldExploreChildren.test(compactGraph.getNode(id)))) {
+        visit(compactGraph.getNode(id));
+      }
+      return;
+    }
     Iterable<T> roots = graph.getNodesWithNoIncomingEdges();
     GraphTraversable<T> graphTraversable = node -> graph.getOutgoingNodesFor(node).iterator();
     try {
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable DAG which stores its edges in compressed sparse row form.
+ *
+ * <p>Every node is assigned a dense integer id in the iteration order of the graph it was copied
+ * from, and the edges of all nodes are stored in flat {@code int} arrays indexed by those ids. This
+ * takes a fraction of the memory of a multimap of edges and lets traversals track their state in
+ * arrays instead of hash maps. Outgoing edges keep the order of the source graph, so traversals
+ * over this graph visit nodes in the same order as traversals over the source graph.
+ *
+ * <p>{@link DirectedAcyclicGraph} builds its copy once, on first use, via {@link
+ * DirectedAcyclicGraph#getCompactGraph()}, so that repeated traversals of the same frozen graph
+ * share it rather than each paying for a copy.
+ */
+public final class CompactDirectedAcyclicGraph<T> implements TraversableGraph<T> {
+
+  private final Object[] nodes;
+  private final ImmutableMap<T, Integer> ids;
+  private final int[] outgoingOffsets;
+  private final int[] outgoingIds;
+  private final int[] incomingOffsets;
+  private final int[] incomingIds;
+
+  private CompactDirectedAcyclicGraph(
+      Object[] nodes,
+      ImmutableMap<T, Integer> ids,
+      int[] outgoingOffsets,
+      int[] outgoingIds,
+      int[] incomingOffsets,
+      int[] incomingIds) {
+    this.nodes = nodes;
+    this.ids = ids;
+    this.outgoingOffsets = outgoingOffsets;
+    this.outgoingIds = outgoingIds;
+    this.incomingOffsets = incomingOffsets;
+    this.incomingIds = incomingIds;
+  }
+
+  /**
+   * Copies {@code graph}, which must be acyclic.
+   *
+   * @throws IllegalArgumentException if {@code graph} contains a cycle.
+   */
+  public static <T> CompactDirectedAcyclicGraph<T> copyOf(TraversableGraph<T> graph) {
+    List<T> nodeList = new ArrayList<>();
+    graph.getNodes().forEach(nodeList::add);
+    int nodeCount = nodeList.size();
+
+    Object[] nodes = nodeList.toArray();
+    ImmutableMap.Builder<T, Integer> idsBuilder = ImmutableMap.builderWithExpectedSize(nodeCount);
+    for (int id = 0; id < nodeCount; id++) {
+      idsBuilder.put(nodeList.get(id), id);
+    }
+    ImmutableMap<T, Integer> ids = idsBuilder.build();
+
+    int[] outgoingOffsets = new int[nodeCount + 1];
+    int[] outgoingIds = new int[16];
+    int edgeCount = 0;
+    for (int id = 0; id < nodeCount; id++) {
+      outgoingOffsets[id] = edgeCount;
+      for (T sink : graph.getOutgoingNodesFor(nodeList.get(id))) {
+        Integer sinkId = ids.get(sink);
+        Preconditions.checkArgument(sinkId != null, "Edge to %s which is not in the graph", sink);
+        if (edgeCount == outgoingIds.length) {
+          outgoingIds = Arrays.copyOf(outgoingIds, edgeCount * 2);
+        }
+        outgoingIds[edgeCount++] = sinkId;
+      }
+    }
+    outgoingOffsets[nodeCount] = edgeCount;
+    outgoingIds = Arrays.copyOf(outgoingIds, edgeCount);
+
+    // Incoming edges are the transpose of the outgoing ones, which is built with a counting sort.
+    int[] incomingOffsets = new int[nodeCount + 1];
+    for (int i = 0; i < edgeCount; i++) {
+      incomingOffsets[outgoingIds[i] + 1]++;
+    }
+    for (int id = 0; id < nodeCount; id++) {
+      incomingOffsets[id + 1] += incomingOffsets[id];
+    }
+    int[] incomingIds = new int[edgeCount];
+    int[] cursors = Arrays.copyOf(incomingOffsets, nodeCount);
+    for (int source = 0; source < nodeCount; source++) {
+      for (int i = outgoingOffsets[source]; i < outgoingOffsets[source + 1]; i++) {
+        incomingIds[cursors[outgoingIds[i]]++] = source;
+      }
+    }
+
+    CompactDirectedAcyclicGraph<T> result =
+        new CompactDirectedAcyclicGraph<>(
+            nodes, ids, outgoingOffsets, outgoingIds, incomingOffsets, incomingIds);
+    Preconditions.checkArgument(
+        result.getTopologicalOrder().length == nodeCount, "Graph must be acyclic");
+    return result;
+  }
+
+  public int getNodeCount() {
+    return nodes.length;
+  }
+
+  public int getEdgeCount() {
+    return outgoingIds.length;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T getNode(int id) {
+    return (T) nodes[id];
+  }
+
+  /** @return the id of {@code node}, or {@code -1} if it is not in this graph. */
+  public int getId(T node) {
+    Integer id = ids.get(node);
+    return id == null ? -1 : id;
+  }
+
+  public int getOutDegree(int id) {
+    return outgoingOffsets[id + 1] - outgoingOffsets[id];
+  }
+
+  /** @return the id of the {@code index}th node that node {@code id} has an edge to. */
+  public int getOutgoingId(int id, int index) {
+    return outgoingIds[outgoingOffsets[id] + index];
+  }
+
+  public int getInDegree(int id) {
+    return incomingOffsets[id + 1] - incomingOffsets[id];
+  }
+
+  /** @return the id of the {@code index}th node that has an edge to node {@code id}. */
+  public int getIncomingId(int id, int index) {
+    return incomingIds[incomingOffsets[id] + index];
+  }
+
+  /**
+   * @return the ids of all nodes, ordered such that every node comes after all the nodes it has an
+   *     edge to. Contains fewer ids than there are nodes if the graph has a cycle.
+   */
+  public int[] getTopologicalOrder() {
+    int nodeCount = getNodeCount();
+    int[] remainingOutDegrees = new int[nodeCount];
+    int[] order = new int[nodeCount];
+    int tail = 0;
+    for (int id = 0; id < nodeCount; id++) {
+      remainingOutDegrees[id] = getOutDegree(id);
+      if (remainingOutDegrees[id] == 0) {
+        order[tail++] = id;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int id = order[head];
+      for (int i = incomingOffsets[id]; i < incomingOffsets[id + 1]; i++) {
+        if (--remainingOutDegrees[incomingIds[i]] == 0) {
+          order[tail++] = incomingIds[i];
+        }
+      }
+    }
+    return tail == nodeCount ? order : Arrays.copyOf(order, tail);
+  }
+
+  /**
+   * Performs a depth-first, post-order traversal starting at the nodes with no incoming edges,
+   * visiting children in the order of their edges. This is the same order in which {@link
+   * AcyclicDepthFirstPostOrderTraversal} visits the nodes of the source graph.
+   *
+   * @param shouldExploreChildren Whether or not to explore the children of the node with a given
+   *     id. Used to support short circuiting in the traversal.
+   * @return the ids of the visited nodes, in the order they were visited.
+   */
+  public int[] getPostOrder(IntPredicate shouldExploreChildren) {
+    int nodeCount = getNodeCount();
+    boolean[] explored = new boolean[nodeCount];
+    int[] order = new int[nodeCount];
+    int visited = 0;
+    // The current chain of nodes being explored, and the position of the next child to explore for
+    // each of them.
+    int[] stack = new int[nodeCount];
+    int[] cursors = new int[nodeCount];
+    for (int root = 0; root < nodeCount; root++) {
+      if (getInDegree(root) != 0) {
+        continue;
+      }
+      int depth = 0;
+      stack[0] = root;
+      cursors[0] = firstChildToExplore(root, shouldExploreChildren);
+      while (depth >= 0) {
+        int id = stack[depth];
+        int end = outgoingOffsets[id + 1];
+        int cursor = cursors[depth];
+        while (cursor < end && explored[outgoingIds[cursor]]) {
+          cursor++;
+        }
+        if (cursor < end) {
+          int child = outgoingIds[cursor];
+          cursors[depth] = cursor + 1;
+          depth++;
+          stack[depth] = child;
+          cursors[depth] = firstChildToExplore(child, shouldExploreChildren);
+        } else {
+          explored[id] = true;
+          order[visited++] = id;
+          depth--;
+        }
+      }
+    }
+    return visited == nodeCount ? order : Arrays.copyOf(order, visited);
+  }
+
+  private int firstChildToExplore(int id, IntPredicate shouldExploreChildren) {
+    return shouldExploreChildren.test(id) ? outgoingOffsets[id] : outgoingOffsets[id + 1];
+  }
+
+  @Override
+  public List<T> getNodesWithNoIncomingEdges() {
+    return filterNodes(id -> getInDegree(id) == 0);
+  }
+
+  @Override
+  public List<T> getNodesWithNoOutgoingEdges() {
+    return filterNodes(id -> getOutDegree(id) == 0);
+  }
+
+  @Override
+  public List<T> getIncomingNodesFor(T sink) {
+    int id = getId(sink);
+    return id < 0
+        ? new NodeList(incomingIds, 0, 0)
+        : new NodeList(incomingIds, incomingOffsets[id], incomingOffsets[id + 1]);
+  }
+
+  @Override
+  public List<T> getOutgoingNodesFor(T source) {
+    int id = getId(source);
+    return id < 0
+        ? new NodeList(outgoingIds, 0, 0)
+        : new NodeList(outgoingIds, outgoingOffsets[id], outgoingOffsets[id + 1]);
+  }
+
+  @Override
+  public List<T> getNodes() {
+    return new AbstractList<T>() {
+      @Override
+      public T get(int index) {
+        return getNode(index);
+      }
+
+      @Override
+      public int size() {
+        return getNodeCount();
+      }
+    };
+  }
+
+  private List<T> filterNodes(IntPredicate predicate) {
+    int[] matching = new int[getNodeCount()];
+    int count = 0;
+    for (int id = 0; id < getNodeCount(); id++) {
+      if (predicate.test(id)) {
+        matching[count++] = id;
+      }
+    }
+    return new NodeList(matching, 0, count);
+  }
+
+  /** A view of the nodes with the ids in a range of an array. */
+  private class NodeList extends AbstractList<T> {
+    private final int[] nodeIds;
+    private final int start;
+    private final int end;
+
+    private NodeList(int[] nodeIds, int start, int end) {
+      this.nodeIds = nodeIds;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public T get(int index) {
+      Preconditions.checkElementIndex(index, size());
+      return getNode(nodeIds[start + index]);
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+  }
+}
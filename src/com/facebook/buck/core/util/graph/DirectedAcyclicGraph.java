@@ -17,6 +17,8 @@
 package com.facebook.buck.core.util.graph;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Sets;
@@ -27,6 +29,8 @@ public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
   private final ImmutableSet<T> nodes;
   private final ImmutableSetMultimap<T, T> outgoingEdges;
   private final ImmutableSetMultimap<T, T> incomingEdges;
+  private final Supplier<CompactDirectedAcyclicGraph<T>> compactGraph =
+      Suppliers.memoize(() -> CompactDirectedAcyclicGraph.copyOf(this));
 
   public DirectedAcyclicGraph(MutableDirectedGraph<T> graph) {
     Preconditions.checkState(graph.isAcyclic(), "Graph must by acyclic");
@@ -60,6 +64,14 @@ public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
     return nodes;
   }
 
+  /**
+   * @return a {@link CompactDirectedAcyclicGraph} copy of this graph, which is built the first time
+   *     the graph is traversed and shared by all later traversals.
+   */
+  public CompactDirectedAcyclicGraph<T> getCompactGraph() {
+    return compactGraph.get();
+  }
+
   @Override
   public boolean equals(Object other) {
     if (!(other instanceof DirectedAcyclicGraph)) {
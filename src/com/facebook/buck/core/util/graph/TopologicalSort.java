@@ -33,6 +33,12 @@ public class TopologicalSort {
   private TopologicalSort() {}
 
   public static <T extends Comparable<?>> ImmutableList<T> sort(TraversableGraph<T> graph) {
+    if (graph instanceof DirectedAcyclicGraph) {
+      return sort(((DirectedAcyclicGraph<T>) graph).getCompactGraph());
+    }
+    if (graph instanceof CompactDirectedAcyclicGraph) {
+      return sort((CompactDirectedAcyclicGraph<T>) graph);
+    }
 
     // AtomicInteger is used to decrement the integer value in-place.
     Map<T, AtomicInteger> effectiveOutDegreesOfExplorableNodes = new HashMap<>();
@@ -77,4 +83,47 @@ public class TopologicalSort {
 
     return toReturn.build();
   }
+
+  /**
+   * Same as {@link #sort(TraversableGraph)}, but tracks the out degrees of nodes in an array
+   * indexed by node id rather than in a map.
+   */
+  public static <T extends Comparable<?>> ImmutableList<T> sort(
+      CompactDirectedAcyclicGraph<T> graph) {
+    int[] effectiveOutDegrees = new int[graph.getNodeCount()];
+    int[] nextLevel = new int[graph.getNodeCount()];
+    int nextLevelSize = 0;
+    for (int id = 0; id < graph.getNodeCount(); id++) {
+      effectiveOutDegrees[id] = graph.getOutDegree(id);
+      if (effectiveOutDegrees[id] == 0) {
+        nextLevel[nextLevelSize++] = id;
+      }
+    }
+    int[] toExplore = new int[graph.getNodeCount()];
+    ImmutableList.Builder<T> toReturn = ImmutableList.builderWithExpectedSize(graph.getNodeCount());
+
+    while (nextLevelSize > 0) {
+      int[] swap = toExplore;
+      toExplore = nextLevel;
+      nextLevel = swap;
+      int toExploreSize = nextLevelSize;
+      nextLevelSize = 0;
+
+      Set<T> level = new TreeSet<>();
+
+      for (int i = 0; i < toExploreSize; i++) {
+        int node = toExplore[i];
+        level.add(graph.getNode(node));
+        for (int j = 0; j < graph.getInDegree(node); j++) {
+          int exploreCandidate = graph.getIncomingId(node, j);
+          if (--effectiveOutDegrees[exploreCandidate] == 0) {
+            nextLevel[nextLevelSize++] = exploreCandidate;
+          }
+        }
+      }
+      toReturn.addAll(level);
+    }
+
+    return toReturn.build();
+  }
 }
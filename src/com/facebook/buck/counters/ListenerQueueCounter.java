@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.counters;
+
+import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.event.ListenerQueueStats;
+import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
+
+/**
+ * Reports the queue depth and number of dropped events of every listener registered with a {@link
+ * DefaultBuckEventBus}.
+ */
+public class ListenerQueueCounter extends Counter {
+  private final DefaultBuckEventBus eventBus;
+
+  public ListenerQueueCounter(
+      String category,
+      String name,
+      ImmutableMap<String, String> tags,
+      DefaultBuckEventBus eventBus) {
+    super(category, name, tags);
+    this.eventBus = eventBus;
+  }
+
+  @Override
+  public Optional<CounterSnapshot> flush() {
+    CounterSnapshot.Builder snapshot = CounterSnapshot.builderForCounter(this);
+    boolean hasValues = false;
+    for (ListenerQueueStats stats : eventBus.getAndResetListenerQueueStats()) {
+      if (stats.getPeakQueueDepth() == 0 && stats.getDroppedEvents() == 0) {
+        continue;
+      }
+      String prefix = getName() + "_" + stats.getListener();
+      snapshot.putValues(prefix + "_queue_depth", stats.getQueueDepth());
+      snapshot.putValues(prefix + "_peak_queue_depth", stats.getPeakQueueDepth());
+      snapshot.putValues(prefix + "_dropped_events", stats.getDroppedEvents());
+      hasValues = true;
+    }
+    return hasValues ? Optional.of(snapshot.build()) : Optional.empty();
+  }
+}
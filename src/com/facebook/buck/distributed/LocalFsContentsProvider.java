@@ -21,6 +21,7 @@ import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.DirArtifactCache;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.DirCacheEvictionMode;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.distributed.thrift.BuildJobStateFileHashEntry;
 import com.facebook.buck.io.file.BorrowablePath;
@@ -57,6 +58,7 @@ public class LocalFsContentsProvider implements FileContentsProvider {
             Paths.get(CACHE_NAME),
             CacheReadMode.READWRITE,
             Optional.empty(),
+            DirCacheEvictionMode.WALK,
             MoreExecutors.newDirectExecutorService());
   }
 
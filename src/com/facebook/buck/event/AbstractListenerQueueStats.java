@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import org.immutables.value.Value;
+
+/** Statistics of the event queue of a listener registered with {@link DefaultBuckEventBus}. */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractListenerQueueStats {
+
+  /** @return the class name of the listener. */
+  public abstract String getListener();
+
+  /** @return the number of events waiting to be delivered to the listener. */
+  public abstract int getQueueDepth();
+
+  /** @return the largest number of events which were waiting at the same time. */
+  public abstract int getPeakQueueDepth();
+
+  /** @return the number of events which were not delivered because the queue was full. */
+  public abstract long getDroppedEvents();
+}
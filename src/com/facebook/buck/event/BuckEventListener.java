@@ -20,6 +20,15 @@ import java.io.Closeable;
 import java.io.IOException;
 
 public interface BuckEventListener extends Closeable {
+  /**
+   * @return whether events are never dropped for this listener, even when it has fallen behind.
+   *     Posting an event then waits for room in the queue of the listener, so only listeners whose
+   *     output is useless with gaps in it should be critical.
+   */
+  default boolean isCritical() {
+    return false;
+  }
+
   /** Cleanup, output any trace data collected to the backing store. */
   @Override
   default void close() throws IOException {}
@@ -97,7 +97,7 @@ public abstract class CommandEvent extends AbstractBuckEvent implements WorkAdva
     }
   }
 
-  public static class Finished extends CommandEvent {
+  public static class Finished extends CommandEvent implements CriticalEvent {
     private final ExitCode exitCode;
 
     private Finished(Started started, ExitCode exitCode) {
@@ -20,36 +20,66 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.log.GlobalStateManager;
 import com.facebook.buck.util.Threads;
 import com.facebook.buck.util.concurrent.CommandThreadFactory;
-import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.timing.Clock;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
-import com.google.common.util.concurrent.MoreExecutors;
-import java.util.concurrent.ExecutorService;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
-/** Thin wrapper around guava event bus. */
+/**
+ * Thin wrapper around guava event bus.
+ *
+ * <p>When asynchronous, every listener gets its own bounded queue and delivery thread, so a slow
+ * listener does not hold up the others. Each listener sees events in the order in which they were
+ * posted. When a listener falls so far behind that its queue is full, further events are dropped
+ * for that listener only and counted in {@link #getAndResetListenerQueueStats()}. {@link
+ * CriticalEvent}s, and the events of listeners which are {@link BuckEventListener#isCritical()
+ * critical}, are never dropped: posting them waits for the queue to have room instead.
+ */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
 
   private static final Logger LOG = Logger.get(BuckEventBus.class);
 
   public static final int DEFAULT_SHUTDOWN_TIMEOUT_MS = 15000;
 
+  /** Number of events which may be queued for one listener before events are dropped. */
+  public static final int DEFAULT_LISTENER_QUEUE_CAPACITY = 32 * 1024;
+
   private static final Supplier<Long> DEFAULT_THREAD_ID_SUPPLIER =
       () -> Thread.currentThread().getId();
 
+  // How often posting an event which must not be dropped checks whether delivery has stopped.
+  private static final long QUEUE_FULL_POLL_MILLIS = 100;
+
+  // Wakes up a listener's delivery thread so that it notices it has been stopped.
+  private static final Object STOP = new Object();
+
   private final Clock clock;
-  private final ExecutorService executorService;
+  private final boolean async;
+  private final int listenerQueueCapacity;
+  private final ThreadFactory threadFactory;
   private final EventBus eventBus;
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
 
+  // Registered listeners in asynchronous mode. The list is replaced whenever a listener is
+  // registered or unregistered, so that posting events does not need to take a lock.
+  private final Map<Object, ListenerQueue> listenerQueuesByListener = new IdentityHashMap<>();
+  private volatile ImmutableList<ListenerQueue> listenerQueues = ImmutableList.of();
+
   // synchronization variables to ensure proper shutdown
-  private volatile int activeTasks = 0;
+  private final AtomicInteger activeTasks = new AtomicInteger();
   private final Object lock = new Object();
 
   public DefaultBuckEventBus(Clock clock, BuildId buildId) {
@@ -59,14 +89,24 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, boolean async, BuildId buildId, int shutdownTimeoutMillis) {
+    this(clock, async, buildId, shutdownTimeoutMillis, DEFAULT_LISTENER_QUEUE_CAPACITY);
+  }
+
+  @VisibleForTesting
+  public DefaultBuckEventBus(
+      Clock clock,
+      boolean async,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      int listenerQueueCapacity) {
+    Preconditions.checkArgument(listenerQueueCapacity > 0, "Listener queues must not be empty.");
     this.clock = clock;
-    this.executorService =
-        async
-            ? MostExecutors.newSingleThreadExecutor(
-                new CommandThreadFactory(
-                    BuckEventBus.class.getSimpleName(),
-                    GlobalStateManager.singleton().getThreadToCommandRegister()))
-            : MoreExecutors.newDirectExecutorService();
+    this.async = async;
+    this.listenerQueueCapacity = listenerQueueCapacity;
+    this.threadFactory =
+        new CommandThreadFactory(
+            BuckEventBus.class.getSimpleName(),
+            GlobalStateManager.singleton().getThreadToCommandRegister());
     this.eventBus = new EventBus("buck-build-events");
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
@@ -74,24 +114,22 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   }
 
   private void dispatch(BuckEvent event) {
-    // keep track the number of active tasks so we can do proper shutdown
-    synchronized (lock) {
-      activeTasks++;
+    if (!async) {
+      eventBus.post(event);
+      return;
+    }
+    for (ListenerQueue listenerQueue : listenerQueues) {
+      listenerQueue.offer(event);
     }
+  }
 
-    executorService.submit(
-        () -> {
-          try {
-            eventBus.post(event);
-          } finally {
-            // event bus should not throw but just in case wrap with try-finally
-            synchronized (lock) {
-              activeTasks--;
-              // notify about task completion; shutdown may wait for it
-              lock.notifyAll();
-            }
-          }
-        });
+  private void onEventHandled() {
+    if (activeTasks.decrementAndGet() == 0) {
+      // notify about task completion; shutdown may wait for it
+      synchronized (lock) {
+        lock.notifyAll();
+      }
+    }
   }
 
   @Override
@@ -114,12 +152,54 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public void register(Object object) {
-    eventBus.register(object);
+    if (!async) {
+      eventBus.register(object);
+      return;
+    }
+    synchronized (listenerQueuesByListener) {
+      if (listenerQueuesByListener.containsKey(object)) {
+        return;
+      }
+      ListenerQueue listenerQueue = new ListenerQueue(object);
+      listenerQueuesByListener.put(object, listenerQueue);
+      listenerQueues =
+          ImmutableList.<ListenerQueue>builder().addAll(listenerQueues).add(listenerQueue).build();
+      listenerQueue.start();
+    }
   }
 
   @Override
   public void unregister(Object object) {
-    eventBus.unregister(object);
+    if (!async) {
+      eventBus.unregister(object);
+      return;
+    }
+    ListenerQueue listenerQueue;
+    synchronized (listenerQueuesByListener) {
+      listenerQueue = listenerQueuesByListener.remove(object);
+      Preconditions.checkArgument(
+          listenerQueue != null,
+          "Missing event subscriber for an annotated method. Is %s registered?",
+          object);
+      listenerQueues =
+          listenerQueues
+              .stream()
+              .filter(queue -> queue != listenerQueue)
+              .collect(ImmutableList.toImmutableList());
+    }
+    // Events which have been queued for the listener but not delivered yet are discarded.
+    listenerQueue.stop();
+  }
+
+  /**
+   * @return the queue statistics of every registered listener. Peak queue depths and dropped
+   *     event counts are reset, so the next call reports what happened since this one.
+   */
+  public ImmutableList<ListenerQueueStats> getAndResetListenerQueueStats() {
+    return listenerQueues
+        .stream()
+        .map(ListenerQueue::getAndResetStats)
+        .collect(ImmutableList.toImmutableList());
   }
 
   @Override
@@ -146,8 +226,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   }
 
   /**
-   * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called to wait
-   * for events which have been posted, but which have been queued by the {@link EventBus}, to be
+   * Waits for events which have been posted, but which have been queued for the listeners, to be
    * delivered. This allows listeners to record or report as much information as possible. This aids
    * debugging when close is called during exception processing.
    */
@@ -155,25 +234,39 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   public void close() {
     long timeoutTime = System.currentTimeMillis() + shutdownTimeoutMillis;
 
-    // it might have happened that executor service is still processing a task which in turn may
-    // post new tasks to the executor, in this case if we shutdown executor they won't be processed
-    // so first wait for all currently running tasks and their descendants to finish
-    // ideally it should be done inside executorService but it only provides shutdown() method
-    // which immediately stops accepting new tasks, that's why we have some wrapper on top of it
-    waitEvents(shutdownTimeoutMillis);
+    // listeners may still be handling events which in turn post new events, so wait for all
+    // queued events and their descendants to be delivered before stopping the delivery threads
+    boolean delivered = waitEvents(shutdownTimeoutMillis);
 
-    executorService.shutdown();
+    ImmutableList<ListenerQueue> queuesToStop;
+    synchronized (listenerQueuesByListener) {
+      queuesToStop = listenerQueues;
+      listenerQueuesByListener.clear();
+      listenerQueues = ImmutableList.of();
+    }
+    if (!delivered) {
+      LOG.warn(
+          Joiner.on(System.lineSeparator())
+              .join(
+                  "The BuckEventBus failed to shut down within the standard timeout.",
+                  "Your build might have succeeded, but some messages were probably lost.",
+                  "Here's some debugging information:",
+                  Joiner.on(System.lineSeparator())
+                      .join(
+                          queuesToStop
+                              .stream()
+                              .map(ListenerQueue::getAndResetStats)
+                              .iterator())));
+    }
+    for (ListenerQueue listenerQueue : queuesToStop) {
+      listenerQueue.stop();
+    }
     try {
-      long waitTime = timeoutTime - System.currentTimeMillis();
-      if (waitTime <= 0 || !executorService.awaitTermination(waitTime, TimeUnit.MILLISECONDS)) {
-        LOG.warn(
-            Joiner.on(System.lineSeparator())
-                .join(
-                    "The BuckEventBus failed to shut down within the standard timeout.",
-                    "Your build might have succeeded, but some messages were probably lost.",
-                    "Here's some debugging information:",
-                    executorService.toString()));
-        executorService.shutdownNow();
+      for (ListenerQueue listenerQueue : queuesToStop) {
+        long waitTime = timeoutTime - System.currentTimeMillis();
+        if (waitTime <= 0 || !listenerQueue.awaitTermination(waitTime)) {
+          listenerQueue.interrupt();
+        }
       }
     } catch (InterruptedException e) {
       Threads.interruptCurrentThread();
@@ -184,7 +277,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   public boolean waitEvents(long timeout) {
     long startWaitTime = System.nanoTime();
     synchronized (lock) {
-      while (activeTasks > 0) {
+      while (activeTasks.get() > 0) {
 
         long waitTime = 0;
         if (timeout > 0) {
@@ -198,7 +291,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
           lock.wait(waitTime);
         } catch (InterruptedException e) {
           Threads.interruptCurrentThread();
-          return activeTasks == 0;
+          return activeTasks.get() == 0;
         }
       }
     }
@@ -219,4 +312,135 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
         threadId,
         buildId);
   }
+
+  /** Queue and delivery thread of a single listener. */
+  private class ListenerQueue {
+    private final Object listener;
+    private final boolean isCritical;
+    private final EventBus listenerEventBus;
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile boolean stopped = false;
+    private volatile boolean warnedAboutDroppedEvents = false;
+
+    private ListenerQueue(Object listener) {
+      this.listener = listener;
+      this.isCritical =
+          listener instanceof BuckEventListener && ((BuckEventListener) listener).isCritical();
+      this.listenerEventBus = new EventBus("buck-build-events");
+      this.listenerEventBus.register(listener);
+      this.queue = new ArrayBlockingQueue<>(listenerQueueCapacity);
+      this.thread = threadFactory.newThread(this::deliverEvents);
+      this.thread.setName(
+          BuckEventBus.class.getSimpleName() + "-" + listener.getClass().getSimpleName());
+      this.thread.setDaemon(true);
+    }
+
+    private void start() {
+      thread.start();
+    }
+
+    private void offer(BuckEvent event) {
+      if (stopped) {
+        return;
+      }
+      activeTasks.incrementAndGet();
+      if (!queue.offer(event) && !(mustNotDrop(event) && waitUntilQueued(event))) {
+        droppedEvents.incrementAndGet();
+        if (!warnedAboutDroppedEvents) {
+          warnedAboutDroppedEvents = true;
+          LOG.warn(
+              "Dropping events for %s, it has %d undelivered events.",
+              listener.getClass().getName(), queueDepth.get());
+        }
+        onEventHandled();
+        return;
+      }
+      peakQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+      // The delivery thread might have stopped before the event was queued.
+      if (stopped && queue.remove(event)) {
+        queueDepth.decrementAndGet();
+        onEventHandled();
+      }
+    }
+
+    private boolean mustNotDrop(BuckEvent event) {
+      // The delivery thread would wait for itself if the listener posted while handling an event.
+      return (isCritical || event instanceof CriticalEvent) && Thread.currentThread() != thread;
+    }
+
+    private boolean waitUntilQueued(BuckEvent event) {
+      try {
+        while (!stopped) {
+          if (queue.offer(event, QUEUE_FULL_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            return true;
+          }
+        }
+      } catch (InterruptedException e) {
+        Threads.interruptCurrentThread();
+      }
+      return false;
+    }
+
+    private void deliverEvents() {
+      try {
+        while (!stopped) {
+          Object event = queue.take();
+          if (event == STOP) {
+            continue;
+          }
+          queueDepth.decrementAndGet();
+          try {
+            if (!stopped) {
+              listenerEventBus.post(event);
+            }
+          } catch (RuntimeException e) {
+            LOG.warn(e, "Failed to deliver %s to %s.", event, listener.getClass().getName());
+          } finally {
+            onEventHandled();
+          }
+        }
+      } catch (InterruptedException e) {
+        Threads.interruptCurrentThread();
+      } finally {
+        stopped = true;
+        for (Object event = queue.poll(); event != null; event = queue.poll()) {
+          if (event != STOP) {
+            queueDepth.decrementAndGet();
+            onEventHandled();
+          }
+        }
+      }
+    }
+
+    private void stop() {
+      stopped = true;
+      if (!queue.offer(STOP)) {
+        // The delivery thread is busy with a full queue and will notice that it was stopped when
+        // it takes the next event.
+        LOG.debug("Stopping delivery to %s with a full queue.", listener.getClass().getName());
+      }
+    }
+
+    private boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+      thread.join(timeoutMillis);
+      return !thread.isAlive();
+    }
+
+    private void interrupt() {
+      thread.interrupt();
+    }
+
+    private ListenerQueueStats getAndResetStats() {
+      int depth = queueDepth.get();
+      return ListenerQueueStats.of(
+          listener.getClass().getName(),
+          depth,
+          Math.max(depth, peakQueueDepth.getAndSet(depth)),
+          droppedEvents.getAndSet(0));
+    }
+  }
 }
@@ -131,6 +131,12 @@ public class MachineReadableLoggerListener implements BuckEventListener {
     writeToLog(PREFIX_INVOCATION_INFO, info);
   }
 
+  @Override
+  public boolean isCritical() {
+    // Tools parse the log and add up the cache results in it.
+    return true;
+  }
+
   @Subscribe
   public void versionControlStats(VersionControlStatsEvent versionControlStatsEvent) {
     writeToLog("SourceControlInformation", versionControlStatsEvent);
@@ -108,6 +108,7 @@ public class JsUtil {
                 tool.getCommandPrefix(pathResolver),
                 tool.getEnvironment(pathResolver),
                 worker.getMaxWorkers(),
+                worker.getMaxInFlightRequests(),
                 worker.isPersistent()
                     ? Optional.of(
                         WorkerProcessIdentity.of(
@@ -38,4 +38,15 @@ abstract class AbstractWatchmanQuery {
             .putAll(getQueryParams())
             .build());
   }
+
+  public ImmutableList<Object> toSubscribeList(String subscriptionName, String sinceCursor) {
+    return ImmutableList.of(
+        "subscribe",
+        getQueryPath(),
+        subscriptionName,
+        ImmutableMap.<String, Object>builder()
+            .put("since", sinceCursor)
+            .putAll(getQueryParams())
+            .build());
+  }
 }
@@ -94,4 +94,17 @@ public abstract class Watchman {
    * @return a new client that the caller is responsible for closing.
    */
   public abstract WatchmanClient createClient() throws IOException;
+
+  /**
+   * Unlike {@link #createClient()}, the transport is not wrapped in a client, so that it can be
+   * used for protocols other than plain queries, like subscriptions.
+   *
+   * @return a new transport to Watchman that the caller is responsible for closing.
+   */
+  public Transport createTransport() throws IOException {
+    if (!transportPath.isPresent()) {
+      throw new IOException("No transport to connect to Watchman.");
+    }
+    return WatchmanFactory.createLocalWatchmanTransport(transportPath.get());
+  }
 }
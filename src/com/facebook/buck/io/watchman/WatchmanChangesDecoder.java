@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import com.facebook.buck.io.watchman.AbstractWatchmanPathEvent.Kind;
+import com.facebook.buck.util.bser.BserArrayVisitor;
+import com.facebook.buck.util.bser.BserObjectVisitor;
+import com.facebook.buck.util.bser.BserValueBuilder;
+import com.facebook.buck.util.bser.BserValueVisitor;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Decodes a response to a Watchman query, or an update of a subscription, as it is read.
+ *
+ * <p>The entries of the {@code files} list are decoded straight into the names and kinds of the
+ * changes, instead of a map per entry. If there are more than {@code maxFiles} entries, they are
+ * not decoded at all, since the changes are then treated as an overflow anyway. All other fields
+ * are decoded as usual. A decoder can only be used for a single response.
+ */
+class WatchmanChangesDecoder implements BserValueVisitor, BserObjectVisitor {
+
+  private final int maxFiles;
+  private final Map<String, BserValueBuilder> fields = new LinkedHashMap<>();
+  private boolean isObject = false;
+
+  /** -1 if the response has no {@code files} list. */
+  private int fileCount = -1;
+
+  private final List<String> fileNames = new ArrayList<>();
+  private final List<Kind> fileKinds = new ArrayList<>();
+  private final FileVisitor fileVisitor = new FileVisitor();
+
+  WatchmanChangesDecoder(int maxFiles) {
+    this.maxFiles = maxFiles;
+  }
+
+  @Override
+  public BserObjectVisitor visitObject(int size) {
+    isObject = true;
+    return this;
+  }
+
+  @Nullable
+  @Override
+  public BserValueVisitor visitField(String key) {
+    if (key.equals("files")) {
+      return new BserValueVisitor() {
+        @Nullable
+        @Override
+        public BserArrayVisitor visitArray(int size) {
+          fileCount = size;
+          return size > maxFiles ? null : () -> fileVisitor;
+        }
+      };
+    }
+    BserValueBuilder builder = new BserValueBuilder();
+    fields.put(key, builder);
+    return builder;
+  }
+
+  /** @return whether the response was an object, as all valid responses are. */
+  boolean isObject() {
+    return isObject;
+  }
+
+  /** @return the value of a field other than {@code files}, or {@code null} if it is missing. */
+  @Nullable
+  Object get(String key) {
+    BserValueBuilder builder = fields.get(key);
+    return builder == null ? null : builder.getValue();
+  }
+
+  /** @return all fields other than {@code files}. */
+  Map<String, Object> getFields() {
+    Map<String, Object> values = new LinkedHashMap<>();
+    for (Map.Entry<String, BserValueBuilder> entry : fields.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().getValue());
+    }
+    return values;
+  }
+
+  /** @return whether the response has a {@code files} list. */
+  boolean hasFiles() {
+    return fileCount >= 0;
+  }
+
+  /** @return the number of entries of the {@code files} list. */
+  int getFileCount() {
+    return Math.max(fileCount, 0);
+  }
+
+  /** @return whether an entry of the {@code files} list has been decoded without a name. */
+  boolean isFileNameMissing() {
+    return getFileCount() <= maxFiles && fileNames.size() < getFileCount();
+  }
+
+  /**
+   * @return the events of the entries of the {@code files} list, which is only available if there
+   *     are at most {@code maxFiles} entries and all of them have a name.
+   */
+  ImmutableList<WatchmanPathEvent> getPathEvents(Path cellPath) {
+    Preconditions.checkState(getFileCount() <= maxFiles && !isFileNameMissing());
+    ImmutableList.Builder<WatchmanPathEvent> pathEvents =
+        ImmutableList.builderWithExpectedSize(fileNames.size());
+    for (int i = 0; i < fileNames.size(); i++) {
+      pathEvents.add(WatchmanPathEvent.of(cellPath, fileKinds.get(i), Paths.get(fileNames.get(i))));
+    }
+    return pathEvents.build();
+  }
+
+  /** Decodes each entry of the {@code files} list in turn, see {@link WatchmanWatcher}. */
+  private class FileVisitor implements BserValueVisitor, BserObjectVisitor {
+    @Nullable private String name;
+    private boolean isNew;
+    private boolean exists;
+
+    private final BserValueVisitor nameVisitor =
+        new BserValueVisitor() {
+          @Override
+          public void visitString(String value) {
+            name = value;
+          }
+        };
+    private final BserValueVisitor newVisitor =
+        new BserValueVisitor() {
+          @Override
+          public void visitBoolean(boolean value) {
+            isNew = value;
+          }
+        };
+    private final BserValueVisitor existsVisitor =
+        new BserValueVisitor() {
+          @Override
+          public void visitBoolean(boolean value) {
+            exists = value;
+          }
+        };
+
+    @Override
+    public BserObjectVisitor visitObject(int size) {
+      name = null;
+      isNew = false;
+      exists = true;
+      return this;
+    }
+
+    @Nullable
+    @Override
+    public BserValueVisitor visitField(String key) {
+      switch (key) {
+        case "name":
+          return nameVisitor;
+        case "new":
+          return newVisitor;
+        case "exists":
+          return existsVisitor;
+        default:
+          return null;
+      }
+    }
+
+    @Override
+    public void visitEnd() {
+      if (name == null) {
+        return;
+      }
+      fileNames.add(name);
+      if (!exists) {
+        fileKinds.add(Kind.DELETE);
+      } else if (isNew) {
+        fileKinds.add(Kind.CREATE);
+      } else {
+        fileKinds.add(Kind.MODIFY);
+      }
+    }
+  }
+}
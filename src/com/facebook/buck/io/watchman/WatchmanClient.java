@@ -16,6 +16,7 @@
 
 package com.facebook.buck.io.watchman;
 
+import com.facebook.buck.util.bser.BserValueVisitor;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
@@ -25,6 +26,21 @@ public interface WatchmanClient extends AutoCloseable {
   Optional<? extends Map<String, ? extends Object>> queryWithTimeout(
       long timeoutNanos, Object... query) throws IOException, InterruptedException;
 
+  /**
+   * Like {@link #queryWithTimeout}, but hands the response to {@code responseVisitor} as it is
+   * decoded, instead of building a map of the whole response.
+   *
+   * @return whether a response was received within the timeout.
+   */
+  default boolean decodeQueryWithTimeout(
+      long timeoutNanos, BserValueVisitor responseVisitor, Object... query)
+      throws IOException, InterruptedException {
+    Optional<? extends Map<String, ? extends Object>> response =
+        queryWithTimeout(timeoutNanos, query);
+    response.ifPresent(value -> BserValueVisitor.replay(value, responseVisitor));
+    return response.isPresent();
+  }
+
   @Override
   void close() throws IOException;
 }
@@ -17,7 +17,7 @@
 package com.facebook.buck.io.watchman;
 
 public class WatchmanCursor {
-  private String watchmanCursor;
+  private volatile String watchmanCursor;
 
   public WatchmanCursor(String initialCursor) {
     this.watchmanCursor = initialCursor;
@@ -66,6 +66,7 @@ public class WatchmanFactory {
           .put("wildmatch_multislash", Capability.WILDMATCH_MULTISLASH)
           .put("glob_generator", Capability.GLOB_GENERATOR)
           .put("clock-sync-timeout", Capability.CLOCK_SYNC_TIMEOUT)
+          .put("cmd-flush-subscriptions", Capability.FLUSH_SUBSCRIPTIONS)
           .build();
   static final Path WATCHMAN = Paths.get("watchman");
   private static final int WATCHMAN_CLOCK_SYNC_TIMEOUT = 100;
@@ -277,7 +278,7 @@ public class WatchmanFactory {
     return new WatchmanTransportClient(console, clock, createLocalWatchmanTransport(transportPath));
   }
 
-  private static Transport createLocalWatchmanTransport(Path transportPath) throws IOException {
+  static Transport createLocalWatchmanTransport(Path transportPath) throws IOException {
     if (Platform.detect() == Platform.WINDOWS) {
       return WindowsNamedPipe.createPipeWithPath(transportPath.toString());
     } else {
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.event.WatchmanStatusEvent;
+import com.facebook.buck.util.bser.BserSerializer;
+import com.facebook.buck.util.bser.BserStreamingDeserializer;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * A Watchman subscription to the changes of all cells, over a {@link Transport} of its own.
+ *
+ * <p>Changes are received and decoded by a background thread as soon as Watchman reports them. The
+ * caches they invalidate must not change while a command is running, so while the subscription is
+ * {@link #pause}d, changes are only buffered. Once it is {@link #resume}d, the buffered changes and
+ * any later ones are posted to the file change event bus by another background thread, so that the
+ * next command only has to {@link #sync} the changes that arrived since the daemon became idle.
+ *
+ * <p>The cursor of a cell is advanced past every change that has been posted, so once the
+ * subscription is closed or lost, a {@code since} query picks up where it stopped, including the
+ * changes that were buffered but not posted yet.
+ */
+public class WatchmanSubscription implements AutoCloseable {
+
+  private static final Logger LOG = Logger.get(WatchmanSubscription.class);
+
+  /**
+   * Handed to the command waiting for a response when the connection is lost. It is compared by
+   * identity, so it can't be mistaken for an actual response.
+   */
+  private static final Map<String, Object> CONNECTION_LOST =
+      Collections.unmodifiableMap(new HashMap<>());
+
+  private final EventBus fileChangeEventBus;
+  private final Transport transport;
+  private final ImmutableMap<Path, WatchmanQuery> queries;
+  private final Map<Path, WatchmanCursor> cursors;
+  private final Object invalidationLock;
+  private final long timeoutMillis;
+
+  /** Changes received but not posted yet, by cell path. Guarded by itself. */
+  private final Map<Path, PendingChanges> pendingChanges = new HashMap<>();
+
+  /** Whether a command is running, so changes must not be posted. Guarded by invalidationLock. */
+  private boolean paused = true;
+
+  /**
+   * Whether any change has been posted since the last sync, and the reasons of the overflows posted
+   * since then. Guarded by invalidationLock.
+   */
+  private boolean filesHaveChanged = false;
+
+  private final List<String> overflowReasons = new ArrayList<>();
+
+  /** Posts changes while the subscription is not paused. */
+  private final ExecutorService poster =
+      MostExecutors.newSingleThreadExecutor("Watchman subscription changes");
+
+  private final AtomicBoolean postScheduled = new AtomicBoolean(false);
+
+  /** Cell path of each subscription, by subscription name. */
+  private final ImmutableMap<String, Path> subscriptions;
+
+  private final BserSerializer bserSerializer = new BserSerializer();
+  private final BserStreamingDeserializer bserDeserializer = new BserStreamingDeserializer();
+  private final BlockingQueue<Map<String, Object>> responses = new LinkedBlockingQueue<>();
+  private final Thread reader;
+  private volatile boolean active = true;
+
+  private WatchmanSubscription(
+      EventBus fileChangeEventBus,
+      Transport transport,
+      ImmutableMap<Path, WatchmanQuery> queries,
+      Map<Path, WatchmanCursor> cursors,
+      Object invalidationLock,
+      long timeoutMillis) {
+    this.fileChangeEventBus = fileChangeEventBus;
+    this.transport = transport;
+    this.queries = queries;
+    this.cursors = cursors;
+    this.invalidationLock = invalidationLock;
+    this.timeoutMillis = timeoutMillis;
+    ImmutableMap.Builder<String, Path> subscriptionsBuilder = ImmutableMap.builder();
+    for (Path cellPath : queries.keySet()) {
+      if (cursors.containsKey(cellPath)) {
+        subscriptionsBuilder.put("buckd:" + cellPath, cellPath);
+      }
+    }
+    this.subscriptions = subscriptionsBuilder.build();
+    this.reader = new Thread(this::readMessages, "Watchman subscription");
+    this.reader.setDaemon(true);
+  }
+
+  /**
+   * Subscribes to the changes of all cells that have a cursor, since their cursors.
+   *
+   * @param invalidationLock The lock to hold while the events of a change are posted.
+   */
+  static WatchmanSubscription start(
+      EventBus fileChangeEventBus,
+      Transport transport,
+      ImmutableMap<Path, WatchmanQuery> queries,
+      Map<Path, WatchmanCursor> cursors,
+      Object invalidationLock,
+      long timeoutMillis)
+      throws IOException, InterruptedException {
+    WatchmanSubscription subscription =
+        new WatchmanSubscription(
+            fileChangeEventBus, transport, queries, cursors, invalidationLock, timeoutMillis);
+    subscription.reader.start();
+    try {
+      for (Map.Entry<String, Path> entry : subscription.subscriptions.entrySet()) {
+        Path cellPath = entry.getValue();
+        subscription.sendCommand(
+            queries.get(cellPath).toSubscribeList(entry.getKey(), cursors.get(cellPath).get()));
+      }
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      subscription.close();
+      throw e;
+    }
+    LOG.debug("Subscribed to Watchman changes of %s", subscription.subscriptions.values());
+    return subscription;
+  }
+
+  /** @return whether changes are still being received. */
+  public boolean isActive() {
+    return active;
+  }
+
+  /**
+   * Stops posting changes in the background, waiting for changes that are being posted. Changes are
+   * buffered until the subscription is synced or resumed.
+   */
+  public void pause() {
+    synchronized (invalidationLock) {
+      paused = true;
+    }
+  }
+
+  /** Posts the buffered changes, and later ones as they are received, in the background. */
+  public void resume() {
+    synchronized (invalidationLock) {
+      paused = false;
+    }
+    schedulePost();
+  }
+
+  /**
+   * Waits until all changes which happened before this call have been received, posts the changes
+   * which have not been posted in the background yet while holding the invalidation lock, and
+   * reports all changes posted since the previous call on {@code buckEventBus}.
+   *
+   * <p>It must only be called while no command is using the caches which the changes invalidate.
+   * In case of an error the subscription is closed, and the changes which have not been posted are
+   * left to a {@code since} query.
+   */
+  public void sync(BuckEventBus buckEventBus) throws IOException, InterruptedException {
+    buckEventBus.post(WatchmanStatusEvent.started());
+    try {
+      // Cells usually share a watch root, so their subscriptions are flushed together.
+      ImmutableListMultimap.Builder<String, String> subscriptionsByRoot =
+          ImmutableListMultimap.builder();
+      for (Map.Entry<String, Path> entry : subscriptions.entrySet()) {
+        subscriptionsByRoot.put(queries.get(entry.getValue()).getQueryPath(), entry.getKey());
+      }
+      try (SimplePerfEvent.Scope ignored =
+          SimplePerfEvent.scope(buckEventBus, PerfEventId.of("sync_watchman_subscription"))) {
+        for (Map.Entry<String, Collection<String>> entry :
+            subscriptionsByRoot.build().asMap().entrySet()) {
+          // Watchman sends all pending updates of the subscriptions before the response, and they
+          // are buffered by the reader before it gets to the response.
+          sendCommand(
+              ImmutableList.of(
+                  "flush-subscriptions",
+                  entry.getKey(),
+                  ImmutableMap.of(
+                      "sync_timeout",
+                      timeoutMillis,
+                      "subscriptions",
+                      ImmutableList.copyOf(entry.getValue()))));
+        }
+      }
+      boolean changed;
+      List<String> reasons;
+      synchronized (invalidationLock) {
+        postPendingChanges();
+        changed = filesHaveChanged;
+        reasons = ImmutableList.copyOf(overflowReasons);
+        filesHaveChanged = false;
+        overflowReasons.clear();
+      }
+      for (String reason : reasons) {
+        buckEventBus.post(WatchmanStatusEvent.overflow(reason));
+      }
+      if (!changed) {
+        buckEventBus.post(WatchmanStatusEvent.zeroFileChanges());
+      }
+    } finally {
+      buckEventBus.post(WatchmanStatusEvent.finished());
+    }
+  }
+
+  /** Sends {@code command} and waits for its response. */
+  private synchronized Map<String, Object> sendCommand(List<Object> command)
+      throws IOException, InterruptedException {
+    if (!active) {
+      throw new IOException("The Watchman subscription is no longer active.");
+    }
+    LOG.verbose("Sending command: %s", command);
+    bserSerializer.serializeToStream(command, transport.getOutputStream());
+    @Nullable Map<String, Object> response;
+    try {
+      // Besides the time Watchman may take to sync, posting the pending updates takes some time.
+      response = responses.poll(2 * timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      // Responses are not tagged, so a late one would be taken for the response of the next
+      // command.
+      close();
+      throw e;
+    }
+    if (response == null) {
+      close();
+      throw new IOException(
+          String.format("Watchman did not respond to %s within %d ms.", command, timeoutMillis));
+    }
+    if (response == CONNECTION_LOST) {
+      throw new IOException("Lost the connection to Watchman.");
+    }
+    String error = (String) response.get("error");
+    if (error != null) {
+      close();
+      throw new WatchmanWatcherException(error);
+    }
+    return response;
+  }
+
+  private void readMessages() {
+    try {
+      while (active) {
+        WatchmanChangesDecoder message =
+            new WatchmanChangesDecoder(WatchmanWatcher.OVERFLOW_THRESHOLD);
+        bserDeserializer.deserialize(transport.getInputStream(), message);
+        if (!message.isObject()) {
+          throw new IOException("Unrecognized Watchman message");
+        }
+        if (message.get("subscription") != null) {
+          processUpdate(message);
+        } else if (!Boolean.TRUE.equals(message.get("unilateral"))) {
+          responses.add(message.getFields());
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      if (active) {
+        LOG.warn(e, "Lost the Watchman subscription.");
+        active = false;
+      }
+    } finally {
+      responses.add(CONNECTION_LOST);
+    }
+  }
+
+  /**
+   * Buffers the changes of {@code update}, to be posted in the background, or by the next {@link
+   * #sync} if the subscription is paused.
+   */
+  private void processUpdate(WatchmanChangesDecoder update) {
+    @Nullable Path cellPath = subscriptions.get(update.get("subscription"));
+    if (cellPath == null) {
+      LOG.warn("Ignoring update of unknown subscription %s", update.get("subscription"));
+      return;
+    }
+    boolean isFreshInstance = Boolean.TRUE.equals(update.get("is_fresh_instance"));
+    if (!update.hasFiles() && !isFreshInstance) {
+      // E.g. state-enter and state-leave notifications, which don't report any changes.
+      return;
+    }
+    synchronized (pendingChanges) {
+      PendingChanges changes =
+          pendingChanges.computeIfAbsent(cellPath, path -> new PendingChanges());
+      if (isFreshInstance) {
+        changes.overflow("Watchman has been initialized recently.");
+      } else if (changes.pathEvents.size() + update.getFileCount()
+          > WatchmanWatcher.OVERFLOW_THRESHOLD) {
+        // Also bounds the memory used by changes piling up between commands.
+        changes.overflow("Too many files changed.");
+      } else if (update.isFileNameMissing()) {
+        changes.overflow("Filename missing from watchman response.");
+      } else if (changes.overflowReason == null) {
+        changes.pathEvents.addAll(update.getPathEvents(cellPath));
+      }
+      String clock = (String) update.get("clock");
+      if (clock != null) {
+        changes.clock = clock;
+      }
+    }
+    schedulePost();
+  }
+
+  /** Makes the poster thread post the buffered changes, unless it is about to already. */
+  private void schedulePost() {
+    if (!postScheduled.getAndSet(true)) {
+      poster.execute(this::postPendingChangesUnlessPaused);
+    }
+  }
+
+  private void postPendingChangesUnlessPaused() {
+    postScheduled.set(false);
+    synchronized (invalidationLock) {
+      // Once the subscription is closed, the changes which have not been posted are left to a
+      // since query, which may already have advanced the cursors past them.
+      if (!paused && active) {
+        postPendingChanges();
+      }
+    }
+  }
+
+  /** Posts the buffered changes and advances the cursors past them. Requires invalidationLock. */
+  private void postPendingChanges() {
+    Map<Path, PendingChanges> changesToPost;
+    synchronized (pendingChanges) {
+      changesToPost = new HashMap<>(pendingChanges);
+      pendingChanges.clear();
+    }
+    for (Map.Entry<Path, PendingChanges> entry : changesToPost.entrySet()) {
+      Path cellPath = entry.getKey();
+      PendingChanges changes = entry.getValue();
+      if (changes.overflowReason != null) {
+        LOG.warn("Posting overflow event for %s: %s", cellPath, changes.overflowReason);
+        fileChangeEventBus.post(WatchmanOverflowEvent.of(cellPath, changes.overflowReason));
+        overflowReasons.add(changes.overflowReason);
+        filesHaveChanged = true;
+      } else {
+        for (WatchmanPathEvent pathEvent : changes.pathEvents) {
+          fileChangeEventBus.post(pathEvent);
+        }
+        filesHaveChanged |= !changes.pathEvents.isEmpty();
+        LOG.debug("Posted %d Watchman events of %s.", changes.pathEvents.size(), cellPath);
+      }
+      if (changes.clock != null) {
+        cursors.get(cellPath).set(changes.clock);
+      }
+    }
+  }
+
+  /** Stops receiving changes. Changes which have not been posted are dropped. */
+  @Override
+  public void close() {
+    active = false;
+    poster.shutdown();
+    try {
+      transport.close();
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to close the Watchman subscription transport.");
+    }
+    if (Thread.currentThread() != reader) {
+      Uninterruptibles.joinUninterruptibly(reader, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** The changes of a cell received but not posted yet. */
+  private static class PendingChanges {
+    private final List<WatchmanPathEvent> pathEvents = new ArrayList<>();
+    @Nullable private String overflowReason;
+    @Nullable private String clock;
+
+    /** Replaces the individual changes by an overflow, since too much has changed to track. */
+    private void overflow(String reason) {
+      overflowReason = reason;
+      pathEvents.clear();
+    }
+  }
+}
@@ -23,6 +23,8 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.bser.BserDeserializer;
 import com.facebook.buck.util.bser.BserSerializer;
+import com.facebook.buck.util.bser.BserStreamingDeserializer;
+import com.facebook.buck.util.bser.BserValueVisitor;
 import com.facebook.buck.util.timing.Clock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -31,6 +33,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -46,6 +49,7 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
   private final Console console;
   private final BserSerializer bserSerializer;
   private final BserDeserializer bserDeserializer;
+  private final BserStreamingDeserializer bserStreamingDeserializer;
 
   private boolean disabledWarningShown = false;
 
@@ -56,22 +60,38 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
     this.transport = transport;
     this.bserSerializer = new BserSerializer();
     this.bserDeserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    this.bserStreamingDeserializer = new BserStreamingDeserializer();
   }
 
   @Override
   public Optional<Map<String, Object>> queryWithTimeout(long timeoutNanos, Object... query)
       throws IOException, InterruptedException {
-    return queryListWithTimeout(timeoutNanos, ImmutableList.copyOf(query));
+    List<Object> queryList = ImmutableList.copyOf(query);
+    return queryListWithTimeout(timeoutNanos, queryList, () -> sendWatchmanQuery(queryList));
   }
 
-  private Optional<Map<String, Object>> queryListWithTimeout(long timeoutNanos, List<Object> query)
+  @Override
+  public boolean decodeQueryWithTimeout(
+      long timeoutNanos, BserValueVisitor responseVisitor, Object... query)
+      throws IOException, InterruptedException {
+    List<Object> queryList = ImmutableList.copyOf(query);
+    return queryListWithTimeout(
+            timeoutNanos,
+            queryList,
+            () -> {
+              sendWatchmanQuery(queryList, responseVisitor);
+              return Optional.of(true);
+            })
+        .isPresent();
+  }
+
+  private <T> Optional<T> queryListWithTimeout(
+      long timeoutNanos, List<Object> query, Callable<Optional<T>> sendQuery)
       throws IOException, InterruptedException {
-    ListenableFuture<Optional<Map<String, Object>>> future =
-        listeningExecutorService.submit(() -> sendWatchmanQuery(query));
+    ListenableFuture<Optional<T>> future = listeningExecutorService.submit(sendQuery);
     try {
       long startTimeNanos = clock.nanoTime();
-      Optional<Map<String, Object>> result =
-          waitForQueryNotifyingUserIfSlow(future, timeoutNanos, query);
+      Optional<T> result = waitForQueryNotifyingUserIfSlow(future, timeoutNanos, query);
       long elapsedNanos = clock.nanoTime() - startTimeNanos;
       LOG.debug("Query %s returned in %d ms", query, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
       return result;
@@ -107,8 +127,8 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
             TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
   }
 
-  private Optional<Map<String, Object>> waitForQueryNotifyingUserIfSlow(
-      ListenableFuture<Optional<Map<String, Object>>> future, long timeoutNanos, List<Object> query)
+  private <T> Optional<T> waitForQueryNotifyingUserIfSlow(
+      ListenableFuture<Optional<T>> future, long timeoutNanos, List<Object> query)
       throws InterruptedException, ExecutionException {
     long queryStartNanos = clock.nanoTime();
     try {
@@ -147,4 +167,11 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
     }
     return Optional.of(responseMap);
   }
+
+  private void sendWatchmanQuery(List<Object> query, BserValueVisitor responseVisitor)
+      throws IOException {
+    LOG.verbose("Sending query: %s", query);
+    bserSerializer.serializeToStream(query, transport.getOutputStream());
+    bserStreamingDeserializer.deserialize(transport.getInputStream(), responseVisitor);
+  }
 }
@@ -22,7 +22,6 @@ import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.event.WatchmanStatusEvent;
 import com.facebook.buck.io.filesystem.PathMatcher;
-import com.facebook.buck.io.watchman.AbstractWatchmanPathEvent.Kind;
 import com.facebook.buck.util.Threads;
 import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
@@ -34,7 +33,6 @@ import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -74,7 +72,7 @@ public class WatchmanWatcher {
    * switch which will end up invalidating the entire cache anyway. If overflow is negative calls to
    * postEvents will just generate a single overflow event.
    */
-  private static final int OVERFLOW_THRESHOLD = 10000;
+  static final int OVERFLOW_THRESHOLD = 10000;
 
   /** Attach changed files to the perf trace, if there aren't too many. */
   private static final int TRACE_CHANGES_THRESHOLD = 10;
@@ -256,7 +254,21 @@ public class WatchmanWatcher {
     }
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Subscribes to the changes of all cells since their current cursors. Changes are then received
+   * in the background and posted while the subscription is resumed or when it is synced, and the
+   * cursors are advanced past the posted ones, so {@link #postEvents} picks up where the
+   * subscription stopped once it is closed. The subscription starts out paused.
+   *
+   * @param transport A connection to Watchman that is used exclusively by the subscription.
+   * @param invalidationLock The lock to hold while the events of a change are posted.
+   */
+  public WatchmanSubscription subscribe(Transport transport, Object invalidationLock)
+      throws IOException, InterruptedException {
+    return WatchmanSubscription.start(
+        fileChangeEventBus, transport, queries, cursors, invalidationLock, timeoutMillis);
+  }
+
   private void postEvents(
       BuckEventBus buckEventBus,
       FreshInstanceAction freshInstanceAction,
@@ -268,16 +280,20 @@ public class WatchmanWatcher {
       SimplePerfEvent.Scope perfEvent)
       throws IOException, InterruptedException {
     try {
-      Optional<? extends Map<String, ? extends Object>> queryResponse;
+      // The changed files are only decoded into events if they are not treated as an overflow.
+      WatchmanChangesDecoder response = new WatchmanChangesDecoder(OVERFLOW_THRESHOLD);
+      boolean hasResponse;
       try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(buckEventBus, "query")) {
-        queryResponse =
-            client.queryWithTimeout(
-                TimeUnit.MILLISECONDS.toNanos(timeoutMillis), query.toList(cursor.get()).toArray());
+        hasResponse =
+            client.decodeQueryWithTimeout(
+                TimeUnit.MILLISECONDS.toNanos(timeoutMillis),
+                response,
+                query.toList(cursor.get()).toArray());
       }
 
       try (SimplePerfEvent.Scope ignored =
           SimplePerfEvent.scope(buckEventBus, "process_response")) {
-        if (!queryResponse.isPresent()) {
+        if (!hasResponse || !response.isObject()) {
           LOG.warn(
               "Could not get response from Watchman for query %s within %d ms",
               query, timeoutMillis);
@@ -292,7 +308,6 @@ public class WatchmanWatcher {
           return;
         }
 
-        Map<String, ? extends Object> response = queryResponse.get();
         String error = (String) response.get("error");
         if (error != null) {
           // This message is not de-duplicated via WatchmanDiagnostic.
@@ -338,50 +353,47 @@ public class WatchmanWatcher {
           return;
         }
 
-        List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
-        if (files != null) {
-          if (files.size() > OVERFLOW_THRESHOLD) {
+        if (response.hasFiles()) {
+          int fileCount = response.getFileCount();
+          if (fileCount > OVERFLOW_THRESHOLD) {
             LOG.warn(
                 "Posting overflow event: too many files changed: %d > %d",
-                files.size(), OVERFLOW_THRESHOLD);
+                fileCount, OVERFLOW_THRESHOLD);
             postWatchEvent(
                 buckEventBus, WatchmanOverflowEvent.of(cellPath, "Too many files changed."));
             filesHaveChanged.set(true);
             return;
           }
-          if (files.size() < TRACE_CHANGES_THRESHOLD) {
-            perfEvent.appendFinishedInfo("files", files);
+          if (response.isFileNameMissing()) {
+            LOG.warn("Filename missing from watchman file response");
+            postWatchEvent(
+                buckEventBus,
+                WatchmanOverflowEvent.of(cellPath, "Filename missing from watchman response."));
+            filesHaveChanged.set(true);
+            return;
+          }
+          ImmutableList<WatchmanPathEvent> pathEvents = response.getPathEvents(cellPath);
+          ImmutableList<String> tracedFiles =
+              pathEvents
+                  .stream()
+                  .limit(TRACE_CHANGES_THRESHOLD)
+                  .map(Object::toString)
+                  .collect(ImmutableList.toImmutableList());
+          if (pathEvents.size() < TRACE_CHANGES_THRESHOLD) {
+            perfEvent.appendFinishedInfo("files", tracedFiles);
           } else {
-            perfEvent.appendFinishedInfo("files_sample", files.subList(0, TRACE_CHANGES_THRESHOLD));
+            perfEvent.appendFinishedInfo("files_sample", tracedFiles);
           }
 
-          for (Map<String, Object> file : files) {
-            String fileName = (String) file.get("name");
-            if (fileName == null) {
-              LOG.warn("Filename missing from watchman file response %s", file);
-              postWatchEvent(
-                  buckEventBus,
-                  WatchmanOverflowEvent.of(cellPath, "Filename missing from watchman response."));
-              filesHaveChanged.set(true);
-              return;
-            }
-            Boolean fileNew = (Boolean) file.get("new");
-            Kind kind = WatchmanPathEvent.Kind.MODIFY;
-            if (fileNew != null && fileNew) {
-              kind = WatchmanPathEvent.Kind.CREATE;
-            }
-            Boolean fileExists = (Boolean) file.get("exists");
-            if (fileExists != null && !fileExists) {
-              kind = WatchmanPathEvent.Kind.DELETE;
-            }
-            postWatchEvent(buckEventBus, WatchmanPathEvent.of(cellPath, kind, Paths.get(fileName)));
+          for (WatchmanPathEvent pathEvent : pathEvents) {
+            postWatchEvent(buckEventBus, pathEvent);
           }
 
-          if (!files.isEmpty() || freshInstanceAction == FreshInstanceAction.NONE) {
+          if (fileCount > 0 || freshInstanceAction == FreshInstanceAction.NONE) {
             filesHaveChanged.set(true);
           }
 
-          LOG.debug("Posted %d Watchman events.", files.size());
+          LOG.debug("Posted %d Watchman events.", fileCount);
         } else {
           if (freshInstanceAction == FreshInstanceAction.NONE) {
             filesHaveChanged.set(true);
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link StandardJavaFileManager} which lists the contents of classpath jars from the {@link
+ * SharedClasspathIndex} instead of having javac open and index every jar itself.
+ *
+ * <p>Jars are only opened once a class is actually read from them. Listing falls back to the
+ * delegate if the classpath contains anything but plain jars.
+ */
+class IndexedClasspathFileManager extends ForwardingStandardJavaFileManager {
+
+  private static final Logger LOG = Logger.get(IndexedClasspathFileManager.class);
+
+  private static final JavaFileObject.Kind[] KINDS_WITH_EXTENSIONS = {
+    JavaFileObject.Kind.CLASS, JavaFileObject.Kind.SOURCE, JavaFileObject.Kind.HTML
+  };
+
+  private final SharedClasspathIndex sharedIndex;
+  private final Map<Path, ZipFile> openJars = new HashMap<>();
+  private boolean isClasspathIndexed = false;
+  @Nullable private List<IndexedJar> indexedClasspath;
+
+  public IndexedClasspathFileManager(
+      StandardJavaFileManager fileManager, SharedClasspathIndex sharedIndex) {
+    super(fileManager);
+    this.sharedIndex = sharedIndex;
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    if (location != StandardLocation.CLASS_PATH || recurse) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+    List<IndexedJar> jars = getIndexedClasspath();
+    if (jars == null) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+    List<JavaFileObject> results = new ArrayList<>();
+    for (IndexedJar jar : jars) {
+      for (String entry : jar.index.getEntries(packageName)) {
+        JavaFileObject.Kind kind = getKind(entry);
+        if (kinds.contains(kind)) {
+          results.add(new JarEntryFileObject(jar, entry, kind));
+        }
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof JarEntryFileObject) {
+      String entry = ((JarEntryFileObject) file).entry;
+      String withoutExtension =
+          entry.substring(0, entry.length() - file.getKind().extension.length());
+      return withoutExtension.replace('/', '.');
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof JarEntryFileObject || b instanceof JarEntryFileObject) {
+      return a.toUri().equals(b.toUri());
+    }
+    return super.isSameFile(a, b);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      for (ZipFile zipFile : openJars.values()) {
+        zipFile.close();
+      }
+      openJars.clear();
+    } finally {
+      super.close();
+    }
+  }
+
+  /**
+   * @return the indexes of the classpath jars, in classpath order, or {@code null} if the classpath
+   *     can't be served from indexes.
+   */
+  @Nullable
+  private List<IndexedJar> getIndexedClasspath() {
+    // The classpath is set from javac's options before anything is listed, and doesn't change
+    // during the compilation.
+    if (!isClasspathIndexed) {
+      indexedClasspath = indexClasspath();
+      isClasspathIndexed = true;
+    }
+    return indexedClasspath;
+  }
+
+  @Nullable
+  private List<IndexedJar> indexClasspath() {
+    Iterable<? extends File> entries = getLocation(StandardLocation.CLASS_PATH);
+    if (entries == null) {
+      return null;
+    }
+    List<IndexedJar> jars = new ArrayList<>();
+    for (File entry : entries) {
+      if (!entry.exists()) {
+        // javac ignores missing classpath entries.
+        continue;
+      }
+      String name = entry.getName();
+      if (!entry.isFile() || !(name.endsWith(".jar") || name.endsWith(".zip"))) {
+        return null;
+      }
+      Path jar = entry.toPath().toAbsolutePath();
+      try {
+        SharedClasspathIndex.JarIndex index = sharedIndex.getIndex(jar);
+        if (index.isMultiRelease()) {
+          return null;
+        }
+        jars.add(new IndexedJar(jar, index));
+      } catch (IOException e) {
+        LOG.debug(e, "Unable to index %s, letting javac read the classpath.", jar);
+        return null;
+      }
+    }
+    return jars;
+  }
+
+  private synchronized ZipFile openJar(Path jar) throws IOException {
+    ZipFile zipFile = openJars.get(jar);
+    if (zipFile == null) {
+      zipFile = new ZipFile(jar.toFile());
+      openJars.put(jar, zipFile);
+    }
+    return zipFile;
+  }
+
+  private static JavaFileObject.Kind getKind(String entry) {
+    for (JavaFileObject.Kind kind : KINDS_WITH_EXTENSIONS) {
+      if (entry.endsWith(kind.extension)) {
+        return kind;
+      }
+    }
+    return JavaFileObject.Kind.OTHER;
+  }
+
+  private static class IndexedJar {
+    private final Path path;
+    private final SharedClasspathIndex.JarIndex index;
+    private final String uriPrefix;
+
+    private IndexedJar(Path path, SharedClasspathIndex.JarIndex index) {
+      this.path = path;
+      this.index = index;
+      this.uriPrefix = "file:" + path.toUri().getSchemeSpecificPart() + "!/";
+    }
+  }
+
+  /** An entry of a classpath jar, which is read from the jar when it is opened. */
+  private class JarEntryFileObject implements JavaFileObject {
+    private final IndexedJar jar;
+    private final String entry;
+    private final Kind kind;
+    private final URI uri;
+
+    private JarEntryFileObject(IndexedJar jar, String entry, Kind kind) {
+      this.jar = jar;
+      this.entry = entry;
+      this.kind = kind;
+      this.uri = createUri(jar, entry);
+    }
+
+    @Override
+    public URI toUri() {
+      return uri;
+    }
+
+    @Override
+    public String getName() {
+      return jar.path + "(/" + entry + ")";
+    }
+
+    @Override
+    public Kind getKind() {
+      return kind;
+    }
+
+    @Override
+    public boolean isNameCompatible(String simpleName, Kind kind) {
+      String baseName = simpleName + kind.extension;
+      return kind.equals(this.kind) && (baseName.equals(entry) || entry.endsWith("/" + baseName));
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      ZipFile zipFile = openJar(jar.path);
+      ZipEntry zipEntry = zipFile.getEntry(entry);
+      if (zipEntry == null) {
+        throw new IOException(String.format("%s no longer contains %s", jar.path, entry));
+      }
+      return zipFile.getInputStream(zipEntry);
+    }
+
+    @Override
+    public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+      return new InputStreamReader(openInputStream(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      try (InputStream inputStream = openInputStream()) {
+        return new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+      }
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      throw new UnsupportedOperationException("Classpath jars are read-only.");
+    }
+
+    @Override
+    public Writer openWriter() {
+      throw new UnsupportedOperationException("Classpath jars are read-only.");
+    }
+
+    @Override
+    public long getLastModified() {
+      return 0L;
+    }
+
+    @Override
+    public boolean delete() {
+      return false;
+    }
+
+    @Override
+    @Nullable
+    public NestingKind getNestingKind() {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public Modifier getAccessLevel() {
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + "[" + uri + "]";
+    }
+  }
+
+  private static URI createUri(IndexedJar jar, String entry) {
+    try {
+      // Matches the URIs javac gives to jar entries, which ClassUsageTracker relies on.
+      return new URI("jar", jar.uriPrefix + entry, null);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+}
@@ -501,7 +501,9 @@ class Jsr199JavacInvocation implements Javac.Invocation {
           JavaCompiler compiler = compilerConstructor.get();
 
           StandardJavaFileManager standardFileManager =
-              compiler.getStandardFileManager(null, null, null);
+              new IndexedClasspathFileManager(
+                  compiler.getStandardFileManager(null, null, null),
+                  SharedClasspathIndex.INSTANCE);
           addCloseable(standardFileManager);
 
           StandardJavaFileManager fileManager;
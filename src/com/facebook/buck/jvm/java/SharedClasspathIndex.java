@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Indexes of the entries of classpath jars, shared by all in-process javac invocations of the
+ * daemon.
+ *
+ * <p>Without it, every compilation opens and reads the central directory of every jar on its
+ * classpath, even though most jars are on the classpath of many rules and rarely change. An index
+ * is handed out as long as its jar still has the size, modification time and file key it had when
+ * it was indexed, so a rewritten jar is indexed again the next time it is used.
+ */
+final class SharedClasspathIndex {
+
+  static final SharedClasspathIndex INSTANCE = new SharedClasspathIndex(1 << 21);
+
+  private static final String MULTI_RELEASE_PREFIX = "META-INF/versions/";
+
+  private final Cache<Path, JarIndex> indexes;
+
+  SharedClasspathIndex(long maxIndexedEntries) {
+    this.indexes =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxIndexedEntries)
+            .weigher((Weigher<Path, JarIndex>) (jar, index) -> index.entriesByPackage.size())
+            .build();
+  }
+
+  /**
+   * @return the index of the jar at the absolute path {@code jar}, which is read from the jar if
+   *     there is no index for its current contents yet.
+   */
+  JarIndex getIndex(Path jar) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+    JarIndex index = indexes.getIfPresent(jar);
+    if (index == null || !index.matches(attributes)) {
+      index = JarIndex.read(jar, attributes);
+      indexes.put(jar, index);
+    }
+    return index;
+  }
+
+  /** The names of the entries of a jar, grouped by the package they are in. */
+  static class JarIndex {
+    private final long size;
+    private final long lastModifiedNanos;
+    private final String fileKey;
+    private final boolean multiRelease;
+    private final ImmutableListMultimap<String, String> entriesByPackage;
+
+    private JarIndex(
+        long size,
+        long lastModifiedNanos,
+        String fileKey,
+        boolean multiRelease,
+        ImmutableListMultimap<String, String> entriesByPackage) {
+      this.size = size;
+      this.lastModifiedNanos = lastModifiedNanos;
+      this.fileKey = fileKey;
+      this.multiRelease = multiRelease;
+      this.entriesByPackage = entriesByPackage;
+    }
+
+    private static JarIndex read(Path jar, BasicFileAttributes attributes) throws IOException {
+      ImmutableListMultimap.Builder<String, String> entriesByPackage =
+          ImmutableListMultimap.builder();
+      boolean multiRelease = false;
+      try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+        for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            entries.hasMoreElements(); ) {
+          ZipEntry entry = entries.nextElement();
+          if (entry.isDirectory()) {
+            continue;
+          }
+          String name = entry.getName();
+          multiRelease |= name.startsWith(MULTI_RELEASE_PREFIX);
+          int lastSlash = name.lastIndexOf('/');
+          String packageName = lastSlash < 0 ? "" : name.substring(0, lastSlash).replace('/', '.');
+          entriesByPackage.put(packageName, name);
+        }
+      }
+      return new JarIndex(
+          attributes.size(),
+          attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+          String.valueOf(attributes.fileKey()),
+          multiRelease,
+          entriesByPackage.build());
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return size == attributes.size()
+          && lastModifiedNanos == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+          && Objects.equals(fileKey, String.valueOf(attributes.fileKey()));
+    }
+
+    /**
+     * @return whether the jar has entries for specific Java versions, which javac chooses between
+     *     based on its target version.
+     */
+    boolean isMultiRelease() {
+      return multiRelease;
+    }
+
+    /** @return the names of the entries directly in {@code packageName}. */
+    ImmutableList<String> getEntries(String packageName) {
+      return entriesByPackage.get(packageName);
+    }
+  }
+}
@@ -193,6 +193,11 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
         .orElse(WatchmanWatcher.CursorType.CLOCK_ID);
   }
 
+  @Value.Lazy
+  public boolean getWatchmanSubscribe() {
+    return getDelegate().getBooleanValue("project", "watchman_subscribe", false);
+  }
+
   @Value.Lazy
   public boolean getEnableParallelParsing() {
     return getDelegate().getBooleanValue("project", "parallel_parsing", true);
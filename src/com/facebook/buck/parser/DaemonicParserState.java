@@ -33,6 +33,8 @@ import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
+import com.facebook.buck.skylark.io.impl.DirectoryListingCache;
+import com.facebook.buck.skylark.parser.SkylarkExtensionCache;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteLock;
 import com.google.common.base.Preconditions;
@@ -257,6 +259,20 @@ public class DaemonicParserState {
 
   private final LoadingCache<Cell, BuildFileTree> buildFileTrees;
 
+  /**
+   * Skylark extensions loaded by the parsers of each cell (the key is the cell's root path). They
+   * are shared by all parser instances, and across commands.
+   */
+  private final ConcurrentMap<Path, SkylarkExtensionCache> cellPathToSkylarkExtensionCache =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Directory listings used by the Skylark globs of each cell (the key is the cell's root path).
+   * They are shared by all parser instances, and across commands.
+   */
+  private final ConcurrentMap<Path, DirectoryListingCache> cellPathToDirectoryListingCache =
+      new ConcurrentHashMap<>();
+
   /**
    * The default includes used by the previous run of the parser in each cell (the key is the cell's
    * root path). If this value changes, then we need to invalidate all the caches.
@@ -352,6 +368,21 @@ public class DaemonicParserState {
     }
   }
 
+  /** @return the Skylark extension cache shared by all the parsers of {@code cell}. */
+  public SkylarkExtensionCache getSkylarkExtensionCache(Cell cell) {
+    return cellPathToSkylarkExtensionCache.computeIfAbsent(
+        cell.getRoot(), root -> new SkylarkExtensionCache());
+  }
+
+  /**
+   * @return the directory listing cache shared by all the parsers of {@code cell}. It is only kept
+   *     up to date while Watchman reports the changes of the cell.
+   */
+  public DirectoryListingCache getDirectoryListingCache(Cell cell) {
+    return cellPathToDirectoryListingCache.computeIfAbsent(
+        cell.getRoot(), root -> new DirectoryListingCache(root, cell.getFilesystem()::isIgnored));
+  }
+
   @Subscribe
   public void invalidateBasedOn(WatchmanOverflowEvent event) {
     // Non-path change event, likely an overflow due to many change events: invalidate everything.
@@ -372,6 +403,15 @@ public class DaemonicParserState {
     Path path = event.getPath();
     Path fullPath = event.getCellPath().resolve(event.getPath());
 
+    // Unlike build files, extensions are cached across build files, so they have to be
+    // invalidated when they are modified as well.
+    for (SkylarkExtensionCache extensionCache : cellPathToSkylarkExtensionCache.values()) {
+      extensionCache.invalidatePath(fullPath);
+    }
+    for (DirectoryListingCache directoryListingCache : cellPathToDirectoryListingCache.values()) {
+      directoryListingCache.invalidatePath(fullPath, isPathCreateOrDeleteEvent(event));
+    }
+
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
       for (DaemonicCellState state : cellPathToDaemonicState.values()) {
         try {
@@ -582,6 +622,8 @@ public class DaemonicParserState {
       boolean invalidated = !cellPathToDaemonicState.isEmpty();
       cellPathToDaemonicState.clear();
       buildFileTrees.invalidateAll();
+      cellPathToSkylarkExtensionCache.values().forEach(SkylarkExtensionCache::invalidateAll);
+      cellPathToDirectoryListingCache.values().forEach(DirectoryListingCache::invalidateAll);
       if (invalidated) {
         LOG.debug("Cache data invalidated.");
       } else {
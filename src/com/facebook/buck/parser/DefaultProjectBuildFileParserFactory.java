@@ -41,12 +41,14 @@ import com.facebook.buck.parser.decorators.EventReportingProjectBuildFileParser;
 import com.facebook.buck.parser.options.ProjectBuildFileParserOptions;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.skylark.io.GlobberFactory;
+import com.facebook.buck.skylark.io.impl.DirectoryListingCache;
 import com.facebook.buck.skylark.io.impl.HybridGlobberFactory;
 import com.facebook.buck.skylark.io.impl.NativeGlobber;
 import com.facebook.buck.skylark.io.impl.SyncCookieState;
 import com.facebook.buck.skylark.parser.BuckGlobals;
 import com.facebook.buck.skylark.parser.ConsoleEventHandler;
 import com.facebook.buck.skylark.parser.RuleFunctionFactory;
+import com.facebook.buck.skylark.parser.SkylarkExtensionCache;
 import com.facebook.buck.skylark.parser.SkylarkProjectBuildFileParser;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultProcessExecutor;
@@ -72,6 +74,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   private final ThrowingCloseableMemoizedSupplier<ManifestService, IOException>
       manifestServiceSupplier;
   private final FileHashCache fileHashCache;
+  private final Optional<DaemonicParserState> daemonicParserState;
 
   public DefaultProjectBuildFileParserFactory(
       TypeCoercerFactory typeCoercerFactory,
@@ -81,7 +84,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       boolean enableProfiling,
       Optional<AtomicLong> processedBytes,
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
-      FileHashCache fileHashCache) {
+      FileHashCache fileHashCache,
+      Optional<DaemonicParserState> daemonicParserState) {
     this.typeCoercerFactory = typeCoercerFactory;
     this.console = console;
     this.pythonInterpreterProvider = pythonInterpreterProvider;
@@ -90,6 +94,53 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
     this.processedBytes = processedBytes;
     this.manifestServiceSupplier = manifestServiceSupplier;
     this.fileHashCache = fileHashCache;
+    this.daemonicParserState = daemonicParserState;
+  }
+
+  public DefaultProjectBuildFileParserFactory(
+      TypeCoercerFactory typeCoercerFactory,
+      Console console,
+      ParserPythonInterpreterProvider pythonInterpreterProvider,
+      KnownRuleTypesProvider knownRuleTypesProvider,
+      boolean enableProfiling,
+      Optional<AtomicLong> processedBytes,
+      ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
+      FileHashCache fileHashCache) {
+    this(
+        typeCoercerFactory,
+        console,
+        pythonInterpreterProvider,
+        knownRuleTypesProvider,
+        enableProfiling,
+        processedBytes,
+        manifestServiceSupplier,
+        fileHashCache,
+        Optional.empty());
+  }
+
+  /**
+   * Creates a factory whose Skylark parsers share loaded extensions and directory listings through
+   * the caches that {@code daemonicParserState} keeps for their cell.
+   */
+  public DefaultProjectBuildFileParserFactory(
+      TypeCoercerFactory typeCoercerFactory,
+      ParserPythonInterpreterProvider pythonInterpreterProvider,
+      boolean enableProfiling,
+      Optional<AtomicLong> processedBytes,
+      KnownRuleTypesProvider knownRuleTypesProvider,
+      ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
+      FileHashCache fileHashCache,
+      DaemonicParserState daemonicParserState) {
+    this(
+        typeCoercerFactory,
+        Console.createNullConsole(),
+        pythonInterpreterProvider,
+        knownRuleTypesProvider,
+        enableProfiling,
+        processedBytes,
+        manifestServiceSupplier,
+        fileHashCache,
+        Optional.of(daemonicParserState));
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -108,7 +159,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         enableProfiling,
         processedBytes,
         manifestServiceSupplier,
-        fileHashCache);
+        fileHashCache,
+        Optional.empty());
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -225,7 +277,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
                           typeCoercerFactory,
                           eventBus,
                           buildFileParserOptions,
-                          parserConfig.getSkylarkGlobHandler()),
+                          parserConfig.getSkylarkGlobHandler(),
+                          daemonicParserState),
                       cell.getFilesystem(),
                       eventBus)),
               defaultBuildFileSyntax);
@@ -240,7 +293,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
                       typeCoercerFactory,
                       eventBus,
                       buildFileParserOptions,
-                      parserConfig.getSkylarkGlobHandler()),
+                      parserConfig.getSkylarkGlobHandler(),
+                      daemonicParserState),
                   cell.getFilesystem(),
                   eventBus);
           break;
@@ -282,10 +336,13 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       TypeCoercerFactory typeCoercerFactory,
       BuckEventBus eventBus,
       ProjectBuildFileParserOptions buildFileParserOptions,
-      SkylarkGlobHandler skylarkGlobHandler) {
+      SkylarkGlobHandler skylarkGlobHandler,
+      Optional<DaemonicParserState> daemonicParserState) {
     GlobberFactory globberFactory;
     try {
-      globberFactory = getSkylarkGlobberFactory(buildFileParserOptions, skylarkGlobHandler);
+      globberFactory =
+          getSkylarkGlobberFactory(
+              cell, buildFileParserOptions, skylarkGlobHandler, daemonicParserState);
     } catch (IOException e) {
       throw new RuntimeException(
           "Watchman glob handler was requested, but Watchman client cannot be created", e);
@@ -322,7 +379,10 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
               SkylarkFilesystem.using(cell.getFilesystem()),
               buckGlobals,
               eventHandler,
-              globberFactory);
+              globberFactory,
+              daemonicParserState
+                  .map(state -> state.getSkylarkExtensionCache(cell))
+                  .orElseGet(SkylarkExtensionCache::new));
 
       // All built-ins should have already been discovered. Freezing improves performance by
       // avoiding synchronization during query operations. This operation is idempotent, so it's
@@ -338,16 +398,29 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   }
 
   private static GlobberFactory getSkylarkGlobberFactory(
-      ProjectBuildFileParserOptions buildFileParserOptions, SkylarkGlobHandler skylarkGlobHandler)
+      Cell cell,
+      ProjectBuildFileParserOptions buildFileParserOptions,
+      SkylarkGlobHandler skylarkGlobHandler,
+      Optional<DaemonicParserState> daemonicParserState)
       throws IOException {
+    if (buildFileParserOptions.getWatchman() == WatchmanFactory.NULL_WATCHMAN) {
+      return NativeGlobber::create;
+    }
+    if (skylarkGlobHandler == SkylarkGlobHandler.JAVA) {
+      // Watchman reports every change of the cell to the daemonic state, which keeps the shared
+      // directory listings up to date.
+      if (!daemonicParserState.isPresent()) {
+        return NativeGlobber::create;
+      }
+      DirectoryListingCache directoryListingCache =
+          daemonicParserState.get().getDirectoryListingCache(cell);
+      return basePath -> NativeGlobber.create(basePath, directoryListingCache);
+    }
     SyncCookieState syncCookieState = new SyncCookieState();
-    return skylarkGlobHandler == SkylarkGlobHandler.JAVA
-            || buildFileParserOptions.getWatchman() == WatchmanFactory.NULL_WATCHMAN
-        ? NativeGlobber::create
-        : HybridGlobberFactory.using(
-            buildFileParserOptions.getWatchman().createClient(),
-            syncCookieState,
-            buildFileParserOptions.getProjectRoot(),
-            buildFileParserOptions.getWatchman().getProjectWatches());
+    return HybridGlobberFactory.using(
+        buildFileParserOptions.getWatchman().createClient(),
+        syncCookieState,
+        buildFileParserOptions.getProjectRoot(),
+        buildFileParserOptions.getWatchman().getProjectWatches());
   }
 }
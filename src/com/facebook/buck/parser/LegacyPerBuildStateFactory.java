@@ -87,7 +87,8 @@ class LegacyPerBuildStateFactory extends PerBuildStateFactory {
             parseProcessedBytes,
             knownRuleTypesProvider,
             manifestServiceSupplier,
-            fileHashCache);
+            fileHashCache,
+            daemonicParserState);
     ProjectBuildFileParserPool projectBuildFileParserPool =
         new ProjectBuildFileParserPool(
             numParsingThreads, // Max parsers to create per cell.
@@ -115,7 +115,8 @@ class PerBuildStateFactoryWithConfigurableAttributes extends PerBuildStateFactor
             parseProcessedBytes,
             knownRuleTypesProvider,
             manifestServiceSupplier,
-            fileHashCache);
+            fileHashCache,
+            daemonicParserState);
     ProjectBuildFileParserPool projectBuildFileParserPool =
         new ProjectBuildFileParserPool(
             numParsingThreads, // Max parsers to create per cell.
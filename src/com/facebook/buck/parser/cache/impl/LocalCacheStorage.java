@@ -22,15 +22,21 @@ import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.cache.ParserCacheException;
 import com.facebook.buck.parser.cache.ParserCacheStorage;
 import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.cache.json.MappedBuildFileManifestSerializer;
+import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.exceptions.BuckUncheckedExecutionException;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
@@ -38,6 +44,9 @@ import java.util.concurrent.TimeUnit;
 public class LocalCacheStorage implements ParserCacheStorage {
   private static final Logger LOG = Logger.get(LocalCacheStorage.class);
 
+  // Smaller entries are cheaper to read than to map.
+  private static final long MIN_MAPPED_ENTRY_BYTES = 16 * 1024;
+
   private final Path localCachePath;
   private final ProjectFilesystem filesystem;
   private final ParserCacheAccessMode cacheAccessMode;
@@ -123,9 +132,13 @@ public class LocalCacheStorage implements ParserCacheStorage {
               ? filesystem.getRootPath().relativize(cachedBuildFileManifestPath)
               : cachedBuildFileManifestPath;
 
-      try (OutputStream fw = filesystem.newFileOutputStream(relativePathToRoot)) {
-        fw.write(serializedBuildFileManifest);
+      // Entries are replaced by moving a new file over them, so that readers which still have the
+      // old entry mapped keep seeing consistent data.
+      Path tmpPath = relativePathToRoot.resolveSibling(relativePathToRoot.getFileName() + ".tmp");
+      try (OutputStream fw = filesystem.newFileOutputStream(tmpPath)) {
+        fw.write(toMappedFormat(serializedBuildFileManifest));
       }
+      filesystem.move(tmpPath, relativePathToRoot, StandardCopyOption.REPLACE_EXISTING);
     } finally {
       if (timer != null) {
         LOG.verbose(
@@ -135,6 +148,25 @@ public class LocalCacheStorage implements ParserCacheStorage {
     }
   }
 
+  /**
+   * Converts a manifest serialized by {@link BuildFileManifestSerializer} to the form written to
+   * the local cache, which can be read without decoding every target.
+   */
+  private static byte[] toMappedFormat(byte[] serializedBuildFileManifest) {
+    BuildFileManifest buildFileManifest;
+    try {
+      buildFileManifest = BuildFileManifestSerializer.deserialize(serializedBuildFileManifest);
+    } catch (IOException e) {
+      LOG.warn(e, "Storing a build file manifest which could not be read as-is.");
+      return serializedBuildFileManifest;
+    }
+    try {
+      return MappedBuildFileManifestSerializer.serialize(buildFileManifest);
+    } catch (IOException e) {
+      throw new BuckUncheckedExecutionException(e, "When serializing a build file manifest.");
+    }
+  }
+
   /** @return Path to a weak fingerprint folder, creating one if it does not exist */
   private Path getOrCreateWeakFingerprintFolder(HashCode weakFingerprint) throws IOException {
     Path weakFingerprintCachePath = localCachePath.resolve(weakFingerprint.toString());
@@ -164,15 +196,20 @@ public class LocalCacheStorage implements ParserCacheStorage {
               .resolve(weakFingerprint.toString())
               .resolve(strongFingerprint.toString());
 
-      byte[] data;
+      ByteBuffer data;
       try {
-        // TODO(buck_team): Add readAllBytes to projectFileSystem and use it
-        data = Files.readAllBytes(cachedBuildFileManifestPath);
+        data = readCacheEntry(cachedBuildFileManifestPath);
       } catch (NoSuchFileException ex) {
         return Optional.empty();
       }
 
-      return Optional.of(BuildFileManifestSerializer.deserialize(data));
+      if (MappedBuildFileManifestSerializer.isSerializedManifest(data)) {
+        return Optional.of(MappedBuildFileManifestSerializer.deserialize(data));
+      }
+      // Entries written by older versions of Buck.
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      return Optional.of(BuildFileManifestSerializer.deserialize(bytes));
     } finally {
       if (timer != null) {
         LOG.verbose(
@@ -182,6 +219,27 @@ public class LocalCacheStorage implements ParserCacheStorage {
     }
   }
 
+  /**
+   * Reads a cache entry, memory-mapping it if it is large enough for that to pay off. Targets are
+   * decoded from the returned buffer when they are accessed, so only the pages which are needed
+   * are read.
+   */
+  private static ByteBuffer readCacheEntry(Path path) throws IOException {
+    // Mapped files can't be replaced or deleted on Windows.
+    if (Platform.detect() != Platform.WINDOWS) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size >= MIN_MAPPED_ENTRY_BYTES && size <= Integer.MAX_VALUE) {
+          return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+      } catch (UnsupportedOperationException e) {
+        // The filesystem does not support mapping files, fall through to reading it.
+      }
+    }
+    // TODO(buck_team): Add readAllBytes to projectFileSystem and use it
+    return ByteBuffer.wrap(Files.readAllBytes(path));
+  }
+
   @Override
   public void deleteCacheEntries(HashCode weakFingerprint, HashCode strongFingerprint)
       throws IOException {
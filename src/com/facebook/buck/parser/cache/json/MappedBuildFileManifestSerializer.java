@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache.json;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Serializes a {@link BuildFileManifest} to a form which can be read from a memory-mapped file
+ * without materializing the whole manifest.
+ *
+ * <p>The serialized form starts with a header holding everything but the targets, followed by an
+ * index of target names. The attributes of each target are stored in their own block and are only
+ * decoded when the target is first accessed, so looking up a manifest costs little more than
+ * reading its index. Blocks use the same JSON encoding as {@link BuildFileManifestSerializer}.
+ *
+ * <p>Layout, all integers big-endian:
+ *
+ * <pre>
+ *   int magic, int version
+ *   int headerLength, byte[headerLength] header
+ *   int targetCount
+ *   targetCount times: int nameLength, byte[nameLength] name, int dataLength, byte[dataLength] data
+ * </pre>
+ */
+public class MappedBuildFileManifestSerializer {
+
+  private static final int MAGIC = 0x42464D31;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8;
+
+  private static final TypeReference<Map<String, Object>> TARGET_TYPE =
+      new TypeReference<Map<String, Object>>() {};
+  private static final ObjectWriter TARGET_WRITER =
+      ObjectMappers.WRITER_WITH_TYPE.forType(TARGET_TYPE);
+  private static final ObjectReader TARGET_READER =
+      ObjectMappers.READER_WITH_TYPE.forType(TARGET_TYPE);
+
+  private MappedBuildFileManifestSerializer() {}
+
+  /**
+   * Serializes an instance of {@link BuildFileManifest} to a byte array.
+   *
+   * @param buildFileManifest the instance of {@link BuildFileManifest} to be serialized.
+   * @return a byte array with the serialized manifest.
+   */
+  public static byte[] serialize(BuildFileManifest buildFileManifest) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    writeBlock(
+        out,
+        BuildFileManifestSerializer.serialize(
+            BuildFileManifest.of(
+                ImmutableMap.of(),
+                buildFileManifest.getIncludes(),
+                buildFileManifest.getConfigs(),
+                buildFileManifest.getEnv(),
+                buildFileManifest.getGlobManifest())));
+    out.writeInt(buildFileManifest.getTargets().size());
+    for (Map.Entry<String, Map<String, Object>> target :
+        buildFileManifest.getTargets().entrySet()) {
+      writeBlock(out, target.getKey().getBytes(StandardCharsets.UTF_8));
+      writeBlock(out, TARGET_WRITER.writeValueAsBytes(target.getValue()));
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /** @return whether {@code buffer} starts with a manifest serialized by this class. */
+  public static boolean isSerializedManifest(ByteBuffer buffer) {
+    return buffer.remaining() >= HEADER_BYTES && buffer.getInt(buffer.position()) == MAGIC;
+  }
+
+  /**
+   * Deserializes an instance of {@link BuildFileManifest} from a buffer, which is usually a
+   * memory-mapped file.
+   *
+   * <p>The attributes of each target are decoded from {@code buffer} on first access, so the
+   * buffer must not change while the returned manifest is in use.
+   *
+   * @param buffer the bytes for the manifest to be deserialized.
+   * @return a new instance of {@link BuildFileManifest} read from {@code buffer}.
+   * @throws IOException if {@code buffer} does not hold a manifest of the current version.
+   */
+  public static BuildFileManifest deserialize(ByteBuffer buffer) throws IOException {
+    ByteBuffer input = buffer.slice();
+    try {
+      if (input.getInt() != MAGIC) {
+        throw new IOException("Not a serialized build file manifest.");
+      }
+      int version = input.getInt();
+      if (version != VERSION) {
+        throw new IOException(
+            String.format("Unsupported build file manifest version %d.", version));
+      }
+      BuildFileManifest header =
+          ObjectMappers.READER_WITH_TYPE
+              .forType(BuildFileManifest.class)
+              .readValue(new ByteBufferBackedInputStream(readBlock(input)));
+      int targetCount = input.getInt();
+      ImmutableMap.Builder<String, Map<String, Object>> targets =
+          ImmutableMap.builderWithExpectedSize(targetCount);
+      for (int i = 0; i < targetCount; i++) {
+        ByteBuffer name = readBlock(input);
+        targets.put(
+            StandardCharsets.UTF_8.decode(name).toString(), new LazyTarget(readBlock(input)));
+      }
+      return BuildFileManifest.of(
+          targets.build(),
+          header.getIncludes(),
+          header.getConfigs(),
+          header.getEnv(),
+          header.getGlobManifest());
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Truncated build file manifest.", e);
+    }
+  }
+
+  private static void writeBlock(DataOutputStream out, byte[] block) throws IOException {
+    out.writeInt(block.length);
+    out.write(block);
+  }
+
+  private static ByteBuffer readBlock(ByteBuffer input) {
+    int length = input.getInt();
+    if (length < 0 || length > input.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    ByteBuffer block = input.slice();
+    block.limit(length);
+    input.position(input.position() + length);
+    return block;
+  }
+
+  /** Attributes of a target which are decoded when they are first accessed. */
+  private static class LazyTarget extends ForwardingMap<String, Object> {
+    private final Supplier<Map<String, Object>> attributes;
+
+    private LazyTarget(ByteBuffer data) {
+      this.attributes =
+          Suppliers.memoize(
+              () -> {
+                try {
+                  return TARGET_READER.readValue(new ByteBufferBackedInputStream(data.duplicate()));
+                } catch (IOException e) {
+                  throw new UncheckedIOException("Failed to read cached target attributes.", e);
+                }
+              });
+    }
+
+    @Override
+    protected Map<String, Object> delegate() {
+      return attributes.get();
+    }
+  }
+}
@@ -36,7 +36,7 @@ public interface Protocol {
   interface Digest {
     String getHash();
 
-    int getSize();
+    long getSize();
   }
 
   /** Represents a possibly executable file in directories/trees. */
@@ -127,7 +127,7 @@ public interface Protocol {
 
   Tree newTree(Directory directory, List<Directory> directories);
 
-  Digest newDigest(String hash, int size);
+  Digest newDigest(String hash, long size);
 
   OutputFile newOutputFile(Path output, Digest digest, boolean isExecutable);
 
@@ -24,9 +24,11 @@ import com.facebook.buck.core.util.immutables.BuckStyleTuple;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleBuildStrategy;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleConfig;
+import com.facebook.buck.util.unit.SizeUnit;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import org.immutables.value.Value;
 
 /** Config object for the [remoteexecution] section of .buckconfig. */
@@ -73,6 +75,44 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
    */
   public static final String CONCURRENT_PENDING_UPLOADS_KEY = "concurrent_pending_uploads";
 
+  /**
+   * Whether output files of remotely executed actions are only downloaded once a local step, a
+   * top-level target (or one of its runtime deps) or a further remote action that misses them in
+   * the CAS needs them. Rules whose outputs haven't been downloaded keep their digests in their
+   * build metadata, so the next build can reuse them, but they are not uploaded to the artifact
+   * cache.
+   */
+  public static final String MATERIALIZE_OUTPUTS_ON_DEMAND_KEY = "materialize_outputs_on_demand";
+
+  /**
+   * Directory of a persistent cache of the blobs fetched from and uploaded to the CAS. Output files
+   * whose blobs it contains are copied from it rather than fetched again.
+   */
+  public static final String LOCAL_CAS_DIR_KEY = "local_cas_dir";
+
+  /** Size beyond which the blobs used least recently are evicted from the local CAS cache. */
+  public static final String LOCAL_CAS_MAX_SIZE_KEY = "local_cas_max_size";
+
+  public static final long DEFAULT_LOCAL_CAS_MAX_SIZE = 10L * 1024 * 1024 * 1024;
+
+  /**
+   * Number of digests known to be in the CAS that are remembered, so that they aren't checked
+   * again. Each one takes 8 bytes of memory.
+   */
+  public static final String KNOWN_BLOBS_CAPACITY_KEY = "known_blobs_capacity";
+
+  /** File in which the digests known to be in the CAS are kept for later builds. */
+  public static final String KNOWN_BLOBS_FILE_KEY = "known_blobs_file";
+
+  /**
+   * Number of seconds for which the digests kept in known_blobs_file are used. This must not be
+   * longer than the time the CAS keeps blobs for after they have been checked.
+   */
+  public static final String KNOWN_BLOBS_MAX_AGE_KEY = "known_blobs_max_age_seconds";
+
+  public static final int DEFAULT_KNOWN_BLOBS_CAPACITY = 1 << 20;
+  public static final long DEFAULT_KNOWN_BLOBS_MAX_AGE_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
   public String getRemoteHost() {
     return getValueWithFallback("remote_host").orElse("localhost");
   }
@@ -112,6 +152,34 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
     return getFileOption("ca");
   }
 
+  public Optional<Path> getLocalCasDir() {
+    return getFileOption(LOCAL_CAS_DIR_KEY);
+  }
+
+  public long getLocalCasMaxSize() {
+    return getDelegate()
+        .getValue(SECTION, LOCAL_CAS_MAX_SIZE_KEY)
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_LOCAL_CAS_MAX_SIZE);
+  }
+
+  public int getKnownBlobsCapacity() {
+    return getDelegate()
+        .getInteger(SECTION, KNOWN_BLOBS_CAPACITY_KEY)
+        .orElse(DEFAULT_KNOWN_BLOBS_CAPACITY);
+  }
+
+  public Optional<Path> getKnownBlobsFile() {
+    return getFileOption(KNOWN_BLOBS_FILE_KEY);
+  }
+
+  public long getKnownBlobsMaxAgeMillis() {
+    return TimeUnit.SECONDS.toMillis(
+        getDelegate()
+            .getLong(SECTION, KNOWN_BLOBS_MAX_AGE_KEY)
+            .orElse(DEFAULT_KNOWN_BLOBS_MAX_AGE_SECONDS));
+  }
+
   @Value.Derived
   public RemoteExecutionStrategyConfig getStrategyConfig() {
     int workerThreads =
@@ -139,6 +207,9 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
             .getInteger(SECTION, CONCURRENT_RESULT_HANDLING_KEY)
             .orElse(DEFAULT_REMOTE_CONCURRENT_RESULT_HANDLING);
 
+    boolean materializeOutputsOnDemand =
+        getDelegate().getBooleanValue(SECTION, MATERIALIZE_OUTPUTS_ON_DEMAND_KEY, false);
+
     // Some of these values are also limited by other ones (e.g. synchronous work is limited by the
     // number of threads). We detect some of these cases and log an error to the user to help them
     // understand the behavior.
@@ -200,6 +271,11 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
       public int getMaxConcurrentResultHandling() {
         return concurrentResultHandling;
       }
+
+      @Override
+      public boolean shouldMaterializeOutputsOnDemand() {
+        return materializeOutputsOnDemand;
+      }
     };
   }
 
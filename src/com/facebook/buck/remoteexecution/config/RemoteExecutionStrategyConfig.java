@@ -26,4 +26,10 @@ public interface RemoteExecutionStrategyConfig {
   int getMaxConcurrentResultHandling();
 
   int getMaxConcurrentPendingUploads();
+
+  /**
+   * Whether output files of remotely executed actions are left in the CAS until they are needed
+   * locally, rather than being downloaded as soon as the action has finished.
+   */
+  boolean shouldMaterializeOutputsOnDemand();
 }
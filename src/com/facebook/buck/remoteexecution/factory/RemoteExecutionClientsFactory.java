@@ -18,14 +18,22 @@ package com.facebook.buck.remoteexecution.factory;
 
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.remoteexecution.ContentAddressedStorage;
+import com.facebook.buck.remoteexecution.Protocol;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
+import com.facebook.buck.remoteexecution.RemoteExecutionService;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionType;
 import com.facebook.buck.remoteexecution.grpc.GrpcExecutionFactory;
 import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.util.KnownBlobsFilter;
+import com.facebook.buck.remoteexecution.util.LocalCachingContentAddressedStorage;
+import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
 import com.facebook.buck.remoteexecution.util.OutOfProcessIsolatedExecutionClients;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
 
 /**
  * Factory for creating all manner of different remote execution clients (grpc, in-process, etc).
@@ -40,6 +48,57 @@ public class RemoteExecutionClientsFactory {
   /** Creates the RemoteExecutionClients based on the held configs. */
   public RemoteExecutionClients create(BuckEventBus eventBus, MetadataProvider metadataProvider)
       throws IOException {
+    Optional<Path> knownBlobsFile = remoteExecutionConfig.getKnownBlobsFile();
+    int knownBlobsCapacity = remoteExecutionConfig.getKnownBlobsCapacity();
+    KnownBlobsFilter knownBlobs =
+        knownBlobsFile.isPresent()
+            ? KnownBlobsFilter.load(
+                knownBlobsFile.get(),
+                knownBlobsCapacity,
+                remoteExecutionConfig.getKnownBlobsMaxAgeMillis())
+            : new KnownBlobsFilter(knownBlobsCapacity);
+    RemoteExecutionClients clients = createClients(eventBus, metadataProvider, knownBlobs);
+    Optional<Path> localCasDir = remoteExecutionConfig.getLocalCasDir();
+    if (!localCasDir.isPresent() && !knownBlobsFile.isPresent()) {
+      return clients;
+    }
+
+    ContentAddressedStorage storage =
+        localCasDir.isPresent()
+            ? new LocalCachingContentAddressedStorage(
+                clients.getContentAddressedStorage(),
+                new LocalContentAddressedStorage(localCasDir.get(), clients.getProtocol()),
+                remoteExecutionConfig.getLocalCasMaxSize())
+            : clients.getContentAddressedStorage();
+    return new RemoteExecutionClients() {
+      @Override
+      public RemoteExecutionService getRemoteExecutionService() {
+        return clients.getRemoteExecutionService();
+      }
+
+      @Override
+      public ContentAddressedStorage getContentAddressedStorage() {
+        return storage;
+      }
+
+      @Override
+      public Protocol getProtocol() {
+        return clients.getProtocol();
+      }
+
+      @Override
+      public void close() throws IOException {
+        clients.close();
+        if (knownBlobsFile.isPresent()) {
+          knownBlobs.save(knownBlobsFile.get());
+        }
+      }
+    };
+  }
+
+  private RemoteExecutionClients createClients(
+      BuckEventBus eventBus, MetadataProvider metadataProvider, KnownBlobsFilter knownBlobs)
+      throws IOException {
     RemoteExecutionType type = remoteExecutionConfig.getType();
 
     switch (type) {
@@ -59,7 +118,8 @@ public class RemoteExecutionClientsFactory {
             remoteExecutionConfig.getKeyFile(),
             remoteExecutionConfig.getCAsFile(),
             metadataProvider,
-            eventBus);
+            eventBus,
+            knownBlobs);
       case DEBUG_GRPC_IN_PROCESS:
         return OutOfProcessIsolatedExecutionClients.create(new GrpcProtocol(), eventBus);
       case DEBUG_GRPC_LOCAL:
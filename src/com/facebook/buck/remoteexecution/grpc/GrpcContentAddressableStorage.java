@@ -24,6 +24,7 @@ import com.facebook.buck.remoteexecution.Protocol.Digest;
 import com.facebook.buck.remoteexecution.Protocol.OutputDirectory;
 import com.facebook.buck.remoteexecution.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.facebook.buck.remoteexecution.util.KnownBlobsFilter;
 import com.facebook.buck.remoteexecution.util.MultiThreadedBlobUploader;
 import com.facebook.buck.remoteexecution.util.OutputsMaterializer;
 import com.facebook.buck.util.concurrent.MostExecutors;
@@ -36,6 +37,8 @@ import java.util.List;
 
 /** Implementation of CAS using GRPC. */
 public class GrpcContentAddressableStorage implements ContentAddressedStorage {
+  private static final int UPLOAD_THREADS = 4;
+
   private final MultiThreadedBlobUploader uploader;
   private final OutputsMaterializer outputsMaterializer;
 
@@ -44,13 +47,16 @@ public class GrpcContentAddressableStorage implements ContentAddressedStorage {
       ByteStreamStub byteStreamStub,
       String instanceName,
       Protocol protocol,
-      BuckEventBus buckEventBus) {
+      BuckEventBus buckEventBus,
+      KnownBlobsFilter knownBlobs) {
     this.uploader =
         new MultiThreadedBlobUploader(
             1000,
             10 * 1024 * 1024,
-            MostExecutors.newMultiThreadExecutor("blob-uploader", 4),
-            new GrpcCasBlobUploader(storageStub, buckEventBus));
+            UPLOAD_THREADS,
+            MostExecutors.newMultiThreadExecutor("blob-uploader", UPLOAD_THREADS),
+            new GrpcCasBlobUploader(storageStub, buckEventBus),
+            knownBlobs);
 
     this.outputsMaterializer =
         new OutputsMaterializer(
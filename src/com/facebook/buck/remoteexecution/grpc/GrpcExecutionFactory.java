@@ -20,6 +20,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.remoteexecution.MetadataProviderFactory;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.util.KnownBlobsFilter;
 import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
 import com.facebook.buck.util.NamedTemporaryDirectory;
 import com.google.common.io.Closer;
@@ -40,6 +41,8 @@ import javax.net.ssl.SSLException;
 /** Factory for creating grpc-based strategies. */
 public class GrpcExecutionFactory {
   public static final int MAX_INBOUND_MESSAGE_SIZE = 500 * 1024 * 1024;
+  private static final int IN_PROCESS_KNOWN_BLOBS_CAPACITY = 1 << 16;
+
   /**
    * The in-process strategy starts up a grpc remote execution service in process and connects to it
    * directly.
@@ -63,7 +66,8 @@ public class GrpcExecutionFactory {
         channel,
         channel,
         MetadataProviderFactory.emptyMetadataProvider(),
-        buckEventBus) {
+        buckEventBus,
+        new KnownBlobsFilter(IN_PROCESS_KNOWN_BLOBS_CAPACITY)) {
       @Override
       public void close() throws IOException {
         try (Closer closer = Closer.create()) {
@@ -92,7 +96,8 @@ public class GrpcExecutionFactory {
       Optional<Path> keyPath,
       Optional<Path> caPath,
       MetadataProvider metadataProvider,
-      BuckEventBus buckEventBus)
+      BuckEventBus buckEventBus,
+      KnownBlobsFilter knownBlobs)
       throws SSLException {
 
     ManagedChannel executionEngineChannel;
@@ -111,7 +116,7 @@ public class GrpcExecutionFactory {
     }
 
     return new GrpcRemoteExecutionClients(
-        "buck", executionEngineChannel, casChannel, metadataProvider, buckEventBus);
+        "buck", executionEngineChannel, casChannel, metadataProvider, buckEventBus, knownBlobs);
   }
 
   private static ManagedChannel createInsecureChannel(String host, int port) {
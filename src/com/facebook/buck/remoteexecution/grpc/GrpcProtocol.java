@@ -54,8 +54,8 @@ public class GrpcProtocol implements Protocol {
     }
 
     @Override
-    public int getSize() {
-      return (int) digest.getSizeBytes();
+    public long getSize() {
+      return digest.getSizeBytes();
     }
 
     @Override
@@ -429,7 +429,7 @@ public class GrpcProtocol implements Protocol {
   }
 
   @Override
-  public Digest newDigest(String hash, int size) {
+  public Digest newDigest(String hash, long size) {
     return new GrpcDigest(
         build.bazel.remote.execution.v2.Digest.newBuilder()
             .setHash(hash)
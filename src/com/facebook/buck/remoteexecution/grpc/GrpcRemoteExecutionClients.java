@@ -28,6 +28,7 @@ import com.facebook.buck.remoteexecution.Protocol;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
 import com.facebook.buck.remoteexecution.RemoteExecutionService;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.util.KnownBlobsFilter;
 import com.facebook.buck.util.function.ThrowingConsumer;
 import com.google.bytestream.ByteStreamGrpc;
 import com.google.bytestream.ByteStreamGrpc.ByteStreamStub;
@@ -64,7 +65,8 @@ public class GrpcRemoteExecutionClients implements RemoteExecutionClients {
       ManagedChannel executionEngineChannel,
       ManagedChannel casChannel,
       MetadataProvider metadataProvider,
-      BuckEventBus buckEventBus) {
+      BuckEventBus buckEventBus,
+      KnownBlobsFilter knownBlobs) {
     this.executionEngineChannel = executionEngineChannel;
     this.casChannel = casChannel;
 
@@ -75,7 +77,8 @@ public class GrpcRemoteExecutionClients implements RemoteExecutionClients {
             byteStreamStub,
             instanceName,
             PROTOCOL,
-            buckEventBus);
+            buckEventBus,
+            knownBlobs);
     ExecutionStub executionStub = ExecutionGrpc.newStub(executionEngineChannel);
     this.executionService =
         new GrpcRemoteExecutionService(
@@ -154,8 +157,9 @@ public class GrpcRemoteExecutionClients implements RemoteExecutionClients {
       ByteStreamStub byteStreamStub,
       String instanceName,
       Protocol protocol,
-      BuckEventBus buckEventBus) {
+      BuckEventBus buckEventBus,
+      KnownBlobsFilter knownBlobs) {
     return new GrpcContentAddressableStorage(
-        storageStub, byteStreamStub, instanceName, protocol, buckEventBus);
+        storageStub, byteStreamStub, instanceName, protocol, buckEventBus, knownBlobs);
   }
 }
@@ -158,8 +158,7 @@ public class ActionRunner {
                       files.put(
                           path.relativize(entry),
                           protocol.newFileNode(
-                              protocol.newDigest(
-                                  hashFile(entry).toString(), (int) Files.size(entry)),
+                              protocol.newDigest(hashFile(entry).toString(), Files.size(entry)),
                               entry.getFileName().toString(),
                               Files.isExecutable(entry)));
                     }
@@ -189,7 +188,7 @@ public class ActionRunner {
       } else {
         long size = Files.size(path);
         boolean isExecutable = Files.isExecutable(path);
-        Digest digest = protocol.newDigest(hashFile(path).toString(), (int) size);
+        Digest digest = protocol.newDigest(hashFile(path).toString(), size);
 
         UploadDataSupplier dataSupplier = () -> new FileInputStream(path.toFile());
         outputFilesBuilder.add(protocol.newOutputFile(output, digest, isExecutable));
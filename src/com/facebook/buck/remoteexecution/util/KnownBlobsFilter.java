@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.remoteexecution.Protocol.Digest;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size set of the digests known to be in the CAS, so that they don't have to be checked
+ * again.
+ *
+ * <p>Each digest is reduced to a 64 bit fingerprint of its raw hash bytes and size, which can be
+ * stored in one of two slots of a table. Hashes which aren't hex strings are hashed again instead.
+ * When both slots are taken, one of them is overwritten. Hence the filter never takes more than 8
+ * bytes per slot, at the cost of forgetting some digests (which are then just checked again). Two
+ * different digests only get mixed up if their fingerprints collide, which is negligible for
+ * cryptographic hashes.
+ *
+ * <p>The filter can be saved and loaded again by a later build. Since the CAS may evict blobs, a
+ * saved filter is only loaded while it is younger than a maximum age, which is counted from the
+ * creation of the filter, not from its last save.
+ */
+public class KnownBlobsFilter {
+  private static final Logger LOG = Logger.get(KnownBlobsFilter.class);
+
+  private static final int FORMAT_VERSION = 1;
+
+  /** The fingerprint of empty slots, which no digest maps to. */
+  private static final long EMPTY = 0;
+
+  private static final CharMatcher LOWER_CASE_HEX_DIGITS = CharMatcher.anyOf("0123456789abcdef");
+
+  private final AtomicLongArray slots;
+  private final long creationTimeMillis;
+
+  /** @param capacity The number of slots, which is rounded up to a power of 2. */
+  public KnownBlobsFilter(int capacity) {
+    this(new AtomicLongArray(roundUpToPowerOfTwo(capacity)), System.currentTimeMillis());
+  }
+
+  private KnownBlobsFilter(AtomicLongArray slots, long creationTimeMillis) {
+    this.slots = slots;
+    this.creationTimeMillis = creationTimeMillis;
+  }
+
+  private static int roundUpToPowerOfTwo(int capacity) {
+    Preconditions.checkArgument(
+        capacity > 0 && capacity <= 1 << 30, "Invalid known blobs capacity: %s", capacity);
+    // There are at least two slots, since every digest can be stored in two of them.
+    return Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+  }
+
+  /**
+   * Loads the filter saved at {@code path}. A new filter is returned if there is none, if it is
+   * older than {@code maxAgeMillis} or if it was saved with a different capacity.
+   */
+  public static KnownBlobsFilter load(Path path, int capacity, long maxAgeMillis) {
+    int slotCount = roundUpToPowerOfTwo(capacity);
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (input.readInt() != FORMAT_VERSION || input.readInt() != slotCount) {
+        LOG.debug("Ignoring known blobs of a different format or capacity at %s", path);
+        return new KnownBlobsFilter(capacity);
+      }
+      long creationTimeMillis = input.readLong();
+      if (System.currentTimeMillis() - creationTimeMillis > maxAgeMillis) {
+        LOG.debug("Ignoring expired known blobs at %s", path);
+        return new KnownBlobsFilter(capacity);
+      }
+      AtomicLongArray slots = new AtomicLongArray(slotCount);
+      for (int i = 0; i < slotCount; i++) {
+        slots.set(i, input.readLong());
+      }
+      return new KnownBlobsFilter(slots, creationTimeMillis);
+    } catch (NoSuchFileException e) {
+      return new KnownBlobsFilter(capacity);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to load the known blobs at %s", path);
+      return new KnownBlobsFilter(capacity);
+    }
+  }
+
+  /** Saves the filter to {@code path}, replacing the filter saved there before. */
+  public void save(Path path) throws IOException {
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+      output.writeInt(FORMAT_VERSION);
+      output.writeInt(slots.length());
+      output.writeLong(creationTimeMillis);
+      for (int i = 0; i < slots.length(); i++) {
+        output.writeLong(slots.get(i));
+      }
+    }
+    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** @return whether {@code digest} has been added (and not been overwritten since). */
+  public boolean contains(Digest digest) {
+    long fingerprint = fingerprint(digest);
+    int slot = slot(fingerprint);
+    return slots.get(slot) == fingerprint || slots.get(slot ^ 1) == fingerprint;
+  }
+
+  /** Adds {@code digest}, which may overwrite another digest. */
+  public void add(Digest digest) {
+    long fingerprint = fingerprint(digest);
+    int slot = slot(fingerprint);
+    long current = slots.get(slot);
+    long other = slots.get(slot ^ 1);
+    if (current == fingerprint || other == fingerprint) {
+      return;
+    }
+    if (current != EMPTY && other == EMPTY) {
+      slot ^= 1;
+    }
+    // A racing add may win, which only means that one of the two digests is checked again.
+    slots.set(slot, fingerprint);
+  }
+
+  private int slot(long fingerprint) {
+    return (int) (fingerprint ^ (fingerprint >>> 32)) & (slots.length() - 1);
+  }
+
+  private static long fingerprint(Digest digest) {
+    String hash = digest.getHash();
+    long hashBits =
+        isHexString(hash)
+            ? HashCode.fromString(hash).padToLong()
+            : Hashing.murmur3_128().hashUnencodedChars(hash).asLong();
+    long fingerprint = hashBits * 31 + digest.getSize();
+    return fingerprint == EMPTY ? 1 : fingerprint;
+  }
+
+  private static boolean isHexString(String hash) {
+    return hash.length() >= 2
+        && hash.length() % 2 == 0
+        && LOWER_CASE_HEX_DIGITS.matchesAllOf(hash);
+  }
+}
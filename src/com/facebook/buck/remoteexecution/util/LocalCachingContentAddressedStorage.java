@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.remoteexecution.CasBlobUploader.UploadData;
+import com.facebook.buck.remoteexecution.CasBlobUploader.UploadResult;
+import com.facebook.buck.remoteexecution.ContentAddressedStorage;
+import com.facebook.buck.remoteexecution.Protocol.Digest;
+import com.facebook.buck.remoteexecution.Protocol.OutputDirectory;
+import com.facebook.buck.remoteexecution.Protocol.OutputFile;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link ContentAddressedStorage}, usually the CAS of a remote execution service, with a
+ * persistent {@link LocalContentAddressedStorage} in front of it.
+ *
+ * <p>Output files whose blobs are stored locally are copied from the local storage rather than
+ * fetched again, and blobs which are fetched or uploaded are added to it. Output directories are
+ * always materialized by the delegate. Once the local storage grows beyond its maximum size, the
+ * blobs which have been used least recently are deleted. Blobs which are already stored when the
+ * local storage is opened are ordered by the time they were added.
+ */
+public class LocalCachingContentAddressedStorage implements ContentAddressedStorage {
+  private static final Logger LOG = Logger.get(LocalCachingContentAddressedStorage.class);
+
+  private final ContentAddressedStorage delegate;
+  private final LocalContentAddressedStorage localStorage;
+  private final long maxSizeBytes;
+
+  /** Stored blobs by hash, least recently used first. Guarded by itself. */
+  private final LinkedHashMap<String, Digest> storedBlobs = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Total size of the stored blobs. Guarded by {@link #storedBlobs}. */
+  private long sizeBytes = 0;
+
+  public LocalCachingContentAddressedStorage(
+      ContentAddressedStorage delegate,
+      LocalContentAddressedStorage localStorage,
+      long maxSizeBytes)
+      throws IOException {
+    this.delegate = delegate;
+    this.localStorage = localStorage;
+    this.maxSizeBytes = maxSizeBytes;
+    for (Digest digest : localStorage.listBlobs()) {
+      storedBlobs.put(digest.getHash(), digest);
+      sizeBytes += digest.getSize();
+    }
+    evictIfNeeded();
+  }
+
+  @Override
+  public ListenableFuture<Void> addMissing(ImmutableMap<Digest, UploadDataSupplier> data)
+      throws IOException {
+    return Futures.transform(
+        delegate.addMissing(data),
+        ignored -> {
+          // Uploaded inputs are often fetched again as outputs of other actions.
+          for (Map.Entry<Digest, UploadDataSupplier> entry : data.entrySet()) {
+            if (!isStored(entry.getKey())) {
+              store(entry.getKey(), entry.getValue());
+            }
+          }
+          return null;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<Void> materializeOutputs(
+      List<OutputDirectory> outputDirectories, List<OutputFile> outputFiles, Path root)
+      throws IOException {
+    List<OutputFile> missingFiles = new ArrayList<>();
+    for (OutputFile file : outputFiles) {
+      if (!materializeFromLocalStorage(file, root)) {
+        missingFiles.add(file);
+      }
+    }
+    if (outputDirectories.isEmpty() && missingFiles.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+
+    return Futures.transform(
+        delegate.materializeOutputs(outputDirectories, missingFiles, root),
+        ignored -> {
+          for (OutputFile file : missingFiles) {
+            if (!isStored(file.getDigest())) {
+              store(file.getDigest(), root.resolve(file.getPath()));
+            }
+          }
+          return null;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private boolean materializeFromLocalStorage(OutputFile file, Path root) throws IOException {
+    Digest digest = file.getDigest();
+    if (!isStored(digest)) {
+      return false;
+    }
+    try {
+      localStorage.materializeBlob(digest, file.getIsExecutable(), root.resolve(file.getPath()));
+      return true;
+    } catch (NoSuchFileException e) {
+      // The blob has been evicted, or deleted by someone else, since it has been looked up.
+      synchronized (storedBlobs) {
+        if (storedBlobs.remove(digest.getHash()) != null) {
+          sizeBytes -= digest.getSize();
+        }
+      }
+      return false;
+    }
+  }
+
+  /** @return whether the blob of {@code digest} is stored, marking it as recently used if so. */
+  private boolean isStored(Digest digest) {
+    synchronized (storedBlobs) {
+      return storedBlobs.get(digest.getHash()) != null;
+    }
+  }
+
+  private void store(Digest digest, UploadDataSupplier data) {
+    ImmutableList<UploadResult> results =
+        localStorage.batchUpdateBlobs(ImmutableList.of(new UploadData(digest, data)));
+    for (UploadResult result : results) {
+      if (result.status != 0) {
+        LOG.warn("Failed to store %s locally: %s", digest.getHash(), result.message);
+        return;
+      }
+    }
+    recordStored(digest);
+  }
+
+  private void store(Digest digest, Path file) {
+    try {
+      localStorage.addFile(digest, file);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to store %s locally.", file);
+      return;
+    }
+    recordStored(digest);
+  }
+
+  private void recordStored(Digest digest) {
+    synchronized (storedBlobs) {
+      if (storedBlobs.put(digest.getHash(), digest) == null) {
+        sizeBytes += digest.getSize();
+      }
+    }
+    evictIfNeeded();
+  }
+
+  private void evictIfNeeded() {
+    List<Digest> evicted = new ArrayList<>();
+    synchronized (storedBlobs) {
+      Iterator<Digest> iterator = storedBlobs.values().iterator();
+      while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+        Digest digest = iterator.next();
+        iterator.remove();
+        sizeBytes -= digest.getSize();
+        evicted.add(digest);
+      }
+    }
+    for (Digest digest : evicted) {
+      try {
+        localStorage.delete(digest);
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to evict %s.", digest.getHash());
+      }
+    }
+  }
+}
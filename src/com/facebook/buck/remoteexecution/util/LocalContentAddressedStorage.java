@@ -34,6 +34,7 @@ import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.exceptions.BuckUncheckedExecutionException;
+import com.facebook.buck.util.types.Pair;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -56,6 +57,11 @@ import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
@@ -69,6 +75,8 @@ public class LocalContentAddressedStorage implements ContentAddressedStorage {
 
   private static final int MISSING_CHECK_LIMIT = 1000;
   private static final int UPLOAD_SIZE_LIMIT = 10 * 1024 * 1024;
+  private static final int UPLOAD_THREADS = 4;
+  private static final int KNOWN_BLOBS_CAPACITY = 1 << 16;
 
   private final MultiThreadedBlobUploader uploader;
   private final OutputsMaterializer outputsMaterializer;
@@ -78,11 +86,13 @@ public class LocalContentAddressedStorage implements ContentAddressedStorage {
   public LocalContentAddressedStorage(Path cacheDir, Protocol protocol) {
     this.cacheDir = cacheDir;
     this.protocol = protocol;
-    ExecutorService uploadService = MostExecutors.newMultiThreadExecutor("local-cas-write", 4);
+    ExecutorService uploadService =
+        MostExecutors.newMultiThreadExecutor("local-cas-write", UPLOAD_THREADS);
     this.uploader =
         new MultiThreadedBlobUploader(
             MISSING_CHECK_LIMIT,
             UPLOAD_SIZE_LIMIT,
+            UPLOAD_THREADS,
             uploadService,
             new CasBlobUploader() {
               @Override
@@ -97,7 +107,8 @@ public class LocalContentAddressedStorage implements ContentAddressedStorage {
                     .map(Protocol.Digest::getHash)
                     .collect(ImmutableSet.toImmutableSet());
               }
-            });
+            },
+            new KnownBlobsFilter(KNOWN_BLOBS_CAPACITY));
     AsyncBlobFetcher fetcher =
         new AsyncBlobFetcher() {
           @Override
@@ -192,6 +203,82 @@ public class LocalContentAddressedStorage implements ContentAddressedStorage {
     return uploader.addMissing(data);
   }
 
+  /**
+   * Materializes the stored blob of {@code digest} at {@code target}, replacing an existing file.
+   * The blob is copied rather than linked, so that writing to or changing the mode of the
+   * materialized file never affects the stored blob.
+   *
+   * @throws java.nio.file.NoSuchFileException if the blob isn't stored.
+   */
+  public void materializeBlob(Digest digest, boolean isExecutable, Path target)
+      throws IOException {
+    Path path = getPath(digest.getHash());
+    ensureParent(target);
+    Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING);
+    if (isExecutable) {
+      Preconditions.checkState(target.toFile().setExecutable(true));
+    }
+  }
+
+  /**
+   * Stores a copy of {@code file}, whose contents match {@code digest}, unless the blob is already
+   * stored. Like in {@link #materializeBlob}, the file isn't linked, so that it can be modified
+   * afterwards.
+   */
+  public void addFile(Digest digest, Path file) throws IOException {
+    String hash = digest.getHash();
+    Path path = ensureParent(getPath(hash));
+    try (AutoUnlocker ignored = fileLock.writeLock(hash)) {
+      if (Files.exists(path)) {
+        return;
+      }
+      Path tempPath = path.getParent().resolve(path.getFileName() + ".tmp");
+      Files.copy(file, tempPath, StandardCopyOption.REPLACE_EXISTING);
+      if (Files.isExecutable(tempPath)) {
+        Preconditions.checkState(tempPath.toFile().setExecutable(false, false));
+      }
+      Files.move(tempPath, path);
+    }
+  }
+
+  /** Deletes the blob of {@code digest}, if it is stored. */
+  public void delete(Digest digest) throws IOException {
+    String hash = digest.getHash();
+    Path path = getPath(hash);
+    try (AutoUnlocker ignored = fileLock.writeLock(hash)) {
+      Files.deleteIfExists(path);
+      Files.deleteIfExists(path.getParent().resolve(path.getFileName() + ".x"));
+    }
+  }
+
+  /** Lists the stored blobs, least recently added first. */
+  public ImmutableList<Digest> listBlobs() throws IOException {
+    if (!Files.isDirectory(cacheDir)) {
+      return ImmutableList.of();
+    }
+    List<Pair<Digest, FileTime>> blobs = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(cacheDir, 3)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        String name = path.getFileName().toString();
+        // Executable copies and temporary files have an extension.
+        if (name.contains(".") || path.getNameCount() - cacheDir.getNameCount() != 3) {
+          continue;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (attributes.isRegularFile()) {
+          blobs.add(
+              new Pair<>(
+                  protocol.newDigest(name, attributes.size()), attributes.lastModifiedTime()));
+        }
+      }
+    }
+    return blobs
+        .stream()
+        .sorted(Comparator.comparing(Pair::getSecond))
+        .map(Pair::getFirst)
+        .collect(ImmutableList.toImmutableList());
+  }
+
   /**
    * Materializes the outputs into the build root. All required data must be present (or inlined).
    */
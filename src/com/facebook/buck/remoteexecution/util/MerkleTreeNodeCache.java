@@ -37,9 +37,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import javax.annotation.Nullable;
 
 /**
  * MerkleTreeNodeCache is used to create and merge merkle trees for action inputs. The nodes are
@@ -47,12 +47,14 @@ import java.util.function.Consumer;
  *
  * <p>It also provides methods to get the {@link Protocol} encoded merkle tree data structures
  * (these values are cached once computed for a node).
+ *
+ * <p>Nodes are weakly interned and their data is cached on the nodes themselves, so a node and its
+ * data are released once the caller stops referencing it (e.g. the root of an action's inputs once
+ * the action has been sent), while subtrees that are still referenced are shared and never
+ * encoded or hashed again.
  */
 public class MerkleTreeNodeCache {
-  private final Interner<MerkleTreeNode> nodeInterner = Interners.newStrongInterner();
-
-  private final ConcurrentHashMap<Reference<MerkleTreeNode>, NodeData> directoryCache =
-      new ConcurrentHashMap<>();
+  private final Interner<MerkleTreeNode> nodeInterner = Interners.newWeakInterner();
 
   private final Protocol protocol;
 
@@ -115,23 +117,21 @@ public class MerkleTreeNodeCache {
 
   /** Gets the {@link Protocol} encoded data for the provided tree. */
   public NodeData getData(MerkleTreeNode node) {
-    Reference<MerkleTreeNode> nodeRef = new Reference<>(node);
-    NodeData nodeData = directoryCache.get(nodeRef);
+    NodeData nodeData = node.data;
     if (nodeData != null) {
       return nodeData;
     }
 
     Map<String, NodeData> childrenData = new TreeMap<>();
     node.children.forEach((k, v) -> childrenData.put(k, getData(v)));
-    return directoryCache.computeIfAbsent(
-        nodeRef,
-        ignored -> {
-          List<DirectoryNode> childNodes = new ArrayList<>();
-          childrenData.forEach((k, v) -> childNodes.add(protocol.newDirectoryNode(k, v.digest)));
-          Directory directory =
-              protocol.newDirectory(childNodes, node.files.values(), node.symlinks.values());
-          return new NodeData(directory, protocol.computeDigest(directory));
-        });
+    List<DirectoryNode> childNodes = new ArrayList<>();
+    childrenData.forEach((k, v) -> childNodes.add(protocol.newDirectoryNode(k, v.digest)));
+    Directory directory =
+        protocol.newDirectory(childNodes, node.files.values(), node.symlinks.values());
+    // Racing threads compute the same data, so it doesn't matter which one wins.
+    nodeData = new NodeData(directory, protocol.computeDigest(directory));
+    node.data = nodeData;
+    return nodeData;
   }
 
   /** Represents a node in the merkle tree of files and symlinks. */
@@ -142,6 +142,9 @@ public class MerkleTreeNodeCache {
     private final ImmutableSortedMap<String, FileNode> files;
     private final ImmutableSortedMap<String, SymlinkNode> symlinks;
 
+    /** The encoded data of this node, once it has been computed. */
+    @Nullable private volatile NodeData data;
+
     MerkleTreeNode(
         ImmutableSortedMap<String, MerkleTreeNode> children,
         ImmutableSortedMap<String, FileNode> files,
@@ -332,26 +335,4 @@ public class MerkleTreeNodeCache {
       return directory;
     }
   }
-
-  /** Used to get reference equality for interned objects. */
-  private static class Reference<T> {
-    private final T object;
-
-    Reference(T object) {
-      this.object = object;
-    }
-
-    @Override
-    public int hashCode() {
-      return object.hashCode();
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      if (!(obj instanceof Reference)) {
-        return false;
-      }
-      return this.object == ((Reference<?>) obj).object;
-    }
-  }
 }
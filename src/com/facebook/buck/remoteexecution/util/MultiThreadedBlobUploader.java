@@ -21,12 +21,11 @@ import com.facebook.buck.remoteexecution.CasBlobUploader.UploadData;
 import com.facebook.buck.remoteexecution.CasBlobUploader.UploadResult;
 import com.facebook.buck.remoteexecution.Protocol.Digest;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
-import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
@@ -40,6 +39,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /**
  * A simple multi-threaded blob uploader for uploading inputs/outputs to the CAS.
@@ -50,27 +50,36 @@ import java.util.stream.Collectors;
  * missingCheckLimit items off this queue and send a request to the CAS to find which it
  * does/doesn't contain. Any that are missing will be added to a queue to be uploaded. Work threads
  * will then pull those off and upload them. When the upload is finished, the future for that digest
- * will be fulfilled.
+ * will be fulfilled. Once a missing check is done, enough work threads are started to upload the
+ * missing items in parallel, up to uploadThreads.
+ *
+ * <p>Digests that the CAS contains, or that have been uploaded, are added to a {@link
+ * KnownBlobsFilter} and aren't checked again.
  */
 public class MultiThreadedBlobUploader {
   private final int missingCheckLimit;
   private final int uploadSizeLimit;
+  private final int uploadThreads;
 
   public MultiThreadedBlobUploader(
       int missingCheckLimit,
       int uploadSizeLimit,
+      int uploadThreads,
       ExecutorService uploadService,
-      CasBlobUploader delegate) {
+      CasBlobUploader delegate,
+      KnownBlobsFilter knownBlobs) {
     this.missingCheckLimit = missingCheckLimit;
     this.uploadSizeLimit = uploadSizeLimit;
+    this.uploadThreads = uploadThreads;
     this.uploadService = uploadService;
     this.asyncBlobUploader = delegate;
+    this.knownBlobs = knownBlobs;
   }
 
   private final ConcurrentHashMap<String, ListenableFuture<Void>> pendingUploads =
       new ConcurrentHashMap<>();
 
-  private final Set<String> containedHashes = Sets.newConcurrentHashSet();
+  private final KnownBlobsFilter knownBlobs;
   private final BlockingQueue<PendingUpload> waitingUploads = new LinkedBlockingQueue<>();
   private final BlockingQueue<PendingUpload> waitingMissingCheck = new LinkedBlockingQueue<>();
 
@@ -93,7 +102,7 @@ public class MultiThreadedBlobUploader {
 
   /** Uploads missing items to the CAS. */
   public ListenableFuture<Void> addMissing(ImmutableMap<Digest, UploadDataSupplier> data) {
-    data = ImmutableMap.copyOf(Maps.filterKeys(data, k -> !containedHashes.contains(k.getHash())));
+    data = ImmutableMap.copyOf(Maps.filterKeys(data, k -> !knownBlobs.contains(k)));
     if (data.isEmpty()) {
       return Futures.immediateFuture(null);
     }
@@ -108,7 +117,7 @@ public class MultiThreadedBlobUploader {
           pendingUploads.computeIfAbsent(
               digest.getHash(),
               hash -> {
-                if (containedHashes.contains(hash)) {
+                if (knownBlobs.contains(digest)) {
                   return Futures.immediateFuture(null);
                 }
                 SettableFuture<Void> future = SettableFuture.create();
@@ -118,12 +127,24 @@ public class MultiThreadedBlobUploader {
               });
       Futures.addCallback(
           resultFuture,
-          MoreFutures.finallyCallback(
-              () -> {
-                containedHashes.add(digest.getHash());
-                pendingUploads.remove(digest.getHash());
-              }));
+          new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(@Nullable Void result) {
+              knownBlobs.add(digest);
+              pendingUploads.remove(digest.getHash());
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              pendingUploads.remove(digest.getHash());
+            }
+          });
       futures.add(resultFuture);
+    }
+    // Each worker checks up to missingCheckLimit digests at once, so rather than a worker per
+    // digest (which would mostly check the few digests that have been queued so far), only enough
+    // workers for full batches are started.
+    for (int i = 0; i < data.size(); i += missingCheckLimit) {
       uploadService.submit(this::processUploads);
     }
     return Futures.whenAllSucceed(futures.build()).call(() -> null);
@@ -153,13 +174,20 @@ public class MultiThreadedBlobUploader {
 
       Set<String> missing = asyncBlobUploader.getMissingHashes(requiredDigests);
 
+      long missingSize = 0;
       for (PendingUpload entry : data) {
         if (missing.contains(entry.getHash())) {
           waitingUploads.add(entry);
+          missingSize += entry.uploadData.digest.getSize();
         } else {
           entry.future.set(null);
         }
       }
+      // This thread uploads the first batch itself, the other batches get their own workers.
+      long uploadBatches = (missingSize + uploadSizeLimit - 1) / uploadSizeLimit;
+      for (long i = 1; i < Math.min(uploadBatches, uploadThreads); i++) {
+        uploadService.submit(this::processUploads);
+      }
     } catch (Throwable e) {
       data.forEach(d -> d.future.setException(e));
     }
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.remoteexecution.ContentAddressedStorage;
+import com.facebook.buck.remoteexecution.Protocol.OutputFile;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.cache.FileHashCacheVerificationResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps output files of remotely executed actions in the {@link ContentAddressedStorage} until they
+ * are needed locally.
+ *
+ * <p>A deferred file is known by its digest, which is enough to hash it (see {@link
+ * #decorateFileHashCache}) and to use it as an input of another remote action. So an output that is
+ * only ever consumed remotely is never downloaded. Anything that reads an output locally has to
+ * {@link #materialize} it first.
+ */
+public class OnDemandOutputsMaterializer {
+  private final ContentAddressedStorage storage;
+
+  /** Files which haven't been materialized yet, by absolute path. */
+  private final ConcurrentMap<Path, DeferredFile> deferredFiles = new ConcurrentHashMap<>();
+
+  public OnDemandOutputsMaterializer(ContentAddressedStorage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Records {@code outputFiles}, whose paths are relative to {@code root}, as deferred. A previous
+   * record of the same path is replaced, so the caller has to make sure that nothing is reading it.
+   */
+  public void defer(Collection<OutputFile> outputFiles, Path root) {
+    for (OutputFile file : outputFiles) {
+      deferredFiles.put(root.resolve(file.getPath()), new DeferredFile(file, root));
+    }
+  }
+
+  /** @return whether the file at the absolute {@code path} is deferred and not materialized yet. */
+  public boolean isDeferred(Path path) {
+    return deferredFiles.containsKey(path);
+  }
+
+  /** @return the deferred file at the absolute {@code path}, unless it has been materialized. */
+  public Optional<OutputFile> getDeferredFile(Path path) {
+    return Optional.ofNullable(deferredFiles.get(path)).map(deferredFile -> deferredFile.file);
+  }
+
+  /**
+   * Forgets the deferred files among the absolute {@code paths}, e.g. because they are about to be
+   * replaced. Someone who is already materializing them still gets them.
+   */
+  public void discard(Iterable<Path> paths) {
+    for (Path path : paths) {
+      deferredFiles.remove(path);
+    }
+  }
+
+  /**
+   * Materializes the deferred files among the absolute {@code paths}. A file is only fetched once,
+   * no matter how many callers are waiting for it.
+   */
+  public ListenableFuture<Void> materialize(Iterable<Path> paths) {
+    List<ListenableFuture<Void>> pending = new ArrayList<>();
+    Map<Path, List<DeferredFile>> toFetchByRoot = new LinkedHashMap<>();
+    for (Path path : paths) {
+      @Nullable DeferredFile deferredFile = deferredFiles.get(path);
+      if (deferredFile == null) {
+        continue;
+      }
+      synchronized (deferredFile) {
+        if (deferredFile.materialized == null) {
+          deferredFile.materialized = SettableFuture.create();
+          toFetchByRoot
+              .computeIfAbsent(deferredFile.root, ignored -> new ArrayList<>())
+              .add(deferredFile);
+        }
+        pending.add(deferredFile.materialized);
+      }
+    }
+
+    for (Map.Entry<Path, List<DeferredFile>> entry : toFetchByRoot.entrySet()) {
+      Path root = entry.getKey();
+      List<DeferredFile> toFetch = entry.getValue();
+      ListenableFuture<Void> fetched;
+      try {
+        fetched =
+            storage.materializeOutputs(
+                ImmutableList.of(),
+                toFetch
+                    .stream()
+                    .map(deferredFile -> deferredFile.file)
+                    .collect(ImmutableList.toImmutableList()),
+                root);
+      } catch (IOException | RuntimeException e) {
+        fetched = Futures.immediateFailedFuture(e);
+      }
+      for (DeferredFile deferredFile : toFetch) {
+        Objects.requireNonNull(deferredFile.materialized).setFuture(fetched);
+      }
+      Futures.addCallback(
+          fetched,
+          new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(@Nullable Void result) {
+              for (DeferredFile deferredFile : toFetch) {
+                deferredFiles.remove(root.resolve(deferredFile.file.getPath()), deferredFile);
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              // The failure is reported to everyone waiting for these files.
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    return Futures.whenAllSucceed(pending).call(() -> null, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Returns a view of {@code delegate} that hashes deferred files by their digests rather than
+   * materializing them. Hashes of materialized files are left to {@code delegate}, so the {@link
+   * com.facebook.buck.remoteexecution.Protocol} has to hash files the same way, with SHA-1.
+   */
+  public FileHashCache decorateFileHashCache(FileHashCache delegate) {
+    return new OnDemandFileHashCache(delegate);
+  }
+
+  private static class DeferredFile {
+    private final OutputFile file;
+    private final Path root;
+    @Nullable private SettableFuture<Void> materialized;
+
+    private DeferredFile(OutputFile file, Path root) {
+      this.file = file;
+      this.root = root;
+    }
+  }
+
+  private class OnDemandFileHashCache implements FileHashCache {
+    private final FileHashCache delegate;
+
+    private OnDemandFileHashCache(FileHashCache delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public HashCode get(Path path) throws IOException {
+      Optional<OutputFile> deferredFile = getDeferredFile(path);
+      if (deferredFile.isPresent()) {
+        return HashCode.fromString(deferredFile.get().getDigest().getHash());
+      }
+      return delegate.get(path);
+    }
+
+    @Override
+    public HashCode get(ProjectFilesystem filesystem, Path path) throws IOException {
+      Optional<OutputFile> deferredFile = getDeferredFile(filesystem.resolve(path));
+      if (deferredFile.isPresent()) {
+        return HashCode.fromString(deferredFile.get().getDigest().getHash());
+      }
+      return delegate.get(filesystem, path);
+    }
+
+    @Override
+    public long getSize(Path path) throws IOException {
+      Optional<OutputFile> deferredFile = getDeferredFile(path);
+      if (deferredFile.isPresent()) {
+        return deferredFile.get().getDigest().getSize();
+      }
+      return delegate.getSize(path);
+    }
+
+    @Override
+    public long getSize(ProjectFilesystem filesystem, Path path) throws IOException {
+      Optional<OutputFile> deferredFile = getDeferredFile(filesystem.resolve(path));
+      if (deferredFile.isPresent()) {
+        return deferredFile.get().getDigest().getSize();
+      }
+      return delegate.getSize(filesystem, path);
+    }
+
+    @Override
+    public HashCode get(ArchiveMemberPath archiveMemberPath) throws IOException {
+      // Members can only be hashed by reading the archive.
+      Futures.getChecked(
+          materialize(ImmutableList.of(archiveMemberPath.getArchivePath())), IOException.class);
+      return delegate.get(archiveMemberPath);
+    }
+
+    @Override
+    public HashCode get(ProjectFilesystem filesystem, ArchiveMemberPath archiveMemberPath)
+        throws IOException {
+      Futures.getChecked(
+          materialize(ImmutableList.of(filesystem.resolve(archiveMemberPath.getArchivePath()))),
+          IOException.class);
+      return delegate.get(filesystem, archiveMemberPath);
+    }
+
+    @Override
+    public void invalidate(Path path) {
+      delegate.invalidate(path);
+    }
+
+    @Override
+    public void invalidate(ProjectFilesystem filesystem, Path path) {
+      delegate.invalidate(filesystem, path);
+    }
+
+    @Override
+    public void invalidateAll() {
+      delegate.invalidateAll();
+    }
+
+    @Override
+    public void set(Path path, HashCode hashCode) throws IOException {
+      delegate.set(path, hashCode);
+    }
+
+    @Override
+    public void set(ProjectFilesystem filesystem, Path path, HashCode hashCode)
+        throws IOException {
+      delegate.set(filesystem, path, hashCode);
+    }
+
+    @Override
+    public FileHashCacheVerificationResult verify() throws IOException {
+      return delegate.verify();
+    }
+
+    @Override
+    public Stream<Map.Entry<Path, HashCode>> debugDump() {
+      return delegate.debugDump();
+    }
+  }
+}
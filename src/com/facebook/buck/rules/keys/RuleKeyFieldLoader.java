@@ -43,6 +43,11 @@ public class RuleKeyFieldLoader {
     builder.setReflectively(
         ".input_rule_key_file_size_limit",
         ruleKeyConfiguration.getBuildInputRuleKeyFileSizeLimit());
+    // Only added for non-default artifact formats, so that keys of builds which store artifacts in
+    // the original format stay unchanged.
+    if (!ruleKeyConfiguration.getArtifactFormat().isEmpty()) {
+      builder.setReflectively(".artifact_format", ruleKeyConfiguration.getArtifactFormat());
+    }
 
     BuckModuleHashStrategy hashStrategy = ruleKeyConfiguration.getBuckModuleHashStrategy();
     Class<?> buildRuleClass = buildRule.getClass();
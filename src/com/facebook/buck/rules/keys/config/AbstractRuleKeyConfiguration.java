@@ -37,4 +37,13 @@ abstract class AbstractRuleKeyConfiguration {
 
   @Value.Parameter
   public abstract BuckModuleHashStrategy getBuckModuleHashStrategy();
+
+  /**
+   * The format of the artifacts stored into the cache under these rule keys, or empty for the
+   * original single-frame format.
+   */
+  @Value.Default
+  public String getArtifactFormat() {
+    return "";
+  }
 }
@@ -34,6 +34,7 @@ public class ConfigRuleKeyConfigurationFactory {
         .setCoreKey(getCoreKey(buckConfig))
         .setBuildInputRuleKeyFileSizeLimit(inputKeySizeLimit)
         .setBuckModuleHashStrategy(createBuckModuleHashStrategy(buckConfig, moduleManager))
+        .setArtifactFormat(buckConfig.getArtifactFormat())
         .build();
   }
 
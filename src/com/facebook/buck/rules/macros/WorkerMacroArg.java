@@ -117,6 +117,10 @@ public class WorkerMacroArg extends ProxyArg {
     return workerTool.getMaxWorkers();
   }
 
+  public int getMaxInFlightRequests() {
+    return workerTool.getMaxInFlightRequests();
+  }
+
   public String getJobArgs(SourcePathResolver pathResolver) {
     return Arg.stringify(arg, pathResolver).trim();
   }
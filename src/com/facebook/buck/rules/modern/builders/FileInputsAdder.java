@@ -47,6 +47,8 @@ class FileInputsAdder {
 
     @Nullable
     Path getSymlinkTarget(Path path) throws IOException;
+
+    boolean isRegularFile(Path path);
   }
 
   private final Set<Path> addedInputs = new HashSet<>();
@@ -140,7 +142,7 @@ class FileInputsAdder {
       return target;
     }
 
-    if (Files.isRegularFile(path)) {
+    if (delegate.isRegularFile(path)) {
       delegate.addFile(path);
     }
     map.put(path, path);
@@ -166,5 +168,10 @@ class FileInputsAdder {
     public Path getSymlinkTarget(Path path) throws IOException {
       return Files.isSymbolicLink(path) ? Files.readSymbolicLink(path) : null;
     }
+
+    @Override
+    public boolean isRegularFile(Path path) {
+      return Files.isRegularFile(path);
+    }
   }
 }
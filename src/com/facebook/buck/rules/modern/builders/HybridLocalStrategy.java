@@ -23,10 +23,12 @@ import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.util.Scope;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.concurrent.JobLimiter;
 import com.facebook.buck.util.concurrent.MoreFutures;
 import com.facebook.buck.util.exceptions.BuckUncheckedExecutionException;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
@@ -287,6 +289,37 @@ public class HybridLocalStrategy implements BuildRuleStrategy {
     return delegate.canBuild(instance);
   }
 
+  @Override
+  public boolean hasDeferredOutputs(BuildRule rule) {
+    return delegate.hasDeferredOutputs(rule);
+  }
+
+  @Override
+  public ListenableFuture<?> materializeOutputs(Iterable<BuildRule> rules) {
+    return delegate.materializeOutputs(rules);
+  }
+
+  @Override
+  public ImmutableMap<String, String> getDeferredOutputs(BuildRule rule) {
+    return delegate.getDeferredOutputs(rule);
+  }
+
+  @Override
+  public boolean restoreDeferredOutputs(
+      BuildRule rule, ImmutableMap<String, String> deferredOutputs) {
+    return delegate.restoreDeferredOutputs(rule, deferredOutputs);
+  }
+
+  @Override
+  public void discardDeferredOutputs(BuildRule rule) {
+    delegate.discardDeferredOutputs(rule);
+  }
+
+  @Override
+  public FileHashCache decorateFileHashCache(FileHashCache fileHashCache) {
+    return delegate.decorateFileHashCache(fileHashCache);
+  }
+
   @Override
   public void close() throws IOException {
     delegate.close();
@@ -30,10 +30,12 @@ import com.facebook.buck.event.LeafEvents;
 import com.facebook.buck.remoteexecution.Protocol;
 import com.facebook.buck.remoteexecution.Protocol.Digest;
 import com.facebook.buck.remoteexecution.Protocol.FileNode;
+import com.facebook.buck.remoteexecution.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.Protocol.SymlinkNode;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.MerkleTreeNode;
+import com.facebook.buck.remoteexecution.util.OnDemandOutputsMaterializer;
 import com.facebook.buck.rules.modern.Buildable;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.Serializer;
@@ -57,6 +59,7 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Ordering;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
+import com.google.common.util.concurrent.Futures;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -144,6 +147,7 @@ public class ModernBuildRuleRemoteExecutionHelper {
   private final SourcePathResolver pathResolver;
   private final CellPathResolver cellResolver;
   private final ThrowingFunction<Path, HashCode, IOException> fileHasher;
+  private final OnDemandOutputsMaterializer onDemandOutputs;
   private final Serializer serializer;
   private final Map<Class<?>, Map<String, Boolean>> loggedMessagesByClass;
   private final Path cellPathPrefix;
@@ -161,7 +165,8 @@ public class ModernBuildRuleRemoteExecutionHelper {
       Cell rootCell,
       ImmutableSet<Optional<String>> cellNames,
       Path cellPathPrefix,
-      ThrowingFunction<Path, HashCode, IOException> fileHasher) {
+      ThrowingFunction<Path, HashCode, IOException> fileHasher,
+      OnDemandOutputsMaterializer onDemandOutputs) {
     this.eventBus = eventBus;
     this.protocol = protocol;
 
@@ -174,6 +179,7 @@ public class ModernBuildRuleRemoteExecutionHelper {
     this.nodeMap = new ConcurrentHashMap<>();
     this.hasher = protocol.getHashFunction();
     this.fileHasher = fileHasher;
+    this.onDemandOutputs = onDemandOutputs;
 
     this.loggedMessagesByClass = new ConcurrentHashMap<>();
 
@@ -398,6 +404,10 @@ public class ModernBuildRuleRemoteExecutionHelper {
                 new UploadDataSupplier() {
                   @Override
                   public InputStream get() throws IOException {
+                    // Deferred inputs are only read if the CAS has evicted them since they were
+                    // built.
+                    Futures.getChecked(
+                        onDemandOutputs.materialize(ImmutableList.of(path)), IOException.class);
                     return new FileInputStream(path.toFile());
                   }
 
@@ -452,13 +462,24 @@ public class ModernBuildRuleRemoteExecutionHelper {
                     new FileInputsAdder.AbstractDelegate() {
                       @Override
                       public void addFile(Path path) throws IOException {
+                        Optional<OutputFile> deferredFile = onDemandOutputs.getDeferredFile(path);
                         files.put(
                             cellPathPrefix.relativize(path),
-                            protocol.newFileNode(
-                                protocol.newDigest(
-                                    fileHasher.apply(path).toString(), (int) Files.size(path)),
-                                path.getFileName().toString(),
-                                Files.isExecutable(path)));
+                            deferredFile.isPresent()
+                                ? protocol.newFileNode(
+                                    deferredFile.get().getDigest(),
+                                    path.getFileName().toString(),
+                                    deferredFile.get().getIsExecutable())
+                                : protocol.newFileNode(
+                                    protocol.newDigest(
+                                        fileHasher.apply(path).toString(), (int) Files.size(path)),
+                                    path.getFileName().toString(),
+                                    Files.isExecutable(path)));
+                      }
+
+                      @Override
+                      public boolean isRegularFile(Path path) {
+                        return onDemandOutputs.isDeferred(path) || super.isRegularFile(path);
                       }
 
                       @Override
@@ -24,43 +24,58 @@ import com.facebook.buck.core.cell.CellPathResolver;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.attr.HasPostBuildSteps;
+import com.facebook.buck.core.rules.attr.InitializableFromDisk;
+import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.remoteexecution.Protocol;
 import com.facebook.buck.remoteexecution.Protocol.Digest;
+import com.facebook.buck.remoteexecution.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.RemoteExecutionActionEvent;
 import com.facebook.buck.remoteexecution.RemoteExecutionActionEvent.State;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
 import com.facebook.buck.remoteexecution.RemoteExecutionService.ExecutionResult;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionStrategyConfig;
+import com.facebook.buck.remoteexecution.util.OnDemandOutputsMaterializer;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.util.Scope;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.concurrent.JobLimiter;
 import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.function.ThrowingFunction;
 import com.facebook.buck.util.types.Either;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -78,6 +93,12 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private final RemoteExecutionClients executionClients;
   private final ModernBuildRuleRemoteExecutionHelper mbrHelper;
   private final Path cellPathPrefix;
+  private final OnDemandOutputsMaterializer onDemandOutputs;
+  private final boolean materializeOutputsOnDemand;
+
+  /** Absolute paths of the deferred output files of each rule. */
+  private final ConcurrentMap<BuildTarget, ImmutableList<Path>> deferredOutputs =
+      new ConcurrentHashMap<>();
 
   private final ListeningExecutorService service;
 
@@ -103,6 +124,16 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     this.executionLimiter = new JobLimiter(strategyConfig.getMaxConcurrentExecutions());
     this.handleResultLimiter = new JobLimiter(strategyConfig.getMaxConcurrentResultHandling());
     this.eventBus = eventBus;
+    this.onDemandOutputs =
+        new OnDemandOutputsMaterializer(executionClients.getContentAddressedStorage());
+    // Deferred outputs are hashed by their digests, which only works if they match the hashes of
+    // the file hash cache.
+    this.materializeOutputsOnDemand =
+        strategyConfig.shouldMaterializeOutputsOnDemand()
+            && executionClients.getProtocol().getHashFunction().equals(Hashing.sha1());
+    if (strategyConfig.shouldMaterializeOutputsOnDemand() && !materializeOutputsOnDemand) {
+      LOG.warn("Outputs are materialized eagerly, since the protocol doesn't hash with SHA-1.");
+    }
 
     ImmutableSet<Optional<String>> cellNames =
         rootCell
@@ -131,7 +162,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
             rootCell,
             cellNames,
             cellPathPrefix,
-            fileHasher);
+            fileHasher,
+            onDemandOutputs);
   }
 
   /** Creates a BuildRuleStrategy for a particular */
@@ -156,17 +188,120 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     return false;
   }
 
+  @Override
+  public boolean hasDeferredOutputs(BuildRule rule) {
+    ImmutableList<Path> paths = deferredOutputs.get(rule.getBuildTarget());
+    return paths != null && paths.stream().anyMatch(onDemandOutputs::isDeferred);
+  }
+
+  @Override
+  public ListenableFuture<?> materializeOutputs(Iterable<BuildRule> rules) {
+    ImmutableList.Builder<Path> paths = ImmutableList.builder();
+    for (BuildRule rule : rules) {
+      paths.addAll(deferredOutputs.getOrDefault(rule.getBuildTarget(), ImmutableList.of()));
+    }
+    return onDemandOutputs.materialize(paths.build());
+  }
+
+  /** Deferred outputs are described by "{hash}:{size}:{is executable}". */
+  @Override
+  public ImmutableMap<String, String> getDeferredOutputs(BuildRule rule) {
+    ProjectFilesystem filesystem = rule.getProjectFilesystem();
+    ImmutableMap.Builder<String, String> outputs = ImmutableMap.builder();
+    for (Path path : deferredOutputs.getOrDefault(rule.getBuildTarget(), ImmutableList.of())) {
+      onDemandOutputs
+          .getDeferredFile(path)
+          .ifPresent(
+              file ->
+                  outputs.put(
+                      filesystem.relativize(path).toString(),
+                      String.format(
+                          "%s:%d:%b",
+                          file.getDigest().getHash(),
+                          file.getDigest().getSize(),
+                          file.getIsExecutable())));
+    }
+    return outputs.build();
+  }
+
+  @Override
+  public boolean restoreDeferredOutputs(
+      BuildRule rule, ImmutableMap<String, String> outputs) {
+    if (!materializeOutputsOnDemand) {
+      return false;
+    }
+    ProjectFilesystem filesystem = rule.getProjectFilesystem();
+    Protocol protocol = executionClients.getProtocol();
+    ImmutableList.Builder<OutputFile> files = ImmutableList.builder();
+    ImmutableList.Builder<Path> paths = ImmutableList.builder();
+    try {
+      for (Map.Entry<String, String> entry : outputs.entrySet()) {
+        List<String> parts = Splitter.on(':').splitToList(entry.getValue());
+        if (parts.size() != 3) {
+          return false;
+        }
+        Digest digest = protocol.newDigest(parts.get(0), Long.parseLong(parts.get(1)));
+        Path path = filesystem.resolve(entry.getKey());
+        if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+          if (Files.size(path) == digest.getSize()) {
+            // Materialized by an earlier build.
+            continue;
+          }
+          Files.delete(path);
+        }
+        files.add(
+            protocol.newOutputFile(
+                cellPathPrefix.relativize(path), digest, Boolean.parseBoolean(parts.get(2))));
+        paths.add(path);
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Failed to restore the deferred outputs of %s.", rule.getBuildTarget());
+      return false;
+    }
+    onDemandOutputs.defer(files.build(), cellPathPrefix);
+    deferredOutputs.put(rule.getBuildTarget(), paths.build());
+    return true;
+  }
+
+  @Override
+  public void discardDeferredOutputs(BuildRule rule) {
+    ImmutableList<Path> paths = deferredOutputs.remove(rule.getBuildTarget());
+    if (paths != null) {
+      onDemandOutputs.discard(paths);
+    }
+  }
+
+  @Override
+  public FileHashCache decorateFileHashCache(FileHashCache fileHashCache) {
+    return materializeOutputsOnDemand
+        ? onDemandOutputs.decorateFileHashCache(fileHashCache)
+        : fileHashCache;
+  }
+
   @Override
   public void close() throws IOException {
     executionClients.close();
   }
 
+  /**
+   * Outputs can only be left remotely if the engine doesn't read them right after the rule has
+   * been built.
+   */
+  private boolean canDeferOutputs(BuildRule rule) {
+    return materializeOutputsOnDemand
+        && !(rule instanceof InitializableFromDisk)
+        && !(rule instanceof HasPostBuildSteps)
+        && !(rule instanceof SupportsDependencyFileRuleKey
+            && ((SupportsDependencyFileRuleKey) rule).useDependencyFileRuleKeys());
+  }
+
   @Override
   public StrategyBuildResult build(BuildRule rule, BuildStrategyContext strategyContext) {
     Preconditions.checkState(rule instanceof ModernBuildRule);
     BuildTarget buildTarget = rule.getBuildTarget();
 
     RemoteExecutionActionEvent.sendScheduledEvent(eventBus, rule.getBuildTarget());
+    boolean deferOutputs = canDeferOutputs(rule);
 
     ListenableFuture<RemoteExecutionActionInfo> actionInfoFuture =
         pendingUploadsLimiter.schedule(
@@ -186,6 +321,7 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
                     strategyContext,
                     buildTarget,
                     actionInfo,
+                    deferOutputs,
                     () -> {
                       if (guard.compareAndSet(null, Either.ofRight(new Object()))) {
                         return null;
@@ -250,6 +386,7 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       BuildStrategyContext strategyContext,
       BuildTarget buildTarget,
       RemoteExecutionActionInfo actionInfo,
+      boolean deferOutputs,
       Callable<Throwable> tryStart)
       throws IOException {
     Objects.requireNonNull(actionInfo);
@@ -276,7 +413,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
               buildTarget,
               tryStart,
               actionDigest,
-              actionOutputs);
+              actionOutputs,
+              deferOutputs);
         },
         service);
   }
@@ -301,7 +439,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       BuildTarget buildTarget,
       Callable<Throwable> tryStart,
       Digest actionDigest,
-      Iterable<? extends Path> actionOutputs) {
+      Iterable<? extends Path> actionOutputs,
+      boolean deferOutputs) {
     AtomicReference<Throwable> cancelled = new AtomicReference<>(null);
     ListenableFuture<ExecutionResult> executionResult =
         executionLimiter.schedule(
@@ -341,7 +480,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
                       buildTarget,
                       result,
                       actionDigest,
-                      actionOutputs));
+                      actionOutputs,
+                      deferOutputs));
         },
         service);
   }
@@ -352,7 +492,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       BuildTarget buildTarget,
       ExecutionResult result,
       Digest actionDigest,
-      Iterable<? extends Path> actionOutputs)
+      Iterable<? extends Path> actionOutputs,
+      boolean deferOutputs)
       throws IOException, StepFailedException {
     if (result.getExitCode() != 0) {
       LOG.error(
@@ -385,11 +526,30 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       }
     }
 
-    ListenableFuture<Void> materializationFuture =
-        executionClients
-            .getContentAddressedStorage()
-            .materializeOutputs(
-                result.getOutputDirectories(), result.getOutputFiles(), cellPathPrefix);
+    ListenableFuture<Void> materializationFuture;
+    if (deferOutputs) {
+      // Output files are only fetched once they are needed locally, but directories are still
+      // materialized right away, since they can't be hashed without their contents.
+      onDemandOutputs.defer(result.getOutputFiles(), cellPathPrefix);
+      deferredOutputs.put(
+          buildTarget,
+          result
+              .getOutputFiles()
+              .stream()
+              .map(file -> cellPathPrefix.resolve(file.getPath()))
+              .collect(ImmutableList.toImmutableList()));
+      materializationFuture =
+          executionClients
+              .getContentAddressedStorage()
+              .materializeOutputs(
+                  result.getOutputDirectories(), ImmutableList.of(), cellPathPrefix);
+    } else {
+      materializationFuture =
+          executionClients
+              .getContentAddressedStorage()
+              .materializeOutputs(
+                  result.getOutputDirectories(), result.getOutputFiles(), cellPathPrefix);
+    }
 
     return Futures.transform(
         materializationFuture,
@@ -49,6 +49,7 @@ public class DefaultWorkerTool extends WriteFile
   private final Tool tool;
 
   private final int maxWorkers;
+  private final int maxInFlightRequests;
   private final boolean isPersistent;
   private final BuildOutputInitializer<UUID> buildOutputInitializer;
   private final Supplier<SortedSet<BuildRule>> depsSupplier;
@@ -59,6 +60,7 @@ public class DefaultWorkerTool extends WriteFile
       SourcePathRuleFinder ruleFinder,
       Tool tool,
       int maxWorkers,
+      int maxInFlightRequests,
       boolean isPersistent) {
     super(
         buildTarget,
@@ -73,6 +75,7 @@ public class DefaultWorkerTool extends WriteFile
           @AddToRuleKey SourcePath placeholder = getSourcePathToOutput();
         };
     this.maxWorkers = maxWorkers;
+    this.maxInFlightRequests = maxInFlightRequests;
     this.isPersistent = isPersistent;
     this.buildOutputInitializer = new BuildOutputInitializer<>(getBuildTarget(), this);
     this.depsSupplier = BuildableSupport.buildDepsSupplier(this, ruleFinder);
@@ -98,6 +101,11 @@ public class DefaultWorkerTool extends WriteFile
     return maxWorkers;
   }
 
+  @Override
+  public int getMaxInFlightRequests() {
+    return maxInFlightRequests;
+  }
+
   @Override
   public boolean isPersistent() {
     return isPersistent;
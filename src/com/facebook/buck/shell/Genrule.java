@@ -413,6 +413,7 @@ public class Genrule extends AbstractBuildRuleWithDeclaredAndExtraDeps
                   workerMacroArg.getStartupCommand(),
                   workerMacroArg.getEnvironment(),
                   workerMacroArg.getMaxWorkers(),
+                  workerMacroArg.getMaxInFlightRequests(),
                   workerMacroArg.getPersistentWorkerKey().isPresent()
                       ? Optional.of(
                           WorkerProcessIdentity.of(
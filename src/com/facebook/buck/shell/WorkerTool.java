@@ -27,6 +27,9 @@ public interface WorkerTool {
 
   int getMaxWorkers();
 
+  /** How many jobs each worker process may be handed before it has answered the previous ones. */
+  int getMaxInFlightRequests();
+
   boolean isPersistent();
 
   HashCode getInstanceKey();
@@ -147,6 +147,10 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
       maxWorkers = args.getMaxWorkers().map(x -> x < 1 ? buckConfig.getNumThreads() : x).orElse(1);
     }
 
+    int maxInFlightRequests = args.getMaxInFlightRequests().orElse(1);
+    Preconditions.checkArgument(
+        maxInFlightRequests > 0, "max_in_flight_requests must be greater than 0.");
+
     CommandTool tool = builder.build();
     return new DefaultWorkerTool(
         buildTarget,
@@ -154,6 +158,7 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
         new SourcePathRuleFinder(graphBuilder),
         tool,
         maxWorkers,
+        maxInFlightRequests,
         args.getPersistent()
             .orElse(buckConfig.getBooleanValue(CONFIG_SECTION, CONFIG_PERSISTENT_KEY, false)));
   }
@@ -174,6 +179,8 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
 
     Optional<Integer> getMaxWorkersPerThreadPercent();
 
+    Optional<Integer> getMaxInFlightRequests();
+
     Optional<Boolean> getPersistent();
   }
 }
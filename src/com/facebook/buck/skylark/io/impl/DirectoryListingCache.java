@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Directory listings and file statuses of a single cell, used by {@link NativeGlobber} to answer
+ * globs from memory.
+ *
+ * <p>Entries are loaded from the filesystem the first time they are requested and are kept until
+ * they are invalidated, so the owner of a cache has to call {@link
+ * #invalidatePath(java.nio.file.Path, boolean)} for every changed path, which in practice means
+ * that a cache is only safe to use while Watchman reports changes of the cell. Paths outside of the
+ * cell and ignored paths are not reported by Watchman, so they are always read from the filesystem.
+ * Like Watchman, the cache does not notice changes made through symbolic links to other
+ * directories.
+ */
+public class DirectoryListingCache implements UnixGlob.FilesystemCalls {
+
+  private final java.nio.file.Path cellRoot;
+  private final Predicate<java.nio.file.Path> isIgnored;
+
+  private final Map<Symlinks, ConcurrentNavigableMap<String, Collection<Dirent>>> listings =
+      new EnumMap<>(Symlinks.class);
+  private final Map<Symlinks, ConcurrentNavigableMap<String, Optional<FileStatus>>> statuses =
+      new EnumMap<>(Symlinks.class);
+
+  /**
+   * Incremented before every invalidation, so that entries read from the filesystem while an
+   * invalidation was in progress are not cached.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * @param cellRoot The absolute root path of the cell.
+   * @param isIgnored Tells whether a path relative to {@code cellRoot} is ignored by the cell, and
+   *     hence not watched.
+   */
+  public DirectoryListingCache(
+      java.nio.file.Path cellRoot, Predicate<java.nio.file.Path> isIgnored) {
+    this.cellRoot = cellRoot;
+    this.isIgnored = isIgnored;
+    for (Symlinks symlinks : Symlinks.values()) {
+      listings.put(symlinks, new ConcurrentSkipListMap<>());
+      statuses.put(symlinks, new ConcurrentSkipListMap<>());
+    }
+  }
+
+  @Override
+  public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+    if (!isCacheable(path)) {
+      return path.readdir(symlinks);
+    }
+    ConcurrentNavigableMap<String, Collection<Dirent>> cache = listings.get(symlinks);
+    String key = path.getPathString();
+    @Nullable Collection<Dirent> dirents = cache.get(key);
+    if (dirents == null) {
+      long expectedGeneration = generation.get();
+      dirents = ImmutableList.copyOf(path.readdir(symlinks));
+      cache.put(key, dirents);
+      if (generation.get() != expectedGeneration) {
+        cache.remove(key, dirents);
+      }
+    }
+    return dirents;
+  }
+
+  @Override
+  @Nullable
+  public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+    if (!isCacheable(path)) {
+      return path.statIfFound(symlinks);
+    }
+    ConcurrentNavigableMap<String, Optional<FileStatus>> cache = statuses.get(symlinks);
+    String key = path.getPathString();
+    @Nullable Optional<FileStatus> status = cache.get(key);
+    if (status == null) {
+      long expectedGeneration = generation.get();
+      status = Optional.ofNullable(path.statIfFound(symlinks));
+      cache.put(key, status);
+      if (generation.get() != expectedGeneration) {
+        cache.remove(key, status);
+      }
+    }
+    return status.orElse(null);
+  }
+
+  private boolean isCacheable(Path path) {
+    java.nio.file.Path nioPath = cellRoot.getFileSystem().getPath(path.getPathString());
+    if (!nioPath.startsWith(cellRoot)) {
+      return false;
+    }
+    java.nio.file.Path relativePath = cellRoot.relativize(nioPath);
+    return relativePath.toString().isEmpty() || !isIgnored.test(relativePath);
+  }
+
+  /**
+   * Invalidates the entries of {@code path} and of everything below it.
+   *
+   * <p>Watchman only reports changes of files, not of directories. When a file is created in a new
+   * directory, or the last file of a directory is deleted, the directories above it may appear or
+   * disappear without being reported. Hence when a file is created or deleted, the entries of all
+   * directories above it up to the cell root are invalidated as well.
+   *
+   * @param path The absolute path of the file or directory that has been created, modified or
+   *     deleted.
+   * @param isCreatedOrDeleted Whether {@code path} has been created or deleted, rather than
+   *     modified.
+   */
+  public void invalidatePath(java.nio.file.Path path, boolean isCreatedOrDeleted) {
+    generation.incrementAndGet();
+    String key = path.toString();
+    // Keys of descendants are exactly the ones in [key + "/", key + "0"), since '0' follows '/'.
+    String descendantsFrom = key + "/";
+    String descendantsTo = key + "0";
+    for (Symlinks symlinks : Symlinks.values()) {
+      ConcurrentNavigableMap<String, Collection<Dirent>> symlinksListings = listings.get(symlinks);
+      ConcurrentNavigableMap<String, Optional<FileStatus>> symlinksStatuses =
+          statuses.get(symlinks);
+      symlinksListings.remove(key);
+      symlinksListings.subMap(descendantsFrom, descendantsTo).clear();
+      symlinksStatuses.remove(key);
+      symlinksStatuses.subMap(descendantsFrom, descendantsTo).clear();
+      if (!isCreatedOrDeleted) {
+        continue;
+      }
+      for (java.nio.file.Path ancestor = path.getParent();
+          ancestor != null && ancestor.startsWith(cellRoot);
+          ancestor = ancestor.getParent()) {
+        symlinksListings.remove(ancestor.toString());
+        symlinksStatuses.remove(ancestor.toString());
+      }
+    }
+  }
+
+  /** Invalidates all entries. */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    listings.values().forEach(Map::clear);
+    statuses.values().forEach(Map::clear);
+  }
+}
@@ -23,22 +23,28 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A Java native glob function implementation that allows resolving file paths based on include
  * patterns (file patterns that should be returned) minus exclude patterns (file patterns that
  * should be excluded from the resulting set).
  *
- * <p>Since this is a simple implementation it does not support caching and other smarts.
+ * <p>Unless it is given a {@link DirectoryListingCache}, each invocation walks the filesystem.
  */
 public class NativeGlobber implements Globber {
 
   /** Path used as a root when resolving patterns. */
   private final Path basePath;
 
-  private NativeGlobber(Path basePath) {
+  /** Filesystem calls used by globs, in case they should not go directly to the filesystem. */
+  private final Optional<AtomicReference<DirectoryListingCache>> filesystemCalls;
+
+  private NativeGlobber(Path basePath, Optional<DirectoryListingCache> directoryListingCache) {
     this.basePath = basePath;
+    this.filesystemCalls = directoryListingCache.map(AtomicReference::new);
   }
 
   /**
@@ -53,9 +59,9 @@ public class NativeGlobber implements Globber {
       Collection<String> include, Collection<String> exclude, boolean excludeDirectories)
       throws IOException {
     ImmutableSet<String> includePaths =
-        resolvePathsMatchingGlobPatterns(include, basePath, excludeDirectories);
+        resolvePathsMatchingGlobPatterns(include, basePath, excludeDirectories, filesystemCalls);
     ImmutableSet<String> excludePaths =
-        resolvePathsMatchingGlobPatterns(exclude, basePath, excludeDirectories);
+        resolvePathsMatchingGlobPatterns(exclude, basePath, excludeDirectories, filesystemCalls);
     return Sets.difference(includePaths, excludePaths);
   }
 
@@ -65,14 +71,19 @@ public class NativeGlobber implements Globber {
    * @param patterns The glob patterns to resolve.
    * @param basePath The base path used when resolving glob patterns.
    * @param excludeDirectories Flag indicating whether directories should be excluded from result.
+   * @param filesystemCalls The filesystem calls to use instead of the default ones, if any.
    * @return The set of paths corresponding to requested patterns.
    */
   private static ImmutableSet<String> resolvePathsMatchingGlobPatterns(
-      Collection<String> patterns, Path basePath, boolean excludeDirectories) throws IOException {
-    return UnixGlob.forPath(basePath)
-        .addPatterns(patterns)
-        .setExcludeDirectories(excludeDirectories)
-        .glob()
+      Collection<String> patterns,
+      Path basePath,
+      boolean excludeDirectories,
+      Optional<AtomicReference<DirectoryListingCache>> filesystemCalls)
+      throws IOException {
+    UnixGlob.Builder glob =
+        UnixGlob.forPath(basePath).addPatterns(patterns).setExcludeDirectories(excludeDirectories);
+    filesystemCalls.ifPresent(glob::setFilesystemCalls);
+    return glob.glob()
         .stream()
         .map(includePath -> includePath.relativeTo(basePath).getPathString())
         .collect(ImmutableSet.toImmutableSet());
@@ -84,6 +95,17 @@ public class NativeGlobber implements Globber {
    * @param basePath The base path relative to which paths matching glob patterns will be resolved.
    */
   public static NativeGlobber create(Path basePath) {
-    return new NativeGlobber(basePath);
+    return new NativeGlobber(basePath, Optional.empty());
+  }
+
+  /**
+   * Factory method for creating {@link NativeGlobber} instances which read directory listings and
+   * file statuses through {@code directoryListingCache}.
+   *
+   * @param basePath The base path relative to which paths matching glob patterns will be resolved.
+   * @param directoryListingCache The cache of the cell containing {@code basePath}.
+   */
+  public static NativeGlobber create(Path basePath, DirectoryListingCache directoryListingCache) {
+    return new NativeGlobber(basePath, Optional.of(directoryListingCache));
   }
 }
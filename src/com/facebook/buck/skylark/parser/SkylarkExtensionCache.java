@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.parser;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Loaded Skylark extensions and includes of a single cell.
+ *
+ * <p>A cache can be shared by all {@link SkylarkProjectBuildFileParser}s of a cell, so that each
+ * extension is parsed and evaluated once, no matter how many parsers import it. Concurrent requests
+ * for the same import wait for the parser that is already loading it. Loaded extensions are frozen,
+ * so they are safe to use from any parser.
+ *
+ * <p>Since loading is shared, entries have to be invalidated explicitly when a loaded file changes,
+ * see {@link #invalidatePath(Path)}.
+ */
+public class SkylarkExtensionCache {
+
+  private static final Logger LOG = Logger.get(SkylarkExtensionCache.class);
+
+  private final Cache<LoadImport, ExtensionData> extensions = CacheBuilder.newBuilder().build();
+  private final Cache<LoadImport, IncludesData> includes = CacheBuilder.newBuilder().build();
+
+  /**
+   * Paths of all files which have been loaded by cached entries. Changes to any other file can't
+   * affect cached entries, which makes invalidation cheap for the vast majority of changes.
+   */
+  private final Set<String> loadedPaths = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @return the extension for {@code loadImport}, which is loaded by {@code loader} unless it is
+   *     already cached or being loaded by another parser.
+   */
+  ExtensionData getExtension(LoadImport loadImport, Callable<ExtensionData> loader)
+      throws ExecutionException {
+    return extensions.get(
+        loadImport,
+        () -> {
+          ExtensionData extensionData = loader.call();
+          loadedPaths.add(extensionData.getPath().toString());
+          return extensionData;
+        });
+  }
+
+  /**
+   * @return the includes for {@code loadImport}, which are loaded by {@code loader} unless they are
+   *     already cached or being loaded by another parser.
+   */
+  IncludesData getIncludes(LoadImport loadImport, Callable<IncludesData> loader)
+      throws ExecutionException {
+    return includes.get(
+        loadImport,
+        () -> {
+          IncludesData includesData = loader.call();
+          loadedPaths.add(includesData.getPath().toString());
+          return includesData;
+        });
+  }
+
+  /**
+   * Invalidates every entry which loads {@code path}, directly or transitively.
+   *
+   * @param path The absolute path of the file that has changed.
+   */
+  public void invalidatePath(Path path) {
+    String changedPath = path.toString();
+    if (!loadedPaths.contains(changedPath)) {
+      return;
+    }
+    LOG.debug("Invalidating Skylark extensions loading %s", changedPath);
+    for (Map.Entry<LoadImport, ExtensionData> entry : extensions.asMap().entrySet()) {
+      if (entry.getValue().getLoadTransitiveClosure().contains(changedPath)) {
+        extensions.invalidate(entry.getKey());
+      }
+    }
+    for (Map.Entry<LoadImport, IncludesData> entry : includes.asMap().entrySet()) {
+      if (entry.getValue().getLoadTransitiveClosure().contains(changedPath)) {
+        includes.invalidate(entry.getKey());
+      }
+    }
+  }
+
+  /** Invalidates all entries. */
+  public void invalidateAll() {
+    // loadedPaths is left alone, since it may be a superset of the paths of cached entries.
+    extensions.invalidateAll();
+    includes.invalidateAll();
+  }
+}
@@ -39,9 +39,6 @@ import com.facebook.buck.skylark.io.impl.CachingGlobber;
 import com.facebook.buck.skylark.packages.PackageContext;
 import com.facebook.buck.skylark.parser.context.ParseContext;
 import com.google.common.base.Throwables;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
@@ -74,6 +71,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -95,8 +93,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
   private final EventHandler eventHandler;
   private final BuckGlobals buckGlobals;
   private final GlobberFactory globberFactory;
-  private final LoadingCache<LoadImport, ExtensionData> extensionDataCache;
-  private final LoadingCache<LoadImport, IncludesData> includesDataCache;
+  private final SkylarkExtensionCache extensionCache;
   private final PackageImplicitIncludesFinder packageImplicitIncludeFinder;
 
   private SkylarkProjectBuildFileParser(
@@ -105,33 +102,15 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       FileSystem fileSystem,
       BuckGlobals buckGlobals,
       EventHandler eventHandler,
-      GlobberFactory globberFactory) {
+      GlobberFactory globberFactory,
+      SkylarkExtensionCache extensionCache) {
     this.options = options;
     this.buckEventBus = buckEventBus;
     this.fileSystem = fileSystem;
     this.eventHandler = eventHandler;
     this.buckGlobals = buckGlobals;
     this.globberFactory = globberFactory;
-
-    this.extensionDataCache =
-        CacheBuilder.newBuilder()
-            .build(
-                new CacheLoader<LoadImport, ExtensionData>() {
-                  @Override
-                  public ExtensionData load(@Nonnull LoadImport loadImport) throws Exception {
-                    return loadExtension(loadImport);
-                  }
-                });
-    this.includesDataCache =
-        CacheBuilder.newBuilder()
-            .build(
-                new CacheLoader<LoadImport, IncludesData>() {
-                  @Override
-                  public IncludesData load(LoadImport loadImport)
-                      throws IOException, InterruptedException {
-                    return loadInclude(loadImport);
-                  }
-                });
+    this.extensionCache = extensionCache;
 
     this.packageImplicitIncludeFinder =
         PackageImplicitIncludesFinder.fromConfiguration(options.getPackageImplicitIncludes());
@@ -145,8 +124,37 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       BuckGlobals buckGlobals,
       EventHandler eventHandler,
       GlobberFactory globberFactory) {
+    return using(
+        options,
+        buckEventBus,
+        fileSystem,
+        buckGlobals,
+        eventHandler,
+        globberFactory,
+        new SkylarkExtensionCache());
+  }
+
+  /**
+   * Create an instance of Skylark project build file parser using provided options, which loads
+   * extensions through {@code extensionCache}. The cache may be shared with other parsers of the
+   * same cell.
+   */
+  public static SkylarkProjectBuildFileParser using(
+      ProjectBuildFileParserOptions options,
+      BuckEventBus buckEventBus,
+      FileSystem fileSystem,
+      BuckGlobals buckGlobals,
+      EventHandler eventHandler,
+      GlobberFactory globberFactory,
+      SkylarkExtensionCache extensionCache) {
     return new SkylarkProjectBuildFileParser(
-        options, buckEventBus, fileSystem, buckGlobals, eventHandler, globberFactory);
+        options,
+        buckEventBus,
+        fileSystem,
+        buckGlobals,
+        eventHandler,
+        globberFactory,
+        extensionCache);
   }
 
   @Override
@@ -243,7 +251,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
 
     // Only export requested symbols, and ensure that all requsted symbols are present.
     ExtensionData data =
-        loadExtension(LoadImport.of(containingLabel, implicitInclude.get().getLoadPath()));
+        getCachedExtension(LoadImport.of(containingLabel, implicitInclude.get().getLoadPath()));
     ImmutableMap<String, Object> symbols = data.getExtension().getBindings();
     ImmutableMap<String, String> expectedSymbols = implicitInclude.get().getSymbols();
     Builder<String, Object> loaded = ImmutableMap.builderWithExpectedSize(expectedSymbols.size());
@@ -460,9 +468,9 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       if (!processed.add(skylarkImport)) continue;
       LoadImport loadImport = LoadImport.of(containingLabel, skylarkImport);
       try {
-        includes.add(includesDataCache.getUnchecked(loadImport));
-      } catch (UncheckedExecutionException e) {
-        propagateRootCause(e);
+        includes.add(extensionCache.getIncludes(loadImport, () -> loadInclude(loadImport)));
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        throw propagateRootCause(e);
       }
     }
     return includes.build();
@@ -496,27 +504,35 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       SkylarkImport skylarkImport = skylarkImports.get(i);
       // sometimes users include the same extension multiple times...
       if (!processed.add(skylarkImport)) continue;
-      LoadImport loadImport = LoadImport.of(containingLabel, skylarkImport);
-      try {
-        extensions.add(extensionDataCache.getUnchecked(loadImport));
-      } catch (UncheckedExecutionException e) {
-        propagateRootCause(e);
-      }
+      extensions.add(getCachedExtension(LoadImport.of(containingLabel, skylarkImport)));
     }
     return extensions.build();
   }
 
+  /** @return the extension for {@code loadImport}, loading it only if it is not cached yet. */
+  private ExtensionData getCachedExtension(LoadImport loadImport)
+      throws BuildFileParseException, IOException, InterruptedException {
+    try {
+      return extensionCache.getExtension(loadImport, () -> loadExtension(loadImport));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw propagateRootCause(e);
+    }
+  }
+
   /**
-   * Propagates underlying parse exception from {@link UncheckedExecutionException}.
+   * Propagates underlying parse exception from a failed extension or include load.
    *
-   * <p>This is an unfortunate consequence of having to use {@link
-   * LoadingCache#getUnchecked(Object)} in when using stream transformations :(
+   * <p>This is an unfortunate consequence of loading extensions through a {@link
+   * com.google.common.cache.Cache}, which wraps exceptions thrown by loaders :(
    *
    * <p>TODO(ttsugrii): the logic of extracting root causes to make them user-friendly should be
    * happening somewhere in {@link com.facebook.buck.cli.Main#main(String[])}, since this behavior
    * is not unique to parsing.
+   *
+   * @return an unchecked exception to throw if the root cause isn't a parse, I/O or interruption
+   *     error.
    */
-  private void propagateRootCause(UncheckedExecutionException e)
+  private RuntimeException propagateRootCause(Exception e)
       throws IOException, InterruptedException {
     Throwable rootCause = Throwables.getRootCause(e);
     if (rootCause instanceof BuildFileParseException) {
@@ -528,7 +544,8 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
     if (rootCause instanceof InterruptedException) {
       throw (InterruptedException) rootCause;
     }
-    throw e;
+    Throwables.throwIfUnchecked(e);
+    return new RuntimeException(e);
   }
 
   /**
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import javax.annotation.Nullable;
+
+/** Receives the elements of a BSER array, see {@link BserValueVisitor#visitArray(int)}. */
+public interface BserArrayVisitor {
+
+  /** @return the visitor of the next element, or {@code null} to skip it. */
+  @Nullable
+  BserValueVisitor visitElement();
+
+  /** Called once all elements have been visited. */
+  default void visitEnd() {}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import javax.annotation.Nullable;
+
+/**
+ * Receives the fields of a BSER object, see {@link BserValueVisitor#visitObject(int)}.
+ *
+ * <p>Fields are visited in the order in which they were encoded, and fields which a template
+ * skips for a particular object are not visited.
+ */
+public interface BserObjectVisitor {
+
+  /**
+   * @return the visitor of the value of the field named {@code key}, or {@code null} to skip it.
+   */
+  @Nullable
+  BserValueVisitor visitField(String key);
+
+  /** Called once all fields have been visited. */
+  default void visitEnd() {}
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import static com.facebook.buck.util.bser.BserConstants.BSER_ARRAY;
+import static com.facebook.buck.util.bser.BserConstants.BSER_FALSE;
+import static com.facebook.buck.util.bser.BserConstants.BSER_INT16;
+import static com.facebook.buck.util.bser.BserConstants.BSER_INT32;
+import static com.facebook.buck.util.bser.BserConstants.BSER_INT64;
+import static com.facebook.buck.util.bser.BserConstants.BSER_INT8;
+import static com.facebook.buck.util.bser.BserConstants.BSER_NULL;
+import static com.facebook.buck.util.bser.BserConstants.BSER_OBJECT;
+import static com.facebook.buck.util.bser.BserConstants.BSER_REAL;
+import static com.facebook.buck.util.bser.BserConstants.BSER_SKIP;
+import static com.facebook.buck.util.bser.BserConstants.BSER_STRING;
+import static com.facebook.buck.util.bser.BserConstants.BSER_TEMPLATE;
+import static com.facebook.buck.util.bser.BserConstants.BSER_TRUE;
+
+import com.facebook.buck.util.bser.BserDeserializer.BserEofException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
+
+/**
+ * Decoder for the BSER binary JSON format used by the Watchman service, which hands values to a
+ * {@link BserValueVisitor} as they are read:
+ *
+ * <p>https://facebook.github.io/watchman/docs/bser.html
+ *
+ * <p>Unlike {@link BserDeserializer}, it reads the stream through a buffer of a fixed size instead
+ * of reading the whole value into memory first, and it only creates the objects that the visitor
+ * asks for. Values which the visitor skips are not decoded at all, and the keys of objects and
+ * templates are decoded once for all objects which use them.
+ *
+ * <p>Instances keep state between values, so they must not be used by several threads at once.
+ */
+public class BserStreamingDeserializer {
+
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  // 2 bytes marker, 1 byte int size, up to 8 bytes int64 value
+  private static final int MIN_BUFFER_SIZE = 11;
+
+  // 2 bytes marker, 1 byte int size
+  private static final int INITIAL_SNIFF_LEN = 3;
+
+  private static final int KEY_CACHE_SIZE = 256;
+  private static final int MAX_CACHED_KEY_LENGTH = 64;
+
+  private final CharsetDecoder utf8Decoder;
+  private ByteBuffer buffer;
+  private CharBuffer chars = CharBuffer.allocate(256);
+
+  /** Keys of objects which have been decoded recently, along with their encoded bytes. */
+  private final byte[][] cachedKeyBytes = new byte[KEY_CACHE_SIZE][];
+
+  private final String[] cachedKeys = new String[KEY_CACHE_SIZE];
+
+  @Nullable private InputStream inputStream;
+
+  /** Number of bytes of the current value which have not been read from the stream yet. */
+  private long unreadLength;
+
+  public BserStreamingDeserializer() {
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  @VisibleForTesting
+  BserStreamingDeserializer(int bufferSize) {
+    Preconditions.checkArgument(bufferSize >= MIN_BUFFER_SIZE);
+    this.buffer = ByteBuffer.allocate(bufferSize).order(ByteOrder.nativeOrder());
+    this.utf8Decoder =
+        StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT);
+  }
+
+  /**
+   * Deserializes the next BSER-encoded value from the stream, handing it to {@code visitor}.
+   *
+   * <p>Exactly the bytes of the value are read from the stream, so the stream can be used for
+   * further values afterwards, even if the visitor skips parts of this one.
+   */
+  public void deserialize(InputStream inputStream, BserValueVisitor visitor) throws IOException {
+    this.inputStream = inputStream;
+    buffer.clear().limit(0);
+    unreadLength = INITIAL_SNIFF_LEN;
+    try {
+      int sniffBytesRead = fill(INITIAL_SNIFF_LEN);
+      if (sniffBytesRead < INITIAL_SNIFF_LEN) {
+        throw new BserEofException(
+            String.format(
+                "Invalid BSER header (expected %d bytes, got %d bytes)",
+                INITIAL_SNIFF_LEN, sniffBytesRead));
+      }
+      if (buffer.get() != 0x00 || buffer.get() != 0x01) {
+        throw new IOException("Invalid BSER header");
+      }
+      byte lengthType = buffer.get();
+      int lengthSize = intSize(lengthType);
+      unreadLength += lengthSize;
+      int lengthBytesRead = fill(lengthSize);
+      if (lengthBytesRead < lengthSize) {
+        throw new BserEofException(
+            String.format(
+                "Invalid BSER header length (expected %d bytes, got %d bytes)",
+                lengthSize, lengthBytesRead));
+      }
+      unreadLength += checkLength(readInt(lengthType));
+
+      visitValue(readType(), visitor);
+
+      // Nothing should be left of a valid value, but it must not be mistaken for the next one.
+      skip(buffer.remaining() + unreadLength);
+    } finally {
+      this.inputStream = null;
+    }
+  }
+
+  /**
+   * Reads from the stream until at least {@code length} bytes are available in the buffer, but not
+   * beyond the end of the current value.
+   *
+   * @return the number of bytes available, which is less than {@code length} only if the stream
+   *     ended prematurely.
+   */
+  private int fill(int length) throws IOException {
+    if (buffer.remaining() >= length) {
+      return buffer.remaining();
+    }
+    buffer.compact();
+    if (buffer.capacity() < length) {
+      buffer.flip();
+      buffer =
+          ByteBuffer.allocate(Math.max(length, 2 * buffer.capacity()))
+              .order(ByteOrder.nativeOrder())
+              .put(buffer);
+    }
+    try {
+      while (buffer.position() < length && unreadLength > 0) {
+        int bytesRead =
+            Preconditions.checkNotNull(inputStream)
+                .read(
+                    buffer.array(),
+                    buffer.arrayOffset() + buffer.position(),
+                    (int) Math.min(buffer.remaining(), unreadLength));
+        if (bytesRead < 0) {
+          break;
+        }
+        buffer.position(buffer.position() + bytesRead);
+        unreadLength -= bytesRead;
+      }
+    } finally {
+      buffer.flip();
+    }
+    return buffer.remaining();
+  }
+
+  private void ensure(int length) throws IOException {
+    if (fill(length) < length) {
+      throw new BserEofException("Prematurely reached end of BSER buffer");
+    }
+  }
+
+  private void skip(long length) throws IOException {
+    while (length > 0) {
+      if (!buffer.hasRemaining()) {
+        ensure(1);
+      }
+      int skipped = (int) Math.min(length, buffer.remaining());
+      buffer.position(buffer.position() + skipped);
+      length -= skipped;
+    }
+  }
+
+  private byte readType() throws IOException {
+    ensure(1);
+    return buffer.get();
+  }
+
+  private static int intSize(byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        return 1;
+      case BSER_INT16:
+        return 2;
+      case BSER_INT32:
+        return 4;
+      case BSER_INT64:
+        return 8;
+      default:
+        throw new IOException(String.format("Invalid BSER number encoding %d", type));
+    }
+  }
+
+  private long readInt(byte type) throws IOException {
+    ensure(intSize(type));
+    switch (type) {
+      case BSER_INT8:
+        return buffer.get();
+      case BSER_INT16:
+        return buffer.getShort();
+      case BSER_INT32:
+        return buffer.getInt();
+      default:
+        return buffer.getLong();
+    }
+  }
+
+  private static int checkLength(long value) throws IOException {
+    if (value > Integer.MAX_VALUE) {
+      throw new IOException(
+          String.format("BSER length out of range (%d > %d)", value, Integer.MAX_VALUE));
+    } else if (value < 0) {
+      throw new IOException(String.format("BSER length out of range (%d < 0)", value));
+    }
+    return (int) value;
+  }
+
+  private int readLength() throws IOException {
+    return checkLength(readInt(readType()));
+  }
+
+  private String readString() throws IOException {
+    int length = readLength();
+    ensure(length);
+    return decodeString(length);
+  }
+
+  /** Decodes a string from the next {@code length} bytes, which must be in the buffer. */
+  private String decodeString(int length) throws IOException {
+    byte[] bytes = buffer.array();
+    int offset = buffer.arrayOffset() + buffer.position();
+    boolean isAscii = true;
+    for (int i = offset; i < offset + length; i++) {
+      if (bytes[i] < 0) {
+        isAscii = false;
+        break;
+      }
+    }
+    if (isAscii) {
+      buffer.position(buffer.position() + length);
+      return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+    }
+
+    // We use a CharsetDecoder here instead of String(byte[], Charset)
+    // because we want it to throw an exception for any non-UTF-8 input.
+    if (chars.capacity() < length) {
+      chars = CharBuffer.allocate(length);
+    }
+    int limit = buffer.limit();
+    buffer.limit(buffer.position() + length);
+    try {
+      utf8Decoder.reset();
+      CoderResult result = utf8Decoder.decode(buffer, chars, true);
+      if (!result.isUnderflow()) {
+        result.throwException();
+      }
+      result = utf8Decoder.flush(chars);
+      if (!result.isUnderflow()) {
+        result.throwException();
+      }
+      chars.flip();
+      return chars.toString();
+    } finally {
+      buffer.limit(limit);
+      chars.clear();
+    }
+  }
+
+  private String readKey() throws IOException {
+    byte stringType = readType();
+    if (stringType != BSER_STRING) {
+      throw new IOException(
+          String.format("Unrecognized BSER object key type %d, expected string", stringType));
+    }
+    int length = readLength();
+    ensure(length);
+    if (length > MAX_CACHED_KEY_LENGTH) {
+      return decodeString(length);
+    }
+    byte[] bytes = buffer.array();
+    int offset = buffer.arrayOffset() + buffer.position();
+    int hash = length;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+    byte[] cachedBytes = cachedKeyBytes[slot];
+    if (cachedBytes != null && cachedBytes.length == length) {
+      boolean matches = true;
+      for (int i = 0; i < length; i++) {
+        if (cachedBytes[i] != bytes[offset + i]) {
+          matches = false;
+          break;
+        }
+      }
+      if (matches) {
+        buffer.position(buffer.position() + length);
+        return cachedKeys[slot];
+      }
+    }
+    byte[] keyBytes = new byte[length];
+    System.arraycopy(bytes, offset, keyBytes, 0, length);
+    String key = decodeString(length);
+    cachedKeyBytes[slot] = keyBytes;
+    cachedKeys[slot] = key;
+    return key;
+  }
+
+  private void skipKey() throws IOException {
+    byte stringType = readType();
+    if (stringType != BSER_STRING) {
+      throw new IOException(
+          String.format("Unrecognized BSER object key type %d, expected string", stringType));
+    }
+    skip(readLength());
+  }
+
+  /** Decodes a value of the given type, or skips it if {@code visitor} is {@code null}. */
+  private void visitValue(byte type, @Nullable BserValueVisitor visitor) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+      case BSER_INT16:
+      case BSER_INT32:
+      case BSER_INT64:
+        long value = readInt(type);
+        if (visitor != null) {
+          visitor.visitLong(value);
+        }
+        break;
+      case BSER_REAL:
+        ensure(8);
+        double realValue = buffer.getDouble();
+        if (visitor != null) {
+          visitor.visitDouble(realValue);
+        }
+        break;
+      case BSER_TRUE:
+      case BSER_FALSE:
+        if (visitor != null) {
+          visitor.visitBoolean(type == BSER_TRUE);
+        }
+        break;
+      case BSER_NULL:
+        if (visitor != null) {
+          visitor.visitNull();
+        }
+        break;
+      case BSER_STRING:
+        if (visitor != null) {
+          visitor.visitString(readString());
+        } else {
+          skip(readLength());
+        }
+        break;
+      case BSER_ARRAY:
+        visitArray(visitor);
+        break;
+      case BSER_OBJECT:
+        visitObject(visitor);
+        break;
+      case BSER_TEMPLATE:
+        visitTemplate(visitor);
+        break;
+      default:
+        throw new IOException(String.format("Unrecognized BSER value type %d", type));
+    }
+  }
+
+  private void visitArray(@Nullable BserValueVisitor visitor) throws IOException {
+    int numItems = readLength();
+    BserArrayVisitor arrayVisitor = visitor == null ? null : visitor.visitArray(numItems);
+    for (int i = 0; i < numItems; i++) {
+      byte type = readType();
+      visitValue(type, arrayVisitor == null ? null : arrayVisitor.visitElement());
+    }
+    if (arrayVisitor != null) {
+      arrayVisitor.visitEnd();
+    }
+  }
+
+  private void visitObject(@Nullable BserValueVisitor visitor) throws IOException {
+    int numItems = readLength();
+    BserObjectVisitor objectVisitor = visitor == null ? null : visitor.visitObject(numItems);
+    for (int i = 0; i < numItems; i++) {
+      BserValueVisitor fieldVisitor;
+      if (objectVisitor == null) {
+        skipKey();
+        fieldVisitor = null;
+      } else {
+        fieldVisitor = objectVisitor.visitField(readKey());
+      }
+      visitValue(readType(), fieldVisitor);
+    }
+    if (objectVisitor != null) {
+      objectVisitor.visitEnd();
+    }
+  }
+
+  private void visitTemplate(@Nullable BserValueVisitor visitor) throws IOException {
+    byte arrayType = readType();
+    if (arrayType != BSER_ARRAY) {
+      throw new IOException(String.format("Expected ARRAY to follow TEMPLATE, got %d", arrayType));
+    }
+    String[] keys = new String[readLength()];
+    for (int keyIdx = 0; keyIdx < keys.length; keyIdx++) {
+      keys[keyIdx] = readKey();
+    }
+    int numItems = readLength();
+    BserArrayVisitor arrayVisitor = visitor == null ? null : visitor.visitArray(numItems);
+    for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+      BserValueVisitor elementVisitor = arrayVisitor == null ? null : arrayVisitor.visitElement();
+      BserObjectVisitor objectVisitor =
+          elementVisitor == null ? null : elementVisitor.visitObject(keys.length);
+      for (String key : keys) {
+        byte keyValueType = readType();
+        if (keyValueType != BSER_SKIP) {
+          visitValue(keyValueType, objectVisitor == null ? null : objectVisitor.visitField(key));
+        }
+      }
+      if (objectVisitor != null) {
+        objectVisitor.visitEnd();
+      }
+    }
+    if (arrayVisitor != null) {
+      arrayVisitor.visitEnd();
+    }
+  }
+}
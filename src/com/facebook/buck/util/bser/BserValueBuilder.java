@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Builds the value it visits in the form returned by {@link BserDeserializer} with {@link
+ * BserDeserializer.KeyOrdering#UNSORTED}, except that all integers are {@link Long}s.
+ *
+ * <p>This is meant for the small parts of a value which are not worth a visitor of their own.
+ */
+public class BserValueBuilder implements BserValueVisitor {
+
+  @Nullable private Object value;
+
+  /** @return the visited value, which is only complete once the whole value has been visited. */
+  @Nullable
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  public void visitNull() {
+    value = null;
+  }
+
+  @Override
+  public void visitBoolean(boolean value) {
+    this.value = value;
+  }
+
+  @Override
+  public void visitLong(long value) {
+    this.value = value;
+  }
+
+  @Override
+  public void visitDouble(double value) {
+    this.value = value;
+  }
+
+  @Override
+  public void visitString(String value) {
+    this.value = value;
+  }
+
+  @Override
+  public BserArrayVisitor visitArray(int size) {
+    List<Object> list = new ArrayList<>(size);
+    value = list;
+    return new BserArrayVisitor() {
+      @Nullable private BserValueBuilder element;
+
+      @Override
+      public BserValueVisitor visitElement() {
+        addElement();
+        element = new BserValueBuilder();
+        return element;
+      }
+
+      @Override
+      public void visitEnd() {
+        addElement();
+      }
+
+      private void addElement() {
+        if (element != null) {
+          list.add(element.getValue());
+          element = null;
+        }
+      }
+    };
+  }
+
+  @Override
+  public BserObjectVisitor visitObject(int size) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    value = map;
+    return new BserObjectVisitor() {
+      @Nullable private String key;
+      @Nullable private BserValueBuilder field;
+
+      @Override
+      public BserValueVisitor visitField(String key) {
+        putField();
+        this.key = key;
+        field = new BserValueBuilder();
+        return field;
+      }
+
+      @Override
+      public void visitEnd() {
+        putField();
+      }
+
+      private void putField() {
+        if (field != null) {
+          map.put(key, field.getValue());
+          field = null;
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Receives a BSER value from {@link BserStreamingDeserializer} as it is decoded.
+ *
+ * <p>All methods do nothing by default, so implementations only have to handle the types they
+ * expect. Arrays and objects are skipped unless a visitor for their contents is returned, and
+ * skipped values are not decoded at all.
+ */
+public interface BserValueVisitor {
+
+  default void visitNull() {}
+
+  default void visitBoolean(@SuppressWarnings("unused") boolean value) {}
+
+  default void visitLong(@SuppressWarnings("unused") long value) {}
+
+  default void visitDouble(@SuppressWarnings("unused") double value) {}
+
+  default void visitString(@SuppressWarnings("unused") String value) {}
+
+  /**
+   * Called for arrays, and for templates, which are visited as arrays of objects.
+   *
+   * @param size The number of elements of the array.
+   * @return the visitor of the elements, or {@code null} to skip them.
+   */
+  @Nullable
+  default BserArrayVisitor visitArray(int size) {
+    return null;
+  }
+
+  /**
+   * @param size The number of fields of the object. For the objects of a template, this is the
+   *     number of keys of the template, which may be more than the number of fields visited.
+   * @return the visitor of the fields, or {@code null} to skip them.
+   */
+  @Nullable
+  default BserObjectVisitor visitObject(int size) {
+    return null;
+  }
+
+  /**
+   * Visits a value in the form returned by {@link BserDeserializer}, as if it had been decoded by
+   * {@link BserStreamingDeserializer}.
+   */
+  static void replay(@Nullable Object value, BserValueVisitor visitor) {
+    if (value == null) {
+      visitor.visitNull();
+    } else if (value instanceof Boolean) {
+      visitor.visitBoolean((Boolean) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      visitor.visitDouble(((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      visitor.visitLong(((Number) value).longValue());
+    } else if (value instanceof String) {
+      visitor.visitString((String) value);
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      BserArrayVisitor arrayVisitor = visitor.visitArray(list.size());
+      if (arrayVisitor != null) {
+        for (Object element : list) {
+          BserValueVisitor elementVisitor = arrayVisitor.visitElement();
+          if (elementVisitor != null) {
+            replay(element, elementVisitor);
+          }
+        }
+        arrayVisitor.visitEnd();
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      BserObjectVisitor objectVisitor = visitor.visitObject(map.size());
+      if (objectVisitor != null) {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          BserValueVisitor fieldVisitor = objectVisitor.visitField((String) entry.getKey());
+          if (fieldVisitor != null) {
+            replay(entry.getValue(), fieldVisitor);
+          }
+        }
+        objectVisitor.visitEnd();
+      }
+    } else {
+      throw new IllegalArgumentException("Not a BSER value: " + value);
+    }
+  }
+}
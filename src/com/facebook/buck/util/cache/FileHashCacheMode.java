@@ -22,6 +22,11 @@ public enum FileHashCacheMode {
   PREFIX_TREE,
   LIMITED_PREFIX_TREE,
   LIMITED_PREFIX_TREE_PARALLEL,
-  PARALLEL_COMPARISON;
+  PARALLEL_COMPARISON,
+  /**
+   * Same as {@link #PREFIX_TREE}, but the file hashes of cell caches are also stored in buck-out,
+   * so that they don't have to be recomputed after the daemon restarts.
+   */
+  PERSISTENT_PREFIX_TREE;
   public static final FileHashCacheMode DEFAULT = PREFIX_TREE;
 }
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.util.cache.impl;
 
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.AbstractBuckEvent;
 import com.facebook.buck.io.ArchiveMemberPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
@@ -24,6 +25,7 @@ import com.facebook.buck.util.cache.FileHashCacheEngine;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.FileHashCacheVerificationResult;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarContentHasher;
 import com.facebook.buck.util.cache.JarHashCodeAndFileType;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.hashing.PathHashing;
@@ -36,6 +38,7 @@ import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
@@ -44,9 +47,12 @@ import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 public class DefaultFileHashCache implements ProjectFileHashCache {
 
+  private static final Logger LOG = Logger.get(DefaultFileHashCache.class);
+
   private static final boolean SHOULD_CHECK_IGNORED_PATHS =
       Boolean.getBoolean("buck.DefaultFileHashCache.check_ignored_paths");
 
@@ -54,12 +60,30 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   private final Predicate<Path> ignoredPredicate;
 
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
+  @Nullable private final PersistentFileHashStore persistentStore;
 
   protected DefaultFileHashCache(
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, false);
+  }
+
+  /**
+   * @param persistHashes whether file hashes should be kept in buck-out across processes when
+   *     {@link FileHashCacheMode#PERSISTENT_PREFIX_TREE} is used. Only one cache per filesystem
+   *     should do this.
+   */
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      boolean persistHashes) {
     this.projectFilesystem = projectFilesystem;
+    this.persistentStore =
+        persistHashes && fileHashCacheMode == FileHashCacheMode.PERSISTENT_PREFIX_TREE
+            ? openPersistentStore(projectFilesystem)
+            : null;
     this.ignoredPredicate = ignoredPredicate;
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
@@ -104,6 +128,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
         fileHashCacheEngine = LoadingCacheFileHashCache.createWithStats(hashLoader, sizeLoader);
         break;
       case PREFIX_TREE:
+      case PERSISTENT_PREFIX_TREE:
         fileHashCacheEngine =
             FileSystemMapFileHashCache.createWithStats(hashLoader, sizeLoader, projectFilesystem);
         break;
@@ -128,6 +153,22 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     }
   }
 
+  @Nullable
+  private static PersistentFileHashStore openPersistentStore(ProjectFilesystem projectFilesystem) {
+    Path storePath =
+        projectFilesystem.resolve(
+            projectFilesystem
+                .getBuckPaths()
+                .getBuckOut()
+                .resolve(PersistentFileHashStore.FILE_NAME));
+    try {
+      return PersistentFileHashStore.open(storePath);
+    } catch (IOException | UnsupportedOperationException e) {
+      LOG.warn(e, "Failed to open file hash store at %s, hashes will not be persisted.", storePath);
+      return null;
+    }
+  }
+
   public static DefaultFileHashCache createBuckOutFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
     return new DefaultFileHashCache(
@@ -197,15 +238,32 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     if (projectFilesystem.isDirectory(path)) {
       return getDirHashCode(path);
     } else if (path.toString().endsWith(".jar")) {
-      return JarHashCodeAndFileType.ofArchive(
-          getFileHashCode(path), new DefaultJarContentHasher(projectFilesystem, path));
+      return JarHashCodeAndFileType.ofArchive(getFileHashCode(path), createJarContentHasher(path));
     }
 
     return HashCodeAndFileType.ofFile(getFileHashCode(path));
   }
 
+  private JarContentHasher createJarContentHasher(Path jarRelativePath) {
+    JarContentHasher hasher = new DefaultJarContentHasher(projectFilesystem, jarRelativePath);
+    if (persistentStore == null) {
+      return hasher;
+    }
+    return new PersistentJarContentHasher(projectFilesystem, hasher, persistentStore);
+  }
+
   private HashCode getFileHashCode(Path path) throws IOException {
-    return projectFilesystem.computeSha1(path).asHashCode();
+    if (persistentStore == null) {
+      return projectFilesystem.computeSha1(path).asHashCode();
+    }
+    BasicFileAttributes attributes =
+        projectFilesystem.readAttributes(path, BasicFileAttributes.class);
+    HashCode hashCode = persistentStore.get(path, attributes);
+    if (hashCode == null) {
+      hashCode = projectFilesystem.computeSha1(path).asHashCode();
+      persistentStore.put(path, attributes, hashCode);
+    }
+    return hashCode;
   }
 
   private long getPathSize(Path path) throws IOException {
@@ -300,8 +358,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       value =
           JarHashCodeAndFileType.ofArchive(
               hashCode,
-              new DefaultJarContentHasher(
-                  projectFilesystem,
+              createJarContentHasher(
                   projectFilesystem.getPathRelativeToProjectRoot(relativePath).get()));
     } else {
       value = HashCodeAndFileType.ofFile(hashCode);
@@ -344,4 +401,14 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   public List<AbstractBuckEvent> getStatsEvents() {
     return fileHashCacheEngine.getStatsEvents();
   }
+
+  /**
+   * Closes the store the hashes are persisted in, if any. The cache keeps working, but hashes
+   * computed afterwards are no longer persisted.
+   */
+  public void closePersistentStore() throws IOException {
+    if (persistentStore != null) {
+      persistentStore.close();
+    }
+  }
 }
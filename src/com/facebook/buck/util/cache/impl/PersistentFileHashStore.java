@@ -0,0 +1,380 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * File hashes stored on disk so that they outlive the process which computed them.
+ *
+ * <p>Besides the hashes of files, the store keeps the hashes of the entries of jars, which are
+ * otherwise read from the jar manifests. Each value is stored with the size, modification time and
+ * file key (the inode on most platforms) the file had when it was hashed, and is only handed out
+ * while the file still has those attributes.
+ *
+ * <p>The store is an append-only log which is memory-mapped and replayed into memory when it is
+ * opened, and compacted when it holds too many superseded records. Lookups by path need an index
+ * anyway, and the records are small, so the log is not kept mapped.
+ *
+ * <p>Only one process writes to a store at a time. Other processes which open the same store can
+ * read the hashes it held when they opened it, but don't add to it.
+ */
+class PersistentFileHashStore implements Closeable {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashStore.class);
+
+  static final String FILE_NAME = "file_hash_cache";
+
+  private static final int MAGIC = 0x42464843;
+  private static final int VERSION = 2;
+
+  private static final byte KIND_FILE_HASH = 0;
+  private static final byte KIND_JAR_CONTENTS = 1;
+  private static final int HEADER_BYTES = 8;
+
+  // Files modified this recently might still change without changing their modification time,
+  // so their hashes are not stored.
+  private static final long RACY_WINDOW_MILLIS = 2000;
+
+  // Compact the log once it holds this many records per live entry.
+  private static final int COMPACTION_RATIO = 2;
+  private static final int MIN_RECORDS_BEFORE_COMPACTION = 1024;
+
+  private final Path storePath;
+  private final Map<String, Entry<HashCode>> fileHashes = new ConcurrentHashMap<>();
+  private final Map<String, Entry<ImmutableMap<String, HashCode>>> jarContents =
+      new ConcurrentHashMap<>();
+  @Nullable private FileChannel lockChannel;
+  @Nullable private FileLock lock;
+  @Nullable private FileChannel log;
+  private long recordsInLog = 0;
+
+  private PersistentFileHashStore(Path storePath) {
+    this.storePath = storePath;
+  }
+
+  /**
+   * Opens the store at {@code storePath}, creating it if needed. The store is opened read-only if
+   * another process is writing to it.
+   */
+  static PersistentFileHashStore open(Path storePath) throws IOException {
+    PersistentFileHashStore store = new PersistentFileHashStore(storePath);
+    Files.createDirectories(storePath.getParent());
+    store.lockChannel =
+        FileChannel.open(
+            storePath.resolveSibling(FILE_NAME + ".lock"),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+    try {
+      store.lock = store.lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      store.lock = null;
+    }
+    if (Files.exists(storePath)) {
+      store.replay();
+    }
+    if (store.lock == null) {
+      LOG.debug("%s is in use by another process, opening it read-only.", storePath);
+      store.lockChannel.close();
+      store.lockChannel = null;
+      return store;
+    }
+    // Start from a compacted log, this also drops any torn record left by a crash.
+    store.compact();
+    return store;
+  }
+
+  /**
+   * @return the stored hash of the file, or {@code null} if there is none or the file has changed
+   *     since it was stored.
+   */
+  @Nullable
+  HashCode get(Path path, BasicFileAttributes attributes) {
+    return get(fileHashes, path, attributes);
+  }
+
+  /**
+   * @return the stored hashes of the entries of the jar, or {@code null} if there are none or the
+   *     jar has changed since they were stored.
+   */
+  @Nullable
+  ImmutableMap<String, HashCode> getJarContents(Path path, BasicFileAttributes attributes) {
+    return get(jarContents, path, attributes);
+  }
+
+  @Nullable
+  private static <V> V get(
+      Map<String, Entry<V>> entries, Path path, BasicFileAttributes attributes) {
+    Entry<V> entry = entries.get(path.toString());
+    if (entry == null || !entry.matches(attributes)) {
+      return null;
+    }
+    return entry.value;
+  }
+
+  /** Stores the hash of a file which had the given attributes when it was hashed. */
+  synchronized void put(Path path, BasicFileAttributes attributes, HashCode hashCode)
+      throws IOException {
+    put(KIND_FILE_HASH, fileHashes, path, attributes, hashCode);
+  }
+
+  /** Stores the hashes of the entries of a jar which had the given attributes when it was read. */
+  synchronized void putJarContents(
+      Path path, BasicFileAttributes attributes, ImmutableMap<String, HashCode> contents)
+      throws IOException {
+    put(KIND_JAR_CONTENTS, jarContents, path, attributes, contents);
+  }
+
+  private <V> void put(
+      byte kind, Map<String, Entry<V>> entries, Path path, BasicFileAttributes attributes, V value)
+      throws IOException {
+    if (log == null
+        || !attributes.isRegularFile()
+        || System.currentTimeMillis() - attributes.lastModifiedTime().toMillis()
+            < RACY_WINDOW_MILLIS) {
+      return;
+    }
+    String key = path.toString();
+    Entry<V> entry =
+        new Entry<>(
+            attributes.size(),
+            attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+            String.valueOf(attributes.fileKey()),
+            value);
+    if (entry.equals(entries.put(key, entry))) {
+      return;
+    }
+    write(log, encode(kind, key, entry));
+    recordsInLog++;
+    if (recordsInLog > MIN_RECORDS_BEFORE_COMPACTION
+        && recordsInLog > (long) COMPACTION_RATIO * size()) {
+      compact();
+    }
+  }
+
+  @VisibleForTesting
+  int size() {
+    return fileHashes.size() + jarContents.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      if (log != null) {
+        log.close();
+        log = null;
+      }
+    } finally {
+      if (lockChannel != null) {
+        // Closing the channel releases the lock.
+        lockChannel.close();
+        lockChannel = null;
+        lock = null;
+      }
+    }
+  }
+
+  private void replay() throws IOException {
+    try (FileChannel channel = FileChannel.open(storePath, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < HEADER_BYTES
+          || buffer.getInt() != MAGIC
+          || buffer.getInt() != VERSION) {
+        LOG.debug("Ignoring %s, it was written by a different version.", storePath);
+        return;
+      }
+      while (buffer.remaining() >= Integer.BYTES) {
+        int length = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+          LOG.warn("Ignoring truncated record at the end of %s.", storePath);
+          break;
+        }
+        ByteBuffer record = buffer.slice();
+        record.limit(length);
+        buffer.position(buffer.position() + length);
+        try {
+          byte kind = record.get();
+          String key = readString(record);
+          long size = record.getLong();
+          long lastModifiedNanos = record.getLong();
+          String fileKey = readString(record);
+          if (kind == KIND_FILE_HASH) {
+            fileHashes.put(
+                key, new Entry<>(size, lastModifiedNanos, fileKey, readHashCode(record)));
+          } else if (kind == KIND_JAR_CONTENTS) {
+            ImmutableMap.Builder<String, HashCode> contents = ImmutableMap.builder();
+            for (int count = record.getInt(); count > 0; count--) {
+              contents.put(readString(record), readHashCode(record));
+            }
+            jarContents.put(
+                key, new Entry<>(size, lastModifiedNanos, fileKey, contents.build()));
+          } else {
+            LOG.warn("Ignoring record of unknown kind in %s.", storePath);
+          }
+        } catch (BufferUnderflowException
+            | IllegalArgumentException
+            | NegativeArraySizeException e) {
+          LOG.warn("Ignoring malformed record in %s.", storePath);
+        }
+      }
+    }
+  }
+
+  private void compact() throws IOException {
+    if (log != null) {
+      log.close();
+      log = null;
+    }
+    Path tmpPath = storePath.resolveSibling(FILE_NAME + ".tmp");
+    try (FileChannel out =
+        FileChannel.open(
+            tmpPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+      header.flip();
+      out.write(header);
+      for (Map.Entry<String, Entry<HashCode>> entry : fileHashes.entrySet()) {
+        write(out, encode(KIND_FILE_HASH, entry.getKey(), entry.getValue()));
+      }
+      for (Map.Entry<String, Entry<ImmutableMap<String, HashCode>>> entry :
+          jarContents.entrySet()) {
+        write(out, encode(KIND_JAR_CONTENTS, entry.getKey(), entry.getValue()));
+      }
+    }
+    Files.move(tmpPath, storePath, StandardCopyOption.REPLACE_EXISTING);
+    recordsInLog = size();
+    log = FileChannel.open(storePath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private static void write(FileChannel channel, ByteBuffer record) throws IOException {
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+  }
+
+  private static ByteBuffer encode(byte kind, String key, Entry<?> entry) {
+    ByteArrayDataOutput output = ByteStreams.newDataOutput();
+    output.writeByte(kind);
+    writeString(output, key);
+    output.writeLong(entry.size);
+    output.writeLong(entry.lastModifiedNanos);
+    writeString(output, entry.fileKey);
+    if (entry.value instanceof HashCode) {
+      writeHashCode(output, (HashCode) entry.value);
+    } else {
+      Map<?, ?> contents = (Map<?, ?>) entry.value;
+      output.writeInt(contents.size());
+      for (Map.Entry<?, ?> member : contents.entrySet()) {
+        writeString(output, (String) member.getKey());
+        writeHashCode(output, (HashCode) member.getValue());
+      }
+    }
+    byte[] bytes = output.toByteArray();
+    ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+    record.putInt(bytes.length).put(bytes);
+    record.flip();
+    return record;
+  }
+
+  private static void writeString(ByteArrayDataOutput output, String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static void writeHashCode(ByteArrayDataOutput output, HashCode hashCode) {
+    byte[] bytes = hashCode.asBytes();
+    output.writeByte(bytes.length);
+    output.write(bytes);
+  }
+
+  private static HashCode readHashCode(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.get() & 0xff];
+    buffer.get(bytes);
+    return HashCode.fromBytes(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class Entry<V> {
+    private final long size;
+    private final long lastModifiedNanos;
+    private final String fileKey;
+    private final V value;
+
+    private Entry(long size, long lastModifiedNanos, String fileKey, V value) {
+      this.size = size;
+      this.lastModifiedNanos = lastModifiedNanos;
+      this.fileKey = fileKey;
+      this.value = value;
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return attributes.isRegularFile()
+          && size == attributes.size()
+          && lastModifiedNanos == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+          && fileKey.equals(String.valueOf(attributes.fileKey()));
+    }
+
+    @Override
+    public boolean equals(@Nullable Object other) {
+      if (!(other instanceof Entry)) {
+        return false;
+      }
+      Entry<?> that = (Entry<?>) other;
+      return size == that.size
+          && lastModifiedNanos == that.lastModifiedNanos
+          && fileKey.equals(that.fileKey)
+          && value.equals(that.value);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(size, lastModifiedNanos, fileKey, value);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarContentHasher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+/**
+ * A {@link JarContentHasher} which keeps the hashes of the entries of a jar in a {@link
+ * PersistentFileHashStore}, so that the manifest of an unchanged jar isn't read again after a
+ * restart.
+ */
+class PersistentJarContentHasher implements JarContentHasher {
+
+  private final ProjectFilesystem filesystem;
+  private final JarContentHasher delegate;
+  private final PersistentFileHashStore store;
+
+  PersistentJarContentHasher(
+      ProjectFilesystem filesystem, JarContentHasher delegate, PersistentFileHashStore store) {
+    this.filesystem = filesystem;
+    this.delegate = delegate;
+    this.store = store;
+  }
+
+  @Override
+  public Path getJarRelativePath() {
+    return delegate.getJarRelativePath();
+  }
+
+  @Override
+  public ImmutableMap<Path, HashCodeAndFileType> getContentHashes() throws IOException {
+    Path path = delegate.getJarRelativePath();
+    BasicFileAttributes attributes = filesystem.readAttributes(path, BasicFileAttributes.class);
+    ImmutableMap<String, HashCode> storedContents = store.getJarContents(path, attributes);
+    if (storedContents != null) {
+      ImmutableMap.Builder<Path, HashCodeAndFileType> builder = ImmutableMap.builder();
+      for (Map.Entry<String, HashCode> entry : storedContents.entrySet()) {
+        builder.put(Paths.get(entry.getKey()), HashCodeAndFileType.ofFile(entry.getValue()));
+      }
+      return builder.build();
+    }
+
+    ImmutableMap<Path, HashCodeAndFileType> contents = delegate.getContentHashes();
+    ImmutableMap.Builder<String, HashCode> builder = ImmutableMap.builder();
+    for (Map.Entry<Path, HashCodeAndFileType> entry : contents.entrySet()) {
+      builder.put(entry.getKey().toString(), entry.getValue().getHashCode());
+    }
+    store.putJarContents(path, attributes, builder.build());
+    return contents;
+  }
+}
@@ -30,7 +30,11 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
 
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
-    super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+    super(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        /* persistHashes */ true);
   }
 
   /**
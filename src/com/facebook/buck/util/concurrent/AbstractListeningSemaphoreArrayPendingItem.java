@@ -25,4 +25,10 @@ abstract class AbstractListeningSemaphoreArrayPendingItem {
   public abstract SettableFuture<Void> getFuture();
 
   public abstract ResourceAmounts getResources();
+
+  /** Items with a higher priority acquire their resources first. */
+  public abstract long getPriority();
+
+  /** Order in which items were added, breaks ties between items with the same priority. */
+  public abstract long getSequenceNumber();
 }
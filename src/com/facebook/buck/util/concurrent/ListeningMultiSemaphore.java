@@ -20,19 +20,31 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
 /**
  * A semaphore using {@link ListenableFuture}s for acquisition of different resource types rather
  * than blocking.
+ *
+ * <p>Pending acquisitions are granted in order of decreasing priority, and in the order in which
+ * they were requested among acquisitions with the same priority.
  */
 public class ListeningMultiSemaphore {
 
+  /** Priority of acquisitions which don't specify one. */
+  public static final long DEFAULT_PRIORITY = 0;
+
   private ResourceAmounts usedValues;
   private final ResourceAmounts maximumValues;
-  private final List<ListeningSemaphoreArrayPendingItem> pending = new LinkedList<>();
+  private final NavigableSet<ListeningSemaphoreArrayPendingItem> pending =
+      new TreeSet<>(
+          Comparator.comparingLong(ListeningSemaphoreArrayPendingItem::getPriority)
+              .reversed()
+              .thenComparingLong(ListeningSemaphoreArrayPendingItem::getSequenceNumber));
+  private long nextSequenceNumber = 0;
   private final ResourceAllocationFairness fairness;
 
   public ListeningMultiSemaphore(
@@ -52,7 +64,19 @@ public class ListeningMultiSemaphore {
    *     amounts, they will be capped to them.
    * @return Future that will be completed once resource will be acquired.
    */
-  public synchronized ListenableFuture<Void> acquire(ResourceAmounts resources) {
+  public ListenableFuture<Void> acquire(ResourceAmounts resources) {
+    return acquire(resources, DEFAULT_PRIORITY);
+  }
+
+  /**
+   * Like {@link #acquire(ResourceAmounts)}, but if the resources are not available right away,
+   * they are handed out before those of pending acquisitions with a lower priority.
+   *
+   * @param resources Resource amounts that need to be acquired.
+   * @param priority Priority of this acquisition relative to other pending ones.
+   * @return Future that will be completed once resource will be acquired.
+   */
+  public synchronized ListenableFuture<Void> acquire(ResourceAmounts resources, long priority) {
     if (resources.equals(ResourceAmounts.zero())) {
       return Futures.immediateFuture(null);
     }
@@ -60,7 +84,9 @@ public class ListeningMultiSemaphore {
     resources = capResourceAmounts(resources);
     if (!checkIfResourcesAvailable(resources)) {
       SettableFuture<Void> pendingFuture = SettableFuture.create();
-      pending.add(ListeningSemaphoreArrayPendingItem.of(pendingFuture, resources));
+      pending.add(
+          ListeningSemaphoreArrayPendingItem.of(
+              pendingFuture, resources, priority, nextSequenceNumber++));
       return pendingFuture;
     }
     increaseUsedResources(resources);
@@ -37,14 +37,24 @@ import javax.annotation.Nullable;
 public class WeightedListeningExecutorService extends AbstractListeningExecutorService {
   private final ListeningMultiSemaphore semaphore;
   private final ResourceAmounts defaultValues;
+  private final long priority;
   private final ListeningExecutorService delegate;
 
   public WeightedListeningExecutorService(
       ListeningMultiSemaphore semaphore,
       ResourceAmounts defaultValues,
       ListeningExecutorService delegate) {
+    this(semaphore, defaultValues, ListeningMultiSemaphore.DEFAULT_PRIORITY, delegate);
+  }
+
+  private WeightedListeningExecutorService(
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultValues,
+      long priority,
+      ListeningExecutorService delegate) {
     this.semaphore = semaphore;
     this.defaultValues = defaultValues;
+    this.priority = priority;
     this.delegate = delegate;
   }
 
@@ -61,14 +71,30 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
     if (newDefaultAmounts.equals(defaultValues)) {
       return this;
     }
-    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, delegate);
+    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, priority, delegate);
+  }
+
+  /**
+   * Creates a new service whose tasks wait for resources with the given priority. When the
+   * semaphore is exhausted, tasks with a higher priority get resources before those with a lower
+   * one.
+   *
+   * @param newPriority priority of tasks submitted to the returned service
+   * @return Service that uses the same semaphore, delegate and default amounts but with the given
+   *     priority.
+   */
+  public WeightedListeningExecutorService withPriority(long newPriority) {
+    if (newPriority == priority) {
+      return this;
+    }
+    return new WeightedListeningExecutorService(semaphore, defaultValues, newPriority, delegate);
   }
 
   private <T> ListenableFuture<T> submitWithSemaphore(
       Callable<T> callable, ResourceAmounts amounts) {
     ListenableFuture<T> future =
         Futures.transformAsync(
-            semaphore.acquire(amounts),
+            semaphore.acquire(amounts, priority),
             input -> {
               try {
                 return Futures.immediateFuture(callable.call());
@@ -21,12 +21,14 @@ import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.PatternsMatcher;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.zstd.ZstdFramesInputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
@@ -40,6 +42,7 @@ import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.CompressorException;
@@ -104,6 +107,83 @@ public class Untar extends Unarchiver {
       boolean writeSymlinksAfterCreatingFiles)
       throws IOException {
 
+    try (TarArchiveInputStream archiveStream = getArchiveInputStream(archiveFile)) {
+      return extractArchive(
+          archiveStream,
+          filesystem,
+          filesystemRelativePath,
+          stripPath,
+          existingFileMode,
+          entriesToExclude,
+          writeSymlinksAfterCreatingFiles,
+          path -> {});
+    } catch (CompressorException e) {
+      throw new IOException(
+          String.format("Could not get decompressor for archive at %s", archiveFile), e);
+    }
+  }
+
+  /**
+   * Extracts an archive which is read from a stream, e.g. while it is being downloaded, into the
+   * root of the given filesystem. The stream is fully consumed but not closed.
+   *
+   * @param archiveStream Stream of the (possibly compressed) archive
+   * @param filesystem The filesystem that will be extracted into
+   * @param existingFileMode How to handle existing files
+   * @return A list of paths to files that were created (not directories)
+   * @throws IOException If the archive could not be extracted for any reason
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream, ProjectFilesystem filesystem, ExistingFileMode existingFileMode)
+      throws IOException {
+    return extractArchive(archiveStream, filesystem, existingFileMode, path -> {});
+  }
+
+  /**
+   * Like {@link #extractArchive(InputStream, ProjectFilesystem, ExistingFileMode)}, but also
+   * reports each file before it is written, so that the caller knows which files may have been
+   * written if the extraction fails halfway.
+   *
+   * @param onExtractingFile Receives the path of each file which is about to be written
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream,
+      ProjectFilesystem filesystem,
+      ExistingFileMode existingFileMode,
+      Consumer<Path> onExtractingFile)
+      throws IOException {
+    InputStream uncompressedStream;
+    try {
+      uncompressedStream = decompress(new BufferedInputStream(archiveStream));
+    } catch (CompressorException e) {
+      throw new IOException("Could not get decompressor for archive stream", e);
+    }
+    ImmutableSet<Path> filePaths =
+        extractArchive(
+            new TarArchiveInputStream(uncompressedStream),
+            filesystem,
+            filesystem.getPath(""),
+            Optional.empty(),
+            existingFileMode,
+            PatternsMatcher.EMPTY,
+            Platform.detect() == Platform.WINDOWS,
+            onExtractingFile);
+    // Skip the tar padding and any trailing compressed frames.
+    ByteStreams.exhaust(archiveStream);
+    return filePaths;
+  }
+
+  private ImmutableSet<Path> extractArchive(
+      TarArchiveInputStream archiveStream,
+      ProjectFilesystem filesystem,
+      Path filesystemRelativePath,
+      Optional<Path> stripPath,
+      ExistingFileMode existingFileMode,
+      PatternsMatcher entriesToExclude,
+      boolean writeSymlinksAfterCreatingFiles,
+      Consumer<Path> onExtractingFile)
+      throws IOException {
+
     ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
     HashSet<Path> dirsToTidy = new HashSet<>();
     TreeMap<Path, Long> dirCreationTimes = new TreeMap<>();
@@ -114,50 +194,55 @@ public class Untar extends Unarchiver {
     // all files are extracted, and /then/ try to do the links
     Map<Path, Path> windowsSymlinkMap = new HashMap<>();
 
-    try (TarArchiveInputStream archiveStream = getArchiveInputStream(archiveFile)) {
-      TarArchiveEntry entry;
-      while ((entry = archiveStream.getNextTarEntry()) != null) {
-        String entryName = entry.getName();
-        if (entriesToExclude.matchesAny(entryName)) {
-          continue;
-        }
-        Path destFile = Paths.get(entryName);
-        Path destPath;
-        if (stripPath.isPresent()) {
-          if (!destFile.startsWith(stripPath.get())) {
-            continue;
-          }
-          destPath =
-              filesystemRelativePath.resolve(stripPath.get().relativize(destFile)).normalize();
+    TarArchiveEntry entry;
+    while ((entry = archiveStream.getNextTarEntry()) != null) {
+      String entryName = entry.getName();
+      if (entriesToExclude.matchesAny(entryName)) {
+        continue;
+      }
+      Optional<Path> maybeDestPath =
+          getDestinationPath(filesystemRelativePath, stripPath, entryName);
+      if (!maybeDestPath.isPresent()) {
+        continue;
+      }
+      Path destPath = maybeDestPath.get();
+
+      if (entry.isDirectory()) {
+        dirsToTidy.add(destPath);
+        mkdirs(creator, destPath);
+        dirCreationTimes.put(destPath, entry.getModTime().getTime());
+      } else if (entry.isSymbolicLink()) {
+        onExtractingFile.accept(destPath);
+        if (writeSymlinksAfterCreatingFiles) {
+          recordSymbolicLinkForWindows(creator, destPath, entry, windowsSymlinkMap);
         } else {
-          destPath = filesystemRelativePath.resolve(destFile).normalize();
+          writeSymbolicLink(creator, destPath, entry);
         }
-
-        if (entry.isDirectory()) {
-          dirsToTidy.add(destPath);
-          mkdirs(creator, destPath);
-          dirCreationTimes.put(destPath, entry.getModTime().getTime());
-        } else if (entry.isSymbolicLink()) {
-          if (writeSymlinksAfterCreatingFiles) {
-            recordSymbolicLinkForWindows(creator, destPath, entry, windowsSymlinkMap);
-          } else {
-            writeSymbolicLink(creator, destPath, entry);
-          }
-          paths.add(destPath);
-          setAttributes(filesystem, destPath, entry);
-        } else if (entry.isFile()) {
-          writeFile(creator, archiveStream, destPath);
-          paths.add(destPath);
-          setAttributes(filesystem, destPath, entry);
+        paths.add(destPath);
+        setAttributes(filesystem, destPath, entry);
+      } else if (entry.isLink()) {
+        Optional<Path> linkTarget =
+            getDestinationPath(filesystemRelativePath, stripPath, entry.getLinkName());
+        if (!linkTarget.isPresent()) {
+          throw new IOException(
+              String.format(
+                  "Hard link %s points to %s, which is not being extracted.",
+                  entryName, entry.getLinkName()));
         }
+        onExtractingFile.accept(destPath);
+        writeHardLink(creator, destPath, linkTarget.get());
+        paths.add(destPath);
+        setAttributes(filesystem, destPath, entry);
+      } else if (entry.isFile()) {
+        onExtractingFile.accept(destPath);
+        writeFile(creator, archiveStream, destPath);
+        paths.add(destPath);
+        setAttributes(filesystem, destPath, entry);
       }
-
-      writeWindowsSymlinks(creator, windowsSymlinkMap);
-    } catch (CompressorException e) {
-      throw new IOException(
-          String.format("Could not get decompressor for archive at %s", archiveFile), e);
     }
 
+    writeWindowsSymlinks(creator, windowsSymlinkMap);
+
     setDirectoryModificationTimes(filesystem, dirCreationTimes);
 
     ImmutableSet<Path> filePaths = paths.build();
@@ -170,14 +255,21 @@ public class Untar extends Unarchiver {
 
   private TarArchiveInputStream getArchiveInputStream(Path tarFile)
       throws IOException, CompressorException {
-    BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(tarFile));
-    if (compressorType.isPresent()) {
-      return new TarArchiveInputStream(
-          new CompressorStreamFactory()
-              .createCompressorInputStream(compressorType.get(), inputStream));
-    } else {
-      return new TarArchiveInputStream(inputStream);
+    return new TarArchiveInputStream(
+        decompress(new BufferedInputStream(Files.newInputStream(tarFile))));
+  }
+
+  private InputStream decompress(BufferedInputStream inputStream)
+      throws IOException, CompressorException {
+    if (!compressorType.isPresent()) {
+      return inputStream;
     }
+    if (compressorType.get().equals(CompressorStreamFactory.ZSTANDARD)) {
+      // Handles the multi-frame archives written by ParallelZstdOutputStream.
+      return new ZstdFramesInputStream(inputStream);
+    }
+    return new CompressorStreamFactory()
+        .createCompressorInputStream(compressorType.get(), inputStream);
   }
 
   /** Cleans up any files that exist on the filesystem that were not in the archive */
@@ -226,6 +318,33 @@ public class Untar extends Unarchiver {
     }
   }
 
+  /**
+   * Writes out a hard link from an archive. The file it points to is copied, so that later changes
+   * to either file don't affect the other.
+   */
+  private void writeHardLink(DirectoryCreator creator, Path target, Path linkTarget)
+      throws IOException {
+    prepareForFile(creator, target);
+    creator.getFilesystem().copyFile(linkTarget, target);
+  }
+
+  /**
+   * Returns where the archive entry with the given name is extracted to, or nothing if it is not
+   * extracted because it is outside of {@code stripPath}
+   */
+  private Optional<Path> getDestinationPath(
+      Path filesystemRelativePath, Optional<Path> stripPath, String entryName) {
+    Path destFile = Paths.get(entryName);
+    if (stripPath.isPresent()) {
+      if (!destFile.startsWith(stripPath.get())) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          filesystemRelativePath.resolve(stripPath.get().relativize(destFile)).normalize());
+    }
+    return Optional.of(filesystemRelativePath.resolve(destFile).normalize());
+  }
+
   /** Writes out a symlink from an archive */
   private void writeSymbolicLink(DirectoryCreator creator, Path target, TarArchiveEntry entry)
       throws IOException {
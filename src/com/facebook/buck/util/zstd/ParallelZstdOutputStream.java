@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.github.luben.zstd.Zstd;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Compresses its input into a sequence of independent zstd frames, several of which are compressed
+ * at the same time on the given executor.
+ *
+ * <p>Each frame is preceded by a zstd skippable frame holding its compressed size, so the output
+ * is valid zstd for any decompressor and can be read frame by frame with {@link
+ * ZstdFramesInputStream}. Frames are written in order and at most {@code maxPendingFrames} frames
+ * are held in memory.
+ */
+public class ParallelZstdOutputStream extends OutputStream {
+
+  // Same level as ZstdCompressorOutputStream uses by default.
+  private static final int COMPRESSION_LEVEL = 3;
+
+  /** Magic number of the skippable frames which carry the size of the following frame. */
+  static final int FRAME_SIZE_MAGIC = 0x184D2A5B;
+
+  /** Size of the skippable frame: magic number, content size and the 4 byte frame size. */
+  static final int FRAME_SIZE_HEADER_BYTES = 12;
+
+  private final OutputStream out;
+  private final Executor executor;
+  private final int frameSizeBytes;
+  private final int maxPendingFrames;
+  private final ArrayDeque<FutureTask<byte[]>> pendingFrames = new ArrayDeque<>();
+
+  private byte[] buffer;
+  private int bufferedBytes = 0;
+  private boolean wroteFrame = false;
+  private boolean closed = false;
+
+  public ParallelZstdOutputStream(
+      OutputStream out, Executor executor, int frameSizeBytes, int maxPendingFrames) {
+    Preconditions.checkArgument(frameSizeBytes > 0, "Frame size must be positive.");
+    Preconditions.checkArgument(maxPendingFrames > 0, "Must allow at least one pending frame.");
+    this.out = out;
+    this.executor = executor;
+    this.frameSizeBytes = frameSizeBytes;
+    this.maxPendingFrames = maxPendingFrames;
+    this.buffer = new byte[frameSizeBytes];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkState(!closed, "Stream is closed.");
+    while (len > 0) {
+      int toCopy = Math.min(len, frameSizeBytes - bufferedBytes);
+      System.arraycopy(b, off, buffer, bufferedBytes, toCopy);
+      bufferedBytes += toCopy;
+      off += toCopy;
+      len -= toCopy;
+      if (bufferedBytes == frameSizeBytes) {
+        submitFrame();
+      }
+    }
+  }
+
+  /** Flushes completed frames. Buffered data is not flushed to avoid writing tiny frames. */
+  @Override
+  public void flush() throws IOException {
+    while (!pendingFrames.isEmpty() && pendingFrames.peek().isDone()) {
+      writeNextFrame();
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      // Always write at least one frame, so that empty input still yields a valid stream.
+      if (bufferedBytes > 0 || !wroteFrame) {
+        submitFrame();
+      }
+      while (!pendingFrames.isEmpty()) {
+        writeNextFrame();
+      }
+    } finally {
+      for (FutureTask<byte[]> frame : pendingFrames) {
+        frame.cancel(false);
+      }
+      out.close();
+    }
+  }
+
+  private void submitFrame() throws IOException {
+    byte[] frame = bufferedBytes == buffer.length ? buffer : Arrays.copyOf(buffer, bufferedBytes);
+    FutureTask<byte[]> task = new FutureTask<>(() -> Zstd.compress(frame, COMPRESSION_LEVEL));
+    executor.execute(task);
+    pendingFrames.add(task);
+    wroteFrame = true;
+    buffer = new byte[frameSizeBytes];
+    bufferedBytes = 0;
+    while (pendingFrames.size() > maxPendingFrames) {
+      writeNextFrame();
+    }
+  }
+
+  private void writeNextFrame() throws IOException {
+    FutureTask<byte[]> frame = pendingFrames.remove();
+    try {
+      byte[] compressed = frame.get();
+      ByteBuffer header =
+          ByteBuffer.allocate(FRAME_SIZE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(FRAME_SIZE_MAGIC).putInt(Integer.BYTES).putInt(compressed.length);
+      out.write(header.array());
+      out.write(compressed);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing artifact.");
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to compress artifact.", e.getCause());
+    }
+  }
+}
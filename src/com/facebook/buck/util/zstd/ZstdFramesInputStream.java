@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.ByteStreams;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javax.annotation.Nullable;
+
+/**
+ * Decompresses zstd streams, including those written by {@link ParallelZstdOutputStream}.
+ *
+ * <p>The zstd-jni stream decoder does not reliably continue past the end of the first frame, so
+ * streams which start with the frame size markers of {@link ParallelZstdOutputStream} are decoded
+ * one frame at a time. Any other stream is handed to the regular decoder as a whole.
+ */
+public class ZstdFramesInputStream extends InputStream {
+
+  private final PushbackInputStream in;
+  private final boolean framed;
+  @Nullable private InputStream currentFrame;
+  private boolean finished = false;
+
+  public ZstdFramesInputStream(InputStream in) throws IOException {
+    this.in = new PushbackInputStream(in, Integer.BYTES);
+    byte[] magic = new byte[Integer.BYTES];
+    int read = ByteStreams.read(this.in, magic, 0, magic.length);
+    this.in.unread(magic, 0, read);
+    this.framed =
+        read == magic.length
+            && ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN).getInt()
+                == ParallelZstdOutputStream.FRAME_SIZE_MAGIC;
+    if (!framed) {
+      currentFrame = new ZstdInputStream(this.in);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int read = read(b, 0, 1);
+    return read == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (!finished) {
+      if (currentFrame == null && !openNextFrame()) {
+        finished = true;
+        break;
+      }
+      int read = currentFrame.read(b, off, len);
+      if (read > 0) {
+        return read;
+      }
+      if (read == -1) {
+        currentFrame.close();
+        currentFrame = null;
+        if (!framed) {
+          finished = true;
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (currentFrame != null) {
+        currentFrame.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private boolean openNextFrame() throws IOException {
+    byte[] header = new byte[ParallelZstdOutputStream.FRAME_SIZE_HEADER_BYTES];
+    int read = ByteStreams.read(in, header, 0, header.length);
+    if (read == 0) {
+      return false;
+    }
+    if (read < header.length) {
+      throw new EOFException("Truncated zstd frame header.");
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+    int magic = buffer.getInt();
+    int contentSize = buffer.getInt();
+    if (magic != ParallelZstdOutputStream.FRAME_SIZE_MAGIC || contentSize != Integer.BYTES) {
+      throw new IOException("Expected a zstd frame size marker.");
+    }
+    int frameSize = buffer.getInt();
+    currentFrame =
+        new ZstdInputStream(
+            ByteStreams.limit(
+                new FilterInputStream(in) {
+                  @Override
+                  public void close() {}
+                },
+                frameSize));
+    return true;
+  }
+}
@@ -46,6 +46,12 @@ interface AbstractWorkerProcessParams {
   /** Maximum number of tools that pool can have. */
   int getMaxWorkers();
 
+  /**
+   * Maximum number of jobs a single worker process is given at the same time. Values above 1
+   * require the tool to speak protocol version 1, which allows several jobs in flight at once.
+   */
+  int getMaxInFlightRequests();
+
   /**
    * Identifies the instance of the persisted worker process pool. Defines when worker process pool
    * should be invalidated.
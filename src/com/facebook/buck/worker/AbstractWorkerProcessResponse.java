@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import org.immutables.value.Value;
+
+/** Response of a worker process to a command, as received by a multiplexed command sender. */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractWorkerProcessResponse {
+  /** Id of the command message this response belongs to. */
+  public abstract int getMessageId();
+
+  public abstract int getExitCode();
+}
@@ -25,13 +25,20 @@ import com.facebook.buck.util.string.MoreStrings;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 public class WorkerProcess implements Closeable {
@@ -44,9 +51,13 @@ public class WorkerProcess implements Closeable {
   private final Path tmpPath;
   private final Path stdErr;
   private final AtomicInteger currentMessageID = new AtomicInteger();
+  private final boolean multiplexed;
+  private final ConcurrentMap<Integer, SettableFuture<Integer>> pendingResponses =
+      new ConcurrentHashMap<>();
   private boolean handshakePerformed = false;
-  @Nullable private WorkerProcessProtocol.CommandSender protocol;
+  @Nullable private volatile WorkerProcessProtocol.CommandSender protocol;
   @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
+  @Nullable private volatile Throwable responseReaderFailure;
 
   /**
    * Worker process is a process that stays alive and receives commands which describe jobs. Worker
@@ -67,7 +78,23 @@ public class WorkerProcess implements Closeable {
       ProjectFilesystem filesystem,
       Path tmpPath)
       throws IOException {
+    this(executor, processParams, filesystem, tmpPath, false);
+  }
+
+  /**
+   * @param multiplexed Whether to use {@link WorkerProcessProtocolOne}, which lets several threads
+   *     submit jobs to this process at the same time. Responses are then read by a dedicated
+   *     thread and handed to the submitting threads.
+   */
+  public WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams processParams,
+      ProjectFilesystem filesystem,
+      Path tmpPath,
+      boolean multiplexed)
+      throws IOException {
     this.executor = executor;
+    this.multiplexed = multiplexed;
     this.stdErr = Files.createTempFile("buck-worker-", "-stderr.log");
     this.processParams =
         processParams.withRedirectError(ProcessBuilder.Redirect.to(stdErr.toFile()));
@@ -75,8 +102,12 @@ public class WorkerProcess implements Closeable {
     this.tmpPath = tmpPath;
   }
 
+  /**
+   * @return whether the process is running and can still receive jobs. In multiplexed mode a
+   *     process whose responses can no longer be read is not alive, even if it is still running.
+   */
   public boolean isAlive() {
-    return launchedProcess != null && launchedProcess.isAlive();
+    return launchedProcess != null && launchedProcess.isAlive() && responseReaderFailure == null;
   }
 
   public synchronized void ensureLaunchAndHandshake() throws IOException {
@@ -87,24 +118,52 @@ public class WorkerProcess implements Closeable {
         "Starting up process %d using command: \'%s\'",
         this.hashCode(), Joiner.on(' ').join(processParams.getCommand()));
     launchedProcess = executor.launchProcess(processParams);
+    Runnable onClose =
+        () -> {
+          if (launchedProcess != null) {
+            executor.destroyLaunchedProcess(launchedProcess);
+          }
+        };
+    Supplier<Boolean> isAlive = () -> launchedProcess != null && launchedProcess.isAlive();
     protocol =
-        new WorkerProcessProtocolZero.CommandSender(
-            launchedProcess.getOutputStream(),
-            launchedProcess.getInputStream(),
-            stdErr,
-            () -> {
-              if (launchedProcess != null) {
-                executor.destroyLaunchedProcess(launchedProcess);
-              }
-            },
-            () -> launchedProcess != null && launchedProcess.isAlive());
+        multiplexed
+            ? new WorkerProcessProtocolOne.CommandSender(
+                launchedProcess.getOutputStream(),
+                launchedProcess.getInputStream(),
+                stdErr,
+                onClose,
+                isAlive)
+            : new WorkerProcessProtocolZero.CommandSender(
+                launchedProcess.getOutputStream(),
+                launchedProcess.getInputStream(),
+                stdErr,
+                onClose,
+                isAlive);
 
     LOG.debug("Handshaking with process %d", this.hashCode());
     protocol.handshake(currentMessageID.getAndIncrement());
     handshakePerformed = true;
+
+    if (multiplexed) {
+      startResponseReader((WorkerProcessProtocol.MultiplexedCommandSender) protocol);
+    }
+  }
+
+  /**
+   * Submits a job and blocks until it has finished. In multiplexed mode several threads may call
+   * this at the same time, otherwise calls are serialized.
+   */
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+    if (multiplexed) {
+      return submitAndWaitForJobInternal(jobArgs);
+    }
+    synchronized (this) {
+      return submitAndWaitForJobInternal(jobArgs);
+    }
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  private WorkerJobResult submitAndWaitForJobInternal(String jobArgs) throws IOException {
+    WorkerProcessProtocol.CommandSender protocol = this.protocol;
     Preconditions.checkState(
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
@@ -120,9 +179,23 @@ public class WorkerProcess implements Closeable {
     LOG.debug(
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
         messageID, this.hashCode(), jobArgs);
-    protocol.send(messageID, WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
-    LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
-    int exitCode = protocol.receiveCommandResponse(messageID);
+    int exitCode;
+    if (multiplexed) {
+      SettableFuture<Integer> response = SettableFuture.create();
+      pendingResponses.put(messageID, response);
+      try {
+        checkResponseReaderAlive();
+        protocol.send(messageID, WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
+        LOG.debug("Waiting for response to job %d from process %d", messageID, this.hashCode());
+        exitCode = waitForResponse(response);
+      } finally {
+        pendingResponses.remove(messageID);
+      }
+    } else {
+      protocol.send(messageID, WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
+      LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
+      exitCode = protocol.receiveCommandResponse(messageID);
+    }
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
     Optional<String> stderr = filesystem.readFileIfItExists(stderrPath);
     LOG.debug(
@@ -135,6 +208,59 @@ public class WorkerProcess implements Closeable {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  private void startResponseReader(WorkerProcessProtocol.MultiplexedCommandSender sender) {
+    Thread responseReader =
+        new Thread(
+            () -> {
+              Throwable failure = null;
+              try {
+                Optional<WorkerProcessResponse> response;
+                while ((response = sender.receiveNextCommandResponse()).isPresent()) {
+                  SettableFuture<Integer> pending =
+                      pendingResponses.get(response.get().getMessageId());
+                  if (pending == null) {
+                    throw new HumanReadableException(
+                        "Worker process sent a response for unknown job %d.",
+                        response.get().getMessageId());
+                  }
+                  pending.set(response.get().getExitCode());
+                }
+              } catch (Throwable t) {
+                failure = t;
+              }
+              responseReaderFailure =
+                  failure != null
+                      ? failure
+                      : new HumanReadableException("Worker process closed its output.");
+              for (SettableFuture<Integer> pending : pendingResponses.values()) {
+                pending.setException(responseReaderFailure);
+              }
+            },
+            "buck-worker-responses-" + this.hashCode());
+    responseReader.setDaemon(true);
+    responseReader.start();
+  }
+
+  private void checkResponseReaderAlive() throws IOException {
+    Throwable failure = responseReaderFailure;
+    if (failure != null) {
+      throw new IOException("Worker process can no longer receive jobs.", failure);
+    }
+  }
+
+  private int waitForResponse(SettableFuture<Integer> response) throws IOException {
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for worker process.");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), HumanReadableException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      throw new IOException("Failed to receive response from worker process.", e.getCause());
+    }
+  }
+
   @Override
   public void close() {
     LOG.debug("Closing process %d", this.hashCode());
@@ -46,6 +46,7 @@ public class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
   private final int capacity;
+  private final int maxInFlightRequests;
   private final BlockingQueue<WorkerLifecycle> availableWorkers;
   private final WorkerLifecycle[] workerLifecycles;
   private final HashCode poolHash;
@@ -54,7 +55,22 @@ public class WorkerProcessPool implements Closeable {
       int maxWorkers,
       HashCode poolHash,
       ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(maxWorkers, 1, poolHash, startWorkerProcess);
+  }
+
+  /**
+   * @param maxInFlightRequests How many jobs each worker process is handed at the same time. Every
+   *     worker is made available this many times, so it can be borrowed by several threads at once.
+   */
+  public WorkerProcessPool(
+      int maxWorkers,
+      int maxInFlightRequests,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    Preconditions.checkArgument(
+        maxInFlightRequests > 0, "Workers must accept at least one request at a time.");
     capacity = maxWorkers;
+    this.maxInFlightRequests = maxInFlightRequests;
     availableWorkers = new LinkedBlockingStack<>();
     workerLifecycles = new WorkerLifecycle[maxWorkers];
     this.poolHash = poolHash;
@@ -62,7 +78,9 @@ public class WorkerProcessPool implements Closeable {
     Arrays.setAll(
         workerLifecycles,
         ignored -> new WorkerLifecycle(startWorkerProcess, availableWorkers::add));
-    Collections.addAll(availableWorkers, workerLifecycles);
+    for (int i = 0; i < maxInFlightRequests; i++) {
+      Collections.addAll(availableWorkers, workerLifecycles);
+    }
   }
 
   /**
@@ -86,7 +104,8 @@ public class WorkerProcessPool implements Closeable {
     Throwable caughtWhileClosing = null;
 
     // remove all available workers
-    int numAvailableWorkers = availableWorkers.drainTo(new ArrayList<>(capacity));
+    int numAvailableWorkers =
+        availableWorkers.drainTo(new ArrayList<>(capacity * maxInFlightRequests));
     for (WorkerLifecycle lifecycle : this.workerLifecycles) {
       try {
         lifecycle.close();
@@ -96,7 +115,7 @@ public class WorkerProcessPool implements Closeable {
     }
 
     Preconditions.checkState(
-        numAvailableWorkers == capacity,
+        numAvailableWorkers == capacity * maxInFlightRequests,
         "WorkerProcessPool was still running when shutdown was called.");
     if (caughtWhileClosing != null) {
       throw new RuntimeException(caughtWhileClosing);
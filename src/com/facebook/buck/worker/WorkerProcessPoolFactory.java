@@ -116,11 +116,14 @@ public class WorkerProcessPoolFactory {
     WorkerProcessPool newPool =
         new WorkerProcessPool(
             paramsToUse.getMaxWorkers(),
+            paramsToUse.getMaxInFlightRequests(),
             workerHash,
             () -> {
               Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
               filesystem.mkdirs(tmpDir);
-              WorkerProcess process = createWorkerProcess(processParams, context, tmpDir);
+              WorkerProcess process =
+                  createWorkerProcess(
+                      processParams, context, tmpDir, paramsToUse.getMaxInFlightRequests() > 1);
               process.ensureLaunchAndHandshake();
               return process;
             });
@@ -161,8 +164,12 @@ public class WorkerProcessPoolFactory {
 
   @VisibleForTesting
   public WorkerProcess createWorkerProcess(
-      ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir)
+      ProcessExecutorParams processParams,
+      ExecutionContext context,
+      Path tmpDir,
+      boolean multiplexed)
       throws IOException {
-    return new WorkerProcess(context.getProcessExecutor(), processParams, filesystem, tmpDir);
+    return new WorkerProcess(
+        context.getProcessExecutor(), processParams, filesystem, tmpDir, multiplexed);
   }
 }
@@ -17,6 +17,7 @@ package com.facebook.buck.worker;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Optional;
 
 public interface WorkerProcessProtocol {
 
@@ -32,6 +33,23 @@ public interface WorkerProcessProtocol {
     void close() throws IOException;
   }
 
+  /**
+   * A {@link CommandSender} which may send further commands before the responses to earlier ones
+   * have arrived. Responses may arrive in any order and are matched to commands by message id.
+   *
+   * <p>{@link #send} may be called from several threads, while responses must be received by a
+   * single thread at a time.
+   */
+  interface MultiplexedCommandSender extends CommandSender {
+    /**
+     * Blocks until the next response arrives.
+     *
+     * @return the response, or {@link Optional#empty()} if the worker ended its output, which it
+     *     does after {@link #close()} was called.
+     */
+    Optional<WorkerProcessResponse> receiveNextCommandResponse() throws IOException;
+  }
+
   interface CommandReceiver extends Closeable {
     void handshake(int messageId) throws IOException;
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.google.common.base.Preconditions;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Version 1 of the worker protocol.
+ *
+ * <p>Messages look the same as in {@link WorkerProcessProtocolZero}, but the handshake announces
+ * protocol version "1", which tells the worker that Buck may send further commands before it has
+ * answered the previous ones. The worker may answer commands in any order; the "id" of each
+ * response says which command it belongs to. When Buck closes the command array the worker should
+ * finish all outstanding commands before closing its response array.
+ */
+public class WorkerProcessProtocolOne {
+
+  private static final String PROTOCOL_VERSION = "1";
+
+  public static class CommandSender implements WorkerProcessProtocol.MultiplexedCommandSender {
+    private final JsonWriter processStdinWriter;
+    private final JsonReader processStdoutReader;
+    private final Optional<Path> stdErr;
+    private final Runnable onClose;
+    private final Supplier<Boolean> isAlive;
+    private final Object readLock = new Object();
+    private boolean isClosed = false;
+
+    public CommandSender(
+        OutputStream processStdin,
+        InputStream processStdout,
+        Path stdErr,
+        Runnable onClose,
+        Supplier<Boolean> isAlive) {
+      this.processStdinWriter =
+          new JsonWriter(new BufferedWriter(new OutputStreamWriter(processStdin)));
+      this.processStdoutReader =
+          new JsonReader(new BufferedReader(new InputStreamReader(processStdout)));
+      this.stdErr = Optional.of(stdErr);
+      this.onClose = onClose;
+      this.isAlive = isAlive;
+    }
+
+    @Override
+    public void handshake(int messageId) throws IOException {
+      synchronized (processStdinWriter) {
+        WorkerProcessProtocolZero.sendHandshake(processStdinWriter, messageId, PROTOCOL_VERSION);
+      }
+      synchronized (readLock) {
+        WorkerProcessProtocolZero.receiveHandshake(
+            processStdoutReader, messageId, PROTOCOL_VERSION, stdErr);
+      }
+    }
+
+    @Override
+    public void send(int messageId, WorkerProcessCommand command) throws IOException {
+      synchronized (processStdinWriter) {
+        WorkerProcessProtocolZero.sendCommand(processStdinWriter, messageId, command);
+      }
+    }
+
+    @Override
+    public int receiveCommandResponse(int messageID) throws IOException {
+      WorkerProcessResponse response =
+          receiveNextCommandResponse()
+              .orElseThrow(
+                  () ->
+                      new HumanReadableException(
+                          "Worker process closed its output while waiting for response %d.",
+                          messageID));
+      if (response.getMessageId() != messageID) {
+        throw new HumanReadableException(
+            "Expected response's \"id\" value to be \"%d\", got \"%d\" instead.",
+            messageID, response.getMessageId());
+      }
+      return response.getExitCode();
+    }
+
+    @Override
+    public Optional<WorkerProcessResponse> receiveNextCommandResponse() throws IOException {
+      synchronized (readLock) {
+        if (processStdoutReader.peek() == JsonToken.END_ARRAY) {
+          return Optional.empty();
+        }
+        return Optional.of(WorkerProcessProtocolZero.receiveResponse(processStdoutReader, stdErr));
+      }
+    }
+
+    /**
+     * Ends the command array and waits for the worker to end its response array. Responses still
+     * in flight must have been received before, e.g. by a thread calling {@link
+     * #receiveNextCommandResponse()} until it returns {@link Optional#empty()}.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+      Preconditions.checkArgument(
+          !isClosed,
+          "%s (%d) has been already closed",
+          getClass().getSimpleName(),
+          System.identityHashCode(this));
+      try {
+        synchronized (processStdinWriter) {
+          processStdinWriter.endArray();
+          processStdinWriter.close();
+        }
+        synchronized (readLock) {
+          processStdoutReader.endArray();
+          processStdoutReader.close();
+        }
+      } finally {
+        if (!isAlive.get()) {
+          throw new HumanReadableException(
+              "%s (%d)'s process was already killed",
+              getClass().getSimpleName(), System.identityHashCode(this));
+        }
+        onClose.run();
+        isClosed = true;
+      }
+    }
+  }
+}
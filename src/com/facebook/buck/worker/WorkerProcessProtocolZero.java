@@ -70,106 +70,25 @@ public class WorkerProcessProtocolZero {
 
     @Override
     public void handshake(int messageId) throws IOException {
-      sendHandshake(processStdinWriter, messageId);
-      receiveHandshake(processStdoutReader, messageId, stdErr);
+      sendHandshake(processStdinWriter, messageId, PROTOCOL_VERSION);
+      receiveHandshake(processStdoutReader, messageId, PROTOCOL_VERSION, stdErr);
     }
 
-    /*
-    Sends a message that looks like this:
-      ,{
-        id: <id>,
-        type: 'command',
-        args_path: <argsPath>,
-        stdout_path: <stdoutPath>,
-        stderr_path: <stderrPath>,
-      }
-    */
     @Override
     public void send(int messageId, WorkerProcessCommand command) throws IOException {
-      processStdinWriter.beginObject();
-      processStdinWriter.name("id").value(messageId);
-      processStdinWriter.name("type").value(TYPE_COMMAND);
-      processStdinWriter.name("args_path").value(command.getArgsPath().toString());
-      processStdinWriter.name("stdout_path").value(command.getStdOutPath().toString());
-      processStdinWriter.name("stderr_path").value(command.getStdErrPath().toString());
-      processStdinWriter.endObject();
-      processStdinWriter.flush();
+      sendCommand(processStdinWriter, messageId, command);
     }
 
-    /*
-      Expects a message that looks like this if the job was successful:
-        ,{
-          id: <messageID>,
-          type: 'result',
-          exit_code: 0
-        }
-
-      of a message that looks like this if message was correct but job failed due to various reasons:
-        ,{
-          id: <messageID>,
-          type: 'result',
-          exit_code: <exitCode>
-        }
-
-      or a message that looks like this if the external tool received a message type it cannot
-      interpret:
-        ,{
-          id: <messageID>,
-          type: 'error',
-          exit_code: 1
-        }
-
-      or a message that looks like this if the external tool received a valid message type but other
-      attributes of the message were in an inconsistent state:
-        ,{
-          id: <messageID>,
-          type: 'error',
-          exit_code: 2
-        }
-    */
     @Override
     public int receiveCommandResponse(int messageID) throws IOException {
-      int id = -1;
-      int exitCode = -1;
-      String type = "";
-
-      try {
-        processStdoutReader.beginObject();
-        while (processStdoutReader.hasNext()) {
-          String property = processStdoutReader.nextName();
-          if (property.equals("id")) {
-            id = processStdoutReader.nextInt();
-          } else if (property.equals("type")) {
-            type = processStdoutReader.nextString();
-          } else if (property.equals("exit_code")) {
-            exitCode = processStdoutReader.nextInt();
-          } else {
-            processStdoutReader.skipValue();
-          }
-        }
-        processStdoutReader.endObject();
-      } catch (IOException e) {
-        throw new HumanReadableException(
-            e,
-            "Error receiving command response from external process.\n"
-                + "Stderr from external process:\n%s",
-            getStdErrorOutput(stdErr));
-      }
-
-      if (id != messageID) {
+      WorkerProcessResponse response = receiveResponse(processStdoutReader, stdErr);
+      if (response.getMessageId() != messageID) {
         throw new HumanReadableException(
             String.format(
                 "Expected response's \"id\" value to be " + "\"%d\", got \"%d\" instead.",
-                messageID, id));
-      }
-      if (!type.equals(TYPE_RESULT) && !type.equals(TYPE_ERROR)) {
-        throw new HumanReadableException(
-            String.format(
-                "Expected response's \"type\" "
-                    + "to be one of [\"%s\",\"%s\"], got \"%s\" instead.",
-                TYPE_RESULT, TYPE_ERROR, type));
+                messageID, response.getMessageId()));
       }
-      return exitCode;
+      return response.getExitCode();
     }
 
     @Override
@@ -223,8 +142,8 @@ public class WorkerProcessProtocolZero {
 
     @Override
     public void handshake(int messageId) throws IOException {
-      sendHandshake(processStdinWriter, messageId);
-      receiveHandshake(processStdoutReader, messageId, Optional.empty());
+      sendHandshake(processStdinWriter, messageId, PROTOCOL_VERSION);
+      receiveHandshake(processStdoutReader, messageId, PROTOCOL_VERSION, Optional.empty());
     }
 
     /*
@@ -381,12 +300,13 @@ public class WorkerProcessProtocolZero {
          capabilities: []
        }
   */
-  private static void sendHandshake(JsonWriter writer, int messageId) throws IOException {
+  static void sendHandshake(JsonWriter writer, int messageId, String protocolVersion)
+      throws IOException {
     writer.beginArray();
     writer.beginObject();
     writer.name("id").value(messageId);
     writer.name("type").value(TYPE_HANDSHAKE);
-    writer.name("protocol_version").value(PROTOCOL_VERSION);
+    writer.name("protocol_version").value(protocolVersion);
     writer.name("capabilities").beginArray().endArray();
     writer.endObject();
     writer.flush();
@@ -402,7 +322,8 @@ public class WorkerProcessProtocolZero {
          capabilities: []
        }
   */
-  private static void receiveHandshake(JsonReader reader, int messageId, Optional<Path> stdErr)
+  static void receiveHandshake(
+      JsonReader reader, int messageId, String expectedProtocolVersion, Optional<Path> stdErr)
       throws IOException {
     int id = -1;
     String type = "";
@@ -452,13 +373,105 @@ public class WorkerProcessProtocolZero {
               "Expected handshake response's \"type\" " + "to be \"%s\", got \"%s\" instead.",
               TYPE_HANDSHAKE, type));
     }
-    if (!protocolVersion.equals(PROTOCOL_VERSION)) {
+    if (!protocolVersion.equals(expectedProtocolVersion)) {
       throw new HumanReadableException(
           String.format(
               "Expected handshake response's "
                   + "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
-              PROTOCOL_VERSION, protocolVersion));
+              expectedProtocolVersion, protocolVersion));
+    }
+  }
+
+  /*
+  Sends a message that looks like this:
+    ,{
+      id: <id>,
+      type: 'command',
+      args_path: <argsPath>,
+      stdout_path: <stdoutPath>,
+      stderr_path: <stderrPath>,
+    }
+  */
+  static void sendCommand(JsonWriter writer, int messageId, WorkerProcessCommand command)
+      throws IOException {
+    writer.beginObject();
+    writer.name("id").value(messageId);
+    writer.name("type").value(TYPE_COMMAND);
+    writer.name("args_path").value(command.getArgsPath().toString());
+    writer.name("stdout_path").value(command.getStdOutPath().toString());
+    writer.name("stderr_path").value(command.getStdErrPath().toString());
+    writer.endObject();
+    writer.flush();
+  }
+
+  /*
+    Expects a message that looks like this if the job was successful:
+      ,{
+        id: <messageID>,
+        type: 'result',
+        exit_code: 0
+      }
+
+    of a message that looks like this if message was correct but job failed due to various reasons:
+      ,{
+        id: <messageID>,
+        type: 'result',
+        exit_code: <exitCode>
+      }
+
+    or a message that looks like this if the external tool received a message type it cannot
+    interpret:
+      ,{
+        id: <messageID>,
+        type: 'error',
+        exit_code: 1
+      }
+
+    or a message that looks like this if the external tool received a valid message type but other
+    attributes of the message were in an inconsistent state:
+      ,{
+        id: <messageID>,
+        type: 'error',
+        exit_code: 2
+      }
+  */
+  static WorkerProcessResponse receiveResponse(JsonReader reader, Optional<Path> stdErr)
+      throws IOException {
+    int id = -1;
+    int exitCode = -1;
+    String type = "";
+
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String property = reader.nextName();
+        if (property.equals("id")) {
+          id = reader.nextInt();
+        } else if (property.equals("type")) {
+          type = reader.nextString();
+        } else if (property.equals("exit_code")) {
+          exitCode = reader.nextInt();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (IOException e) {
+      throw new HumanReadableException(
+          e,
+          "Error receiving command response from external process.\n"
+              + "Stderr from external process:\n%s",
+          getStdErrorOutput(stdErr));
+    }
+
+    if (!type.equals(TYPE_RESULT) && !type.equals(TYPE_ERROR)) {
+      throw new HumanReadableException(
+          String.format(
+              "Expected response's \"type\" "
+                  + "to be one of [\"%s\",\"%s\"], got \"%s\" instead.",
+              TYPE_RESULT, TYPE_ERROR, type));
     }
+    return WorkerProcessResponse.of(id, exitCode);
   }
 
   private static String getStdErrorOutput(Optional<Path> stdErr) throws IOException {
@@ -44,14 +44,17 @@ import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.timing.IncrementingFakeClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.SortedSetMultimap;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -60,6 +63,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.Matchers;
@@ -72,7 +76,7 @@ public class MergeAndroidResourcesStepTest {
   @Rule public ExpectedException thrown = ExpectedException.none();
 
   @Test
-  public void testGenerateRDotJavaForMultipleSymbolsFiles() throws DuplicateResourceException {
+  public void testGenerateRDotJavaForMultipleSymbolsFiles() throws Exception {
     RDotTxtEntryBuilder entriesBuilder = new RDotTxtEntryBuilder();
 
     // Merge everything into the same package space.
@@ -106,7 +110,8 @@ public class MergeAndroidResourcesStepTest {
             /* bannedDuplicateResourceTypes */ EnumSet.noneOf(RType.class),
             ImmutableSet.of(),
             entriesBuilder.getProjectFilesystem(),
-            false);
+            false,
+            MoreExecutors.newDirectExecutorService());
 
     assertEquals(1, packageNameToResources.keySet().size());
     SortedSet<RDotTxtEntry> resources = packageNameToResources.get(sharedPackageName);
@@ -128,7 +133,7 @@ public class MergeAndroidResourcesStepTest {
   }
 
   @Test
-  public void testGenerateRDotJavaForWithStyleables() throws DuplicateResourceException {
+  public void testGenerateRDotJavaForWithStyleables() throws Exception {
     RDotTxtEntryBuilder entriesBuilder = new RDotTxtEntryBuilder();
 
     // Merge everything into the same package space.
@@ -177,7 +182,8 @@ public class MergeAndroidResourcesStepTest {
             /* bannedDuplicateResourceTypes */ EnumSet.noneOf(RType.class),
             ImmutableSet.of(),
             entriesBuilder.getProjectFilesystem(),
-            false);
+            false,
+            MoreExecutors.newDirectExecutorService());
 
     assertEquals(23, packageNameToResources.size());
 
@@ -228,8 +234,7 @@ public class MergeAndroidResourcesStepTest {
   }
 
   @Test
-  public void testGenerateRDotJavaForMultipleSymbolsFilesWithDuplicates()
-      throws DuplicateResourceException {
+  public void testGenerateRDotJavaForMultipleSymbolsFilesWithDuplicates() throws Exception {
     RDotTxtEntryBuilder entriesBuilder = new RDotTxtEntryBuilder();
 
     // Merge everything into the same package space.
@@ -292,7 +297,8 @@ public class MergeAndroidResourcesStepTest {
         /* bannedDuplicateResourceTypes */ EnumSet.of(RType.STRING),
         ImmutableSet.of(),
         entriesBuilder.getProjectFilesystem(),
-        false);
+        false,
+        MoreExecutors.newDirectExecutorService());
   }
 
   @Test
@@ -401,7 +407,8 @@ public class MergeAndroidResourcesStepTest {
             /* unionPackage */ Optional.empty(),
             /* rName */ Optional.empty(),
             /* useOldStyleableFormat */ false,
-            /* skipNonUnionRDotJava */ false);
+            /* skipNonUnionRDotJava */ false,
+            /* packageDigestsPath */ Optional.empty());
 
     ExecutionContext executionContext = TestExecutionContext.newInstance();
 
@@ -486,7 +493,8 @@ public class MergeAndroidResourcesStepTest {
             /* unionPackage */ Optional.empty(),
             /* rName */ Optional.empty(),
             /* useOldStyleableFormat */ false,
-            /* skipNonUnionRDotJava */ false);
+            /* skipNonUnionRDotJava */ false,
+            /* packageDigestsPath */ Optional.empty());
 
     ExecutionContext executionContext = TestExecutionContext.newInstance();
 
@@ -511,6 +519,90 @@ public class MergeAndroidResourcesStepTest {
             .replace("\r", ""));
   }
 
+  @Test
+  public void testIncrementalGenerationOnlyRewritesChangedPackages() throws Exception {
+    FakeProjectFilesystem filesystem =
+        new FakeProjectFilesystem(new IncrementingFakeClock(TimeUnit.SECONDS.toNanos(1)));
+    RDotTxtEntryBuilder entriesBuilder = new RDotTxtEntryBuilder(filesystem);
+    BuildTarget res1Target = BuildTargetFactory.newInstance("//:res1");
+    BuildTarget res2Target = BuildTargetFactory.newInstance("//:res2");
+    entriesBuilder.add(
+        new RDotTxtFile(
+            "com.res1",
+            BuildTargetPaths.getGenPath(filesystem, res1Target, "__%s_text_symbols__/R.txt")
+                .toString(),
+            ImmutableList.of("int string one 0x7f010000")));
+    entriesBuilder.add(
+        new RDotTxtFile(
+            "com.res2",
+            BuildTargetPaths.getGenPath(filesystem, res2Target, "__%s_text_symbols__/R.txt")
+                .toString(),
+            ImmutableList.of("int string two 0x7f010001")));
+
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(graphBuilder);
+    SourcePathResolver resolver = DefaultSourcePathResolver.from(ruleFinder);
+    ImmutableList.Builder<HasAndroidResourceDeps> resources = ImmutableList.builder();
+    for (BuildTarget target : ImmutableList.of(res1Target, res2Target)) {
+      AndroidResource resource =
+          AndroidResourceRuleBuilder.newBuilder()
+              .setRuleFinder(ruleFinder)
+              .setBuildTarget(target)
+              .setRes(FakeSourcePath.of("res"))
+              .setRDotJavaPackage("com." + target.getShortName())
+              .build();
+      graphBuilder.addToIndex(resource);
+      resources.add(resource);
+    }
+
+    Path uberRDotTxt = filesystem.resolve("R.txt").toAbsolutePath();
+    Path digests = Paths.get("digests");
+    MergeAndroidResourcesStep mergeStep =
+        MergeAndroidResourcesStep.createStepForUberRDotJava(
+            filesystem,
+            resolver,
+            resources.build(),
+            ImmutableList.of(uberRDotTxt),
+            Paths.get("output"),
+            /* bannedDuplicateResourceTypes */ EnumSet.noneOf(RType.class),
+            /* duplicateResourceWhitelistPath */ Optional.empty(),
+            /* overrideSymbolsPath */ ImmutableList.of(),
+            /* unionPackage */ Optional.empty(),
+            Optional.of(digests));
+    Path res1RDotJava = Paths.get("output/com/res1/R.java");
+    Path res2RDotJava = Paths.get("output/com/res2/R.java");
+    Path staleRDotJava = Paths.get("output/com/stale/R.java");
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+
+    filesystem.writeLinesToPath(
+        ImmutableList.of("int string one 0x7f010000", "int string two 0x7f010001"), uberRDotTxt);
+    filesystem.writeContentsToPath("package com.stale;\n", staleRDotJava);
+    assertEquals(0, mergeStep.execute(executionContext).getExitCode());
+    assertFalse(filesystem.exists(staleRDotJava));
+    FileTime res1Written = filesystem.getLastModifiedTime(res1RDotJava);
+    FileTime res2Written = filesystem.getLastModifiedTime(res2RDotJava);
+
+    assertEquals(0, mergeStep.execute(executionContext).getExitCode());
+    assertEquals(res1Written, filesystem.getLastModifiedTime(res1RDotJava));
+    assertEquals(res2Written, filesystem.getLastModifiedTime(res2RDotJava));
+
+    filesystem.writeLinesToPath(
+        ImmutableList.of("int string one 0x7f010000", "int string two 0x7f010002"), uberRDotTxt);
+    assertEquals(0, mergeStep.execute(executionContext).getExitCode());
+    assertEquals(res1Written, filesystem.getLastModifiedTime(res1RDotJava));
+    assertNotEquals(res2Written, filesystem.getLastModifiedTime(res2RDotJava));
+    assertThat(
+        filesystem.readFileIfItExists(res2RDotJava).get(),
+        CoreMatchers.containsString("two=0x7f010002;"));
+
+    // A file replaced since it was written is rewritten even if its ids did not change.
+    filesystem.writeContentsToPath("package com.res1;\n", res1RDotJava);
+    assertEquals(0, mergeStep.execute(executionContext).getExitCode());
+    assertThat(
+        filesystem.readFileIfItExists(res1RDotJava).get(),
+        CoreMatchers.containsString("one=0x7f010000;"));
+  }
+
   @Test
   public void testGetRDotJavaFilesWithSkipPrebuiltRDotJava() {
     BuildTarget res1Target = BuildTargetFactory.newInstance("//:res1");
@@ -968,7 +1060,8 @@ public class MergeAndroidResourcesStepTest {
             Optional.empty(),
             Optional.empty(),
             /* useOldStyleableFormat */ false,
-            false);
+            false,
+            Optional.empty());
 
     StepExecutionResult result = mergeStep.execute(TestExecutionContext.newInstance());
     String message = result.getStderr().orElse("");
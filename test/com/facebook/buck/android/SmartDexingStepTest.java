@@ -31,14 +31,12 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.util.sha1.Sha1HashCode;
-import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.io.Files;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -68,36 +66,69 @@ public class SmartDexingStepTest {
     }
 
     File outputFile = tmpDir.newFile("out.dex");
-    Path outputHashFile = new File(tmpDir.getRoot(), "out.dex.hash").toPath();
-    Files.write("dummy", outputHashFile.toFile(), Charsets.UTF_8);
 
     ProjectFilesystem filesystem =
         TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
 
     Sha1HashCode actualHashCode = Sha1HashCode.of(Strings.repeat("a", 40));
-    DxPseudoRule rule =
-        new DxPseudoRule(
-            createAndroidPlatformTarget(),
-            FakeBuildContext.NOOP_CONTEXT,
-            filesystem,
-            ImmutableMap.of(testIn.toPath(), actualHashCode),
-            ImmutableSet.of(testIn.toPath()),
-            outputFile.toPath(),
-            outputHashFile,
-            EnumSet.of(DxStep.Option.NO_OPTIMIZE),
-            OptionalInt.empty(),
-            Optional.empty(),
-            DxStep.DX,
-            null);
+    DxPseudoRule rule = createDxPseudoRule(filesystem, testIn, outputFile, actualHashCode, "dummy");
     assertFalse("'dummy' is not a matching input hash", rule.checkIsCached());
 
-    // Write the real hash into the output hash file and ensure that checkIsCached now
-    // yields true.
+    // Pass the real hash as the previous hash and ensure that checkIsCached now yields true.
     String actualHash = rule.hashInputs();
     assertFalse(actualHash.isEmpty());
-    Files.write(actualHash, outputHashFile.toFile(), Charsets.UTF_8);
-
+    rule = createDxPseudoRule(filesystem, testIn, outputFile, actualHashCode, actualHash);
     assertTrue("Matching input hash should be considered cached", rule.checkIsCached());
+
+    assertTrue("Output must exist to be considered cached", outputFile.delete());
+    assertFalse(rule.checkIsCached());
+  }
+
+  private DxPseudoRule createDxPseudoRule(
+      ProjectFilesystem filesystem,
+      File input,
+      File output,
+      Sha1HashCode inputHashCode,
+      String previousInputsHash) {
+    return new DxPseudoRule(
+        createAndroidPlatformTarget(),
+        FakeBuildContext.NOOP_CONTEXT,
+        filesystem,
+        ImmutableMap.of(input.toPath(), inputHashCode),
+        ImmutableSet.of(input.toPath()),
+        output.toPath(),
+        previousInputsHash,
+        EnumSet.of(DxStep.Option.NO_OPTIMIZE),
+        OptionalInt.empty(),
+        Optional.empty(),
+        DxStep.DX,
+        null);
+  }
+
+  @Test
+  public void testInputHashIndexRoundTrips() throws Exception {
+    ProjectFilesystem filesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
+    Path index = Paths.get(SmartDexingStep.INPUT_HASH_INDEX_FILE_NAME);
+    assertEquals(
+        "A missing index has no hashes",
+        ImmutableMap.of(),
+        SmartDexingStep.readInputHashIndex(filesystem, index));
+
+    ImmutableMap<Path, String> hashes =
+        ImmutableMap.of(
+            Paths.get("classes.dex"),
+            Strings.repeat("a", 40),
+            Paths.get("secondary dir", "secondary-1.dex.jar"),
+            Strings.repeat("b", 40));
+    SmartDexingStep.writeInputHashIndex(filesystem, index, hashes);
+    assertEquals(hashes, SmartDexingStep.readInputHashIndex(filesystem, index));
+
+    filesystem.writeContentsToPath("garbage", index);
+    assertEquals(
+        "A corrupt index has no hashes",
+        ImmutableMap.of(),
+        SmartDexingStep.readInputHashIndex(filesystem, index));
   }
 
   @Test
@@ -183,7 +183,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            Optional.empty());
 
     Predicate<String> requiredInPrimaryZipPredicate =
         splitZipStep.createRequiredInPrimaryZipPredicate(
@@ -274,7 +275,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            Optional.empty());
 
     ProguardTranslatorFactory translatorFactory =
         ProguardTranslatorFactory.create(
@@ -350,7 +352,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            Optional.empty());
 
     ProguardTranslatorFactory translatorFactory =
         ProguardTranslatorFactory.create(
@@ -425,7 +428,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            Optional.empty());
 
     Predicate<String> requiredInPrimaryZipPredicate =
         splitZipStep.createRequiredInPrimaryZipPredicate(
@@ -509,7 +513,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            Optional.empty());
 
     ProguardTranslatorFactory translatorFactory =
         ProguardTranslatorFactory.create(
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.dalvik;
+
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.jvm.java.classes.AbstractFileLike;
+import com.facebook.buck.jvm.java.classes.FileLike;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Measures how long it takes to get the dalvik stats of every class in a set of synthetic jars,
+ * with no stored stats, with stats stored by a build in which some of the classes were different,
+ * and with stats stored by a build of the same classes.
+ *
+ * <p>The classes are read from the jars before the benchmark runs, so that it doesn't measure
+ * inflating them.
+ */
+public class DalvikStatsCacheBenchmark {
+  @Param({"10000", "100000"})
+  private int classCount = 1000;
+
+  @Param({"10"})
+  private int jarCount = 2;
+
+  @Param({"COLD", "INCREMENTAL", "WARM"})
+  private CacheState cacheState = CacheState.INCREMENTAL;
+
+  /** What the stored stats were computed from. */
+  public enum CacheState {
+    /** There are no stored stats. */
+    COLD,
+    /** One in a hundred classes has changed since the stats were stored. */
+    INCREMENTAL,
+    /** The stats were stored for the same classes. */
+    WARM,
+  }
+
+  private Path root;
+  private Path storePath;
+  private Path[] jars;
+  private List<FileLike> classes;
+
+  @Before
+  public void setUpTest() throws IOException {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    root = Files.createTempDirectory("dalvik-stats-benchmark");
+    storePath = root.resolve("dalvik_stats_cache");
+    jars = new Path[jarCount];
+    if (cacheState != CacheState.COLD) {
+      writeJars(cacheState == CacheState.INCREMENTAL ? 100 : 0);
+      DalvikStatsCache cache = DalvikStatsCache.load(storePath);
+      for (FileLike file : readClasses()) {
+        cache.getStats(file);
+      }
+      cache.save();
+    }
+    writeJars(0);
+    classes = readClasses();
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MostFiles.deleteRecursively(root);
+  }
+
+  @Test
+  public void getStatsOfAllClasses() throws IOException {
+    getStats(1);
+  }
+
+  /** Loads the stored stats and gets the stats of every class, as a split-zip step would. */
+  @Benchmark
+  public void getStats(int reps) throws IOException {
+    for (int rep = 0; rep < reps; rep++) {
+      DalvikStatsCache cache = DalvikStatsCache.load(storePath);
+      for (FileLike file : classes) {
+        cache.getStats(file);
+      }
+    }
+  }
+
+  /**
+   * Writes the synthetic jars. If {@code changeEvery} is positive, every {@code changeEvery}th
+   * class differs from the one written when it is zero.
+   */
+  private void writeJars(int changeEvery) throws IOException {
+    for (int jar = 0; jar < jarCount; jar++) {
+      jars[jar] = root.resolve("lib" + jar + ".jar");
+      try (ZipOutputStream out =
+          new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(jars[jar])))) {
+        for (int i = jar; i < classCount; i += jarCount) {
+          String name = "com/example/pkg" + (i % 100) + "/Class" + i;
+          boolean changed = changeEvery > 0 && i % changeEvery == 0;
+          out.putNextEntry(new ZipEntry(name + ".class"));
+          out.write(generateClass(name, i, changed));
+          out.closeEntry();
+        }
+      }
+    }
+  }
+
+  private List<FileLike> readClasses() throws IOException {
+    List<FileLike> classes = new ArrayList<>();
+    for (Path jar : jars) {
+      try (ZipFile zip = new ZipFile(jar.toFile())) {
+        for (ZipEntry entry : Collections.list(zip.entries())) {
+          classes.add(
+              new BytesFileLike(
+                  jar, entry.getName(), ByteStreams.toByteArray(zip.getInputStream(entry))));
+        }
+      }
+    }
+    return classes;
+  }
+
+  /** A class with a few fields, and methods calling methods of other classes. */
+  private static byte[] generateClass(String name, int index, boolean changed) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    for (int field = 0; field < 4; field++) {
+      writer.visitField(Opcodes.ACC_PRIVATE, "field" + field, "I", null, null).visitEnd();
+    }
+    for (int method = 0; method < 8; method++) {
+      MethodVisitor visitor =
+          writer.visitMethod(
+              Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "method" + method, "()V", null, null);
+      visitor.visitCode();
+      for (int call = 1; call <= 4; call++) {
+        visitor.visitMethodInsn(
+            Opcodes.INVOKESTATIC,
+            "com/example/pkg" + ((index + call) % 100) + "/Class" + (index + call),
+            (changed ? "changed" : "method") + ((method + call) % 8),
+            "()V",
+            false);
+      }
+      visitor.visitInsn(Opcodes.RETURN);
+      visitor.visitMaxs(0, 0);
+      visitor.visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private static class BytesFileLike extends AbstractFileLike {
+    private final Path container;
+    private final String relativePath;
+    private final byte[] contents;
+
+    private BytesFileLike(Path container, String relativePath, byte[] contents) {
+      this.container = container;
+      this.relativePath = relativePath;
+      this.contents = contents;
+    }
+
+    @Override
+    public Path getContainer() {
+      return container;
+    }
+
+    @Override
+    public String getRelativePath() {
+      return relativePath;
+    }
+
+    @Override
+    public long getSize() {
+      return contents.length;
+    }
+
+    @Override
+    public InputStream getInput() {
+      return new ByteArrayInputStream(contents);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.dalvik;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.jvm.java.classes.AbstractFileLike;
+import com.facebook.buck.jvm.java.classes.FileLike;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class DalvikStatsCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path storePath;
+
+  @Before
+  public void setUp() {
+    storePath = tmp.getRoot().resolve("dalvik_stats_cache");
+  }
+
+  @Test
+  public void storedStatsSurviveReloading() throws IOException {
+    FileLike first = classFile("com/example/First", "one");
+    FileLike second = classFile("com/example/Second", "two");
+    DalvikStatsCache cache = DalvikStatsCache.load(storePath);
+    DalvikStatsTool.Stats firstStats = cache.getStats(first);
+    DalvikStatsTool.Stats secondStats = cache.getStats(second);
+    cache.save();
+
+    DalvikStatsCache reloaded = DalvikStatsCache.load(storePath);
+    assertStatsEqual(firstStats, reloaded.getStats(classFile("com/example/First", "one")));
+    assertStatsEqual(secondStats, reloaded.getStats(classFile("com/example/Second", "two")));
+  }
+
+  @Test
+  public void unchangedStatsAreNotRewritten() throws IOException {
+    DalvikStatsCache cache = DalvikStatsCache.load(storePath);
+    cache.getStats(classFile("com/example/First", "one"));
+    cache.save();
+    FileTime old = FileTime.fromMillis(0);
+    Files.setLastModifiedTime(storePath, old);
+
+    DalvikStatsCache reloaded = DalvikStatsCache.load(storePath);
+    reloaded.getStats(classFile("com/example/First", "one"));
+    reloaded.save();
+    assertEquals(old, Files.getLastModifiedTime(storePath));
+
+    reloaded = DalvikStatsCache.load(storePath);
+    reloaded.getStats(classFile("com/example/First", "changed"));
+    reloaded.save();
+    assertEquals(storeSize(classFile("com/example/First", "changed")), Files.size(storePath));
+  }
+
+  @Test
+  public void unreadableStoreStartsEmpty() throws IOException {
+    Files.write(storePath, new byte[] {0x44, 0x53, 0x43, 0x31, 0, 0, 0, 1, 0, 0});
+    FileLike file = classFile("com/example/First", "one");
+    DalvikStatsCache cache = DalvikStatsCache.load(storePath);
+    assertStatsEqual(new DalvikStatsCache().getStats(file), cache.getStats(file));
+    cache.save();
+
+    assertStatsEqual(
+        new DalvikStatsCache().getStats(file), DalvikStatsCache.load(storePath).getStats(file));
+  }
+
+  @Test
+  public void nonClassFilesAreNotStored() throws IOException {
+    DalvikStatsCache cache = DalvikStatsCache.load(storePath);
+    assertEquals(
+        DalvikStatsTool.Stats.ZERO,
+        cache.getStats(new BytesFileLike("META-INF/MANIFEST.MF", new byte[] {1, 2, 3})));
+    cache.save();
+    assertEquals(false, Files.exists(storePath));
+  }
+
+  private long storeSize(FileLike file) throws IOException {
+    Path otherStore = tmp.getRoot().resolve("other_cache");
+    DalvikStatsCache cache = DalvikStatsCache.load(otherStore);
+    cache.getStats(file);
+    cache.save();
+    return Files.size(otherStore);
+  }
+
+  private static void assertStatsEqual(
+      DalvikStatsTool.Stats expected, DalvikStatsTool.Stats actual) {
+    assertEquals(expected.estimatedLinearAllocSize, actual.estimatedLinearAllocSize);
+    assertEquals(expected.methodReferences, actual.methodReferences);
+    assertEquals(expected.fieldReferences, actual.fieldReferences);
+  }
+
+  /** A class with a field and a method which refers to {@code methodName} on another class. */
+  private static FileLike classFile(String name, String methodName) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    writer.visitField(Opcodes.ACC_PRIVATE, "field", "I", null, null).visitEnd();
+    MethodVisitor method =
+        writer.visitMethod(Opcodes.ACC_PUBLIC, methodName, "()V", null, null);
+    method.visitCode();
+    method.visitMethodInsn(
+        Opcodes.INVOKESTATIC, "com/example/Other", methodName, "()V", false);
+    method.visitInsn(Opcodes.RETURN);
+    method.visitMaxs(0, 0);
+    method.visitEnd();
+    writer.visitEnd();
+    return new BytesFileLike(name + ".class", writer.toByteArray());
+  }
+
+  private static class BytesFileLike extends AbstractFileLike {
+    private final String relativePath;
+    private final byte[] contents;
+
+    private BytesFileLike(String relativePath, byte[] contents) {
+      this.relativePath = relativePath;
+      this.contents = contents;
+    }
+
+    @Override
+    public Path getContainer() {
+      return Paths.get("classes.jar");
+    }
+
+    @Override
+    public String getRelativePath() {
+      return relativePath;
+    }
+
+    @Override
+    public long getSize() {
+      return contents.length;
+    }
+
+    @Override
+    public InputStream getInput() {
+      return new ByteArrayInputStream(contents);
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.android.resources;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
@@ -32,6 +33,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.IntBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import org.junit.Before;
 import org.junit.Rule;
@@ -101,6 +103,32 @@ public class ExoResourcesRewriterTest {
     assertEquals(expected, content);
   }
 
+  @Test
+  public void testRewriteResourcesDoesNotModifyInput() throws IOException {
+    byte[] input = Files.readAllBytes(apkPath);
+    ExoResourcesRewriter.rewriteResources(
+        apkPath,
+        tmpFolder.getRoot().resolve("primary.apk"),
+        tmpFolder.getRoot().resolve("exo.apk"));
+
+    assertArrayEquals(input, Files.readAllBytes(apkPath));
+  }
+
+  @Test
+  public void testRewriteResourcesFromReadOnlyInput() throws IOException {
+    Path readOnlyApk = tmpFolder.getRoot().resolve(APK_NAME);
+    Files.copy(apkPath, readOnlyApk);
+    assertTrue(readOnlyApk.toFile().setReadOnly());
+    Path primaryOutput = tmpFolder.getRoot().resolve("primary.apk");
+    Path expectedPrimaryOutput = tmpFolder.getRoot().resolve("expected_primary.apk");
+    ExoResourcesRewriter.rewriteResources(
+        readOnlyApk, primaryOutput, tmpFolder.getRoot().resolve("exo.apk"));
+    ExoResourcesRewriter.rewriteResources(
+        apkPath, expectedPrimaryOutput, tmpFolder.getRoot().resolve("expected_exo.apk"));
+
+    assertArrayEquals(Files.readAllBytes(expectedPrimaryOutput), Files.readAllBytes(primaryOutput));
+  }
+
   @Test
   public void testRewriteRTxt() throws IOException {
     assumeTrue(Platform.detect() != Platform.WINDOWS);
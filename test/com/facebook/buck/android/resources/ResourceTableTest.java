@@ -221,6 +221,27 @@ public class ResourceTableTest {
     }
   }
 
+  @Test
+  public void testSliceResourceTableWithoutBackingArray() throws Exception {
+    try (ZipFile apkZip = new ZipFile(apkPath.toFile())) {
+      byte[] data =
+          ByteStreams.toByteArray(apkZip.getInputStream(apkZip.getEntry("resources.arsc")));
+      // Memory-mapped tables are read from direct buffers, which have no backing array.
+      ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+      direct.put(data);
+      ResourceTable mappedTable = ResourceTable.get(ResChunk.slice(direct, 0));
+      ResourceTable heapTable = ResourceTable.get(ResChunk.wrap(data));
+      Map<Integer, Integer> counts = new HashMap<>();
+      for (ResTableTypeSpec spec : heapTable.getPackage().getTypeSpecs()) {
+        counts.put(spec.getResourceType(), Math.min(spec.getEntryCount(), 1));
+      }
+
+      assertArrayEquals(
+          ResourceTable.slice(heapTable, counts).serialize(),
+          ResourceTable.slice(mappedTable, counts).serialize());
+    }
+  }
+
   @Test
   public void testSliceResourceTableStringsAreOptimized() throws Exception {
     try (ZipFile apkZip = new ZipFile(apkPath.toFile())) {
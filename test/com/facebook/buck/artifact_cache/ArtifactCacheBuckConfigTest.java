@@ -24,6 +24,7 @@ import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig.Executor;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.artifact_cache.config.DirCacheEntry;
+import com.facebook.buck.artifact_cache.config.DirCacheEvictionMode;
 import com.facebook.buck.artifact_cache.config.HttpCacheEntry;
 import com.facebook.buck.core.config.BuckConfigTestUtils;
 import com.facebook.buck.core.exceptions.HumanReadableException;
@@ -188,6 +189,23 @@ public class ArtifactCacheBuckConfigTest {
     assertThat(dirCacheConfig.getMaxSizeBytes(), Matchers.equalTo(Optional.of(1022L)));
   }
 
+  @Test
+  public void testLegacyDirCacheEvictionModeSetting() throws IOException {
+    ArtifactCacheBuckConfig config =
+        createFromText(
+            "[cache]",
+            "dir_cache_names = name1",
+            "dir_eviction_mode = index",
+            "[cache#name1]",
+            "dir = cache_dir_name1");
+
+    ImmutableList<DirCacheEntry> entries =
+        ImmutableList.copyOf(config.getCacheEntries().getDirCacheEntries());
+    assertThat(entries, Matchers.hasSize(2));
+    assertThat(entries.get(0).getEvictionMode(), Matchers.is(DirCacheEvictionMode.INDEX));
+    assertThat(entries.get(1).getEvictionMode(), Matchers.is(DirCacheEvictionMode.WALK));
+  }
+
   @Test
   public void testMultipleDirCacheSettings() throws IOException {
     ArtifactCacheBuckConfig config =
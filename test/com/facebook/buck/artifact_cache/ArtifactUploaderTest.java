@@ -18,10 +18,12 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.facebook.buck.artifact_cache.config.ArtifactCompressionSettings;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
@@ -30,32 +32,45 @@ import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.MorePosixFilePermissions;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.testutil.integration.TarInspector;
+import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Untar;
+import com.facebook.buck.util.zstd.ZstdFramesInputStream;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
 import org.hamcrest.Matchers;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class ArtifactUploaderTest {
 
   private static final BuildTarget BUILD_TARGET = BuildTargetFactory.newInstance("//foo:bar");
 
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
   @Test
   public void testPerformUploadToArtifactCache() throws IOException {
 
@@ -127,6 +142,7 @@ public class ArtifactUploaderTest {
         ImmutableSortedSet.of(dir, file, dirFile, metadataFile),
         BUILD_TARGET,
         filesystem,
+        ArtifactCompressionSettings.of(),
         1000);
 
     assertTrue(stored.get());
@@ -162,4 +178,81 @@ public class ArtifactUploaderTest {
           Matchers.contains(PosixFilePermission.OWNER_EXECUTE));
     }
   }
+
+  @Test
+  public void compressWithMultipleThreadsWritesFramesReadableAsOneStream() throws Exception {
+    ProjectFilesystem fs = FakeProjectFilesystem.createJavaOnlyFilesystem("/");
+
+    Path out = fs.getRootPath().resolve("out");
+    Path file = Paths.get("file");
+    byte[] contents = new byte[300 * 1024];
+    new Random(0).nextBytes(contents);
+    fs.writeBytesToPath(contents, file);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      ArtifactUploader.compress(
+          fs,
+          ImmutableList.of(file),
+          out,
+          ArtifactCompressionSettings.builder()
+              .setCompressionThreads(4)
+              .setFrameSizeBytes(64 * 1024)
+              .build(),
+          executor);
+    } finally {
+      executor.shutdown();
+    }
+
+    ImmutableMap<String, byte[]> archiveContents = TarInspector.readTarZst(out);
+    assertEquals(ImmutableSet.of(file.toString()), archiveContents.keySet());
+    assertArrayEquals(contents, archiveContents.get(file.toString()));
+  }
+
+  @Test
+  public void compressStoresDuplicateContentsAsLinks() throws Exception {
+    ProjectFilesystem fs = FakeProjectFilesystem.createJavaOnlyFilesystem("/");
+
+    Path out = fs.getRootPath().resolve("out");
+    Path first = Paths.get("first");
+    Path duplicate = Paths.get("dir", "duplicate");
+    Path sameSize = Paths.get("same_size");
+    fs.mkdirs(duplicate.getParent());
+    fs.writeContentsToPath("contents", first);
+    fs.writeContentsToPath("contents", duplicate);
+    fs.writeContentsToPath("CONTENTS", sameSize);
+
+    ArtifactUploader.compress(
+        fs,
+        ImmutableList.of(first, duplicate, sameSize),
+        out,
+        ArtifactCompressionSettings.builder().setDeduplicateContents(true).build(),
+        MoreExecutors.directExecutor());
+
+    try (TarArchiveInputStream fin =
+        new TarArchiveInputStream(new ZstdFramesInputStream(Files.newInputStream(out)))) {
+      ImmutableMap.Builder<String, TarArchiveEntry> entries = ImmutableMap.builder();
+      TarArchiveEntry entry;
+      while ((entry = fin.getNextTarEntry()) != null) {
+        entries.put(entry.getName(), entry);
+      }
+      ImmutableMap<String, TarArchiveEntry> entriesByName = entries.build();
+      assertFalse(entriesByName.get(first.toString()).isLink());
+      assertTrue(entriesByName.get(duplicate.toString()).isLink());
+      assertEquals(first.toString(), entriesByName.get(duplicate.toString()).getLinkName());
+      assertFalse(entriesByName.get(sameSize.toString()).isLink());
+    }
+
+    // Links are extracted as copies of the file they point to.
+    ProjectFilesystem extracted = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Untar.zstdUnarchiver()
+        .extractArchive(
+            out,
+            extracted,
+            Paths.get(""),
+            Optional.empty(),
+            ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+    assertEquals(Optional.of("contents"), extracted.readFileIfItExists(duplicate));
+    assertEquals(Optional.of("CONTENTS"), extracted.readFileIfItExists(sameSize));
+  }
 }
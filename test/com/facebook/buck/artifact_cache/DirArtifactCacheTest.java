@@ -24,6 +24,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.DirCacheEvictionMode;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rulekey.RuleKey;
@@ -855,6 +856,89 @@ public class DirArtifactCacheTest {
             .getType());
   }
 
+  @Test
+  public void testIndexedEvictionDeletesLeastRecentlyUsedEntries() throws IOException {
+    // Each entry takes 5 bytes: a 1-byte artifact and a 4-byte empty metadata file.
+    dirArtifactCache =
+        newDirArtifactCache(Optional.of(15L), CacheReadMode.READWRITE, DirCacheEvictionMode.INDEX);
+
+    RuleKey ruleKeyA = new RuleKey("aaaa");
+    RuleKey ruleKeyB = new RuleKey("bbbb");
+    RuleKey ruleKeyC = new RuleKey("cccc");
+    RuleKey ruleKeyD = new RuleKey("dddd");
+
+    storeOneByteArtifact(dirArtifactCache, ruleKeyA);
+    storeOneByteArtifact(dirArtifactCache, ruleKeyB);
+    storeOneByteArtifact(dirArtifactCache, ruleKeyC);
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeyA));
+
+    // Going over 15 bytes trims the cache down to 10 bytes, dropping the two oldest entries.
+    storeOneByteArtifact(dirArtifactCache, ruleKeyD);
+
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeyA));
+    assertEquals(CacheResultType.MISS, fetch(dirArtifactCache, ruleKeyB));
+    assertEquals(CacheResultType.MISS, fetch(dirArtifactCache, ruleKeyC));
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeyD));
+    assertFalse(Files.exists(dirArtifactCache.getPathForRuleKey(ruleKeyB, Optional.empty())));
+    assertFalse(
+        Files.exists(dirArtifactCache.getPathForRuleKey(ruleKeyB, Optional.of(".metadata"))));
+  }
+
+  @Test
+  public void testIndexedEvictionOrderSurvivesReopening() throws IOException {
+    RuleKey ruleKeyA = new RuleKey("aaaa");
+    RuleKey ruleKeyB = new RuleKey("bbbb");
+    RuleKey ruleKeyC = new RuleKey("cccc");
+    RuleKey ruleKeyD = new RuleKey("dddd");
+
+    DirArtifactCache cache =
+        newDirArtifactCache(Optional.of(15L), CacheReadMode.READWRITE, DirCacheEvictionMode.INDEX);
+    storeOneByteArtifact(cache, ruleKeyA);
+    storeOneByteArtifact(cache, ruleKeyB);
+    storeOneByteArtifact(cache, ruleKeyC);
+    assertEquals(CacheResultType.HIT, fetch(cache, ruleKeyA));
+    cache.close();
+
+    dirArtifactCache =
+        newDirArtifactCache(Optional.of(15L), CacheReadMode.READWRITE, DirCacheEvictionMode.INDEX);
+    storeOneByteArtifact(dirArtifactCache, ruleKeyD);
+
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeyA));
+    assertEquals(CacheResultType.MISS, fetch(dirArtifactCache, ruleKeyB));
+    assertEquals(CacheResultType.MISS, fetch(dirArtifactCache, ruleKeyC));
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeyD));
+  }
+
+  @Test
+  public void testIndexIsSeededFromExistingEntries() throws IOException {
+    RuleKey ruleKeyA = new RuleKey("aaaa");
+    RuleKey ruleKeyB = new RuleKey("bbbb");
+
+    DirArtifactCache cache = newDirArtifactCache(Optional.empty(), CacheReadMode.READWRITE);
+    storeOneByteArtifact(cache, ruleKeyA);
+    storeOneByteArtifact(cache, ruleKeyB);
+    cache.close();
+    for (Optional<String> extension :
+        ImmutableList.of(Optional.<String>empty(), Optional.of(".metadata"))) {
+      Files.setAttribute(
+          cache.getPathForRuleKey(ruleKeyA, extension),
+          "lastAccessTime",
+          FileTime.fromMillis(2000));
+      Files.setAttribute(
+          cache.getPathForRuleKey(ruleKeyB, extension),
+          "lastAccessTime",
+          FileTime.fromMillis(1000));
+    }
+
+    // Trimming to 8 bytes leaves room for a single 5-byte entry.
+    dirArtifactCache =
+        newDirArtifactCache(Optional.of(8L), CacheReadMode.READWRITE, DirCacheEvictionMode.INDEX);
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeyA));
+    assertEquals(CacheResultType.MISS, fetch(dirArtifactCache, ruleKeyB));
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws IOException {
     Path fileX = tmpDir.newFile("x");
@@ -941,12 +1025,36 @@ public class DirArtifactCacheTest {
 
   private DirArtifactCache newDirArtifactCache(
       Optional<Long> maxCacheSizeBytes, CacheReadMode cacheReadMode) throws IOException {
+    return newDirArtifactCache(maxCacheSizeBytes, cacheReadMode, DirCacheEvictionMode.WALK);
+  }
+
+  private DirArtifactCache newDirArtifactCache(
+      Optional<Long> maxCacheSizeBytes,
+      CacheReadMode cacheReadMode,
+      DirCacheEvictionMode evictionMode)
+      throws IOException {
     return new DirArtifactCache(
         "dir",
         projectFilesystem,
         cacheDir,
         cacheReadMode,
         maxCacheSizeBytes,
+        evictionMode,
         MoreExecutors.newDirectExecutorService());
   }
+
+  private void storeOneByteArtifact(DirArtifactCache cache, RuleKey ruleKey) throws IOException {
+    Path data = tmpDir.newFile();
+    Files.write(data, "x".getBytes(UTF_8));
+    Futures.getUnchecked(
+        cache.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+            BorrowablePath.notBorrowablePath(data)));
+  }
+
+  private CacheResultType fetch(DirArtifactCache cache, RuleKey ruleKey) throws IOException {
+    return Futures.getUnchecked(
+            cache.fetchAsync(null, ruleKey, LazyPath.ofInstance(tmpDir.newFile())))
+        .getType();
+  }
 }
@@ -42,6 +42,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -50,6 +51,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -214,6 +216,75 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchStreamed() throws Exception {
+    Path output = Paths.get("output/file");
+    String data = "test";
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setStreamingFetchEnabled(true);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of("key", "value"),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .message("")
+                      .build();
+              return new OkHttpResponseWrapper(response);
+            }));
+
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    StreamableLazyPath streamableOutput =
+        new StreamableLazyPath(
+            new StreamableLazyPath.PayloadConsumer() {
+              @Override
+              public boolean accepts(ImmutableMap<String, String> metadata) {
+                return metadata.containsKey("key");
+              }
+
+              @Override
+              public void consume(ImmutableMap<String, String> metadata, InputStream payload)
+                  throws IOException {
+                ByteStreams.copy(payload, streamed);
+              }
+            }) {
+          @Override
+          protected Path create() {
+            return output;
+          }
+        };
+
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, ruleKey, streamableOutput));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertTrue(streamableOutput.wasStreamed());
+    assertEquals(data, new String(streamed.toByteArray(), Charsets.UTF_8));
+    assertEquals(Optional.of(""), filesystem.readFileIfItExists(output));
+    assertEquals(result.artifactSizeBytes(), Optional.of((long) data.length()));
+
+    // Artifacts are still written to disk when the consumer doesn't want them.
+    streamed.reset();
+    result =
+        Futures.getUnchecked(
+            cache.fetchAsync(
+                null, ruleKey, StreamableLazyPath.withoutStreaming(streamableOutput)));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals(0, streamed.size());
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    cache.close();
+  }
+
   @Test
   public void testFetchUrl() {
     RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
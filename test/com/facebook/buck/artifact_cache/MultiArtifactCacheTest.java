@@ -17,6 +17,7 @@
 package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
@@ -36,7 +37,9 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -414,4 +417,65 @@ public class MultiArtifactCacheTest {
 
     multiArtifactCache.close();
   }
+
+  @Test
+  public void fetchFromNextCacheAfterFailedStreamingFetchIsNotReportedAsStreamed()
+      throws Exception {
+    ArtifactCache streamingCache =
+        new NoopArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+            try {
+              // Start streaming the artifact, then fail partway.
+              ((StreamableLazyPath) output)
+                  .consume(ImmutableMap.of(), new ByteArrayInputStream(new byte[] {1, 2, 3}));
+            } catch (IOException e) {
+              throw new AssertionError(e);
+            }
+            return Futures.immediateFuture(
+                CacheResult.error("streaming", ArtifactCacheMode.http, "connection reset"));
+          }
+        };
+    ArtifactCache hittingCache =
+        new NoopArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+            try {
+              output.get();
+            } catch (IOException e) {
+              throw new AssertionError(e);
+            }
+            return Futures.immediateFuture(CacheResult.hit("dir", ArtifactCacheMode.dir));
+          }
+        };
+    // Both caches are read-only, so the output is handed to them as is.
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(streamingCache, hittingCache));
+
+    Path file = tmp.newFile();
+    StreamableLazyPath output =
+        new StreamableLazyPath(
+            new StreamableLazyPath.PayloadConsumer() {
+              @Override
+              public boolean accepts(ImmutableMap<String, String> metadata) {
+                return true;
+              }
+
+              @Override
+              public void consume(ImmutableMap<String, String> metadata, InputStream payload) {}
+            }) {
+          @Override
+          protected Path create() {
+            return file;
+          }
+        };
+
+    CacheResult result = multiArtifactCache.fetchAsync(null, dummyRuleKey, output).get();
+    assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertFalse(output.wasStreamed());
+
+    multiArtifactCache.close();
+  }
 }
@@ -17,6 +17,7 @@
 package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.DirCacheEvictionMode;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
@@ -34,6 +35,7 @@ public class TestArtifactCaches {
         cacheDir,
         CacheReadMode.READWRITE,
         Optional.empty(),
+        DirCacheEvictionMode.WALK,
         MoreExecutors.newDirectExecutorService());
   }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Measures metadata throughput of {@link SQLiteBuildInfoStore} as build threads are added. */
+public class SQLiteBuildInfoStoreBenchmark {
+  @Param({"1", "4", "16", "32"})
+  private int threadCount = 4;
+
+  @Param({"100"})
+  private int rulesPerThread = 10;
+
+  private Path root;
+  private SQLiteBuildInfoStore store;
+  private ExecutorService executor;
+  private List<List<BuildTarget>> targetsPerThread;
+
+  @Before
+  public void setUpTest() throws IOException {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    root = Files.createTempDirectory("buildinfo-benchmark");
+    store = new SQLiteBuildInfoStore(TestProjectFilesystems.createProjectFilesystem(root));
+    executor = Executors.newFixedThreadPool(threadCount);
+    targetsPerThread = new ArrayList<>();
+    for (int thread = 0; thread < threadCount; thread++) {
+      List<BuildTarget> targets = new ArrayList<>();
+      for (int rule = 0; rule < rulesPerThread; rule++) {
+        targets.add(BuildTargetFactory.newInstance("//thread" + thread + ":rule" + rule));
+      }
+      targetsPerThread.add(targets);
+    }
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    executor.shutdownNow();
+    store.close();
+    MostFiles.deleteRecursively(root);
+  }
+
+  @Test
+  public void finishRulesConcurrently() throws Exception {
+    finishRules(1);
+  }
+
+  /** Each thread records the metadata of its rules, then reads it back as a cache check would. */
+  @Benchmark
+  public void finishRules(int reps) throws Exception {
+    for (int rep = 0; rep < reps; rep++) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (List<BuildTarget> targets : targetsPerThread) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (BuildTarget target : targets) {
+                    store.updateMetadata(
+                        target,
+                        ImmutableMap.of(
+                            "RULE_KEY", target.getFullyQualifiedName(),
+                            "TARGET", target.getShortName(),
+                            "RECORDED_PATHS", "[]"));
+                    store.readMetadata(target, "RULE_KEY");
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SQLiteBuildInfoStoreTest {
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//foo:bar");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private SQLiteBuildInfoStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    store = new SQLiteBuildInfoStore(TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()));
+  }
+
+  @After
+  public void tearDown() {
+    store.close();
+  }
+
+  @Test
+  public void readsSeeCommittedWrites() throws IOException {
+    store.updateMetadata(TARGET, ImmutableMap.of("a", "1", "b", "2"));
+    store.updateMetadata(TARGET, ImmutableMap.of("b", "3"));
+    assertEquals(Optional.of("1"), store.readMetadata(TARGET, "a"));
+    assertEquals(ImmutableMap.of("a", "1", "b", "3"), store.getAllMetadata(TARGET));
+
+    store.deleteMetadata(TARGET);
+    assertEquals(Optional.empty(), store.readMetadata(TARGET, "a"));
+  }
+
+  @Test
+  public void concurrentWritersAreAllCommitted() throws Exception {
+    int threads = 16;
+    int targetsPerThread = 20;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < threads; thread++) {
+        int threadNumber = thread;
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < targetsPerThread; i++) {
+                    BuildTarget target = target(threadNumber, i);
+                    store.updateMetadata(target, ImmutableMap.of("key", target.toString()));
+                    assertEquals(Optional.of(target.toString()), store.readMetadata(target, "key"));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    store.close();
+    store = new SQLiteBuildInfoStore(TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()));
+    for (int thread = 0; thread < threads; thread++) {
+      for (int i = 0; i < targetsPerThread; i++) {
+        BuildTarget target = target(thread, i);
+        assertEquals(Optional.of(target.toString()), store.readMetadata(target, "key"));
+      }
+    }
+  }
+
+  private static BuildTarget target(int thread, int i) {
+    return BuildTargetFactory.newInstance("//thread" + thread + ":rule" + i);
+  }
+}
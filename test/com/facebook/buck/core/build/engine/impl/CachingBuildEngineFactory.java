@@ -16,6 +16,7 @@
 
 package com.facebook.buck.core.build.engine.impl;
 
+import com.facebook.buck.artifact_cache.config.ArtifactCompressionSettings;
 import com.facebook.buck.core.build.distributed.synchronization.RemoteBuildRuleCompletionWaiter;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
@@ -24,6 +25,7 @@ import com.facebook.buck.core.build.engine.delegate.LocalCachingBuildEngineDeleg
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.build.engine.type.MetadataStorage;
+import com.facebook.buck.core.rulekey.RuleKeyCalculationMode;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
@@ -148,6 +150,7 @@ public class CachingBuildEngineFactory {
           depFiles,
           maxDepFileCacheEntries,
           artifactCacheSizeLimit,
+          ArtifactCompressionSettings.of(),
           buildRuleResolver,
           buildInfoStoreManager,
           ruleFinder,
@@ -157,7 +160,9 @@ public class CachingBuildEngineFactory {
           resourceAwareSchedulingInfo,
           RuleKeyDiagnostics.nop(),
           logBuildRuleFailuresInline,
-          Optional.empty());
+          Optional.empty(),
+          Optional.empty(),
+          RuleKeyCalculationMode.FUTURES);
     }
 
     return new CachingBuildEngine(
@@ -170,6 +175,7 @@ public class CachingBuildEngineFactory {
         depFiles,
         maxDepFileCacheEntries,
         artifactCacheSizeLimit,
+        ArtifactCompressionSettings.of(),
         buildRuleResolver,
         ruleFinder,
         sourcePathResolver,
@@ -183,7 +189,9 @@ public class CachingBuildEngineFactory {
             inputFileSizeLimit,
             new TrackedRuleKeyCache<>(new DefaultRuleKeyCache<>(), new NoOpCacheStatsTracker())),
         remoteBuildRuleCompletionWaiter,
-        Optional.empty());
+        Optional.empty(),
+        Optional.empty(),
+        RuleKeyCalculationMode.FUTURES);
   }
 
   private static WeightedListeningExecutorService toWeighted(ListeningExecutorService service) {
@@ -171,6 +171,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.AbstractListeningExecutorService;
@@ -2086,6 +2087,32 @@ public class CachingBuildEngineTest {
         Predicate<BuildRule> canBuild = rule -> false;
         Optional<Builder> builder = Optional.empty();
         Runnable cancelCallback = () -> {};
+        ImmutableMap<String, String> deferredOutputs = ImmutableMap.of();
+        boolean canRestoreDeferredOutputs = false;
+        List<BuildRule> materializedRules = new ArrayList<>();
+
+        @Override
+        public boolean hasDeferredOutputs(BuildRule rule) {
+          return !deferredOutputs.isEmpty();
+        }
+
+        @Override
+        public ImmutableMap<String, String> getDeferredOutputs(BuildRule rule) {
+          return deferredOutputs;
+        }
+
+        @Override
+        public boolean restoreDeferredOutputs(
+            BuildRule rule, ImmutableMap<String, String> deferredOutputs) {
+          assertEquals(this.deferredOutputs, deferredOutputs);
+          return canRestoreDeferredOutputs;
+        }
+
+        @Override
+        public ListenableFuture<?> materializeOutputs(Iterable<BuildRule> rules) {
+          Iterables.addAll(materializedRules, rules);
+          return Futures.immediateFuture(null);
+        }
 
         @Override
         public StrategyBuildResult build(BuildRule rule, BuildStrategyContext strategyContext) {
@@ -2199,6 +2226,64 @@ public class CachingBuildEngineTest {
         runVerifiedBuild(rule);
       }
 
+      private BuildResult buildWithDeferredOutputs(BuildRule topLevelRule, boolean canRestore)
+          throws Exception {
+        strategy = new FakeStrategy();
+        strategy.canRestoreDeferredOutputs = canRestore;
+        strategy.deferredOutputs = ImmutableMap.of("buck-out/gen/out", "deferred");
+        strategy.canBuild = rule -> true;
+        strategy.builder =
+            Optional.of(
+                (service, rule, strategyContext) -> {
+                  try (Scope ignored = strategyContext.buildRuleScope()) {
+                    return Futures.immediateFuture(
+                        Optional.of(
+                            strategyContext.createBuildResult(BuildRuleSuccessType.BUILT_LOCALLY)));
+                  }
+                });
+        try (CachingBuildEngine cachingBuildEngine =
+            cachingBuildEngineFactory().setCustomBuildRuleStrategy(strategy).build()) {
+          return cachingBuildEngine
+              .build(buildContext, TestExecutionContext.newInstance(), topLevelRule)
+              .getResult()
+              .get();
+        }
+      }
+
+      @Test
+      public void deferredOutputsAreRecordedAndMaterializedWithRuntimeDeps() throws Exception {
+        FakeBuildRule runtimeDep = new FakeBuildRule("//:runtime_dep", filesystem);
+        graphBuilder.addToIndex(runtimeDep);
+        FakeBuildRule topLevelRule = new FakeBuildRule("//:top_level", filesystem);
+        topLevelRule.setRuntimeDeps(runtimeDep);
+        graphBuilder.addToIndex(topLevelRule);
+
+        BuildResult result = buildWithDeferredOutputs(topLevelRule, false);
+        assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
+        assertThat(strategy.materializedRules, Matchers.hasItems(topLevelRule, runtimeDep));
+
+        OnDiskBuildInfo onDiskBuildInfo =
+            buildContext.createOnDiskBuildInfoFor(
+                topLevelRule.getBuildTarget(), filesystem, buildInfoStore);
+        assertEquals(
+            Optional.of(strategy.deferredOutputs),
+            onDiskBuildInfo.getMap(BuildInfo.MetadataKey.DEFERRED_OUTPUTS));
+        // Outputs which aren't on disk can't be uploaded.
+        assertFalse(onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).isPresent());
+      }
+
+      @Test
+      public void deferredOutputsMatchOnlyIfTheStrategyCanRestoreThem() throws Exception {
+        assertEquals(
+            BuildRuleSuccessType.BUILT_LOCALLY, buildWithDeferredOutputs(rule, false).getSuccess());
+        assertEquals(
+            BuildRuleSuccessType.MATCHING_RULE_KEY,
+            buildWithDeferredOutputs(rule, true).getSuccess());
+        // Outputs which can't be restored are built again.
+        assertEquals(
+            BuildRuleSuccessType.BUILT_LOCALLY, buildWithDeferredOutputs(rule, false).getSuccess());
+      }
+
       @Test
       public void customBuildRuleStrategyGetsCancelCallOnFirstFailure() throws Exception {
         CountDownLatch failureBlocker = new CountDownLatch(1);
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CriticalPathPrioritizerTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ActionGraphBuilder graphBuilder;
+  private RuleDurationHistory history;
+
+  @Before
+  public void setUp() {
+    graphBuilder = new TestActionGraphBuilder();
+    history = RuleDurationHistory.load(tmp.getRoot().resolve(RuleDurationHistory.FILE_NAME));
+  }
+
+  @Test
+  public void priorityIsLongestChainOfDependents() {
+    // lib <- slow <- top
+    // lib <- fast <- top
+    BuildRule lib = createRule("//:lib", 10);
+    BuildRule slow = createRule("//:slow", 100, lib);
+    BuildRule fast = createRule("//:fast", 1, lib);
+    BuildRule top = createRule("//:top", 5, slow, fast);
+
+    CriticalPathPrioritizer prioritizer = newPrioritizer();
+    prioritizer.registerTopLevelRule(top);
+
+    assertEquals(5, prioritizer.getPriority(top));
+    assertEquals(105, prioritizer.getPriority(slow));
+    assertEquals(6, prioritizer.getPriority(fast));
+    assertEquals(115, prioritizer.getPriority(lib));
+  }
+
+  @Test
+  public void registeringAnotherTopLevelRuleUpdatesPriorities() {
+    BuildRule lib = createRule("//:lib", 10);
+    BuildRule first = createRule("//:first", 1, lib);
+    BuildRule second = createRule("//:second", 50, lib);
+
+    CriticalPathPrioritizer prioritizer = newPrioritizer();
+    prioritizer.registerTopLevelRule(first);
+    assertEquals(11, prioritizer.getPriority(lib));
+
+    prioritizer.registerTopLevelRule(second);
+    assertEquals(60, prioritizer.getPriority(lib));
+  }
+
+  @Test
+  public void unknownRulesAreEstimatedFromRulesOfTheSameType() {
+    createRule("//:known", 30);
+    BuildRule unknown = graphBuilder.addToIndex(new FakeBuildRule("//:unknown"));
+
+    CriticalPathPrioritizer prioritizer = newPrioritizer();
+    prioritizer.registerTopLevelRule(unknown);
+
+    assertEquals(30, prioritizer.getPriority(unknown));
+  }
+
+  @Test
+  public void durationsSurviveSavingAndLoading() throws IOException {
+    Path path = tmp.getRoot().resolve("buck-out").resolve(RuleDurationHistory.FILE_NAME);
+    BuildRule rule = graphBuilder.addToIndex(new FakeBuildRule("//:rule"));
+    RuleDurationHistory saved = RuleDurationHistory.load(path);
+    saved.record(rule, 40);
+    saved.record(rule, 20);
+    saved.save();
+
+    assertEquals(30, RuleDurationHistory.load(path).estimateDuration(rule));
+  }
+
+  @Test
+  public void unreadableHistoryIsIgnored() throws IOException {
+    Path path = tmp.getRoot().resolve(RuleDurationHistory.FILE_NAME);
+    Files.write(path, "not json".getBytes());
+    BuildRule rule = graphBuilder.addToIndex(new FakeBuildRule("//:rule"));
+
+    assertEquals(
+        RuleDurationHistory.DEFAULT_ESTIMATE_MILLIS,
+        RuleDurationHistory.load(path).estimateDuration(rule));
+  }
+
+  private CriticalPathPrioritizer newPrioritizer() {
+    return new CriticalPathPrioritizer(new DefaultRuleDepsCache(graphBuilder), history);
+  }
+
+  private BuildRule createRule(String target, long durationMillis, BuildRule... deps) {
+    BuildRule rule =
+        graphBuilder.addToIndex(new FakeBuildRule(BuildTargetFactory.newInstance(target), deps));
+    history.record(rule, durationMillis);
+    return rule;
+  }
+}
@@ -187,6 +187,23 @@ public class BuckConfigTest {
     assertThat(buckConfig.getNumThreads(), Matchers.equalTo(3));
   }
 
+  @Test
+  public void testArtifactFormatReflectsCompressionSettings() {
+    assertEquals("", FakeBuckConfig.builder().build().getArtifactFormat());
+    BuckConfig buckConfig =
+        FakeBuckConfig.builder()
+            .setSections(
+                ImmutableMap.of(
+                    "cache",
+                    ImmutableMap.of(
+                        "artifact_compression_threads",
+                        "4",
+                        "artifact_deduplicate_contents",
+                        "true")))
+            .build();
+    assertEquals("zstd_frames,tar_links", buckConfig.getArtifactFormat());
+  }
+
   @Test
   public void testDefaultsNumberOfBuildThreadsToOneAndAQuarterTheNumberOfAvailableProcessors() {
     BuckConfig buckConfig = FakeBuckConfig.builder().build();
@@ -1139,6 +1139,57 @@ public class IncrementalActionGraphScenarioTest {
     originalResult.getActionGraphBuilder().getBuildRules();
   }
 
+  @Test
+  public void testClosestCachedActionGraphIsUsedAndOthersKept() {
+    provider =
+        new ActionGraphProviderBuilder()
+            .withMaxEntries(3)
+            .withRuleKeyConfiguration(TestRuleKeyConfigurationFactory.createWithSeed(0))
+            .withEventBus(eventBus)
+            .withIncrementalActionGraphMode(IncrementalActionGraphMode.ENABLED)
+            .build();
+
+    BuildTarget libraryTarget = BuildTargetFactory.newInstance("//:cxx_library");
+    CxxLibraryBuilder libraryBuilder =
+        new CxxLibraryBuilder(libraryTarget)
+            .setSrcs(
+                ImmutableSortedSet.of(
+                    SourceWithFlags.of(FakeSourcePath.of("library.cpp"), ImmutableList.of())));
+    BuildTarget binaryTarget = BuildTargetFactory.newInstance("//:cxx_binary");
+    CxxBinaryBuilder binaryBuilder =
+        new CxxBinaryBuilder(binaryTarget)
+            .setSrcs(
+                ImmutableSortedSet.of(
+                    SourceWithFlags.of(FakeSourcePath.of("binary.cpp"), ImmutableList.of())))
+            .setDeps(ImmutableSortedSet.of(libraryTarget));
+    CxxBinaryBuilder changedBinaryBuilder =
+        new CxxBinaryBuilder(binaryTarget)
+            .setSrcs(
+                ImmutableSortedSet.of(
+                    SourceWithFlags.of(FakeSourcePath.of("binary2.cpp"), ImmutableList.of())))
+            .setDeps(ImmutableSortedSet.of(libraryTarget));
+    CxxLibraryBuilder unrelatedBuilder =
+        new CxxLibraryBuilder(BuildTargetFactory.newInstance("//:unrelated_library"));
+
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(buildNodes(binaryBuilder, libraryBuilder));
+    TargetGraph unrelatedTargetGraph =
+        TargetGraphFactory.newInstance(buildNodes(unrelatedBuilder));
+    ActionGraphAndBuilder result = provider.getActionGraph(targetGraph);
+    BuildRule libraryRule = result.getActionGraphBuilder().getRule(libraryTarget);
+
+    // Nothing is shared with the first action graph, so it stays cached.
+    ActionGraphAndBuilder unrelatedResult = provider.getActionGraph(unrelatedTargetGraph);
+    assertSame(result, provider.getActionGraph(targetGraph));
+
+    // The closest action graph is used as base, the unrelated one stays cached.
+    ActionGraphAndBuilder changedResult =
+        provider.getActionGraph(
+            TargetGraphFactory.newInstance(buildNodes(changedBinaryBuilder, libraryBuilder)));
+    assertSame(libraryRule, changedResult.getActionGraphBuilder().getRule(libraryTarget));
+    assertSame(unrelatedResult, provider.getActionGraph(unrelatedTargetGraph));
+  }
+
   @Test
   public void testIncrementalityDisabledOnSkipActionGraphCache() {
     BuildTarget target = BuildTargetFactory.newInstance("//:bin");
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.rulekey.calculator;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.RuleKeyCalculationMode;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how long {@link ParallelRuleKeyCalculator} takes to calculate the rule keys of a
+ * synthetic action graph, in which each rule depends on a few randomly chosen earlier rules.
+ */
+public class ParallelRuleKeyCalculatorBenchmark {
+  @Param({"10000", "100000", "1000000"})
+  private int ruleCount = 10000;
+
+  @Param({"4"})
+  private int depsPerRule = 4;
+
+  @Param({"8"})
+  private int threadCount = 4;
+
+  @Param({"FUTURES", "LOCK_FREE"})
+  private RuleKeyCalculationMode mode = RuleKeyCalculationMode.LOCK_FREE;
+
+  private List<BuildRule> rules;
+  private List<BuildRule> topLevelRules;
+  private ListeningExecutorService service;
+  private BuckEventBus eventBus;
+
+  private static final RuleDepsCache RULE_DEPS =
+      new RuleDepsCache() {
+        @Override
+        public SortedSet<BuildRule> get(BuildRule rule) {
+          return rule.getBuildDeps();
+        }
+
+        @Override
+        public SortedSet<BuildRule> getRuntimeDeps(BuildRule rule) {
+          return ImmutableSortedSet.of();
+        }
+      };
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws IOException {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Random random = new Random(42);
+    rules = new ArrayList<>(ruleCount);
+    Set<BuildRule> usedAsDep = new HashSet<>();
+    for (int i = 0; i < ruleCount; i++) {
+      BuildRule[] deps = new BuildRule[Math.min(i, depsPerRule)];
+      for (int j = 0; j < deps.length; j++) {
+        deps[j] = rules.get(random.nextInt(i));
+        usedAsDep.add(deps[j]);
+      }
+      rules.add(
+          new FakeBuildRule(
+              BuildTargetFactory.newInstance("//pkg" + i + ":rule"), filesystem, deps));
+    }
+    topLevelRules = new ArrayList<>();
+    for (BuildRule rule : rules) {
+      if (!usedAsDep.contains(rule)) {
+        topLevelRules.add(rule);
+      }
+    }
+    service = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
+    eventBus = BuckEventBusForTests.newInstance();
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    service.shutdownNow();
+    eventBus.close();
+  }
+
+  @Test
+  public void calculateRuleKeysOfGraph() throws ExecutionException, InterruptedException {
+    assertEquals(ruleCount, calculateRuleKeys(1));
+  }
+
+  /** Calculates the rule keys of all rules, starting from the rules nothing depends on. */
+  @Benchmark
+  public int calculateRuleKeys(int reps) throws ExecutionException, InterruptedException {
+    int calculated = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      ParallelRuleKeyCalculator<Long> calculator =
+          new ParallelRuleKeyCalculator<>(
+              service,
+              rule ->
+                  Hashing.murmur3_128()
+                      .hashString(rule.getFullyQualifiedName(), StandardCharsets.UTF_8)
+                      .asLong(),
+              RULE_DEPS,
+              (eventBus, rule) -> () -> {},
+              mode);
+      List<ListenableFuture<Long>> keys = new ArrayList<>(topLevelRules.size());
+      for (BuildRule rule : topLevelRules) {
+        keys.add(calculator.calculate(eventBus, rule));
+      }
+      Futures.allAsList(keys).get();
+      calculated = calculator.getAllKnownTargets().size();
+    }
+    return calculated;
+  }
+}
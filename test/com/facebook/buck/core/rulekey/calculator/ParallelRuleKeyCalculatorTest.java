@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.rulekey.calculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.build.engine.impl.DefaultRuleDepsCache;
+import com.facebook.buck.core.rulekey.RuleKeyCalculationMode;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.rules.keys.RuleKeyFactory;
+import com.facebook.buck.util.exceptions.BuckUncheckedExecutionException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class ParallelRuleKeyCalculatorTest {
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> data() {
+    return ImmutableSet.of(
+        new Object[] {RuleKeyCalculationMode.FUTURES},
+        new Object[] {RuleKeyCalculationMode.LOCK_FREE});
+  }
+
+  @Parameterized.Parameter public RuleKeyCalculationMode mode;
+
+  private ActionGraphBuilder graphBuilder;
+  private BuckEventBus eventBus;
+  private ListeningExecutorService service;
+
+  @Before
+  public void setUp() {
+    graphBuilder = new TestActionGraphBuilder();
+    eventBus = BuckEventBusForTests.newInstance();
+    service = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+  }
+
+  @After
+  public void tearDown() {
+    service.shutdownNow();
+  }
+
+  @Test
+  public void depsAreCalculatedBeforeDependents() throws Exception {
+    BuildRule leaf = graphBuilder.addToIndex(new FakeBuildRule("//:leaf"));
+    BuildRule left = graphBuilder.addToIndex(new FakeBuildRule("//:left", leaf));
+    BuildRule right = graphBuilder.addToIndex(new FakeBuildRule("//:right", leaf));
+    BuildRule top = graphBuilder.addToIndex(new FakeBuildRule("//:top", left, right));
+
+    Queue<BuildRule> calculated = new ConcurrentLinkedQueue<>();
+    ParallelRuleKeyCalculator<String> calculator =
+        newCalculator(
+            rule -> {
+              for (BuildRule dep : rule.getBuildDeps()) {
+                assertTrue(calculated.contains(dep));
+              }
+              calculated.add(rule);
+              return rule.getFullyQualifiedName();
+            });
+
+    assertEquals("//:top", calculator.calculate(eventBus, top).get());
+    assertEquals(ImmutableSet.of(leaf, left, right, top), ImmutableSet.copyOf(calculated));
+    assertEquals(4, calculator.getAllKnownTargets().size());
+    assertEquals("//:left", calculator.calculate(eventBus, left).get());
+    assertEquals(4, calculated.size());
+  }
+
+  @Test
+  public void failuresArePropagatedToDependents() throws Exception {
+    BuildRule leaf = graphBuilder.addToIndex(new FakeBuildRule("//:leaf"));
+    BuildRule top = graphBuilder.addToIndex(new FakeBuildRule("//:top", leaf));
+
+    ParallelRuleKeyCalculator<String> calculator =
+        newCalculator(
+            rule -> {
+              if (rule == leaf) {
+                throw new IllegalStateException("leaf failed");
+              }
+              return rule.getFullyQualifiedName();
+            });
+
+    ListenableFuture<String> topKey = calculator.calculate(eventBus, top);
+    try {
+      topKey.get();
+      Assert.fail("Expected the failure of the dep to be propagated.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(BuckUncheckedExecutionException.class));
+      assertThat(
+          ((BuckUncheckedExecutionException) e.getCause()).getContext().get(),
+          Matchers.containsString("//:leaf"));
+    }
+  }
+
+  @Test
+  public void errorsArePropagatedToDependents() throws Exception {
+    BuildRule leaf = graphBuilder.addToIndex(new FakeBuildRule("//:leaf"));
+    BuildRule top = graphBuilder.addToIndex(new FakeBuildRule("//:top", leaf));
+
+    ParallelRuleKeyCalculator<String> calculator =
+        newCalculator(
+            rule -> {
+              if (rule == leaf) {
+                throw new AssertionError("leaf failed");
+              }
+              return rule.getFullyQualifiedName();
+            });
+
+    try {
+      calculator.calculate(eventBus, top).get(10, TimeUnit.SECONDS);
+      Assert.fail("Expected the error of the dep to be propagated.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(AssertionError.class));
+    }
+  }
+
+  @Test
+  public void rejectedTasksFailTheRuleKey() throws Exception {
+    BuildRule leaf = graphBuilder.addToIndex(new FakeBuildRule("//:leaf"));
+    BuildRule top = graphBuilder.addToIndex(new FakeBuildRule("//:top", leaf));
+    service.shutdownNow();
+
+    ParallelRuleKeyCalculator<String> calculator =
+        newCalculator(BuildRule::getFullyQualifiedName);
+
+    try {
+      calculator.calculate(eventBus, top).get(10, TimeUnit.SECONDS);
+      Assert.fail("Expected the rejection to fail the rule key.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(RejectedExecutionException.class));
+    }
+  }
+
+  private ParallelRuleKeyCalculator<String> newCalculator(RuleKeyFactory<String> factory) {
+    return new ParallelRuleKeyCalculator<>(
+        service,
+        factory,
+        new DefaultRuleDepsCache(graphBuilder),
+        (eventBus, rule) -> () -> {},
+        mode);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import org.junit.Test;
+
+public class CompactDirectedAcyclicGraphTest {
+
+  @Test
+  public void edgesMatchSourceGraph() {
+    DirectedAcyclicGraph<Integer> graph = new DirectedAcyclicGraph<>(createRandomGraph(200, 4));
+    CompactDirectedAcyclicGraph<Integer> compactGraph = graph.getCompactGraph();
+
+    assertEquals(ImmutableList.copyOf(graph.getNodes()), compactGraph.getNodes());
+    for (Integer node : graph.getNodes()) {
+      assertEquals(
+          ImmutableList.copyOf(graph.getOutgoingNodesFor(node)),
+          compactGraph.getOutgoingNodesFor(node));
+      assertEquals(
+          graph.getIncomingNodesFor(node),
+          ImmutableSet.copyOf(compactGraph.getIncomingNodesFor(node)));
+      assertEquals(node, compactGraph.getNode(compactGraph.getId(node)));
+    }
+    assertEquals(
+        ImmutableList.copyOf(graph.getNodesWithNoIncomingEdges()),
+        compactGraph.getNodesWithNoIncomingEdges());
+    assertEquals(
+        ImmutableList.copyOf(graph.getNodesWithNoOutgoingEdges()),
+        compactGraph.getNodesWithNoOutgoingEdges());
+    assertEquals(-1, compactGraph.getId(-1));
+  }
+
+  @Test
+  public void postOrderMatchesDepthFirstTraversal() throws Exception {
+    MutableDirectedGraph<Integer> mutableGraph = createRandomGraph(500, 3);
+    DirectedAcyclicGraph<Integer> graph = new DirectedAcyclicGraph<>(mutableGraph);
+    CompactDirectedAcyclicGraph<Integer> compactGraph = graph.getCompactGraph();
+    Predicate<Integer> shouldExploreChildren = node -> node % 7 != 0;
+
+    Iterable<Integer> expected =
+        new AcyclicDepthFirstPostOrderTraversal<Integer>(
+                node -> graph.getOutgoingNodesFor(node).iterator())
+            .traverse(graph.getNodesWithNoIncomingEdges(), shouldExploreChildren);
+
+    List<Integer> actual = new ArrayList<>();
+    for (int id :
+        compactGraph.getPostOrder(id -> shouldExploreChildren.test(compactGraph.getNode(id)))) {
+      actual.add(compactGraph.getNode(id));
+    }
+    assertEquals(ImmutableList.copyOf(expected), actual);
+  }
+
+  @Test
+  public void topologicalSortMatchesSortOfSourceGraph() {
+    MutableDirectedGraph<Integer> mutableGraph = createRandomGraph(500, 3);
+    DirectedAcyclicGraph<Integer> graph = new DirectedAcyclicGraph<>(mutableGraph);
+    CompactDirectedAcyclicGraph<Integer> compactGraph = graph.getCompactGraph();
+
+    assertEquals(TopologicalSort.sort(mutableGraph), TopologicalSort.sort(compactGraph));
+    assertEquals(graph.getNodes().size(), compactGraph.getTopologicalOrder().length);
+  }
+
+  @Test
+  public void compactGraphIsBuiltOnce() {
+    DirectedAcyclicGraph<Integer> graph = new DirectedAcyclicGraph<>(createRandomGraph(50, 2));
+
+    assertSame(graph.getCompactGraph(), graph.getCompactGraph());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void cyclicGraphIsRejected() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "B");
+    graph.addEdge("B", "C");
+    graph.addEdge("C", "A");
+    CompactDirectedAcyclicGraph.copyOf(graph);
+  }
+
+  /** Creates a DAG in which every node only has edges to nodes with smaller values. */
+  private static MutableDirectedGraph<Integer> createRandomGraph(int nodeCount, int maxDeps) {
+    Random random = new Random(42);
+    MutableDirectedGraph<Integer> graph = new MutableDirectedGraph<>();
+    for (int node = 0; node < nodeCount; node++) {
+      graph.addNode(node);
+      int depCount = node == 0 ? 0 : random.nextInt(maxDeps + 1);
+      for (int i = 0; i < depCount; i++) {
+        graph.addEdge(node, random.nextInt(node));
+      }
+    }
+    return graph;
+  }
+}
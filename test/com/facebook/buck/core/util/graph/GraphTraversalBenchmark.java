@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares traversals over a {@link DirectedAcyclicGraph}'s multimaps of edges with traversals
+ * over its {@link CompactDirectedAcyclicGraph} copy, on a synthetic graph in which each node
+ * depends on a few randomly chosen earlier nodes.
+ *
+ * <p>The compact copy is built by the first traversal and shared by the later ones, so the
+ * benchmarks measure traversals of a graph whose copy already exists.
+ */
+public class GraphTraversalBenchmark {
+  @Param({"10000", "100000", "1000000"})
+  private int nodeCount = 10000;
+
+  @Param({"4"})
+  private int depsPerNode = 4;
+
+  @Param({"MULTIMAP", "COMPACT"})
+  private Representation representation = Representation.COMPACT;
+
+  /** The representation of the graph which is traversed. */
+  public enum Representation {
+    MULTIMAP,
+    COMPACT,
+  }
+
+  private DirectedAcyclicGraph<String> graph;
+  private TraversableGraph<String> multimapGraph;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    Random random = new Random(42);
+    MutableDirectedGraph<String> mutableGraph = new MutableDirectedGraph<>();
+    for (int i = 0; i < nodeCount; i++) {
+      String node = "//pkg" + i + ":rule";
+      mutableGraph.addNode(node);
+      for (int j = 0; j < Math.min(i, depsPerNode); j++) {
+        mutableGraph.addEdge(node, "//pkg" + random.nextInt(i) + ":rule");
+      }
+    }
+    graph = new DirectedAcyclicGraph<>(mutableGraph);
+    graph.getCompactGraph();
+    // Hides the type of the graph from the traversal utilities, which would otherwise use its
+    // compact copy.
+    multimapGraph =
+        new TraversableGraph<String>() {
+          @Override
+          public Iterable<String> getNodesWithNoIncomingEdges() {
+            return graph.getNodesWithNoIncomingEdges();
+          }
+
+          @Override
+          public Iterable<String> getNodesWithNoOutgoingEdges() {
+            return graph.getNodesWithNoOutgoingEdges();
+          }
+
+          @Override
+          public Iterable<String> getIncomingNodesFor(String sink) {
+            return graph.getIncomingNodesFor(sink);
+          }
+
+          @Override
+          public Iterable<String> getOutgoingNodesFor(String source) {
+            return graph.getOutgoingNodesFor(source);
+          }
+
+          @Override
+          public Iterable<String> getNodes() {
+            return graph.getNodes();
+          }
+        };
+  }
+
+  @Test
+  public void traversalsVisitAllNodes() {
+    assertEquals(nodeCount, traverseBottomUp(1));
+    assertEquals(nodeCount, sortTopologically(1));
+  }
+
+  private TraversableGraph<String> getTraversedGraph() {
+    return representation == Representation.MULTIMAP ? multimapGraph : graph;
+  }
+
+  /** Visits every node after all the nodes it depends on. */
+  @Benchmark
+  public int traverseBottomUp(int reps) {
+    int[] visited = new int[1];
+    for (int rep = 0; rep < reps; rep++) {
+      visited[0] = 0;
+      new AbstractBottomUpTraversal<String, RuntimeException>(getTraversedGraph()) {
+        @Override
+        public void visit(String node) {
+          visited[0]++;
+        }
+      }.traverse();
+    }
+    return visited[0];
+  }
+
+  /** Sorts the graph topologically. */
+  @Benchmark
+  public int sortTopologically(int reps) {
+    int sorted = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      sorted = TopologicalSort.sort(getTraversedGraph()).size();
+    }
+    return sorted;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.eventbus.Subscribe;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how many events per second {@link DefaultBuckEventBus} delivers to many listeners, one
+ * of which may be slow.
+ */
+public class DefaultBuckEventBusBenchmark {
+  @Param({"1", "10", "20"})
+  private int listenerCount = 10;
+
+  @Param({"0", "1"})
+  private int slowListenerCount = 1;
+
+  @Param({"10000"})
+  private int eventCount = 1000;
+
+  private DefaultBuckEventBus eventBus;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    eventBus = new DefaultBuckEventBus(new DefaultClock(), new BuildId("benchmark"));
+    for (int i = 0; i < listenerCount; i++) {
+      eventBus.register(new Listener(i < slowListenerCount ? 20_000 : 200));
+    }
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() {
+    eventBus.close();
+  }
+
+  @Test
+  public void postEventsToListeners() {
+    postEvents(1);
+  }
+
+  /** Posts events and waits until every listener has handled them. */
+  @Benchmark
+  public void postEvents(int reps) {
+    for (int rep = 0; rep < reps; rep++) {
+      for (int i = 0; i < eventCount; i++) {
+        eventBus.post(new BenchmarkEvent(i));
+      }
+      assertTrue(eventBus.waitEvents(0));
+    }
+  }
+
+  private static class Listener {
+    private final int work;
+    private long result;
+
+    private Listener(int work) {
+      this.work = work;
+    }
+
+    @Subscribe
+    public void handle(BenchmarkEvent event) {
+      // Stands in for formatting or serializing the event.
+      long hash = event.value;
+      for (int i = 0; i < work; i++) {
+        hash = hash * 31 + i;
+      }
+      result += hash;
+    }
+  }
+
+  private static class BenchmarkEvent extends AbstractBuckEvent {
+    private final int value;
+
+    private BenchmarkEvent(int value) {
+      super(EventKey.unique());
+      this.value = value;
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.valueOf(value);
+    }
+
+    @Override
+    public String getEventName() {
+      return "BenchmarkEvent";
+    }
+  }
+}
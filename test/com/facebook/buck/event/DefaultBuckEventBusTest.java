@@ -19,14 +19,22 @@ package com.facebook.buck.event;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class DefaultBuckEventBusTest {
@@ -115,6 +123,150 @@ public class DefaultBuckEventBusTest {
     assertEquals(event.getNanoTime(), 64738);
   }
 
+  @Test
+  public void slowListenerDoesNotDelayOtherListeners() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    CountDownLatch slowListenerRelease = new CountDownLatch(1);
+    RecordingSubscriber fastSubscriber = new RecordingSubscriber();
+    eb.register(new BlockingSubscriber(slowListenerRelease));
+    eb.register(fastSubscriber);
+    for (int i = 0; i < 10; i++) {
+      eb.post(new TestEvent());
+    }
+    assertTrue(fastSubscriber.received.await(5, TimeUnit.SECONDS));
+    assertEquals(10, fastSubscriber.events.size());
+    assertFalse(eb.waitEvents(10));
+
+    slowListenerRelease.countDown();
+    assertTrue(eb.waitEvents(5000));
+    eb.close();
+  }
+
+  @Test
+  public void eventsAreDeliveredToEachListenerInOrder() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    RecordingSubscriber first = new RecordingSubscriber();
+    RecordingSubscriber second = new RecordingSubscriber();
+    eb.register(first);
+    eb.register(second);
+    List<TestEvent> posted = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      TestEvent event = new TestEvent();
+      posted.add(event);
+      eb.post(event);
+    }
+    assertTrue(eb.waitEvents(5000));
+    assertEquals(posted, first.events);
+    assertEquals(posted, second.events);
+    eb.close();
+  }
+
+  @Test
+  public void eventsAreDroppedWhenListenerQueueIsFull() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingSubscriber subscriber = new BlockingSubscriber(release);
+    eb.register(subscriber);
+    eb.post(new TestEvent());
+    // Wait for the first event to be taken off the queue, so that exactly two more fit.
+    assertTrue(subscriber.started.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 5; i++) {
+      eb.post(new TestEvent());
+    }
+
+    ImmutableList<ListenerQueueStats> stats = eb.getAndResetListenerQueueStats();
+    assertEquals(
+        ImmutableList.of(ListenerQueueStats.of(BlockingSubscriber.class.getName(), 2, 2, 3)),
+        stats);
+
+    release.countDown();
+    assertTrue(eb.waitEvents(5000));
+    assertEquals(3, subscriber.delivered.get());
+    assertEquals(
+        ImmutableList.of(ListenerQueueStats.of(BlockingSubscriber.class.getName(), 0, 2, 0)),
+        eb.getAndResetListenerQueueStats());
+    eb.close();
+  }
+
+  @Test
+  public void criticalEventsWaitForRoomInFullListenerQueue() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingSubscriber subscriber = new BlockingSubscriber(release);
+    eb.register(subscriber);
+    eb.post(new TestEvent());
+    assertTrue(subscriber.started.await(5, TimeUnit.SECONDS));
+    eb.post(new TestEvent());
+    eb.post(new TestEvent());
+
+    Thread poster = new Thread(() -> eb.post(new CriticalTestEvent()));
+    poster.start();
+    poster.join(200);
+    assertTrue(poster.isAlive());
+
+    release.countDown();
+    poster.join(5000);
+    assertFalse(poster.isAlive());
+    assertTrue(eb.waitEvents(5000));
+    assertEquals(4, subscriber.delivered.get());
+    assertEquals(0, eb.getAndResetListenerQueueStats().get(0).getDroppedEvents());
+    eb.close();
+  }
+
+  @Test
+  public void eventsAreNotDroppedForCriticalListeners() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingSubscriber subscriber = new CriticalBlockingSubscriber(release);
+    eb.register(subscriber);
+    eb.post(new TestEvent());
+    assertTrue(subscriber.started.await(5, TimeUnit.SECONDS));
+
+    Thread poster =
+        new Thread(
+            () -> {
+              for (int i = 0; i < 5; i++) {
+                eb.post(new TestEvent());
+              }
+            });
+    poster.start();
+    poster.join(200);
+    assertTrue(poster.isAlive());
+
+    release.countDown();
+    poster.join(5000);
+    assertFalse(poster.isAlive());
+    assertTrue(eb.waitEvents(5000));
+    assertEquals(6, subscriber.delivered.get());
+    eb.close();
+  }
+
+  @Test
+  public void unregisteredListenerDoesNotReceiveEvents() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    eb.register(subscriber);
+    eb.post(new TestEvent());
+    assertTrue(eb.waitEvents(5000));
+    eb.unregister(subscriber);
+    eb.post(new TestEvent());
+    assertTrue(eb.waitEvents(5000));
+    assertEquals(1, subscriber.events.size());
+    eb.close();
+  }
+
   private static class SleepEvent extends AbstractBuckEvent {
     public final long milliseconds;
 
@@ -141,6 +293,48 @@ public class DefaultBuckEventBusTest {
     }
   }
 
+  private static class RecordingSubscriber {
+    private final List<TestEvent> events = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch received = new CountDownLatch(10);
+
+    @Subscribe
+    public void record(TestEvent event) {
+      events.add(event);
+      received.countDown();
+    }
+  }
+
+  private static class BlockingSubscriber {
+    private final CountDownLatch release;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    private BlockingSubscriber(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Subscribe
+    public void block(TestEvent event) throws InterruptedException {
+      started.countDown();
+      release.await();
+      delivered.incrementAndGet();
+    }
+  }
+
+  private static class CriticalBlockingSubscriber extends BlockingSubscriber
+      implements BuckEventListener {
+    private CriticalBlockingSubscriber(CountDownLatch release) {
+      super(release);
+    }
+
+    @Override
+    public boolean isCritical() {
+      return true;
+    }
+  }
+
+  private static class CriticalTestEvent extends TestEvent implements CriticalEvent {}
+
   private static class TestEvent extends AbstractBuckEvent {
 
     public TestEvent() {
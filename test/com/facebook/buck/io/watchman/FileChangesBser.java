@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes Watchman responses with a list of changed files the way Watchman does, that is with the
+ * entries of the list in a BSER template.
+ */
+class FileChangesBser {
+
+  private static final String[] FIELDS = {"name", "exists", "new"};
+
+  private FileChangesBser() {}
+
+  /**
+   * @param files The entries of the {@code files} list, each of which has some of the fields
+   *     {@code name}, {@code exists} and {@code new}.
+   */
+  static byte[] encode(String clock, List<? extends Map<String, Object>> files) {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    payload.write(0x01);
+    writeInt(payload, 2);
+    writeString(payload, "clock");
+    writeString(payload, clock);
+    writeString(payload, "files");
+    payload.write(0x0b);
+    payload.write(0x00);
+    writeInt(payload, FIELDS.length);
+    for (String field : FIELDS) {
+      writeString(payload, field);
+    }
+    writeInt(payload, files.size());
+    for (Map<String, Object> file : files) {
+      for (String field : FIELDS) {
+        Object value = file.get(field);
+        if (value == null) {
+          payload.write(0x0c);
+        } else if (value instanceof String) {
+          writeString(payload, (String) value);
+        } else {
+          payload.write((Boolean) value ? 0x08 : 0x09);
+        }
+      }
+    }
+
+    ByteArrayOutputStream pdu = new ByteArrayOutputStream();
+    pdu.write(0x00);
+    pdu.write(0x01);
+    writeInt(pdu, payload.size());
+    byte[] payloadBytes = payload.toByteArray();
+    pdu.write(payloadBytes, 0, payloadBytes.length);
+    return pdu.toByteArray();
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(0x05);
+    byte[] bytes = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(value).array();
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeString(ByteArrayOutputStream out, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.write(0x02);
+    writeInt(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.watchman.AbstractWatchmanPathEvent.Kind;
+import com.facebook.buck.util.bser.BserDeserializer;
+import com.facebook.buck.util.bser.BserStreamingDeserializer;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares decoding a Watchman response with many changed files, as seen after a branch switch,
+ * into maps with {@link BserDeserializer} and into path events with {@link WatchmanChangesDecoder}.
+ */
+public class WatchmanChangesDecoderBenchmark {
+  @Param({"10000", "500000"})
+  private int fileCount = 20000;
+
+  private static final Path CELL_PATH = Paths.get("/fake/root").toAbsolutePath();
+
+  private byte[] response;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    List<Map<String, Object>> files = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      files.add(
+          ImmutableMap.of(
+              "name",
+              String.format("java/com/example/module%d/src/File%d.java", i / 100, i),
+              "exists",
+              i % 10 != 0,
+              "new",
+              i % 10 == 1));
+    }
+    response = FileChangesBser.encode("c:1234:5678", files);
+  }
+
+  @Test
+  public void decodeAllFilesIntoMaps() throws IOException {
+    assertEquals(fileCount, decodeIntoMaps());
+  }
+
+  @Test
+  public void decodeAllFilesIntoPathEvents() throws IOException {
+    assertEquals(fileCount, decodeIntoPathEvents());
+  }
+
+  @Test
+  public void skipFilesOfOverflow() throws IOException {
+    assertEquals(0, decodeOverflow());
+  }
+
+  /** The way responses used to be decoded. */
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public int decodeIntoMaps() throws IOException {
+    Map<String, Object> decoded =
+        (Map<String, Object>)
+            new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED)
+                .deserializeBserValue(new ByteArrayInputStream(response));
+    List<WatchmanPathEvent> pathEvents = new ArrayList<>();
+    for (Map<String, Object> file : (List<Map<String, Object>>) decoded.get("files")) {
+      Kind kind = Kind.MODIFY;
+      if (Boolean.TRUE.equals(file.get("new"))) {
+        kind = Kind.CREATE;
+      }
+      if (Boolean.FALSE.equals(file.get("exists"))) {
+        kind = Kind.DELETE;
+      }
+      pathEvents.add(WatchmanPathEvent.of(CELL_PATH, kind, Paths.get((String) file.get("name"))));
+    }
+    return pathEvents.size();
+  }
+
+  @Benchmark
+  public int decodeIntoPathEvents() throws IOException {
+    return decodeStreaming(Integer.MAX_VALUE);
+  }
+
+  /** What happens to responses with more changes than a query or subscription handles. */
+  @Benchmark
+  public int decodeOverflow() throws IOException {
+    return decodeStreaming(WatchmanWatcher.OVERFLOW_THRESHOLD);
+  }
+
+  /** @return the number of path events, which are only decoded up to {@code maxFiles} files. */
+  private int decodeStreaming(int maxFiles) throws IOException {
+    WatchmanChangesDecoder decoder = new WatchmanChangesDecoder(maxFiles);
+    new BserStreamingDeserializer().deserialize(new ByteArrayInputStream(response), decoder);
+    return decoder.getFileCount() > maxFiles ? 0 : decoder.getPathEvents(CELL_PATH).size();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.watchman.AbstractWatchmanPathEvent.Kind;
+import com.facebook.buck.util.bser.BserSerializer;
+import com.facebook.buck.util.bser.BserStreamingDeserializer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+public class WatchmanChangesDecoderTest {
+
+  private static final Path CELL_PATH = Paths.get("/fake/root").toAbsolutePath();
+
+  private final BserStreamingDeserializer deserializer = new BserStreamingDeserializer();
+
+  @Test
+  public void filesAreDecodedIntoPathEvents() throws IOException {
+    WatchmanChangesDecoder decoder = new WatchmanChangesDecoder(10);
+    deserializer.deserialize(
+        new ByteArrayInputStream(
+            FileChangesBser.encode(
+                "c:1",
+                ImmutableList.of(
+                    ImmutableMap.of("name", "foo/created", "new", true, "exists", true),
+                    ImmutableMap.of("name", "foo/deleted", "new", false, "exists", false),
+                    ImmutableMap.of("name", "foo/modified")))),
+        decoder);
+
+    assertTrue(decoder.isObject());
+    assertEquals("c:1", decoder.get("clock"));
+    assertTrue(decoder.hasFiles());
+    assertEquals(3, decoder.getFileCount());
+    assertFalse(decoder.isFileNameMissing());
+    assertEquals(
+        ImmutableList.of(
+            WatchmanPathEvent.of(CELL_PATH, Kind.CREATE, Paths.get("foo/created")),
+            WatchmanPathEvent.of(CELL_PATH, Kind.DELETE, Paths.get("foo/deleted")),
+            WatchmanPathEvent.of(CELL_PATH, Kind.MODIFY, Paths.get("foo/modified"))),
+        decoder.getPathEvents(CELL_PATH));
+  }
+
+  @Test
+  public void filesBeyondTheLimitAreOnlyCounted() throws IOException {
+    WatchmanChangesDecoder decoder = new WatchmanChangesDecoder(1);
+    InputStream inputStream =
+        new ByteArrayInputStream(
+            FileChangesBser.encode(
+                "c:1",
+                ImmutableList.of(ImmutableMap.of("name", "foo"), ImmutableMap.of("name", "bar"))));
+    deserializer.deserialize(inputStream, decoder);
+
+    assertEquals(2, decoder.getFileCount());
+    assertFalse(decoder.isFileNameMissing());
+    assertEquals("c:1", decoder.get("clock"));
+    assertEquals(-1, inputStream.read());
+  }
+
+  @Test
+  public void missingFileNamesAreReported() throws IOException {
+    WatchmanChangesDecoder decoder = new WatchmanChangesDecoder(10);
+    deserializer.deserialize(
+        new ByteArrayInputStream(
+            FileChangesBser.encode(
+                "c:1",
+                ImmutableList.of(ImmutableMap.of("name", "foo"), ImmutableMap.of("new", true)))),
+        decoder);
+
+    assertTrue(decoder.isFileNameMissing());
+  }
+
+  @Test
+  public void responsesWithoutFilesHaveNoFiles() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new BserSerializer()
+        .serializeToStream(ImmutableMap.of("clock", "c:1", "is_fresh_instance", true), bytes);
+    WatchmanChangesDecoder decoder = new WatchmanChangesDecoder(10);
+    deserializer.deserialize(new ByteArrayInputStream(bytes.toByteArray()), decoder);
+
+    assertFalse(decoder.hasFiles());
+    assertEquals(0, decoder.getFileCount());
+    assertEquals(ImmutableMap.of("clock", "c:1", "is_fresh_instance", true), decoder.getFields());
+  }
+}
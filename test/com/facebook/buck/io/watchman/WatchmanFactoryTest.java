@@ -60,7 +60,8 @@ public class WatchmanFactoryTest {
                       "wildmatch",
                       "wildmatch_multislash",
                       "glob_generator",
-                      "clock-sync-timeout")));
+                      "clock-sync-timeout",
+                      "cmd-flush-subscriptions")));
 
   private static WatchmanFactory createFakeWatchmanFactory(
       Path socketName,
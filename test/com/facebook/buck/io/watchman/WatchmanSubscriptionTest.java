@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.util.bser.BserDeserializer;
+import com.facebook.buck.util.bser.BserSerializer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WatchmanSubscriptionTest {
+
+  private static final Path FAKE_ROOT = Paths.get("/fake/root").toAbsolutePath();
+  private static final WatchmanQuery FAKE_QUERY = WatchmanQuery.of("/fake/root", ImmutableMap.of());
+  private static final String SUBSCRIPTION_NAME = "buckd:" + FAKE_ROOT;
+
+  private EventBus eventBus;
+  private List<WatchmanEvent> events;
+  private FakeTransport transport;
+  private WatchmanCursor cursor;
+  private WatchmanSubscription subscription;
+
+  @Before
+  public void setUp() throws Exception {
+    events = new CopyOnWriteArrayList<>();
+    eventBus = new EventBus();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void on(WatchmanEvent event) {
+            events.add(event);
+          }
+        });
+    transport = new FakeTransport();
+    cursor = new WatchmanCursor("c:0");
+    subscription =
+        WatchmanSubscription.start(
+            eventBus,
+            transport,
+            ImmutableMap.of(FAKE_ROOT, FAKE_QUERY),
+            ImmutableMap.of(FAKE_ROOT, cursor),
+            new Object(),
+            10000);
+  }
+
+  @After
+  public void tearDown() {
+    subscription.close();
+  }
+
+  @Test
+  public void subscribesSinceCursor() {
+    assertEquals(
+        FAKE_QUERY.toSubscribeList(SUBSCRIPTION_NAME, "c:0"), transport.commands.get(0));
+  }
+
+  @Test
+  public void changesArePostedBeforeSyncReturns() throws Exception {
+    transport.pendingUpdates.add(
+        ImmutableMap.of(
+            "subscription",
+            SUBSCRIPTION_NAME,
+            "clock",
+            "c:2",
+            "files",
+            ImmutableList.of(ImmutableMap.of("name", "foo/bar", "new", true))));
+    subscription.sync(BuckEventBusForTests.newInstance());
+
+    WatchmanPathEvent pathEvent = (WatchmanPathEvent) events.get(0);
+    assertEquals(1, events.size());
+    assertEquals(WatchmanPathEvent.Kind.CREATE, pathEvent.getKind());
+    assertEquals(Paths.get("foo/bar"), pathEvent.getPath());
+    assertEquals("c:2", cursor.get());
+    List<?> flush = (List<?>) transport.commands.get(1);
+    assertEquals("flush-subscriptions", flush.get(0));
+    assertEquals(
+        ImmutableList.of(SUBSCRIPTION_NAME), ((Map<?, ?>) flush.get(2)).get("subscriptions"));
+  }
+
+  @Test
+  public void changesReceivedBetweenSyncsArePostedBySync() throws Exception {
+    transport.sendUpdate(
+        ImmutableMap.of(
+            "subscription",
+            SUBSCRIPTION_NAME,
+            "clock",
+            "c:2",
+            "files",
+            ImmutableList.of(ImmutableMap.of("name", "foo/bar", "exists", false))));
+    transport.awaitAllMessagesRead();
+
+    assertTrue(events.isEmpty());
+    assertEquals("c:0", cursor.get());
+
+    subscription.sync(BuckEventBusForTests.newInstance());
+
+    assertEquals(1, events.size());
+    assertEquals(WatchmanPathEvent.Kind.DELETE, ((WatchmanPathEvent) events.get(0)).getKind());
+    assertEquals("c:2", cursor.get());
+  }
+
+  @Test
+  public void changesReceivedWhileResumedArePostedInTheBackground() throws Exception {
+    subscription.resume();
+    transport.sendUpdate(
+        ImmutableMap.of(
+            "subscription",
+            SUBSCRIPTION_NAME,
+            "clock",
+            "c:2",
+            "files",
+            ImmutableList.of(ImmutableMap.of("name", "foo/bar", "exists", false))));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (events.isEmpty() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    subscription.pause();
+
+    assertEquals(1, events.size());
+    assertEquals(WatchmanPathEvent.Kind.DELETE, ((WatchmanPathEvent) events.get(0)).getKind());
+    assertEquals("c:2", cursor.get());
+
+    subscription.sync(BuckEventBusForTests.newInstance());
+
+    assertEquals(1, events.size());
+  }
+
+  @Test
+  public void freshInstancePostsOverflow() throws Exception {
+    transport.pendingUpdates.add(
+        ImmutableMap.of(
+            "subscription",
+            SUBSCRIPTION_NAME,
+            "clock",
+            "c:2",
+            "is_fresh_instance",
+            true,
+            "files",
+            ImmutableList.of()));
+    subscription.sync(BuckEventBusForTests.newInstance());
+
+    assertEquals(1, events.size());
+    assertThat(events.get(0), Matchers.instanceOf(WatchmanOverflowEvent.class));
+  }
+
+  @Test(expected = IOException.class)
+  public void syncFailsOnceConnectionIsLost() throws Exception {
+    transport.disconnect();
+    try {
+      subscription.sync(BuckEventBusForTests.newInstance());
+    } finally {
+      assertFalse(subscription.isActive());
+      assertTrue(events.isEmpty());
+    }
+  }
+
+  /**
+   * Answers commands the way Watchman does, sending the pending updates of subscriptions before
+   * the response to {@code flush-subscriptions}.
+   */
+  private static class FakeTransport implements Transport {
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+    private final BserSerializer bserSerializer = new BserSerializer();
+    private final BserDeserializer bserDeserializer =
+        new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    private final BlockingQueue<ByteBuffer> messages = new LinkedBlockingQueue<>();
+    private final List<Object> commands = new CopyOnWriteArrayList<>();
+    private final Queue<Map<String, Object>> pendingUpdates = new ConcurrentLinkedQueue<>();
+
+    /** Only accessed by the reader. */
+    private int messagesTaken = 0;
+
+    private int messagesSent = 0;
+    private int messagesTakenWhenIdle = 0;
+
+    private final InputStream inputStream =
+        new InputStream() {
+          private ByteBuffer current = ByteBuffer.allocate(0);
+
+          @Override
+          public int read() throws IOException {
+            byte[] bytes = new byte[1];
+            return read(bytes, 0, 1) < 0 ? -1 : bytes[0] & 0xff;
+          }
+
+          @Override
+          public int read(byte[] bytes, int offset, int length) throws IOException {
+            while (!current.hasRemaining()) {
+              if (messages.isEmpty()) {
+                onReaderIdle(messagesTaken);
+              }
+              try {
+                current = messages.take();
+              } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+              }
+              if (current == EOF) {
+                messages.add(EOF);
+                return -1;
+              }
+              messagesTaken++;
+            }
+            int read = Math.min(length, current.remaining());
+            current.get(bytes, offset, read);
+            return read;
+          }
+        };
+
+    private final OutputStream outputStream =
+        new OutputStream() {
+          @Override
+          public void write(int b) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public void write(byte[] bytes, int offset, int length) throws IOException {
+            List<?> command =
+                (List<?>)
+                    bserDeserializer.deserializeBserValue(
+                        new ByteArrayInputStream(bytes, offset, length));
+            commands.add(command);
+            if (command.get(0).equals("subscribe")) {
+              send(ImmutableMap.of("subscribe", command.get(2), "clock", "c:1"));
+            } else if (command.get(0).equals("flush-subscriptions")) {
+              List<String> synced = new ArrayList<>();
+              for (Map<String, Object> update = pendingUpdates.poll();
+                  update != null;
+                  update = pendingUpdates.poll()) {
+                sendUpdate(update);
+                synced.add((String) update.get("subscription"));
+              }
+              send(ImmutableMap.of("synced", synced));
+            }
+          }
+        };
+
+    /** Sends a subscription update without being asked to. */
+    private void sendUpdate(Map<String, Object> update) throws IOException {
+      send(ImmutableMap.<String, Object>builder().putAll(update).put("unilateral", true).build());
+    }
+
+    private void send(Map<String, Object> message) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      bserSerializer.serializeToStream(message, bytes);
+      synchronized (this) {
+        messagesSent++;
+        messages.add(ByteBuffer.wrap(bytes.toByteArray()));
+      }
+    }
+
+    private synchronized void onReaderIdle(int messagesTaken) {
+      messagesTakenWhenIdle = messagesTaken;
+      notifyAll();
+    }
+
+    /** Waits until the reader has processed all messages sent so far. */
+    private synchronized void awaitAllMessagesRead() throws InterruptedException {
+      while (messagesTakenWhenIdle < messagesSent) {
+        wait();
+      }
+    }
+
+    private void disconnect() {
+      messages.add(EOF);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return outputStream;
+    }
+
+    @Override
+    public void close() {
+      disconnect();
+    }
+  }
+}
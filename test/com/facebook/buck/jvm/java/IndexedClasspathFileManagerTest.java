@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexedClasspathFileManagerTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private JavaCompiler compiler;
+  private SharedClasspathIndex sharedIndex;
+  private Path depJar;
+
+  @Before
+  public void setUp() throws IOException {
+    compiler = ToolProvider.getSystemJavaCompiler();
+    sharedIndex = new SharedClasspathIndex(1000);
+
+    // Compile a class to put on the classpath of the compilations under test.
+    Path depClasses = temp.newFolder("dep-classes").toPath();
+    compile(
+        writeSource("dep-src", "dep/Dep.java", "package dep; public class Dep {}"),
+        depClasses);
+    depJar = temp.getRoot().toPath().resolve("dep.jar");
+    try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(depJar))) {
+      jar.putNextEntry(new ZipEntry("dep/"));
+      jar.putNextEntry(new ZipEntry("dep/Dep.class"));
+      Files.copy(depClasses.resolve("dep/Dep.class"), jar);
+      jar.putNextEntry(new ZipEntry("dep/resource.txt"));
+    }
+  }
+
+  @Test
+  public void compilesAgainstIndexedJarAndTracksClassUsage() throws IOException {
+    Path source =
+        writeSource(
+            "main-src", "main/Main.java", "package main; public class Main { dep.Dep dep; }");
+    Path output = temp.newFolder("main-classes").toPath();
+
+    ClassUsageTracker tracker = new ClassUsageTracker();
+    try (IndexedClasspathFileManager fileManager =
+        new IndexedClasspathFileManager(
+            compiler.getStandardFileManager(null, null, null), sharedIndex)) {
+      ListenableFileManager listenableFileManager = new ListenableFileManager(fileManager);
+      listenableFileManager.addListener(tracker);
+      assertTrue(
+          compiler
+              .getTask(
+                  null,
+                  listenableFileManager,
+                  null,
+                  ImmutableList.of(
+                      "-classpath", depJar.toString(), "-d", output.toString(), "-proc:none"),
+                  null,
+                  fileManager.getJavaFileObjects(source.toFile()))
+              .call());
+    }
+
+    assertTrue(Files.exists(output.resolve("main/Main.class")));
+    assertEquals(
+        ImmutableSetMultimap.of(depJar.toAbsolutePath(), Paths.get("dep/Dep.class")),
+        tracker.getClassUsageMap());
+  }
+
+  @Test
+  public void listsEntriesOfPackageFromIndex() throws IOException {
+    try (IndexedClasspathFileManager fileManager =
+        new IndexedClasspathFileManager(
+            compiler.getStandardFileManager(null, null, null), sharedIndex)) {
+      fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(depJar.toFile()));
+
+      ImmutableList<JavaFileObject> classes =
+          ImmutableList.copyOf(
+              fileManager.list(
+                  StandardLocation.CLASS_PATH,
+                  "dep",
+                  ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                  false));
+      assertEquals(1, classes.size());
+      assertEquals(
+          "dep.Dep", fileManager.inferBinaryName(StandardLocation.CLASS_PATH, classes.get(0)));
+      assertTrue(classes.get(0).isNameCompatible("Dep", JavaFileObject.Kind.CLASS));
+      assertEquals(
+          "jar:" + depJar.toAbsolutePath().toUri() + "!/dep/Dep.class",
+          classes.get(0).toUri().toString());
+      ImmutableList<JavaFileObject> others =
+          ImmutableList.copyOf(
+              fileManager.list(
+                  StandardLocation.CLASS_PATH,
+                  "dep",
+                  ImmutableSet.of(JavaFileObject.Kind.OTHER),
+                  false));
+      assertEquals(1, others.size());
+      assertTrue(others.get(0).toUri().toString().endsWith("!/dep/resource.txt"));
+    }
+  }
+
+  @Test
+  public void indexIsSharedUntilJarChanges() throws IOException {
+    SharedClasspathIndex.JarIndex index = sharedIndex.getIndex(depJar);
+    assertSame(index, sharedIndex.getIndex(depJar));
+
+    try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(depJar))) {
+      jar.putNextEntry(new ZipEntry("other/Other.class"));
+    }
+    Files.setLastModifiedTime(
+        depJar, FileTime.fromMillis(Files.getLastModifiedTime(depJar).toMillis() + 10000));
+
+    SharedClasspathIndex.JarIndex newIndex = sharedIndex.getIndex(depJar);
+    assertNotSame(index, newIndex);
+    assertEquals(ImmutableList.of(), newIndex.getEntries("dep"));
+    assertEquals(ImmutableList.of("other/Other.class"), newIndex.getEntries("other"));
+  }
+
+  private Path writeSource(String root, String path, String contents) throws IOException {
+    Path source = temp.getRoot().toPath().resolve(root).resolve(path);
+    Files.createDirectories(source.getParent());
+    try (OutputStream out = Files.newOutputStream(source)) {
+      out.write(contents.getBytes(StandardCharsets.UTF_8));
+    }
+    return source;
+  }
+
+  private void compile(Path source, Path output) {
+    assertEquals(0, compiler.run(null, null, null, "-d", output.toString(), source.toString()));
+  }
+}
@@ -33,6 +33,7 @@ import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.cache.ParserCacheException;
 import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.cache.json.MappedBuildFileManifestSerializer;
 import com.facebook.buck.skylark.io.GlobSpec;
 import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.facebook.buck.testutil.FakeFileHashCache;
@@ -46,7 +47,9 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.hash.HashCode;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -338,6 +341,44 @@ public class LocalCacheStorageTest {
     assertEquals(buildFileManifest, buildFileManifestResult);
   }
 
+  @Test
+  public void storedEntriesAreMappableAndJsonEntriesCanStillBeRead()
+      throws IOException, ParserCacheException {
+    Path localCachePath =
+        filesystem.getPath(tempDir.getRoot().toString() + File.separator + FOO_BAR_PATH);
+    LocalCacheStorage localCacheStorage =
+        LocalCacheStorage.of(getParserCacheConfig(true, localCachePath), filesystem);
+    BuildFileManifest buildFileManifest =
+        BuildFileManifest.of(
+            ImmutableMap.of("tar1", ImmutableMap.of("t1K1", "t1V1")),
+            ImmutableSortedSet.of(),
+            ImmutableMap.of(),
+            Optional.empty(),
+            ImmutableList.of());
+    HashCode weakFingerprint = HashCode.fromInt(1);
+    HashCode strongFingerprint = HashCode.fromInt(2);
+
+    localCacheStorage.storeBuildFileManifest(
+        weakFingerprint, strongFingerprint, serializeBuildFileManifestToBytes(buildFileManifest));
+    Path entryPath =
+        filesystem
+            .resolve(localCachePath)
+            .resolve(weakFingerprint.toString())
+            .resolve(strongFingerprint.toString());
+    assertTrue(
+        MappedBuildFileManifestSerializer.isSerializedManifest(
+            ByteBuffer.wrap(Files.readAllBytes(entryPath))));
+    assertEquals(
+        buildFileManifest,
+        localCacheStorage.getBuildFileManifest(weakFingerprint, strongFingerprint).get());
+
+    // Entries written by older versions hold the JSON form.
+    Files.write(entryPath, serializeBuildFileManifestToBytes(buildFileManifest));
+    assertEquals(
+        buildFileManifest,
+        localCacheStorage.getBuildFileManifest(weakFingerprint, strongFingerprint).get());
+  }
+
   private boolean checkExistsAfterConvertingToProperFilesystem(
       Path buildPath, Path serializedDataFile) {
     return filesystem.exists(
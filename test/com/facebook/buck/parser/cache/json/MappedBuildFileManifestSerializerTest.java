@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class MappedBuildFileManifestSerializerTest {
+  @Rule public ExpectedException expectedException = ExpectedException.none();
+
+  private static final BuildFileManifest MANIFEST =
+      BuildFileManifest.of(
+          ImmutableMap.of(
+              "tar1",
+              ImmutableMap.of("t1K1", "t1V1", "t1K2", ImmutableList.of("a", "b")),
+              "tar2",
+              ImmutableMap.of("t2K1", "t2V1", "t2K2", 42)),
+          ImmutableSortedSet.of("/Includes1", "/includes2"),
+          ImmutableMap.of("confKey1", "confVal1"),
+          Optional.of(ImmutableMap.of("envKey", Optional.of("envVal"))),
+          ImmutableList.of(
+              GlobSpecWithResult.of(
+                  GlobSpec.builder()
+                      .setExclude(ImmutableList.of("excludeSpec"))
+                      .setInclude(ImmutableList.of("includeSpec"))
+                      .setExcludeDirectories(true)
+                      .build(),
+                  ImmutableSet.of("FooBar.java"))));
+
+  @Test
+  public void serializedManifestRoundTrips() throws IOException {
+    byte[] serialized = MappedBuildFileManifestSerializer.serialize(MANIFEST);
+
+    ByteBuffer buffer = ByteBuffer.wrap(serialized);
+    assertTrue(MappedBuildFileManifestSerializer.isSerializedManifest(buffer));
+    assertEquals(MANIFEST, MappedBuildFileManifestSerializer.deserialize(buffer));
+  }
+
+  @Test
+  public void jsonManifestIsNotRecognized() throws IOException {
+    assertFalse(
+        MappedBuildFileManifestSerializer.isSerializedManifest(
+            ByteBuffer.wrap(BuildFileManifestSerializer.serialize(MANIFEST))));
+  }
+
+  @Test
+  public void targetsAreDecodedWhenAccessed() throws IOException {
+    byte[] serialized = MappedBuildFileManifestSerializer.serialize(MANIFEST);
+    ByteBuffer buffer = ByteBuffer.wrap(serialized);
+    BuildFileManifest deserialized = MappedBuildFileManifestSerializer.deserialize(buffer);
+
+    // Corrupting the attribute blocks after reading the index does not affect the index, but does
+    // affect targets which are decoded afterwards.
+    assertEquals(MANIFEST.getTargets().get("tar1"), deserialized.getTargets().get("tar1"));
+    int tar2Attributes = indexOf(serialized, "t2K1".getBytes());
+    serialized[tar2Attributes - 2] = '!';
+    assertEquals(MANIFEST.getTargets().keySet(), deserialized.getTargets().keySet());
+    assertEquals(MANIFEST.getTargets().get("tar1"), deserialized.getTargets().get("tar1"));
+
+    expectedException.expect(UncheckedIOException.class);
+    deserialized.getTargets().get("tar2").get("t2K1");
+  }
+
+  @Test
+  public void truncatedManifestIsRejected() throws IOException {
+    byte[] serialized = MappedBuildFileManifestSerializer.serialize(MANIFEST);
+
+    expectedException.expect(IOException.class);
+    MappedBuildFileManifestSerializer.deserialize(
+        ByteBuffer.wrap(Arrays.copyOf(serialized, serialized.length - 10)));
+  }
+
+  private static int indexOf(byte[] bytes, byte[] pattern) {
+    for (int i = 0; i <= bytes.length - pattern.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + pattern.length), pattern)) {
+        return i;
+      }
+    }
+    throw new AssertionError("Pattern not found.");
+  }
+}
@@ -31,6 +31,7 @@ import com.facebook.buck.remoteexecution.Protocol.Digest;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
 import com.facebook.buck.remoteexecution.RemoteExecutionService.ExecutionResult;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.facebook.buck.remoteexecution.util.KnownBlobsFilter;
 import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.timing.DefaultClock;
@@ -94,7 +95,12 @@ public class GrpcRemoteExecutionClientsTest {
 
     clients =
         new GrpcRemoteExecutionClients(
-            "buck", channel, channel, MetadataProviderFactory.emptyMetadataProvider(), eventBus);
+            "buck",
+            channel,
+            channel,
+            MetadataProviderFactory.emptyMetadataProvider(),
+            eventBus,
+            new KnownBlobsFilter(1024));
   }
 
   @After
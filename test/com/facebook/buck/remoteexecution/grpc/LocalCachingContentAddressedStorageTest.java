@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc;
+import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.remoteexecution.Protocol;
+import com.facebook.buck.remoteexecution.Protocol.Digest;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.facebook.buck.remoteexecution.util.KnownBlobsFilter;
+import com.facebook.buck.remoteexecution.util.LocalCachingContentAddressedStorage;
+import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.bytestream.ByteStreamGrpc;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LocalCachingContentAddressedStorageTest {
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+  private final Protocol protocol = new GrpcProtocol();
+  private LocalContentAddressedStorage serverStorage;
+  private LocalContentAddressedStorage localStorage;
+  private GrpcContentAddressableStorage remoteStorage;
+  private Server server;
+  private ManagedChannel channel;
+  private Path workDir;
+
+  @Before
+  public void setUp() throws Exception {
+    Path root = temporaryPaths.getRoot();
+    serverStorage = new LocalContentAddressedStorage(root.resolve("server"), protocol);
+    localStorage = new LocalContentAddressedStorage(root.resolve("local"), protocol);
+    workDir = root.resolve("work");
+
+    String serverName = "uniquish-" + new Random().nextLong();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(new LocalBackedCasImpl(serverStorage))
+            .addService(new LocalBackedByteStreamImpl(serverStorage))
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    remoteStorage =
+        new GrpcContentAddressableStorage(
+            ContentAddressableStorageGrpc.newFutureStub(channel),
+            ByteStreamGrpc.newStub(channel),
+            "buck",
+            protocol,
+            new DefaultBuckEventBus(new DefaultClock(), new BuildId("dontcare")),
+            new KnownBlobsFilter(1024));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    channel.shutdownNow();
+    server.shutdownNow().awaitTermination(3, TimeUnit.SECONDS);
+  }
+
+  private Digest addToServer(String data) throws Exception {
+    byte[] bytes = data.getBytes(Charsets.UTF_8);
+    Digest digest = protocol.computeDigest(bytes);
+    serverStorage.addMissing(ImmutableMap.of(digest, () -> new ByteArrayInputStream(bytes))).get();
+    return digest;
+  }
+
+  private void materialize(
+      LocalCachingContentAddressedStorage storage, String path, Digest digest, boolean executable)
+      throws Exception {
+    storage
+        .materializeOutputs(
+            ImmutableList.of(),
+            ImmutableList.of(protocol.newOutputFile(Paths.get(path), digest, executable)),
+            workDir)
+        .get();
+  }
+
+  private String readOutput(String path) throws IOException {
+    return new String(Files.readAllBytes(workDir.resolve(path)), Charsets.UTF_8);
+  }
+
+  private boolean isStoredLocally(Digest digest) {
+    return localStorage.findMissing(ImmutableList.of(digest)).count() == 0;
+  }
+
+  @Test
+  public void fetchedOutputsAreMaterializedFromLocalStorage() throws Exception {
+    LocalCachingContentAddressedStorage storage =
+        new LocalCachingContentAddressedStorage(remoteStorage, localStorage, 1024);
+    Digest digest = addToServer("data1");
+
+    materialize(storage, "out1", digest, false);
+    serverStorage.delete(digest);
+    materialize(storage, "dir/out2", digest, false);
+
+    assertEquals("data1", readOutput("out1"));
+    assertEquals("data1", readOutput("dir/out2"));
+  }
+
+  @Test
+  public void modifyingOutputsDoesNotModifyStoredBlobs() throws Exception {
+    LocalCachingContentAddressedStorage storage =
+        new LocalCachingContentAddressedStorage(remoteStorage, localStorage, 1024);
+    Digest digest = addToServer("data1");
+
+    materialize(storage, "out1", digest, false);
+    Files.write(workDir.resolve("out1"), "changed".getBytes(Charsets.UTF_8));
+    materialize(storage, "out2", digest, false);
+    Files.write(workDir.resolve("out2"), "changed".getBytes(Charsets.UTF_8));
+    serverStorage.delete(digest);
+    materialize(storage, "out3", digest, false);
+
+    assertEquals("data1", readOutput("out3"));
+  }
+
+  @Test
+  public void uploadedBlobsAreStoredLocally() throws Exception {
+    LocalCachingContentAddressedStorage storage =
+        new LocalCachingContentAddressedStorage(remoteStorage, localStorage, 1024);
+    byte[] bytes = "data1".getBytes(Charsets.UTF_8);
+    Digest digest = protocol.computeDigest(bytes);
+
+    UploadDataSupplier data = () -> new ByteArrayInputStream(bytes);
+    storage.addMissing(ImmutableMap.of(digest, data)).get();
+
+    assertTrue(isStoredLocally(digest));
+    assertEquals(0, serverStorage.findMissing(ImmutableList.of(digest)).count());
+  }
+
+  @Test
+  public void executableOutputsDoNotChangeTheModeOfStoredBlobs() throws Exception {
+    LocalCachingContentAddressedStorage storage =
+        new LocalCachingContentAddressedStorage(remoteStorage, localStorage, 1024);
+    Digest digest = addToServer("#!/bin/sh");
+
+    materialize(storage, "out1", digest, false);
+    materialize(storage, "tool", digest, true);
+
+    assertTrue(Files.isExecutable(workDir.resolve("tool")));
+    assertFalse(Files.isExecutable(workDir.resolve("out1")));
+  }
+
+  @Test
+  public void leastRecentlyUsedBlobsAreEvicted() throws Exception {
+    // Each blob is 5 bytes, so only two of them fit.
+    LocalCachingContentAddressedStorage storage =
+        new LocalCachingContentAddressedStorage(remoteStorage, localStorage, 10);
+    Digest digest1 = addToServer("data1");
+    Digest digest2 = addToServer("data2");
+    Digest digest3 = addToServer("data3");
+
+    materialize(storage, "out1", digest1, false);
+    materialize(storage, "out2", digest2, false);
+    materialize(storage, "out1", digest1, false);
+    materialize(storage, "out3", digest3, false);
+
+    assertTrue(isStoredLocally(digest1));
+    assertFalse(isStoredLocally(digest2));
+    assertTrue(isStoredLocally(digest3));
+    // Outputs outlive the eviction of their blobs.
+    assertEquals("data2", readOutput("out2"));
+  }
+
+  @Test
+  public void storedBlobsPersistAcrossInstances() throws Exception {
+    Digest digest = addToServer("data1");
+    materialize(
+        new LocalCachingContentAddressedStorage(remoteStorage, localStorage, 1024),
+        "out1",
+        digest,
+        false);
+    serverStorage.delete(digest);
+
+    materialize(
+        new LocalCachingContentAddressedStorage(
+            remoteStorage,
+            new LocalContentAddressedStorage(temporaryPaths.getRoot().resolve("local"), protocol),
+            1024),
+        "out2",
+        digest,
+        false);
+
+    assertEquals("data1", readOutput("out2"));
+  }
+
+  @Test
+  public void blobsBeyondMaximumSizeAreEvictedWhenOpened() throws Exception {
+    Digest digest = addToServer("data1");
+    materialize(
+        new LocalCachingContentAddressedStorage(remoteStorage, localStorage, 1024),
+        "out1",
+        digest,
+        false);
+
+    new LocalCachingContentAddressedStorage(remoteStorage, localStorage, 0);
+
+    assertFalse(isStoredLocally(digest));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.remoteexecution.Protocol;
+import com.facebook.buck.remoteexecution.Protocol.Digest;
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class KnownBlobsFilterTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+  private final Protocol protocol = new GrpcProtocol();
+
+  private Digest digest(String data) {
+    return protocol.computeDigest(data.getBytes(Charsets.UTF_8));
+  }
+
+  @Test
+  public void containsAddedDigests() {
+    KnownBlobsFilter filter = new KnownBlobsFilter(1024);
+    filter.add(digest("foo"));
+
+    assertTrue(filter.contains(digest("foo")));
+    assertFalse(filter.contains(digest("bar")));
+  }
+
+  @Test
+  public void acceptsHashesWhichAreNotHex() {
+    KnownBlobsFilter filter = new KnownBlobsFilter(1024);
+    filter.add(protocol.newDigest("myhashcode", 3));
+
+    assertTrue(filter.contains(protocol.newDigest("myhashcode", 3)));
+    assertFalse(filter.contains(protocol.newDigest("myhashcode", 4)));
+    assertFalse(filter.contains(protocol.newDigest("f", 3)));
+  }
+
+  @Test
+  public void forgetsDigestsBeyondCapacity() {
+    KnownBlobsFilter filter = new KnownBlobsFilter(2);
+    for (int i = 0; i < 100; i++) {
+      filter.add(digest("blob" + i));
+    }
+
+    int known = 0;
+    for (int i = 0; i < 100; i++) {
+      if (filter.contains(digest("blob" + i))) {
+        known++;
+      }
+    }
+    assertTrue(known <= 2);
+    assertTrue(filter.contains(digest("blob99")));
+  }
+
+  @Test
+  public void savedFilterIsLoaded() throws Exception {
+    Path path = tmp.getRoot().resolve("known/blobs");
+    KnownBlobsFilter filter = new KnownBlobsFilter(1024);
+    filter.add(digest("foo"));
+    filter.save(path);
+
+    KnownBlobsFilter loaded = KnownBlobsFilter.load(path, 1024, Long.MAX_VALUE);
+    assertTrue(loaded.contains(digest("foo")));
+    assertFalse(loaded.contains(digest("bar")));
+  }
+
+  @Test
+  public void expiredOrMismatchedFilterIsNotLoaded() throws Exception {
+    Path path = tmp.getRoot().resolve("blobs");
+    KnownBlobsFilter filter = new KnownBlobsFilter(1024);
+    filter.add(digest("foo"));
+    filter.save(path);
+
+    assertFalse(KnownBlobsFilter.load(path, 1024, -1).contains(digest("foo")));
+    assertFalse(KnownBlobsFilter.load(path, 4096, Long.MAX_VALUE).contains(digest("foo")));
+  }
+
+  @Test
+  public void corruptFilterIsNotLoaded() throws Exception {
+    Path path = tmp.getRoot().resolve("blobs");
+    Files.write(path, new byte[] {1, 2, 3});
+
+    assertFalse(KnownBlobsFilter.load(path, 1024, Long.MAX_VALUE).contains(digest("foo")));
+    assertFalse(
+        KnownBlobsFilter.load(tmp.getRoot().resolve("missing"), 1024, Long.MAX_VALUE)
+            .contains(digest("foo")));
+  }
+}
@@ -34,6 +34,7 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
@@ -259,6 +260,36 @@ public class MerkleTreeNodeCacheTest {
     assertSame(combinedNode, nodeCache.mergeNodes(ImmutableList.of(firstNode, secondNode)));
   }
 
+  @Test
+  public void testDataOfSharedSubtreesIsReused() {
+    Path catDir = Paths.get("cat");
+    Path dogDir = Paths.get("dog");
+    Digest hash1 = protocol.computeDigest("hash1".getBytes(Charsets.UTF_8));
+    Digest hash2 = protocol.computeDigest("hash2".getBytes(Charsets.UTF_8));
+
+    MerkleTreeNodeCache nodeCache = new MerkleTreeNodeCache(protocol);
+    MerkleTreeNode catNode =
+        nodeCache.createNode(
+            ImmutableMap.of(catDir.resolve("file.1"), protocol.newFileNode(hash1, "file.1", false)),
+            ImmutableMap.of());
+    MerkleTreeNode dogNode =
+        nodeCache.createNode(
+            ImmutableMap.of(dogDir.resolve("file.2"), protocol.newFileNode(hash2, "file.2", false)),
+            ImmutableMap.of());
+    NodeData catData = nodeCache.getData(catNode);
+    assertSame(catData, nodeCache.getData(catNode));
+    Set<NodeData> catSubtreeData = Sets.newIdentityHashSet();
+    nodeCache.forAllData(catNode, catSubtreeData::add);
+
+    // The cat subtree of the merged tree is the interned subtree of catNode, so its data is reused.
+    MerkleTreeNode mergedNode = nodeCache.mergeNodes(ImmutableList.of(catNode, dogNode));
+    Set<NodeData> mergedData = Sets.newIdentityHashSet();
+    nodeCache.forAllData(mergedNode, mergedData::add);
+    catSubtreeData.remove(catData);
+    assertEquals(1, catSubtreeData.size());
+    assertTrue(mergedData.containsAll(catSubtreeData));
+  }
+
   @Test
   public void badFileNodeNameIsRejected() {
     expected.expect(IllegalStateException.class);
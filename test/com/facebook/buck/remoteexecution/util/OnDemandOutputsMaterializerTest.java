@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.remoteexecution.Protocol;
+import com.facebook.buck.remoteexecution.Protocol.Digest;
+import com.facebook.buck.remoteexecution.Protocol.OutputFile;
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class OnDemandOutputsMaterializerTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+  private final Protocol protocol = new GrpcProtocol();
+  private LocalContentAddressedStorage storage;
+  private OnDemandOutputsMaterializer materializer;
+  private Path buildRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    storage = new LocalContentAddressedStorage(tmp.newFolder("cas"), protocol);
+    materializer = new OnDemandOutputsMaterializer(storage);
+    buildRoot = tmp.newFolder("root");
+  }
+
+  private OutputFile addOutput(String path, String contents) throws Exception {
+    byte[] data = contents.getBytes(Charsets.UTF_8);
+    Digest digest = protocol.computeDigest(data);
+    Futures.getUnchecked(
+        storage.addMissing(ImmutableMap.of(digest, () -> new ByteArrayInputStream(data))));
+    return protocol.newOutputFile(Paths.get(path), digest, false);
+  }
+
+  @Test
+  public void deferredFilesAreHashedByTheirDigests() throws Exception {
+    OutputFile output = addOutput("out/file.txt", "hello world!");
+    materializer.defer(ImmutableList.of(output), buildRoot);
+
+    Path path = buildRoot.resolve("out/file.txt");
+    Path otherPath = buildRoot.resolve("out/other.txt");
+    FileHashCache fileHashCache =
+        materializer.decorateFileHashCache(
+            new FakeFileHashCache(ImmutableMap.of(otherPath, HashCode.fromInt(42))));
+
+    assertTrue(materializer.isDeferred(path));
+    assertFalse(Files.exists(path));
+    assertEquals(HashCode.fromString(output.getDigest().getHash()), fileHashCache.get(path));
+    assertEquals(output.getDigest().getSize(), fileHashCache.getSize(path));
+    assertEquals(HashCode.fromInt(42), fileHashCache.get(otherPath));
+  }
+
+  @Test
+  public void materializedFilesAreNoLongerDeferred() throws Exception {
+    materializer.defer(ImmutableList.of(addOutput("out/file.txt", "hello world!")), buildRoot);
+
+    Path path = buildRoot.resolve("out/file.txt");
+    Futures.getUnchecked(materializer.materialize(ImmutableList.of(path)));
+
+    assertFalse(materializer.isDeferred(path));
+    assertEquals("hello world!", new String(Files.readAllBytes(path), Charsets.UTF_8));
+    // Paths which aren't deferred are ignored.
+    Futures.getUnchecked(materializer.materialize(ImmutableList.of(path)));
+  }
+
+  @Test
+  public void discardedFilesAreHashedByTheDelegate() throws Exception {
+    materializer.defer(ImmutableList.of(addOutput("out/file.txt", "hello world!")), buildRoot);
+
+    Path path = buildRoot.resolve("out/file.txt");
+    FileHashCache fileHashCache =
+        materializer.decorateFileHashCache(
+            new FakeFileHashCache(ImmutableMap.of(path, HashCode.fromInt(42))));
+    materializer.discard(ImmutableList.of(path));
+
+    assertFalse(materializer.isDeferred(path));
+    assertEquals(HashCode.fromInt(42), fileHashCache.get(path));
+    Futures.getUnchecked(materializer.materialize(ImmutableList.of(path)));
+    assertFalse(Files.exists(path));
+  }
+}
@@ -41,6 +41,7 @@ import com.facebook.buck.core.sourcepath.resolver.impl.DefaultSourcePathResolver
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.rules.keys.RuleKeyDiagnostics.Result;
+import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
 import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
 import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
 import com.facebook.buck.testutil.DummyFileHashCache;
@@ -650,6 +651,51 @@ public class DefaultRuleKeyFactoryTest {
     WHITE,
   }
 
+  @Test
+  public void artifactFormatOnlyChangesRuleKeyWhenNotDefault() {
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(new TestActionGraphBuilder());
+    SourcePathResolver pathResolver = DefaultSourcePathResolver.from(ruleFinder);
+    BuildRule rule = new EmptyFakeBuildRule(BuildTargetFactory.newInstance("//cheese:peas"));
+    RuleKeyConfiguration defaultConfiguration = TestRuleKeyConfigurationFactory.create();
+
+    RuleKey defaultKey =
+        newFactoryWithConfiguration(defaultConfiguration, pathResolver, ruleFinder).build(rule);
+    RuleKey emptyFormatKey =
+        newFactoryWithConfiguration(
+                RuleKeyConfiguration.builder()
+                    .from(defaultConfiguration)
+                    .setArtifactFormat("")
+                    .build(),
+                pathResolver,
+                ruleFinder)
+            .build(rule);
+    RuleKey framedFormatKey =
+        newFactoryWithConfiguration(
+                RuleKeyConfiguration.builder()
+                    .from(defaultConfiguration)
+                    .setArtifactFormat("zstd_frames")
+                    .build(),
+                pathResolver,
+                ruleFinder)
+            .build(rule);
+
+    assertEquals(defaultKey, emptyFormatKey);
+    assertNotEquals(defaultKey, framedFormatKey);
+  }
+
+  private static DefaultRuleKeyFactory newFactoryWithConfiguration(
+      RuleKeyConfiguration configuration,
+      SourcePathResolver pathResolver,
+      SourcePathRuleFinder ruleFinder) {
+    return new DefaultRuleKeyFactory(
+        new RuleKeyFieldLoader(configuration),
+        new DummyFileHashCache(),
+        pathResolver,
+        ruleFinder,
+        new NoopRuleKeyCache<>(),
+        Optional.empty());
+  }
+
   private static class NoopRuleKeyCache<V> implements RuleKeyCache<V> {
 
     private final Map<Object, RuleKeyResult<V>> results = new MapMaker().weakKeys().makeMap();
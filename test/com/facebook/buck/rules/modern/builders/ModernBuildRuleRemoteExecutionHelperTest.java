@@ -36,6 +36,8 @@ import com.facebook.buck.event.DefaultBuckEventBus;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
+import com.facebook.buck.remoteexecution.util.OnDemandOutputsMaterializer;
 import com.facebook.buck.rules.modern.BuildCellRelativePathFactory;
 import com.facebook.buck.rules.modern.Buildable;
 import com.facebook.buck.rules.modern.ModernBuildRule;
@@ -83,7 +85,10 @@ public class ModernBuildRuleRemoteExecutionHelperTest {
             root,
             ImmutableSet.of(Optional.empty()),
             tmp.getRoot(),
-            path -> HashCode.fromInt(0));
+            path -> HashCode.fromInt(0),
+            new OnDemandOutputsMaterializer(
+                new LocalContentAddressedStorage(
+                    tmp.getRoot().resolve("cas"), new GrpcProtocol())));
   }
 
   public static class SimpleBuildable implements Buildable {
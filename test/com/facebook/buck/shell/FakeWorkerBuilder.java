@@ -71,6 +71,11 @@ public class FakeWorkerBuilder
       return 0;
     }
 
+    @Override
+    public int getMaxInFlightRequests() {
+      return 1;
+    }
+
     @Override
     public boolean isPersistent() {
       return false;
@@ -120,6 +120,7 @@ public class WorkerShellStepTest {
             startupCommand,
             startupEnv,
             maxWorkers,
+            1,
             persistentWorkerKey == null || workerHash == null
                 ? Optional.empty()
                 : Optional.of(WorkerProcessIdentity.of(persistentWorkerKey, workerHash))));
@@ -420,7 +421,10 @@ public class WorkerShellStepTest {
             new WorkerProcessPoolFactory(new FakeProjectFilesystem()) {
               @Override
               public WorkerProcess createWorkerProcess(
-                  ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir)
+                  ProcessExecutorParams processParams,
+                  ExecutionContext context,
+                  Path tmpDir,
+                  boolean multiplexed)
                   throws IOException {
                 try {
                   sleep(5);
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.io.filesystem.skylark.SkylarkFilesystem;
+import com.facebook.buck.skylark.io.Globber;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryListingCacheTest {
+  private Path root;
+  private DirectoryListingCache cache;
+  private Globber globber;
+
+  @Before
+  public void setUp() {
+    ProjectFilesystem projectFilesystem = FakeProjectFilesystem.createRealTempFilesystem();
+    SkylarkFilesystem fileSystem = SkylarkFilesystem.using(projectFilesystem);
+    root = fileSystem.getPath(projectFilesystem.getRootPath().toString());
+    cache =
+        new DirectoryListingCache(
+            projectFilesystem.getRootPath(), path -> path.startsWith("ignored"));
+    globber = NativeGlobber.create(root, cache);
+  }
+
+  @Test
+  public void globResultsAreCachedUntilInvalidated() throws Exception {
+    Path child = root.getChild("child");
+    child.createDirectory();
+    FileSystemUtils.createEmptyFile(child.getChild("foo.txt"));
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("child/foo.txt")));
+
+    FileSystemUtils.createEmptyFile(child.getChild("bar.txt"));
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("child/foo.txt")));
+
+    cache.invalidatePath(Paths.get(child.getChild("bar.txt").getPathString()), true);
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("child/bar.txt", "child/foo.txt")));
+  }
+
+  @Test
+  public void creatingFileInNewDirectoriesInvalidatesTheirAncestors() throws Exception {
+    Path dir = root.getChild("dir");
+    dir.createDirectory();
+    FileSystemUtils.createEmptyFile(dir.getChild("foo.txt"));
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("dir/foo.txt")));
+
+    // Like Watchman, only report the file, not the directories created for it.
+    Path newFile = dir.getChild("new").getChild("child").getChild("bar.txt");
+    newFile.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.createEmptyFile(newFile);
+    cache.invalidatePath(Paths.get(newFile.getPathString()), true);
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("dir/foo.txt", "dir/new/child/bar.txt")));
+  }
+
+  @Test
+  public void deletingLastFileOfDirectoryInvalidatesItsAncestors() throws Exception {
+    Path child = root.getChild("dir").getChild("child");
+    child.createDirectoryAndParents();
+    FileSystemUtils.createEmptyFile(child.getChild("foo.txt"));
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("dir/child/foo.txt")));
+
+    // Like Watchman, only report the file, not the directories deleted with it.
+    child.getChild("foo.txt").delete();
+    child.delete();
+    root.getChild("dir").delete();
+    cache.invalidatePath(Paths.get(child.getChild("foo.txt").getPathString()), true);
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of()));
+  }
+
+  @Test
+  public void modifyingFileKeepsListings() throws Exception {
+    Path child = root.getChild("child");
+    child.createDirectory();
+    FileSystemUtils.createEmptyFile(child.getChild("foo.txt"));
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("child/foo.txt")));
+
+    FileSystemUtils.createEmptyFile(child.getChild("bar.txt"));
+    cache.invalidatePath(Paths.get(child.getChild("foo.txt").getPathString()), false);
+    assertThat(
+        globber.run(Collections.singleton("**/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("child/foo.txt")));
+  }
+
+  @Test
+  public void ignoredPathsAreNotCached() throws Exception {
+    Path ignored = root.getChild("ignored");
+    ignored.createDirectory();
+    FileSystemUtils.createEmptyFile(ignored.getChild("foo.txt"));
+    assertThat(
+        globber.run(Collections.singleton("ignored/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("ignored/foo.txt")));
+
+    FileSystemUtils.createEmptyFile(ignored.getChild("bar.txt"));
+    assertThat(
+        globber.run(Collections.singleton("ignored/*.txt"), Collections.emptySet(), false),
+        equalTo(ImmutableSet.of("ignored/bar.txt", "ignored/foo.txt")));
+  }
+}
@@ -116,6 +116,13 @@ public class SkylarkProjectBuildFileParserTest {
 
   private SkylarkProjectBuildFileParser createParserWithOptions(
       EventHandler eventHandler, ProjectBuildFileParserOptions options) {
+    return createParserWithOptions(eventHandler, options, new SkylarkExtensionCache());
+  }
+
+  private SkylarkProjectBuildFileParser createParserWithOptions(
+      EventHandler eventHandler,
+      ProjectBuildFileParserOptions options,
+      SkylarkExtensionCache extensionCache) {
     return SkylarkProjectBuildFileParser.using(
         options,
         BuckEventBusForTests.newInstance(),
@@ -126,7 +133,8 @@ public class SkylarkProjectBuildFileParserTest {
             .setDisableImplicitNativeRules(options.getDisableImplicitNativeRules())
             .build(),
         eventHandler,
-        NativeGlobber::create);
+        NativeGlobber::create,
+        extensionCache);
   }
 
   private SkylarkProjectBuildFileParser createParser(EventHandler eventHandler) {
@@ -559,6 +567,31 @@ public class SkylarkProjectBuildFileParserTest {
     assertTrue(parser.getBuildFileManifest(buildFile).getTargets().isEmpty());
   }
 
+  @Test
+  public void extensionsAreSharedByParsersUntilInvalidated() throws Exception {
+    Path buildFile = projectFilesystem.resolve("BUCK");
+    Files.write(
+        buildFile,
+        Arrays.asList(
+            "load('//:ext.bzl', 'get_name')", "prebuilt_jar(name='foo', binary_jar=get_name())"));
+    Path extensionFile = projectFilesystem.resolve("ext.bzl");
+    Files.write(extensionFile, Arrays.asList("def get_name():", "  return 'foo.jar'"));
+
+    SkylarkExtensionCache extensionCache = new SkylarkExtensionCache();
+    ProjectBuildFileParserOptions options = getDefaultParserOptions().build();
+    EventHandler eventHandler = new PrintingEventHandler(EventKind.ALL_EVENTS);
+    parser = createParserWithOptions(eventHandler, options, extensionCache);
+    assertThat(getSingleRule(buildFile).get("binaryJar"), equalTo("foo.jar"));
+
+    // Another parser of the same cell uses the extension which has already been loaded.
+    Files.write(extensionFile, Arrays.asList("def get_name():", "  return 'bar.jar'"));
+    parser = createParserWithOptions(eventHandler, options, extensionCache);
+    assertThat(getSingleRule(buildFile).get("binaryJar"), equalTo("foo.jar"));
+
+    extensionCache.invalidatePath(extensionFile);
+    assertThat(getSingleRule(buildFile).get("binaryJar"), equalTo("bar.jar"));
+  }
+
   @Test
   public void packageNameFunctionInExtensionUsesBuildFilePackage() throws Exception {
     Path buildFileDirectory = projectFilesystem.resolve("test");
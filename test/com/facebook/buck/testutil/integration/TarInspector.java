@@ -16,6 +16,7 @@
 
 package com.facebook.buck.testutil.integration;
 
+import com.facebook.buck.util.zstd.ZstdFramesInputStream;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
@@ -66,6 +67,9 @@ public class TarInspector {
   private static TarArchiveInputStream getArchiveInputStream(
       Optional<String> compressorType, Path tar) throws IOException, CompressorException {
     BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(tar));
+    if (compressorType.equals(Optional.of(CompressorStreamFactory.ZSTANDARD))) {
+      return new TarArchiveInputStream(new ZstdFramesInputStream(inputStream));
+    }
     if (compressorType.isPresent()) {
       return new TarArchiveInputStream(
           new CompressorStreamFactory()
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class BserStreamingDeserializerTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  // The smallest buffer there can be, so that values are read in many pieces.
+  private final BserStreamingDeserializer deserializer = new BserStreamingDeserializer(11);
+
+  private static InputStream getByteStream(String base16) {
+    return new ByteArrayInputStream(BaseEncoding.base16().decode(base16));
+  }
+
+  private static InputStream serialize(Object... values) throws IOException {
+    BserSerializer serializer = new BserSerializer();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (Object value : values) {
+      serializer.serializeToStream(value, bytes);
+    }
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  @Nullable
+  private Object deserialize(InputStream inputStream) throws IOException {
+    BserValueBuilder builder = new BserValueBuilder();
+    deserializer.deserialize(inputStream, builder);
+    return builder.getValue();
+  }
+
+  @Test
+  public void deserializeNestedValues() throws IOException {
+    Object value =
+        ImmutableMap.of(
+            "version",
+            "4.9.0",
+            "files",
+            ImmutableList.of(
+                ImmutableMap.of("name", "foo/bar", "exists", true, "size", 1234L),
+                ImmutableMap.of("name", "café", "exists", false, "mtime", 1.5)),
+            "big",
+            Long.MAX_VALUE,
+            "small",
+            -3L);
+    assertThat(deserialize(serialize(value)), equalTo(value));
+  }
+
+  @Test
+  public void deserializeTemplate() throws IOException {
+    Object deserialized =
+        deserialize(
+            getByteStream(
+                "000103280B0003020203046E616D6502030361676503030203046672656403140203"
+                    + "0470657465031E0C0319"));
+    assertThat(
+        deserialized,
+        equalTo(
+            ImmutableList.of(
+                ImmutableMap.of("name", "fred", "age", 20L),
+                ImmutableMap.of("name", "pete", "age", 30L),
+                ImmutableMap.of("age", 25L))));
+  }
+
+  @Test
+  public void deserializeStringLongerThanBuffer() throws IOException {
+    String value = Strings.repeat("abcdefghij", 100);
+    assertThat(deserialize(serialize(value)), equalTo(value));
+  }
+
+  @Test
+  public void skippedValuesAreConsumed() throws IOException {
+    InputStream inputStream =
+        serialize(
+            ImmutableMap.of("skipped", ImmutableList.of("a", ImmutableMap.of("b", 1L)), "c", 2L),
+            "next");
+    List<String> keys = new ArrayList<>();
+    deserializer.deserialize(
+        inputStream,
+        new BserValueVisitor() {
+          @Override
+          public BserObjectVisitor visitObject(int size) {
+            return key -> {
+              keys.add(key);
+              return null;
+            };
+          }
+        });
+    assertThat(keys, equalTo(Arrays.asList("skipped", "c")));
+    assertThat(deserialize(inputStream), equalTo("next"));
+  }
+
+  @Test
+  public void replayVisitsValuesLikeTheDeserializer() throws IOException {
+    Object value =
+        ImmutableMap.of(
+            "list", ImmutableList.of(1L, "two", 3.0, false), "map", ImmutableMap.of("a", "b"));
+    BserValueBuilder builder = new BserValueBuilder();
+    BserValueVisitor.replay(value, builder);
+    assertThat(builder.getValue(), equalTo(deserialize(serialize(value))));
+  }
+
+  @Test
+  public void throwIfInvalidHeader() throws IOException {
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Invalid BSER header");
+    deserialize(getByteStream("0002030000"));
+  }
+
+  @Test
+  public void throwIfRemainingLengthTooShort() throws IOException {
+    thrown.expect(BserDeserializer.BserEofException.class);
+    deserialize(getByteStream("0001030E02030B68656C6C6F"));
+  }
+
+  @Test
+  public void throwIfStringNotUTF8() throws IOException {
+    thrown.expect(CharacterCodingException.class);
+    deserialize(getByteStream("00010305020302FFFE"));
+  }
+
+  @Test
+  public void throwIfMapKeyNotString() throws IOException {
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Unrecognized BSER object key type 3, expected string");
+    deserialize(getByteStream("0001030701030103030323"));
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashStoreTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path storePath;
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    storePath = tmp.getRoot().resolve("buck-out").resolve(PersistentFileHashStore.FILE_NAME);
+    file = tmp.newFile("file");
+    Files.write(file, "contents".getBytes());
+    makeOld(file);
+  }
+
+  @Test
+  public void storedHashesSurviveReopening() throws IOException {
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      store.put(Paths.get("file"), attributes(file), HashCode.fromInt(42));
+    }
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      assertEquals(HashCode.fromInt(42), store.get(Paths.get("file"), attributes(file)));
+    }
+  }
+
+  @Test
+  public void hashIsNotReturnedAfterFileChanges() throws IOException {
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      store.put(Paths.get("file"), attributes(file), HashCode.fromInt(42));
+    }
+    Files.write(file, "other contents".getBytes());
+    makeOld(file);
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      assertNull(store.get(Paths.get("file"), attributes(file)));
+    }
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotStored() throws IOException {
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      store.put(Paths.get("file"), attributes(file), HashCode.fromInt(42));
+      assertNull(store.get(Paths.get("file"), attributes(file)));
+    }
+  }
+
+  @Test
+  public void storedJarContentsSurviveReopening() throws IOException {
+    ImmutableMap<String, HashCode> contents =
+        ImmutableMap.of("a/A.class", HashCode.fromInt(1), "b/B.class", HashCode.fromInt(2));
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      store.put(Paths.get("file"), attributes(file), HashCode.fromInt(42));
+      store.putJarContents(Paths.get("file"), attributes(file), contents);
+    }
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      assertEquals(HashCode.fromInt(42), store.get(Paths.get("file"), attributes(file)));
+      assertEquals(contents, store.getJarContents(Paths.get("file"), attributes(file)));
+    }
+    Files.write(file, "other contents".getBytes());
+    makeOld(file);
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      assertNull(store.getJarContents(Paths.get("file"), attributes(file)));
+    }
+  }
+
+  @Test
+  public void storeInUseIsOpenedReadOnly() throws IOException {
+    try (PersistentFileHashStore writer = PersistentFileHashStore.open(storePath)) {
+      writer.put(Paths.get("file"), attributes(file), HashCode.fromInt(42));
+      try (PersistentFileHashStore reader = PersistentFileHashStore.open(storePath)) {
+        assertEquals(HashCode.fromInt(42), reader.get(Paths.get("file"), attributes(file)));
+        reader.put(Paths.get("file"), attributes(file), HashCode.fromInt(43));
+      }
+    }
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      assertEquals(HashCode.fromInt(42), store.get(Paths.get("file"), attributes(file)));
+    }
+  }
+
+  @Test
+  public void truncatedStoreKeepsCompleteRecords() throws IOException {
+    Path other = tmp.newFile("other");
+    makeOld(other);
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      store.put(Paths.get("file"), attributes(file), HashCode.fromInt(42));
+      store.put(Paths.get("other"), attributes(other), HashCode.fromInt(43));
+    }
+    byte[] contents = Files.readAllBytes(storePath);
+    Files.write(storePath, Arrays.copyOf(contents, contents.length - 3));
+    try (PersistentFileHashStore store = PersistentFileHashStore.open(storePath)) {
+      assertEquals(1, store.size());
+    }
+  }
+
+  @Test
+  public void watchedCacheUsesStoredHashes() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path store =
+        filesystem.resolve(
+            filesystem.getBuckPaths().getBuckOut().resolve(PersistentFileHashStore.FILE_NAME));
+    try (PersistentFileHashStore previous = PersistentFileHashStore.open(store)) {
+      previous.put(Paths.get("file"), attributes(file), HashCode.fromInt(42));
+    }
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(filesystem, FileHashCacheMode.PERSISTENT_PREFIX_TREE);
+    try {
+      assertEquals(HashCode.fromInt(42), cache.get(Paths.get("file")));
+    } finally {
+      cache.closePersistentStore();
+    }
+  }
+
+  @Test
+  public void watchedCacheStoresComputedHashes() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(filesystem, FileHashCacheMode.PERSISTENT_PREFIX_TREE);
+    HashCode expected;
+    try {
+      expected = cache.get(Paths.get("file"));
+    } finally {
+      cache.closePersistentStore();
+    }
+    Path store =
+        filesystem.resolve(
+            filesystem.getBuckPaths().getBuckOut().resolve(PersistentFileHashStore.FILE_NAME));
+    try (PersistentFileHashStore reopened = PersistentFileHashStore.open(store)) {
+      assertEquals(expected, reopened.get(Paths.get("file"), attributes(file)));
+    }
+  }
+
+  private static BasicFileAttributes attributes(Path path) throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class);
+  }
+
+  private static void makeOld(Path path) throws IOException {
+    Files.setLastModifiedTime(
+        path, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1)));
+  }
+}
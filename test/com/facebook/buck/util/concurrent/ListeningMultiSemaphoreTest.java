@@ -206,6 +206,31 @@ public class ListeningMultiSemaphoreTest {
     return new ListeningMultiSemaphore(values, ResourceAllocationFairness.FAIR);
   }
 
+  @Test
+  public void testPendingItemsWithHigherPriorityAcquireFirst() {
+    ListeningMultiSemaphore array = getFairListeningMultiSemaphore(amountsOfCpu(1));
+
+    ListenableFuture<Void> running = array.acquire(amountsOfCpu(1));
+    ListenableFuture<Void> low = array.acquire(amountsOfCpu(1), 1);
+    ListenableFuture<Void> firstHigh = array.acquire(amountsOfCpu(1), 10);
+    ListenableFuture<Void> secondHigh = array.acquire(amountsOfCpu(1), 10);
+    assertThat(running.isDone(), Matchers.equalTo(true));
+    assertThat(array.getQueueLength(), Matchers.equalTo(3));
+
+    array.release(amountsOfCpu(1));
+    assertThat(firstHigh.isDone(), Matchers.equalTo(true));
+    assertThat(secondHigh.isDone(), Matchers.equalTo(false));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    array.release(amountsOfCpu(1));
+    assertThat(secondHigh.isDone(), Matchers.equalTo(true));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    array.release(amountsOfCpu(1));
+    assertThat(low.isDone(), Matchers.equalTo(true));
+    assertThat(array.getQueueLength(), Matchers.equalTo(0));
+  }
+
   private static ResourceAmounts amountsOfCpu(int cpu) {
     return amountsOfCpuAndMemory(cpu, 0);
   }
@@ -28,6 +28,7 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -36,8 +37,11 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.time.Instant;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.hamcrest.Matchers;
@@ -322,6 +326,72 @@ public class UntarTest {
     assertExecutable(expectedPaths.subList(1, expectedPaths.size()), false);
   }
 
+  @Test
+  public void extractsFilesFromStream() throws IOException {
+    ImmutableList<Path> expectedPaths =
+        ImmutableList.of(
+            Paths.get("root", "echo.sh"),
+            Paths.get("root", "alternative", "Main.java"),
+            Paths.get("root", "alternative", "Link.java"),
+            Paths.get("root", "src", "com", "facebook", "buck", "Main.java"),
+            Paths.get("root_sibling", "Other.java"));
+
+    byte[] archive = Files.readAllBytes(getTestFilePath(ArchiveFormat.TAR_GZ.getExtension()));
+    AtomicBoolean closed = new AtomicBoolean(false);
+    ByteArrayInputStream archiveStream =
+        new ByteArrayInputStream(archive) {
+          @Override
+          public void close() {
+            closed.set(true);
+          }
+        };
+    ImmutableSet<Path> unarchivedFiles =
+        Untar.gzipUnarchiver()
+            .extractArchive(
+                archiveStream, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+
+    Assert.assertThat(unarchivedFiles, Matchers.containsInAnyOrder(expectedPaths.toArray()));
+    assertOutputFileExists(expectedPaths.get(0), echoDotSh);
+    assertOutputFileExists(expectedPaths.get(3), mainDotJava);
+    assertOutputFileExists(expectedPaths.get(4), otherDotJava);
+    assertModifiedTime(expectedPaths);
+    // The whole stream is consumed, but closing it is left to the caller.
+    Assert.assertEquals(0, archiveStream.available());
+    Assert.assertFalse(closed.get());
+  }
+
+  @Test
+  public void reportsFilesBeforeWritingThemWhenStreamIsTruncated() throws IOException {
+    ImmutableList<Path> expectedPaths =
+        ImmutableList.of(
+            Paths.get("root", "echo.sh"),
+            Paths.get("root", "alternative", "Main.java"),
+            Paths.get("root", "alternative", "Link.java"),
+            Paths.get("root", "src", "com", "facebook", "buck", "Main.java"),
+            Paths.get("root_sibling", "Other.java"));
+
+    byte[] archive = Files.readAllBytes(getTestFilePath(ArchiveFormat.TAR_GZ.getExtension()));
+    Set<Path> reportedPaths = new HashSet<>();
+    try {
+      Untar.gzipUnarchiver()
+          .extractArchive(
+              new ByteArrayInputStream(archive, 0, archive.length / 2),
+              filesystem,
+              ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+              reportedPaths::add);
+      Assert.fail("Extracting a truncated archive should fail.");
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    Assert.assertFalse(reportedPaths.isEmpty());
+    for (Path path : expectedPaths) {
+      if (filesystem.exists(path)) {
+        Assert.assertThat(reportedPaths, Matchers.hasItem(path));
+      }
+    }
+  }
+
   @Test
   public void extractsFilesWithStrippedPrefix() throws IOException {
     ArchiveFormat format = ArchiveFormat.TAR;
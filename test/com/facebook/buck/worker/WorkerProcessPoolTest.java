@@ -370,6 +370,36 @@ public class WorkerProcessPoolTest {
     worker.close();
   }
 
+  @Test(timeout = WAIT_FOR_TEST_THREADS_TIMEOUT)
+  public void testHandsOutEachWorkerAsOftenAsItAcceptsRequestsInFlight() throws Exception {
+    int maxWorkers = 2;
+    int maxInFlightRequests = 3;
+    Set<WorkerProcess> createdWorkers = concurrentSet();
+    WorkerProcessPool pool =
+        new WorkerProcessPool(
+            maxWorkers,
+            maxInFlightRequests,
+            Hashing.sha1().hashLong(0),
+            () -> {
+              FakeWorkerProcess worker = new FakeWorkerProcess(ImmutableMap.of());
+              worker.ensureLaunchAndHandshake();
+              createdWorkers.add(worker);
+              return worker;
+            });
+
+    Set<BorrowedWorkerProcess> borrowed = new HashSet<>();
+    for (int i = 0; i < maxWorkers * maxInFlightRequests; i++) {
+      BorrowedWorkerProcess worker = pool.borrowWorkerProcess();
+      worker.get();
+      borrowed.add(worker);
+    }
+    assertThat(createdWorkers.size(), is(maxWorkers));
+    assertThat(pool.borrowWorkerProcess(1, TimeUnit.MILLISECONDS).isPresent(), is(false));
+
+    borrowed.forEach(BorrowedWorkerProcess::close);
+    pool.close();
+  }
+
   private static WorkerProcessPool createPool(
       int maxWorkers, ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
     return new WorkerProcessPool(
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class WorkerProcessProtocolOneTest {
+
+  private static final String HANDSHAKE =
+      "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"1\",\"capabilities\":[]}";
+
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+  @Rule public ExpectedException expectedException = ExpectedException.none();
+
+  @Test
+  public void testHandshakeAnnouncesVersionOne() throws IOException {
+    ByteArrayOutputStream jsonSentToWorkerProcess = new ByteArrayOutputStream();
+    WorkerProcessProtocol.CommandSender protocol =
+        createSender(jsonSentToWorkerProcess, inputStream(HANDSHAKE), () -> {});
+
+    protocol.handshake(0);
+    assertThat(jsonSentToWorkerProcess.toString(), Matchers.containsString(HANDSHAKE));
+  }
+
+  @Test
+  public void testHandshakeRejectsVersionZero() throws IOException {
+    expectedException.expect(HumanReadableException.class);
+    expectedException.expectMessage("protocol_version");
+
+    WorkerProcessProtocol.CommandSender protocol =
+        createSender(
+            new ByteArrayOutputStream(),
+            inputStream(HANDSHAKE.replace("\"1\"", "\"0\"")),
+            () -> {});
+    protocol.handshake(0);
+  }
+
+  @Test
+  public void testReceivesResponsesInAnyOrder() throws IOException {
+    WorkerProcessProtocol.MultiplexedCommandSender protocol =
+        createSender(
+            new ByteArrayOutputStream(),
+            inputStream(
+                HANDSHAKE
+                    + ",{\"id\":2,\"type\":\"result\",\"exit_code\":0}"
+                    + ",{\"id\":1,\"type\":\"result\",\"exit_code\":3}"
+                    + "]"),
+            () -> {});
+
+    protocol.handshake(0);
+    protocol.send(1, command(1));
+    protocol.send(2, command(2));
+    assertEquals(
+        Optional.of(WorkerProcessResponse.of(2, 0)), protocol.receiveNextCommandResponse());
+    assertEquals(
+        Optional.of(WorkerProcessResponse.of(1, 3)), protocol.receiveNextCommandResponse());
+    assertEquals(Optional.empty(), protocol.receiveNextCommandResponse());
+  }
+
+  @Test
+  public void testReceiveCommandResponseChecksId() throws IOException {
+    expectedException.expect(HumanReadableException.class);
+    expectedException.expectMessage("Expected response's \"id\" value to be \"1\"");
+
+    WorkerProcessProtocol.CommandSender protocol =
+        createSender(
+            new ByteArrayOutputStream(),
+            inputStream(HANDSHAKE + ",{\"id\":2,\"type\":\"result\",\"exit_code\":0}"),
+            () -> {});
+    protocol.handshake(0);
+    protocol.receiveCommandResponse(1);
+  }
+
+  @Test
+  public void testCloseEndsArraysAndRunsOnClose() throws IOException {
+    ByteArrayOutputStream jsonSentToWorkerProcess = new ByteArrayOutputStream();
+    AtomicBoolean closed = new AtomicBoolean(false);
+    WorkerProcessProtocol.MultiplexedCommandSender protocol =
+        createSender(
+            jsonSentToWorkerProcess,
+            inputStream(HANDSHAKE + ",{\"id\":1,\"type\":\"result\",\"exit_code\":0}]"),
+            () -> closed.set(true));
+
+    protocol.handshake(0);
+    protocol.send(1, command(1));
+    assertTrue(protocol.receiveNextCommandResponse().isPresent());
+    assertFalse(closed.get());
+    protocol.close();
+    assertTrue(closed.get());
+    assertTrue(jsonSentToWorkerProcess.toString().endsWith("]"));
+  }
+
+  private WorkerProcessProtocolOne.CommandSender createSender(
+      ByteArrayOutputStream processStdin, InputStream processStdout, Runnable onClose)
+      throws IOException {
+    return new WorkerProcessProtocolOne.CommandSender(
+        processStdin, processStdout, temporaryPaths.newFile(), onClose, () -> true);
+  }
+
+  private static WorkerProcessCommand command(int id) {
+    return WorkerProcessCommand.of(
+        Paths.get(id + ".args"), Paths.get(id + ".out"), Paths.get(id + ".err"));
+  }
+
+  private static ByteArrayInputStream inputStream(String string) {
+    return new ByteArrayInputStream(string.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -33,12 +33,16 @@ import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultProcessExecutor;
+import com.facebook.buck.util.FakeProcess;
 import com.facebook.buck.util.FakeProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -106,6 +110,34 @@ public class WorkerProcessTest {
     }
   }
 
+  @Test(timeout = 20 * 1000)
+  public void testMultiplexedProcessIsNotAliveOnceResponsesCanNoLongerBeRead()
+      throws IOException, InterruptedException {
+    // The process closes its output right after the handshake, while it keeps running.
+    FakeProcess fakeProcess =
+        new FakeProcess(
+            0,
+            new ByteArrayOutputStream(),
+            new ByteArrayInputStream(
+                "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"1\",\"capabilities\":[]}]"
+                    .getBytes(StandardCharsets.UTF_8)),
+            new ByteArrayInputStream(new byte[0]));
+    Console console = new Console(Verbosity.ALL, System.out, System.err, Ansi.withoutTty());
+
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(params -> fakeProcess, console),
+            createDummyParams(),
+            new FakeProjectFilesystem(),
+            temporaryPaths.newFolder(),
+            true)) {
+      process.ensureLaunchAndHandshake();
+      while (process.isAlive()) {
+        Thread.sleep(10);
+      }
+    }
+  }
+
   @Test(timeout = 20 * 1000)
   public void testDoesNotBlockOnLargeStderr() throws IOException {
     ProjectWorkspace workspace =